@@ -0,0 +1,498 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import androidx.webkit.WebViewAssetLoader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the kiosk's own UI from a {@link ShellBundle} at {@link #HOME_URL},
+ * a virtual https origin answered by {@link WebViewAssetLoader}, so the shell
+ * paints without any network. The bundle comes from {@code assets/shell.zip}
+ * in the APK, or from a newer one installed from {@link #KEY_BUNDLE_URL}
+ * (https or a side-loaded file:// path only). The bundle becomes a home
+ * origin with access to the native bridge, so it is never installed without
+ * a matching {@link #KEY_BUNDLE_SHA256}. A failed install is retried with
+ * backoff rather than on every config change. An installed bundle is verified,
+ * indexed, then made current by renaming a pointer file and swapping one
+ * volatile reference; requests already being answered finish from the old
+ * mapping. Lookups run on WebView's IO threads.
+ */
+public class AppShell {
+
+    public interface Listener {
+        /** A new bundle is being served; called on the main thread. */
+        void onBundleChanged(String version);
+    }
+
+    // Config keys
+    public static final String KEY_ENABLED = "shell_enabled";
+    public static final String KEY_BUNDLE_URL = "shell_bundle_url";
+    public static final String KEY_BUNDLE_SHA256 = "shell_bundle_sha256";
+
+    public static final String DOMAIN = WebViewAssetLoader.DEFAULT_DOMAIN;
+    public static final String ORIGIN = "https://" + DOMAIN;
+    public static final String HOME_URL = ORIGIN + "/shell/index.html";
+
+    private static final String TAG = "KioskShell";
+    private static final String PATH_PREFIX = "/shell/";
+    private static final String APK_BUNDLE = "shell.zip";
+    private static final String CURRENT = "current";
+    private static final String BUNDLE_PREFIX = "bundle-";
+    private static final String BUNDLE_SUFFIX = ".zip";
+    // The current bundle and the one before it are kept
+    private static final int KEEP_BUNDLES = 2;
+    // Requests made before the first bundle is mapped wait at most this long
+    private static final long READY_TIMEOUT_MS = 3000;
+    private static final int TIMEOUT_MS = 20000;
+    private static final long RETRY_BASE_MS = 60 * 1000;
+    private static final long RETRY_MAX_MS = 6 * 60 * 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] UNAVAILABLE_HTML = ("<html><body style=\"font-family:sans-serif;"
+            + "text-align:center;padding-top:20%\"><h2>No app shell installed</h2>"
+            + "</body></html>").getBytes(UTF_8);
+
+    private final Context context;
+    private final File dir;
+    private final Handler mainHandler;
+    private final ScheduledExecutorService installer;
+    private final WebViewAssetLoader assetLoader;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile ShellBundle bundle;
+    private volatile Listener listener;
+    private volatile boolean enabled = false;
+
+    // Stats
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong swaps = new AtomicLong();
+    private final AtomicLong installFailures = new AtomicLong();
+    private final LatencyHistogram lookupNs = new LatencyHistogram();
+
+    // Installer thread; the URL and checksum being installed, and its pending retry
+    private String target;
+    private int attempts = 0;
+    private ScheduledFuture<?> retry;
+
+    public AppShell(Context context, File dir, Handler mainHandler) {
+        this.context = context.getApplicationContext();
+        this.dir = dir;
+        this.mainHandler = mainHandler;
+        this.installer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-shell");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.assetLoader = new WebViewAssetLoader.Builder()
+                .setDomain(DOMAIN)
+                .addPathHandler(PATH_PREFIX, new WebViewAssetLoader.PathHandler() {
+                    @Override
+                    public WebResourceResponse handle(String path) {
+                        return serve(path);
+                    }
+                })
+                .build();
+        installer.execute(new Runnable() {
+            @Override
+            public void run() {
+                long t = StartupTrace.begin("shell_bundle_open");
+                bundle = openCurrent();
+                StartupTrace.end("shell_bundle_open", t);
+                ready.countDown();
+                if (bundle != null) {
+                    Log.i(TAG, "Serving shell " + bundle.getVersion() + " ("
+                            + bundle.getFileCount() + " files)");
+                }
+            }
+        });
+    }
+
+    public void applyConfig(KioskConfig config) {
+        enabled = config.getBoolean(KEY_ENABLED, false);
+        final String url = config.getString(KEY_BUNDLE_URL, "").trim();
+        final String sha256 = config.getString(KEY_BUNDLE_SHA256, "").trim()
+                .toLowerCase(Locale.US);
+        if (url.isEmpty()) {
+            return;
+        }
+        String scheme = url.toLowerCase(Locale.US);
+        if (!scheme.startsWith("https://") && !scheme.startsWith("file://")) {
+            Log.w(TAG, "Ignoring shell bundle URL, only https and file are allowed: " + url);
+            return;
+        }
+        if (!sha256.matches("[0-9a-f]{64}")) {
+            Log.w(TAG, "Ignoring shell bundle without a valid " + KEY_BUNDLE_SHA256);
+            return;
+        }
+        installer.execute(new Runnable() {
+            @Override
+            public void run() {
+                requestInstall(url, sha256);
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Whether the configured home is the shell rather than the web URL. */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Answers requests for the shell origin, or returns null for every other
+     * URL. Never lets a shell request reach the network. WebView IO threads.
+     */
+    public WebResourceResponse intercept(WebResourceRequest request) {
+        Uri url = request.getUrl();
+        if (!DOMAIN.equals(url.getHost())) {
+            return null;
+        }
+        if (bundle == null) {
+            try {
+                ready.await(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        WebResourceResponse response = assetLoader.shouldInterceptRequest(url);
+        if (response == null) {
+            notFound.incrementAndGet();
+            response = new WebResourceResponse("text/plain", "utf-8", 404, "Not Found",
+                    Collections.<String, String>emptyMap(), new ByteArrayInputStream(new byte[0]));
+        }
+        return response;
+    }
+
+    // Path below /shell/, already decoded by the asset loader
+    private WebResourceResponse serve(String path) {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+        ShellBundle current = bundle;
+        if (current == null) {
+            return new WebResourceResponse("text/html", "utf-8", 503, "Service Unavailable",
+                    Collections.<String, String>emptyMap(),
+                    new ByteArrayInputStream(UNAVAILABLE_HTML));
+        }
+        ShellBundle.Entry entry = current.find(path);
+        if (entry == null) {
+            return null;
+        }
+        InputStream body = current.open(entry);
+        bytesServed.addAndGet(entry.size);
+        lookupNs.record(System.nanoTime() - start);
+        return new WebResourceResponse(entry.mimeType, entry.encoding, 200, "OK", entry.headers,
+                body);
+    }
+
+    public String getVersion() {
+        ShellBundle current = bundle;
+        return current != null ? current.getVersion() : "";
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getNotFoundCount() {
+        return notFound.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getSwapCount() {
+        return swaps.get();
+    }
+
+    public long getInstallFailureCount() {
+        return installFailures.get();
+    }
+
+    /** Time to find a file and set up its response, in ns. */
+    public LatencyHistogram getLookupHistogram() {
+        return lookupNs;
+    }
+
+    public String statsSummary() {
+        ShellBundle current = bundle;
+        return "version=" + (current != null ? current.getVersion() : "none")
+                + " requests=" + requests.get() + " notFound=" + notFound.get()
+                + " served=" + (bytesServed.get() / 1024) + "KB" + " swaps=" + swaps.get()
+                + " installFailures=" + installFailures.get()
+                + " lookupP50=" + lookupNs.percentile(50) + "ns"
+                + " lookupP99=" + lookupNs.percentile(99) + "ns";
+    }
+
+    // Installer thread from here on
+
+    // The installed bundle named by the pointer file, else the one in the APK
+    private ShellBundle openCurrent() {
+        Properties pointer = readPointer();
+        if (pointer != null) {
+            File file = new File(dir, pointer.getProperty("file", ""));
+            try {
+                return ShellBundle.open(map(file), file.getName(), pointer.getProperty("sha256"));
+            } catch (IOException e) {
+                Log.w(TAG, "Installed shell unusable, using the APK's: " + e.getMessage());
+            }
+        }
+        AssetFileDescriptor asset = null;
+        FileInputStream in = null;
+        try {
+            // Stored uncompressed in the APK (noCompress), so it can be mapped in place
+            asset = context.getAssets().openFd(APK_BUNDLE);
+            in = asset.createInputStream();
+            ByteBuffer mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    asset.getStartOffset(), asset.getLength());
+            return ShellBundle.open(mapped, "apk", null);
+        } catch (IOException e) {
+            Log.i(TAG, "No shell bundle in the APK: " + e.getMessage());
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+            ResponseCache.closeQuietly(asset);
+        }
+    }
+
+    private void requestInstall(String url, String sha256) {
+        String next = url + " " + sha256;
+        if (next.equals(target)) {
+            // Unrelated config change; a failed install keeps its own retry schedule
+            return;
+        }
+        target = next;
+        attempts = 0;
+        if (retry != null) {
+            retry.cancel(false);
+        }
+        attemptInstall(url, sha256);
+    }
+
+    private void attemptInstall(final String url, final String sha256) {
+        retry = null;
+        if (install(url, sha256)) {
+            return;
+        }
+        installFailures.incrementAndGet();
+        long delay = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(attempts, 10));
+        attempts++;
+        Log.w(TAG, "Shell bundle install failed " + attempts + " times, retrying in "
+                + (delay / 1000) + "s");
+        retry = installer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attemptInstall(url, sha256);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // True once the bundle is the current one
+    private boolean install(String url, String expectedSha256) {
+        Properties pointer = readPointer();
+        if (pointer != null && expectedSha256.equals(pointer.getProperty("sha256"))) {
+            return true;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return false;
+        }
+        File tmp = new File(dir, "download.tmp");
+        ShellBundle next;
+        String sha256;
+        File file;
+        try {
+            sha256 = download(url, tmp);
+            if (!expectedSha256.equals(sha256)) {
+                throw new IOException("Checksum mismatch, got " + sha256);
+            }
+            file = new File(dir, BUNDLE_PREFIX + sha256.substring(0, 16) + BUNDLE_SUFFIX);
+            // Indexing it proves it is a usable bundle; the mapping survives the rename
+            next = ShellBundle.open(map(tmp), file.getName(), sha256);
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot move bundle into place");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Shell bundle from " + url + " not installed: " + e.getMessage());
+            tmp.delete();
+            return false;
+        }
+
+        Properties updated = new Properties();
+        updated.setProperty("file", file.getName());
+        updated.setProperty("sha256", sha256);
+        updated.setProperty("url", url);
+        try {
+            writePointer(updated);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot record the new shell bundle: " + e.getMessage());
+            return false;
+        }
+        bundle = next;
+        ready.countDown();
+        swaps.incrementAndGet();
+        Log.i(TAG, "Swapped in shell " + next.getVersion() + " from " + url);
+        deleteOldBundles(file, pointer != null ? pointer.getProperty("file") : null);
+
+        final String version = next.getVersion();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Listener l = listener;
+                if (l != null) {
+                    l.onBundleChanged(version);
+                }
+            }
+        });
+        return true;
+    }
+
+    // Copies url into target and returns its SHA-256
+    private String download(String url, File target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int code = ((HttpURLConnection) connection).getResponseCode();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + code);
+                }
+            }
+            in = new DigestInputStream(connection.getInputStream(), digest);
+            out = new FileOutputStream(target);
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            out.close();
+            out = null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+            ResponseCache.closeQuietly(out);
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+        byte[] hash = digest.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private void deleteOldBundles(File current, String previous) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        int kept = 1;
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.startsWith(BUNDLE_PREFIX) || name.equals(current.getName())) {
+                continue;
+            }
+            // Mappings of a deleted file stay readable until they are dropped
+            if (name.equals(previous) && kept < KEEP_BUNDLES) {
+                kept++;
+            } else {
+                f.delete();
+            }
+        }
+    }
+
+    private Properties readPointer() {
+        File file = new File(dir, CURRENT);
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            Properties props = new Properties();
+            props.load(in);
+            return props;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+    // Written beside the pointer and renamed over it, so a crash leaves the old or the new one
+    private void writePointer(Properties props) throws IOException {
+        File tmp = new File(dir, CURRENT + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, null);
+            ((FileOutputStream) out).getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(dir, CURRENT))) {
+            tmp.delete();
+            throw new IOException("Cannot update " + CURRENT);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by background transfers so together they stay under
+ * one byte rate. Callers charge the bucket after each read and sleep off any
+ * debt, so a burst is limited to a quarter second of traffic. Any thread.
+ */
+public class BandwidthLimiter {
+
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+
+    // Guarded by this; a rate of 0 or less means unlimited
+    private long bytesPerSecond = 0;
+    private double available = 0;
+    private long refilledAtNs = System.nanoTime();
+
+    private final AtomicLong throttledNs = new AtomicLong();
+
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        available = 0;
+        refilledAtNs = System.nanoTime();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /** Accounts for {@code bytes} already read, sleeping if the rate is exceeded. */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNs;
+        synchronized (this) {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long burst = Math.max(MIN_BURST_BYTES, bytesPerSecond / 4);
+            available = Math.min(burst,
+                    available + (now - refilledAtNs) * (double) bytesPerSecond / 1e9);
+            refilledAtNs = now;
+            available -= bytes;
+            if (available >= 0) {
+                return;
+            }
+            // Later callers see the debt too, so concurrent readers share the rate
+            waitNs = (long) (-available * 1e9 / bytesPerSecond);
+        }
+        throttledNs.addAndGet(waitNs);
+        TimeUnit.NANOSECONDS.sleep(waitNs);
+    }
+
+    /** Total time readers have been held back. */
+    public long getThrottledMs() {
+        return throttledNs.get() / 1000000;
+    }
+}
@@ -0,0 +1,24 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Brings the kiosk up right after boot. Receiving the broadcast starts the
+ * process, so KioskApplication's warm-up runs before the home intent arrives.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            return;
+        }
+        StartupTrace.mark("boot_completed");
+
+        Intent launch = new Intent(context, MainActivity.class);
+        launch.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        context.startActivity(launch);
+    }
+}
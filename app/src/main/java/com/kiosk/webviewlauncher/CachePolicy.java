@@ -0,0 +1,128 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.Locale;
+
+/**
+ * Freshness rules for the kiosk response cache, decided per content type.
+ * Documents are always revalidated, static assets are trusted for longer.
+ */
+public final class CachePolicy {
+
+    private static final long SECOND_MS = 1000L;
+    private static final long MINUTE_MS = 60 * SECOND_MS;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    // How long a stale entry may still be served when the network is down
+    private static final long STALE_IF_ERROR_MS = 30 * DAY_MS;
+
+    private CachePolicy() {
+    }
+
+    /**
+     * Returns how long a response stays fresh, or -1 if it must not be stored.
+     */
+    public static long freshnessMs(String mimeType, String cacheControl) {
+        String cc = cacheControl == null ? "" : cacheControl.toLowerCase(Locale.US);
+        if (cc.contains("no-store")) {
+            return -1;
+        }
+
+        long typeMax = maxFreshnessForType(mimeType);
+        if (cc.contains("no-cache")) {
+            return 0;
+        }
+
+        long serverMaxAge = parseMaxAge(cc);
+        if (serverMaxAge >= 0) {
+            return Math.min(serverMaxAge * SECOND_MS, typeMax);
+        }
+        return typeMax;
+    }
+
+    /**
+     * Whether a response may be kept at all. The cache outlives customer sessions,
+     * so per-user responses stay out: private ones, ones that vary by cookie, and
+     * ones fetched with cookies or credentials unless the server marks them public.
+     */
+    public static boolean mayStore(String cacheControl, String vary, boolean credentialed) {
+        String cc = cacheControl == null ? "" : cacheControl.toLowerCase(Locale.US);
+        String v = vary == null ? "" : vary.toLowerCase(Locale.US);
+        if (cc.contains("private") || v.contains("*") || v.contains("cookie")) {
+            return false;
+        }
+        return !credentialed || cc.contains("public");
+    }
+
+    public static boolean isCacheableType(String mimeType) {
+        return category(mimeType) != Category.OTHER;
+    }
+
+    public static long staleIfErrorMs() {
+        return STALE_IF_ERROR_MS;
+    }
+
+    private static long maxFreshnessForType(String mimeType) {
+        switch (category(mimeType)) {
+            case DOCUMENT:
+                // App shell: always revalidate, but keep for offline fallback
+                return 0;
+            case DATA:
+                return 5 * MINUTE_MS;
+            case SCRIPT_STYLE:
+                return HOUR_MS;
+            case IMAGE:
+            case FONT:
+                return 7 * DAY_MS;
+            default:
+                return -1;
+        }
+    }
+
+    private static long parseMaxAge(String cc) {
+        int idx = cc.indexOf("max-age=");
+        if (idx < 0) {
+            return -1;
+        }
+        int start = idx + "max-age=".length();
+        int end = start;
+        while (end < cc.length() && Character.isDigit(cc.charAt(end))) {
+            end++;
+        }
+        if (end == start) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(cc.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private enum Category { DOCUMENT, SCRIPT_STYLE, IMAGE, FONT, DATA, OTHER }
+
+    private static Category category(String mimeType) {
+        if (mimeType == null) {
+            return Category.OTHER;
+        }
+        String mime = mimeType.toLowerCase(Locale.US);
+        if (mime.equals("text/html") || mime.equals("application/xhtml+xml")) {
+            return Category.DOCUMENT;
+        }
+        if (mime.equals("text/css") || mime.contains("javascript")
+                || mime.equals("application/wasm")) {
+            return Category.SCRIPT_STYLE;
+        }
+        if (mime.startsWith("image/")) {
+            return Category.IMAGE;
+        }
+        if (mime.startsWith("font/") || mime.contains("font-woff")
+                || mime.equals("application/vnd.ms-fontobject")) {
+            return Category.FONT;
+        }
+        if (mime.equals("application/json") || mime.equals("application/manifest+json")) {
+            return Category.DATA;
+        }
+        return Category.OTHER;
+    }
+}
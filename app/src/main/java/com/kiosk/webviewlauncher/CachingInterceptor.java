@@ -0,0 +1,604 @@
+package com.kiosk.webviewlauncher;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves GET requests from the kiosk-owned {@link ResponseCache} and fills it
+ * from the network. Called on WebView's IO threads from shouldInterceptRequest.
+ * Connections are returned to HttpURLConnection's keep-alive pool, and
+ * identical requests already in flight wait for the first one's body to be
+ * cached instead of fetching it again. Bodies are streamed to WebView, which
+ * pulls them at its own pace.
+ */
+public class CachingInterceptor {
+
+    /** Where request cookies come from and response cookies go. */
+    interface Cookies {
+        String get(String url);
+
+        void set(String url, String setCookie);
+    }
+
+    /** WebView's own cookie jar, shared with the pages. */
+    static final Cookies WEBVIEW_COOKIES = new Cookies() {
+        @Override
+        public String get(String url) {
+            return CookieManager.getInstance().getCookie(url);
+        }
+
+        @Override
+        public void set(String url, String setCookie) {
+            CookieManager.getInstance().setCookie(url, setCookie);
+        }
+    };
+
+    /** A response before it is handed to WebView; the body may still be streaming. */
+    static final class Loaded {
+        final String mimeType;
+        final String encoding;
+        final int status;
+        final String reason;
+        final Map<String, String> headers;
+        final InputStream body;
+
+        Loaded(String mimeType, String encoding, int status, String reason,
+                Map<String, String> headers, InputStream body) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private static final String TAG = "KioskCache";
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 20000;
+    // Small leftover bodies are drained so the socket can be reused; larger ones are dropped
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final ResponseCache cache;
+    private final Cookies cookies;
+    private volatile String primaryHost;
+    private volatile PageLoadTelemetry telemetry;
+    private volatile ImageDownscaler imageDownscaler;
+    // Link is down or slow: any cached copy beats waiting for a connect timeout
+    private volatile boolean preferCache = false;
+    // Per interceptor, so page and service worker traffic can be told apart
+    private final AtomicLong servedFromCache = new AtomicLong();
+    private final AtomicLong fromNetwork = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final ConcurrentHashMap<String, InFlight> inFlight =
+            new ConcurrentHashMap<String, InFlight>();
+
+    /** A network fetch other threads can wait on; done once its body is cached or not. */
+    private final class InFlight {
+        final String url;
+        final CountDownLatch done = new CountDownLatch(1);
+        // Set when a TeeInputStream takes over finishing this fetch
+        boolean streaming = false;
+
+        InFlight(String url) {
+            this.url = url;
+        }
+
+        void finish() {
+            inFlight.remove(url, this);
+            done.countDown();
+        }
+    }
+
+    public CachingInterceptor(ResponseCache cache) {
+        this(cache, WEBVIEW_COOKIES);
+    }
+
+    CachingInterceptor(ResponseCache cache, Cookies cookies) {
+        this.cache = cache;
+        this.cookies = cookies;
+    }
+
+    /** Main-frame documents are only cached for the configured kiosk origin. */
+    public void setPrimaryUrl(String url) {
+        Uri uri = Uri.parse(url);
+        primaryHost = uri != null ? uri.getHost() : null;
+    }
+
+    public void setTelemetry(PageLoadTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /** Oversized subresource images are replaced with panel-sized copies. */
+    public void setImageDownscaler(ImageDownscaler imageDownscaler) {
+        this.imageDownscaler = imageDownscaler;
+    }
+
+    /** Serves cached copies of any age before trying the network; set while offline or slow. */
+    public void setPreferCache(boolean preferCache) {
+        this.preferCache = preferCache;
+    }
+
+    public WebResourceResponse intercept(WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        Uri uri = request.getUrl();
+        String scheme = uri.getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return null;
+        }
+        if (hasHeader(request.getRequestHeaders(), "Range")) {
+            // Media seeking; let WebView stream it directly
+            return null;
+        }
+        if (hasHeader(request.getRequestHeaders(), "Service-Worker")) {
+            // A cached worker script would pin the kiosk to an old build
+            return null;
+        }
+        if (request.isForMainFrame() && !isPrimaryHost(uri.getHost())) {
+            return null;
+        }
+        String directives = requestCacheDirectives(request.getRequestHeaders());
+        if (directives.contains("no-store")) {
+            // The page asked for no cache at all; let WebView fetch it
+            return null;
+        }
+        // A reload or fetch(cache: 'no-cache') must reach the server, conditionally at least
+        boolean revalidate = directives.contains("no-cache") || directives.contains("max-age=0");
+
+        String url = uri.toString();
+        Map<String, String> headers = request.getRequestHeaders();
+        ImageDownscaler downscaler = imageDownscaler;
+        if (downscaler == null || request.isForMainFrame()) {
+            return toResponse(load(headers, url, revalidate));
+        }
+        WebResourceResponse scaled = revalidate ? null : downscaler.lookup(url);
+        if (scaled != null) {
+            return scaled;
+        }
+        WebResourceResponse response = toResponse(load(headers, url, revalidate));
+        if (response == null) {
+            return null;
+        }
+        return downscaler.process(url, response, isCredentialed(headers, cookies.get(url)));
+    }
+
+    // Any thread; returns null to let WebView fetch the request itself
+    Loaded load(Map<String, String> requestHeaders, String url, boolean revalidate) {
+        long startMs = SystemClock.uptimeMillis();
+        long now = System.currentTimeMillis();
+        ResponseCache.Entry entry = cache.get(url);
+        if (entry != null && !revalidate && entry.isFresh(now)) {
+            ResponseCache.Snapshot snapshot = cache.open(url);
+            if (snapshot != null) {
+                cache.recordHit();
+                servedFromCache.incrementAndGet();
+                recordTiming(PageLoadTelemetry.REQUEST_CACHE_HIT, startMs);
+                return toLoaded(snapshot);
+            }
+            entry = null;
+        }
+        if (entry != null && !revalidate && preferCache) {
+            ResponseCache.Snapshot snapshot = cache.open(url);
+            if (snapshot != null) {
+                cache.recordStaleServed();
+                servedFromCache.incrementAndGet();
+                recordTiming(PageLoadTelemetry.REQUEST_STALE, startMs);
+                return toLoaded(snapshot);
+            }
+        }
+
+        InFlight flight = new InFlight(url);
+        InFlight leader = inFlight.putIfAbsent(url, flight);
+        if (leader != null) {
+            // A revalidating request goes to the server itself
+            Loaded shared = revalidate ? null : awaitLeader(leader, url, startMs);
+            if (shared != null) {
+                return shared;
+            }
+            flight = null; // Not cached by the leader; fetch without coalescing
+        }
+        try {
+            return fetch(requestHeaders, url, entry, startMs, flight);
+        } catch (IOException e) {
+            // Offline or flaky uplink: fall back to whatever we have
+            if (entry != null && now - entry.expiresAt <= CachePolicy.staleIfErrorMs()) {
+                ResponseCache.Snapshot snapshot = cache.open(url);
+                if (snapshot != null) {
+                    cache.recordStaleServed();
+                    servedFromCache.incrementAndGet();
+                    recordTiming(PageLoadTelemetry.REQUEST_STALE, startMs);
+                    return toLoaded(snapshot);
+                }
+            }
+            Log.w(TAG, "Network fetch failed for " + url + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (flight != null && !flight.streaming) {
+                flight.finish();
+            }
+        }
+    }
+
+    // Waits for an identical in-flight request to cache its body, then serves that copy
+    private Loaded awaitLeader(InFlight leader, String url, long startMs) {
+        try {
+            if (!leader.done.await(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        ResponseCache.Entry entry = cache.get(url);
+        if (entry == null || !entry.isFresh(System.currentTimeMillis())) {
+            return null;
+        }
+        ResponseCache.Snapshot snapshot = cache.open(url);
+        if (snapshot == null) {
+            return null;
+        }
+        coalesced.incrementAndGet();
+        servedFromCache.incrementAndGet();
+        recordTiming(PageLoadTelemetry.REQUEST_CACHE_HIT, startMs);
+        return toLoaded(snapshot);
+    }
+
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    /** Responses this interceptor served from the cache, including revalidated and stale. */
+    public long getServedFromCacheCount() {
+        return servedFromCache.get();
+    }
+
+    public long getNetworkCount() {
+        return fromNetwork.get();
+    }
+
+    /** Requests answered from another thread's in-flight fetch. */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    // Time until WebView gets headers and a body stream, not the full body transfer
+    private void recordTiming(int metric, long startMs) {
+        PageLoadTelemetry t = telemetry;
+        if (t != null) {
+            t.record(metric, SystemClock.uptimeMillis() - startMs);
+        }
+    }
+
+    private Loaded fetch(Map<String, String> requestHeaders, String url,
+            ResponseCache.Entry entry, long startMs, InFlight flight) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setInstanceFollowRedirects(false);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            String name = header.getKey();
+            if (!isHopByHopRequestHeader(name)) {
+                conn.setRequestProperty(name, header.getValue());
+            }
+        }
+        String cookie = cookies.get(url);
+        if (cookie != null) {
+            conn.setRequestProperty("Cookie", cookie);
+        }
+        if (entry != null && entry.canRevalidate()) {
+            if (entry.etag != null) {
+                conn.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+        }
+
+        int code;
+        try {
+            code = conn.getResponseCode();
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+        storeCookies(cookies, url, conn.getHeaderFields());
+
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            long freshness = CachePolicy.freshnessMs(entry.mimeType,
+                    conn.getHeaderField("Cache-Control"));
+            release(conn);
+            cache.refresh(url, Math.max(freshness, 0));
+            ResponseCache.Snapshot snapshot = cache.open(url);
+            if (snapshot != null) {
+                cache.recordRevalidation();
+                servedFromCache.incrementAndGet();
+                recordTiming(PageLoadTelemetry.REQUEST_REVALIDATED, startMs);
+                return toLoaded(snapshot);
+            }
+            return null;
+        }
+        if (code >= 300 && code < 400) {
+            // WebResourceResponse cannot carry redirects; WebView follows them itself
+            release(conn);
+            return null;
+        }
+
+        cache.recordMiss();
+        fromNetwork.incrementAndGet();
+        recordTiming(PageLoadTelemetry.REQUEST_NETWORK, startMs);
+        String contentType = conn.getContentType();
+        String mimeType = parseMimeType(contentType, url);
+        String encoding = parseCharset(contentType);
+        Map<String, String> headers = responseHeaders(conn.getHeaderFields());
+
+        InputStream body = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        if (body == null) {
+            conn.disconnect();
+            return null;
+        }
+        body = new ResponseCache.CountingInputStream(body, cache.networkByteCounter());
+
+        long freshness = CachePolicy.freshnessMs(mimeType, conn.getHeaderField("Cache-Control"));
+        boolean credentialed = isCredentialed(requestHeaders, cookie);
+        if (code == HttpURLConnection.HTTP_OK && freshness >= 0
+                && CachePolicy.isCacheableType(mimeType)
+                && CachePolicy.mayStore(conn.getHeaderField("Cache-Control"),
+                        conn.getHeaderField("Vary"), credentialed)) {
+            try {
+                ResponseCache.Writer writer = cache.edit(url, mimeType, encoding,
+                        conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"),
+                        freshness, headers);
+                // Waiters can only reuse a copy that is still fresh when it lands; for
+                // anything else they are released with the headers and fetch on their own
+                InFlight shared = freshness > 0 ? flight : null;
+                body = new TeeInputStream(body, writer, shared);
+                if (shared != null) {
+                    shared.streaming = true;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot cache " + url + ": " + e.getMessage());
+            }
+        }
+
+        String reason = conn.getResponseMessage();
+        if (reason == null || reason.isEmpty()) {
+            reason = "OK";
+        }
+        return new Loaded(mimeType, encoding, code, reason, headers, body);
+    }
+
+    // Reading to EOF and closing keeps the socket in the keep-alive pool; disconnect() closes it
+    private static void release(HttpURLConnection conn) {
+        InputStream in = null;
+        try {
+            in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (in == null) {
+                return;
+            }
+            byte[] buffer = new byte[4096];
+            int total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                if (total > MAX_DRAIN_BYTES) {
+                    conn.disconnect();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            conn.disconnect();
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+    private static Loaded toLoaded(ResponseCache.Snapshot snapshot) {
+        return new Loaded(snapshot.entry.mimeType, snapshot.entry.encoding,
+                HttpURLConnection.HTTP_OK, "OK", snapshot.headers, snapshot.body);
+    }
+
+    private static WebResourceResponse toResponse(Loaded loaded) {
+        if (loaded == null) {
+            return null;
+        }
+        return new WebResourceResponse(loaded.mimeType, loaded.encoding, loaded.status,
+                loaded.reason, loaded.headers, loaded.body);
+    }
+
+    private boolean isPrimaryHost(String host) {
+        String primary = primaryHost;
+        return host != null && primary != null && host.equalsIgnoreCase(primary);
+    }
+
+    // Sent with the user's cookies or an Authorization header
+    private static boolean isCredentialed(Map<String, String> requestHeaders, String cookie) {
+        return cookie != null || hasHeader(requestHeaders, "Authorization");
+    }
+
+    private static boolean hasHeader(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Cache-Control and Pragma of the request, lower case; empty if neither is set
+    static String requestCacheDirectives(Map<String, String> headers) {
+        StringBuilder directives = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Cache-Control") || name.equalsIgnoreCase("Pragma")) {
+                directives.append(header.getValue().toLowerCase(Locale.US)).append(',');
+            }
+        }
+        return directives.toString();
+    }
+
+    private static boolean isHopByHopRequestHeader(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.equals("accept-encoding") || lower.equals("connection")
+                || lower.equals("range") || lower.startsWith("if-");
+    }
+
+    private static void storeCookies(Cookies cookies, String url,
+            Map<String, List<String>> fields) {
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            if (field.getKey() != null && field.getKey().equalsIgnoreCase("Set-Cookie")) {
+                for (String value : field.getValue()) {
+                    cookies.set(url, value);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> responseHeaders(Map<String, List<String>> fields) {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+            String name = field.getKey();
+            if (name == null) {
+                continue; // Status line
+            }
+            String lower = name.toLowerCase(Locale.US);
+            // Body is handed over decoded and unframed; cookies go to CookieManager
+            if (lower.equals("content-encoding") || lower.equals("content-length")
+                    || lower.equals("transfer-encoding") || lower.equals("connection")
+                    || lower.equals("keep-alive") || lower.equals("set-cookie")
+                    || lower.startsWith("x-android-")) {
+                continue;
+            }
+            StringBuilder value = new StringBuilder();
+            for (String part : field.getValue()) {
+                if (value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(part);
+            }
+            headers.put(name, value.toString());
+        }
+        return headers;
+    }
+
+    static String parseMimeType(String contentType, String url) {
+        if (contentType != null) {
+            int semicolon = contentType.indexOf(';');
+            String mime = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+                    .trim().toLowerCase(Locale.US);
+            if (!mime.isEmpty()) {
+                return mime;
+            }
+        }
+        String extension = MimeTypeMap.getFileExtensionFromUrl(url);
+        String guessed = extension != null
+                ? MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension) : null;
+        return guessed != null ? guessed : "application/octet-stream";
+    }
+
+    static String parseCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int idx = contentType.toLowerCase(Locale.US).indexOf("charset=");
+        if (idx < 0) {
+            return null;
+        }
+        String charset = contentType.substring(idx + "charset=".length()).trim();
+        int end = charset.indexOf(';');
+        if (end >= 0) {
+            charset = charset.substring(0, end).trim();
+        }
+        return charset.replace("\"", "");
+    }
+
+    /** Copies the body into the cache while WebView reads it. */
+    private static final class TeeInputStream extends FilterInputStream {
+        private final ResponseCache.Writer writer;
+        private final InFlight flight;
+        private boolean writing = true;
+
+        TeeInputStream(InputStream in, ResponseCache.Writer writer, InFlight flight) {
+            super(in);
+            this.writer = writer;
+            this.flight = flight;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(buffer, off, len);
+            } catch (IOException e) {
+                stopWriting(false);
+                throw e;
+            }
+            if (n == -1) {
+                stopWriting(true);
+            } else if (writing) {
+                try {
+                    writer.stream().write(buffer, off, n);
+                } catch (IOException e) {
+                    stopWriting(false);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            stopWriting(false);
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Closed before EOF means a partial body; never store it
+            stopWriting(false);
+            super.close();
+        }
+
+        private void stopWriting(boolean complete) {
+            if (!writing) {
+                return;
+            }
+            writing = false;
+            if (complete) {
+                writer.commit();
+            } else {
+                writer.abort();
+            }
+            if (flight != null) {
+                flight.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.kiosk.webviewlauncher;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide owner of the kiosk configuration. The store is read once; after
+ * that every read is a volatile snapshot load, and changes are pushed to
+ * listeners instead of being polled. No Android dependencies, so it can be
+ * exercised on a plain JVM with an in-memory {@link ConfigStore}.
+ */
+public class ConfigRepository {
+
+    public interface Listener {
+        void onConfigChanged(KioskConfig previous, KioskConfig current);
+    }
+
+    private static final String DEFAULT_PASSWORD = "12345";
+
+    private final ConfigStore store;
+    private final Executor listenerExecutor;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile KioskConfig snapshot;
+
+    public ConfigRepository(ConfigStore store, Executor listenerExecutor) {
+        this.store = store;
+        this.listenerExecutor = listenerExecutor;
+        this.snapshot = new KioskConfig(store.readAll());
+
+        // Initialize default password if not set
+        if (snapshot.getPasswordHash() == null) {
+            edit().putString(KioskConfig.KEY_PASSWORD_HASH, hashPassword(DEFAULT_PASSWORD))
+                    .commit();
+        }
+    }
+
+    public KioskConfig get() {
+        return snapshot;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    public boolean verifyPassword(String password) {
+        String storedHash = snapshot.getPasswordHash();
+        return storedHash != null && storedHash.equals(hashPassword(password));
+    }
+
+    /** Collects changes and applies them as one snapshot swap and one store write. */
+    public final class Editor {
+        private final Map<String, String> changes = new LinkedHashMap<String, String>();
+
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        public Editor putLong(String key, long value) {
+            changes.put(key, String.valueOf(value));
+            return this;
+        }
+
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, String.valueOf(value));
+            return this;
+        }
+
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        public Editor setPassword(String password) {
+            return putString(KioskConfig.KEY_PASSWORD_HASH, hashPassword(password));
+        }
+
+        /** Returns true if anything actually changed. */
+        public boolean commit() {
+            return apply(changes);
+        }
+    }
+
+    private boolean apply(Map<String, String> changes) {
+        final KioskConfig previous;
+        final KioskConfig current;
+        Map<String, String> effective = new HashMap<String, String>();
+        synchronized (this) {
+            previous = snapshot;
+            Map<String, String> values = new HashMap<String, String>(previous.asMap());
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                String key = change.getKey();
+                String value = change.getValue();
+                String old = values.get(key);
+                if (value == null ? old == null : value.equals(old)) {
+                    continue;
+                }
+                effective.put(key, value);
+                if (value == null) {
+                    values.remove(key);
+                } else {
+                    values.put(key, value);
+                }
+            }
+            if (effective.isEmpty()) {
+                return false;
+            }
+            current = new KioskConfig(values);
+            snapshot = current;
+            store.write(effective);
+        }
+
+        for (final Listener listener : listeners) {
+            listenerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onConfigChanged(previous, current);
+                }
+            });
+        }
+        return true;
+    }
+
+    public static String hashPassword(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(password.getBytes());
+            StringBuilder hexString = new StringBuilder();
+
+            for (byte b : hash) {
+                String hex = Integer.toHexString(0xff & b);
+                if (hex.length() == 1) hexString.append('0');
+                hexString.append(hex);
+            }
+
+            return hexString.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.Map;
+
+/**
+ * Persistent backing for {@link ConfigRepository}. A null value in a write
+ * removes the key.
+ */
+public interface ConfigStore {
+
+    Map<String, String> readAll();
+
+    void write(Map<String, String> changes);
+}
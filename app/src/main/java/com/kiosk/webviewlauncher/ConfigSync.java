@@ -0,0 +1,372 @@
+package com.kiosk.webviewlauncher;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Polls a fleet config endpoint and applies the bundle it returns to the
+ * {@link ConfigRepository} in a single edit. Polls are conditional on the
+ * last ETag, so an unchanged config costs the server a 304 with no body, and
+ * intervals are jittered so a fleet never polls in lockstep. The bundle is a
+ * JSON object {@code {"config": {key: value|null, ...}}} that patches the
+ * local config. When a sync secret is set, bundles must carry a matching
+ * HMAC-SHA256 of the body in {@code X-Kiosk-Signature}. The URL and secret
+ * are set in the admin settings only; plain http needs a secret, since an
+ * unsigned bundle could otherwise be rewritten on the way.
+ */
+public class ConfigSync {
+
+    // Config keys; sync stays off without a URL
+    public static final String KEY_SYNC_URL = "sync_url";
+    public static final String KEY_SYNC_INTERVAL_S = "sync_interval_s";
+    public static final String KEY_SYNC_SECRET = "sync_secret";
+    public static final String KEY_SYNC_ETAG = "sync_etag";
+
+    private static final String TAG = "KioskSync";
+    private static final String SIGNATURE_HEADER = "X-Kiosk-Signature";
+    private static final long DEFAULT_INTERVAL_S = 300;
+    private static final long MIN_INTERVAL_S = 30;
+    private static final long MAX_BACKOFF_MS = 60 * 60 * 1000;
+    private static final long FIRST_POLL_SPREAD_MS = 30 * 1000;
+    private static final int MAX_BUNDLE_BYTES = 64 * 1024;
+    private static final int TIMEOUT_MS = 15000;
+
+    private final ConfigRepository configRepository;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+
+    // Guarded by this
+    private ScheduledFuture<?> pending;
+    private int generation = 0;
+    private String syncUrl;
+    private long intervalMs;
+    private int consecutiveFailures = 0;
+
+    // Stats
+    private volatile long polls = 0;
+    private volatile long notModified = 0;
+    private volatile long applied = 0;
+    private volatile long failures = 0;
+    private volatile long lastSuccessMs = 0;
+
+    public ConfigSync(ConfigRepository configRepository) {
+        this.configRepository = configRepository;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-config-sync");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Starts, stops or reschedules polling when the sync settings change. */
+    public synchronized void applyConfig(KioskConfig config) {
+        String url = config.getString(KEY_SYNC_URL, "").trim();
+        if (!url.isEmpty() && !isAllowedSyncUrl(url, config.getString(KEY_SYNC_SECRET, ""))) {
+            Log.w(TAG, "Config sync off: " + url + " is not https and has no sync secret");
+            url = "";
+        }
+        long interval = Math.max(MIN_INTERVAL_S,
+                config.getLong(KEY_SYNC_INTERVAL_S, DEFAULT_INTERVAL_S)) * 1000;
+        if (url.equals(syncUrl == null ? "" : syncUrl) && interval == intervalMs) {
+            return;
+        }
+        syncUrl = url.isEmpty() ? null : url;
+        intervalMs = interval;
+        consecutiveFailures = 0;
+        generation++;
+        if (syncUrl != null) {
+            // Spread a fleet that boots together after a power cut
+            schedule((long) (random.nextDouble() * FIRST_POLL_SPREAD_MS));
+        } else {
+            cancelPending();
+        }
+    }
+
+    /** Polls now, e.g. from an admin action; the regular schedule continues after. */
+    public synchronized void syncNow() {
+        if (syncUrl != null) {
+            schedule(0);
+        }
+    }
+
+    public long getLastSuccessMs() {
+        return lastSuccessMs;
+    }
+
+    public long getPollCount() {
+        return polls;
+    }
+
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    public long getFailureCount() {
+        return failures;
+    }
+
+    public String statsSummary() {
+        return "polls=" + polls + " notModified=" + notModified + " applied=" + applied
+                + " failures=" + failures;
+    }
+
+    private void schedule(long delayMs) {
+        cancelPending();
+        final int scheduledGeneration = generation;
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(scheduledGeneration);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    // Sync thread
+    private void poll(int pollGeneration) {
+        String url;
+        long interval;
+        synchronized (this) {
+            if (pollGeneration != generation || syncUrl == null) {
+                return;
+            }
+            url = syncUrl;
+            interval = intervalMs;
+        }
+
+        polls++;
+        long retryAfterMs = -1;
+        boolean ok;
+        try {
+            retryAfterMs = fetchAndApply(url);
+            ok = retryAfterMs < 0;
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            Log.w(TAG, "Config sync from " + url + " failed: " + e.getMessage());
+            ok = false;
+        }
+
+        synchronized (this) {
+            if (pollGeneration != generation) {
+                return; // Settings changed mid-poll; the new schedule is already set
+            }
+            long delay;
+            if (ok) {
+                consecutiveFailures = 0;
+                lastSuccessMs = System.currentTimeMillis();
+                delay = jitter(interval);
+            } else {
+                failures++;
+                consecutiveFailures++;
+                long backoff = interval << Math.min(consecutiveFailures, 6);
+                delay = Math.max(retryAfterMs, jitter(Math.min(backoff, MAX_BACKOFF_MS)));
+            }
+            schedule(delay);
+        }
+    }
+
+    // Sync thread, or a test. Returns -1 on success, otherwise the server's
+    // Retry-After in ms (0 if none).
+    long fetchAndApply(String url) throws IOException, JSONException {
+        KioskConfig current = configRepository.get();
+        String etag = current.getString(KEY_SYNC_ETAG, null);
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            conn.setUseCaches(false);
+            conn.setRequestProperty("Accept", "application/json");
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified++;
+                return -1;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Config sync got HTTP " + code);
+                return parseRetryAfter(conn.getHeaderField("Retry-After"));
+            }
+
+            byte[] body = readBody(conn.getInputStream());
+            String secret = current.getString(KEY_SYNC_SECRET, "");
+            if (!secret.isEmpty()
+                    && !verifySignature(body, secret, conn.getHeaderField(SIGNATURE_HEADER))) {
+                throw new IllegalArgumentException("bundle signature mismatch");
+            }
+            Map<String, String> changes = parseBundle(new String(body, "UTF-8"));
+
+            // Bundle and its ETag land in one snapshot swap; listeners only hear real changes
+            ConfigRepository.Editor editor = configRepository.edit();
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    editor.remove(change.getKey());
+                } else {
+                    editor.putString(change.getKey(), change.getValue());
+                }
+            }
+            String newEtag = conn.getHeaderField("ETag");
+            if (newEtag != null) {
+                editor.putString(KEY_SYNC_ETAG, newEtag);
+            } else {
+                editor.remove(KEY_SYNC_ETAG);
+            }
+            if (editor.commit()) {
+                applied++;
+                Log.i(TAG, "Applied config bundle: " + changes.keySet());
+            }
+            return -1;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /** Validates the whole bundle before anything is applied. */
+    static Map<String, String> parseBundle(String json) throws JSONException {
+        JSONObject config = new JSONObject(json).getJSONObject("config");
+        Map<String, String> changes = new LinkedHashMap<String, String>();
+        Iterator<String> keys = config.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!isRemotelyWritable(key)) {
+                throw new IllegalArgumentException("key not allowed: " + key);
+            }
+            Object value = config.get(key);
+            String stringValue;
+            if (value == JSONObject.NULL) {
+                stringValue = null;
+            } else if (value instanceof String || value instanceof Boolean) {
+                stringValue = value.toString();
+            } else if (value instanceof Number) {
+                Number number = (Number) value;
+                stringValue = number.doubleValue() == number.longValue()
+                        ? String.valueOf(number.longValue()) : number.toString();
+            } else {
+                throw new IllegalArgumentException("unsupported value for " + key);
+            }
+            if (KioskConfig.KEY_URL.equals(key) && !isValidPageUrl(stringValue)) {
+                throw new IllegalArgumentException("invalid " + key + ": " + stringValue);
+            }
+            changes.put(key, stringValue);
+        }
+        return changes;
+    }
+
+    // The admin password and where the kiosk syncs from stay under local control
+    private static boolean isRemotelyWritable(String key) {
+        return !KioskConfig.KEY_PASSWORD_HASH.equals(key) && !KEY_SYNC_URL.equals(key)
+                && !KEY_SYNC_SECRET.equals(key) && !KEY_SYNC_ETAG.equals(key);
+    }
+
+    /** https, or http when bundles are signed with {@code secret}. */
+    static boolean isAllowedSyncUrl(String url, String secret) {
+        String lower = url.trim().toLowerCase(Locale.US);
+        return lower.startsWith("https://")
+                || (lower.startsWith("http://") && secret != null && !secret.isEmpty());
+    }
+
+    private static boolean isValidPageUrl(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            return false;
+        }
+        try {
+            return new URI(KioskConfig.normalizeUrl(url)).getHost() != null;
+        } catch (URISyntaxException e) {
+            return false;
+        }
+    }
+
+    static boolean verifySignature(byte[] body, String secret, String header) {
+        if (header == null) {
+            return false;
+        }
+        String given = header.trim();
+        if (given.startsWith("sha256=")) {
+            given = given.substring("sha256=".length());
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes("UTF-8"), "HmacSHA256"));
+            byte[] expected = mac.doFinal(body);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : expected) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return MessageDigest.isEqual(hex.toString().getBytes("UTF-8"),
+                    given.toLowerCase(Locale.US).getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | InvalidKeyException | IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_BUNDLE_BYTES) {
+                    throw new IOException("config bundle too large");
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return 0; // HTTP-date form; fall back to our own backoff
+        }
+    }
+
+    private long jitter(long baseMs) {
+        // +/-20% so devices that started together drift apart
+        return (long) (baseMs * (0.8 + 0.4 * random.nextDouble()));
+    }
+}
@@ -0,0 +1,310 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rates the uplink as good, poor or offline. System network callbacks say
+ * whether there is a network at all; small HEAD probes to the kiosk's own
+ * server say whether it can actually be reached and how fast. Probes run on
+ * a background thread, more often while the link is down so recovery is
+ * noticed quickly. Public methods are called on the main thread, and the
+ * listener is called there too.
+ */
+public class ConnectivityMonitor {
+
+    public interface Listener {
+        void onQualityChanged(int previous, int current);
+    }
+
+    public static final int OFFLINE = 0;
+    public static final int POOR = 1;
+    public static final int GOOD = 2;
+
+    // Config keys; all optional
+    public static final String KEY_PROBE_INTERVAL_S = "net_probe_interval_s";
+    public static final String KEY_POOR_LATENCY_MS = "net_poor_latency_ms";
+    public static final String KEY_PROBE_URL = "net_probe_url";
+
+    private static final String TAG = "KioskNet";
+    private static final long DEFAULT_PROBE_INTERVAL_S = 30;
+    private static final long DEFAULT_POOR_LATENCY_MS = 1500;
+    private static final long RECOVERY_PROBE_INTERVAL_MS = 5000;
+    private static final int PROBE_TIMEOUT_MS = 5000;
+    // Consecutive failed probes before a connected link counts as offline
+    private static final int FAILURES_BEFORE_OFFLINE = 2;
+    private static final String[] QUALITY_NAMES = {"offline", "poor", "good"};
+
+    private final Handler mainHandler;
+    private final ConnectivityManager connectivity;
+    private final ScheduledExecutorService prober;
+    private ScheduledFuture<?> probeTask;
+    private Listener listener;
+    private boolean registered = false;
+
+    private volatile String probeUrl;
+    private volatile String homeUrl;
+    private volatile long probeIntervalMs = DEFAULT_PROBE_INTERVAL_S * 1000;
+    private volatile long poorLatencyMs = DEFAULT_POOR_LATENCY_MS;
+
+    // Probe thread only
+    private int consecutiveFailures = 0;
+    private long smoothedLatencyMs = -1;
+
+    private volatile int quality = GOOD;
+
+    // Stats
+    private final LatencyHistogram probeLatencyMs = new LatencyHistogram();
+    private volatile long probes = 0;
+    private volatile long probeFailures = 0;
+    private volatile long transitions = 0;
+    private volatile long offlineSinceMs = 0;
+    private volatile long offlineTotalMs = 0;
+
+    private final ConnectivityManager.NetworkCallback networkCallback =
+            new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    probeNow();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    probeNow();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                    // Validation finishing is the usual sign a captive or dead link came back
+                    if (quality != GOOD
+                            && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+                        probeNow();
+                    }
+                }
+            };
+
+    private final Runnable probe = new Runnable() {
+        @Override
+        public void run() {
+            runProbe();
+        }
+    };
+
+    public ConnectivityMonitor(Context context, Handler mainHandler) {
+        this.mainHandler = mainHandler;
+        this.connectivity = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-net-probe");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void applyConfig(KioskConfig config) {
+        probeIntervalMs = Math.max(5,
+                config.getLong(KEY_PROBE_INTERVAL_S, DEFAULT_PROBE_INTERVAL_S)) * 1000;
+        poorLatencyMs = config.getLong(KEY_POOR_LATENCY_MS, DEFAULT_POOR_LATENCY_MS);
+        String configured = config.getString(KEY_PROBE_URL, "");
+        probeUrl = configured.isEmpty() ? null : configured;
+        homeUrl = config.getUrl();
+    }
+
+    public void start() {
+        if (connectivity != null && !registered) {
+            try {
+                connectivity.registerDefaultNetworkCallback(networkCallback);
+                registered = true;
+            } catch (RuntimeException e) {
+                // Too many callbacks registered by the process; probes still run
+                Log.w(TAG, "Network callback not registered: " + e.getMessage());
+            }
+        }
+        schedule(0);
+    }
+
+    public void stop() {
+        if (registered) {
+            connectivity.unregisterNetworkCallback(networkCallback);
+            registered = false;
+        }
+        synchronized (this) {
+            if (probeTask != null) {
+                probeTask.cancel(false);
+                probeTask = null;
+            }
+        }
+    }
+
+    public void release() {
+        stop();
+        prober.shutdownNow();
+    }
+
+    /** Probes right away, e.g. after a main-frame load failed. */
+    public void probeNow() {
+        schedule(0);
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (prober.isShutdown()) {
+            return;
+        }
+        if (probeTask != null) {
+            probeTask.cancel(false);
+        }
+        probeTask = prober.schedule(probe, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Probe thread
+    private void runProbe() {
+        int next;
+        if (!hasNetwork()) {
+            consecutiveFailures = FAILURES_BEFORE_OFFLINE;
+            next = OFFLINE;
+        } else {
+            long latency = measure();
+            if (latency < 0) {
+                probeFailures++;
+                next = ++consecutiveFailures >= FAILURES_BEFORE_OFFLINE ? OFFLINE : POOR;
+            } else {
+                consecutiveFailures = 0;
+                probeLatencyMs.record(latency);
+                // Smoothed so one slow probe on a good link does not flip the mode
+                smoothedLatencyMs = smoothedLatencyMs < 0
+                        ? latency : (smoothedLatencyMs * 3 + latency) / 4;
+                next = smoothedLatencyMs > poorLatencyMs ? POOR : GOOD;
+            }
+        }
+        if (next == OFFLINE) {
+            smoothedLatencyMs = -1;
+        }
+        publish(next);
+        schedule(next == GOOD ? probeIntervalMs
+                : Math.min(probeIntervalMs, RECOVERY_PROBE_INTERVAL_MS));
+    }
+
+    private boolean hasNetwork() {
+        if (connectivity == null) {
+            return true;
+        }
+        Network network = connectivity.getActiveNetwork();
+        NetworkCapabilities caps =
+                network != null ? connectivity.getNetworkCapabilities(network) : null;
+        return caps != null && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    // Round trip of a HEAD request in ms, or -1 if the server could not be reached
+    private long measure() {
+        String target = probeUrl != null ? probeUrl : homeUrl;
+        if (target == null || !target.startsWith("http")) {
+            return -1;
+        }
+        probes++;
+        long start = SystemClock.uptimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(target).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MS);
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(false);
+            // Any HTTP answer means the server is reachable; the status does not matter
+            connection.getResponseCode();
+            return SystemClock.uptimeMillis() - start;
+        } catch (IOException e) {
+            Log.d(TAG, "Probe failed: " + e.getMessage());
+            return -1;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void publish(final int next) {
+        final int previous = quality;
+        if (next == previous) {
+            return;
+        }
+        quality = next;
+        transitions++;
+        long now = SystemClock.uptimeMillis();
+        if (next == OFFLINE) {
+            offlineSinceMs = now;
+        } else if (previous == OFFLINE && offlineSinceMs > 0) {
+            offlineTotalMs += now - offlineSinceMs;
+            offlineSinceMs = 0;
+        }
+        Log.i(TAG, "Link " + qualityName(previous) + " -> " + qualityName(next));
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null) {
+                    listener.onQualityChanged(previous, next);
+                }
+            }
+        });
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public static String qualityName(int quality) {
+        return quality >= 0 && quality < QUALITY_NAMES.length ? QUALITY_NAMES[quality] : "?";
+    }
+
+    /** Probe round trips in ms. */
+    public LatencyHistogram getProbeHistogram() {
+        return probeLatencyMs;
+    }
+
+    public long getProbeCount() {
+        return probes;
+    }
+
+    public long getProbeFailureCount() {
+        return probeFailures;
+    }
+
+    public long getTransitionCount() {
+        return transitions;
+    }
+
+    /** Time spent offline, including the current outage. */
+    public long getOfflineMs() {
+        long since = offlineSinceMs;
+        return offlineTotalMs + (since > 0 ? SystemClock.uptimeMillis() - since : 0);
+    }
+
+    public String statsSummary() {
+        return "quality=" + qualityName(quality) + " probes=" + probes
+                + " failures=" + probeFailures + " transitions=" + transitions
+                + " offlineMs=" + getOfflineMs()
+                + " latencyP50=" + probeLatencyMs.percentile(50) + "ms"
+                + " latencyP99=" + probeLatencyMs.percentile(99) + "ms";
+    }
+}
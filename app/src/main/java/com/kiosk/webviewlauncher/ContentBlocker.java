@@ -0,0 +1,354 @@
+package com.kiosk.webviewlauncher;
+
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocks subresource requests to listed domains. Lists are loaded on a
+ * background thread into an immutable {@link DomainIndex} that is swapped in
+ * atomically, so WebView's IO threads only do a volatile read and an
+ * allocation-free lookup. Accepted line formats: hosts files
+ * ({@code 0.0.0.0 ads.example}), plain domains, and the domain-anchored
+ * adblock subset ({@code ||ads.example^}, with {@code @@||...^} exceptions).
+ * Rules with paths, other patterns or narrowing {@code $} options are
+ * skipped and counted.
+ */
+public class ContentBlocker {
+
+    // Config keys; blocking is on whenever any list has rules
+    public static final String KEY_LIST_URL = "blocklist_url";
+    public static final String KEY_EXTRA_HOSTS = "blocklist_hosts";
+
+    private static final String TAG = "KioskBlocker";
+    private static final String REMOTE_LIST = "remote.txt";
+    private static final String REMOTE_ETAG = "remote.etag";
+    private static final long REFRESH_INTERVAL_H = 24;
+    private static final int TIMEOUT_MS = 20000;
+
+    private final File listDir;
+    private final ScheduledExecutorService loader;
+    private volatile DomainIndex blocked = DomainIndex.EMPTY;
+    private volatile DomainIndex allowed = DomainIndex.EMPTY;
+    private volatile int skippedRules = 0;
+    // Guarded by this
+    private String listUrl = "";
+    private String extraHosts = "";
+    private boolean loaded = false;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+
+    /** {@code listDir} holds bundled or side-loaded *.txt lists and the downloaded one. */
+    public ContentBlocker(File listDir) {
+        this.listDir = listDir;
+        this.loader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-blocklist");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        loader.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (download()) {
+                    rebuild();
+                }
+            }
+        }, REFRESH_INTERVAL_H, REFRESH_INTERVAL_H, TimeUnit.HOURS);
+    }
+
+    /** Reloads lists when the list settings change. */
+    public void applyConfig(KioskConfig config) {
+        String url = config.getString(KEY_LIST_URL, "").trim();
+        String hosts = config.getString(KEY_EXTRA_HOSTS, "");
+        final boolean urlChanged;
+        synchronized (this) {
+            if (loaded && url.equals(listUrl) && hosts.equals(extraHosts)) {
+                return;
+            }
+            urlChanged = loaded && !url.equals(listUrl);
+            loaded = true;
+            listUrl = url;
+            extraHosts = hosts;
+        }
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (urlChanged) {
+                    // A different list must not be validated against the old one's ETag
+                    new File(listDir, REMOTE_ETAG).delete();
+                }
+                // Build from what is on disk first so blocking starts before the download
+                rebuild();
+                if (download()) {
+                    rebuild();
+                }
+            }
+        });
+    }
+
+    /** True if a subresource request to {@code host} must not be loaded. Any thread. */
+    public boolean isBlocked(String host) {
+        checked.incrementAndGet();
+        if (blocked.matches(host) && !allowed.matches(host)) {
+            blockedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Empty response handed to WebView in place of a blocked request. */
+    public static WebResourceResponse blockedResponse() {
+        return new WebResourceResponse("text/plain", "UTF-8", 403, "Blocked",
+                Collections.<String, String>emptyMap(), new ByteArrayInputStream(new byte[0]));
+    }
+
+    public int getRuleCount() {
+        return blocked.getRuleCount();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public String statsSummary() {
+        return "rules=" + blocked.getRuleCount() + " exceptions=" + allowed.getRuleCount()
+                + " skipped=" + skippedRules + " index=" + (blocked.getSizeBytes() / 1024) + "KB"
+                + " checked=" + checked.get() + " blocked=" + blockedCount.get();
+    }
+
+    // Loader thread
+    private void rebuild() {
+        long start = System.nanoTime();
+        DomainIndex.Builder block = new DomainIndex.Builder();
+        DomainIndex.Builder allow = new DomainIndex.Builder();
+        int skipped = 0;
+
+        File[] files = listDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".txt")) {
+                    skipped += readList(file, block, allow);
+                }
+            }
+        }
+        String extra;
+        synchronized (this) {
+            extra = extraHosts;
+        }
+        for (String host : extra.split("[,\\s]+")) {
+            if (!host.isEmpty() && !block.add(host)) {
+                skipped++;
+            }
+        }
+
+        blocked = block.build();
+        allowed = allow.build();
+        skippedRules = skipped;
+        Log.i(TAG, "Blocklist built in " + ((System.nanoTime() - start) / 1000000) + "ms: "
+                + statsSummary());
+    }
+
+    private static int readList(File file, DomainIndex.Builder block, DomainIndex.Builder allow) {
+        int skipped = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"),
+                    64 * 1024);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!parseRule(line.trim(), block, allow)) {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read blocklist " + file.getName() + ": " + e.getMessage());
+        } finally {
+            ResponseCache.closeQuietly(reader);
+        }
+        return skipped;
+    }
+
+    // Returns false for rules this engine cannot express; comments count as handled
+    static boolean parseRule(String line, DomainIndex.Builder block, DomainIndex.Builder allow) {
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("!")
+                || line.startsWith("[")) {
+            return true;
+        }
+        DomainIndex.Builder target = block;
+        String rule = line;
+        if (rule.startsWith("@@")) {
+            target = allow;
+            rule = rule.substring(2);
+        }
+        if (rule.startsWith("||")) {
+            int end = rule.length();
+            int caret = rule.indexOf('^');
+            if (caret >= 0) {
+                // Only whole-domain rules
+                String rest = rule.substring(caret + 1);
+                if (!rest.isEmpty()
+                        && (!rest.startsWith("$") || !isWholeDomainOptions(rest.substring(1)))) {
+                    return false;
+                }
+                end = caret;
+            }
+            return target.add(rule.substring(2, end));
+        }
+        if (target == allow) {
+            return false;
+        }
+
+        // Hosts file: "0.0.0.0 host [host...]" or a bare domain
+        int hash = rule.indexOf('#');
+        if (hash >= 0) {
+            rule = rule.substring(0, hash).trim();
+        }
+        String[] parts = rule.split("\\s+");
+        int first = 0;
+        if (parts.length > 1 && isSinkAddress(parts[0])) {
+            first = 1;
+        } else if (parts.length > 1) {
+            return false;
+        }
+        boolean ok = true;
+        for (int i = first; i < parts.length; i++) {
+            if (!"localhost".equals(parts[i]) && !target.add(parts[i])) {
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    // Options that narrow a rule ("third-party", "script", "domain=") cannot be honoured by
+    // a per-host index, and applying the rule to every request would block too much
+    private static boolean isWholeDomainOptions(String options) {
+        for (String option : options.split(",")) {
+            String name = option.trim();
+            if (!name.isEmpty() && !"important".equals(name) && !"all".equals(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+        private static boolean isSinkAddress(String address) {
+        return "0.0.0.0".equals(address) || "127.0.0.1".equals(address)
+                || "::".equals(address) || "::1".equals(address);
+    }
+
+    // Returns true if a new list was stored
+    private boolean download() {
+        String url;
+        synchronized (this) {
+            url = listUrl;
+        }
+        if (url.isEmpty()) {
+            new File(listDir, REMOTE_LIST).delete();
+            return false;
+        }
+        if (!listDir.isDirectory() && !listDir.mkdirs()) {
+            return false;
+        }
+        File etagFile = new File(listDir, REMOTE_ETAG);
+        File listFile = new File(listDir, REMOTE_LIST);
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            String etag = listFile.exists() ? readSmallFile(etagFile) : null;
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "Blocklist download got HTTP " + code);
+                return false;
+            }
+            File tmp = new File(listDir, REMOTE_LIST + ".tmp");
+            copy(conn.getInputStream(), tmp);
+            if (!tmp.renameTo(listFile)) {
+                tmp.delete();
+                return false;
+            }
+            String newEtag = conn.getHeaderField("ETag");
+            if (newEtag != null) {
+                writeSmallFile(etagFile, newEtag);
+            } else {
+                etagFile.delete();
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Blocklist download failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private static void copy(InputStream in, File target) throws IOException {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(target);
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            ResponseCache.closeQuietly(in);
+            ResponseCache.closeQuietly(out);
+        }
+    }
+
+    private static String readSmallFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(reader);
+        }
+    }
+
+    private static void writeSmallFile(File file, String value) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(value.getBytes("UTF-8"));
+        } finally {
+            ResponseCache.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+
+/**
+ * Built-in {@link NativeBridge} handlers for device state the page polls:
+ * {@code battery} and {@code network}. Both answer with a small JSON object
+ * read directly from the system, cheap enough to call many times a second.
+ */
+public final class DeviceStateHandlers {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DeviceStateHandlers() {
+    }
+
+    public static void register(NativeBridge bridge, Context context) {
+        final Context app = context.getApplicationContext();
+        bridge.register("battery", new NativeBridge.Handler() {
+            @Override
+            public void onRequest(byte[] payload, NativeBridge.Reply reply) {
+                // Sticky broadcast; no receiver is registered
+                Intent battery = app.registerReceiver(null,
+                        new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+                if (battery == null) {
+                    reply.error("Battery state unavailable");
+                    return;
+                }
+                int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+                int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                JSONObject json = new JSONObject();
+                try {
+                    json.put("percent", level >= 0 && scale > 0 ? level * 100 / scale : -1);
+                    json.put("plugged", battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+                    json.put("charging", status == BatteryManager.BATTERY_STATUS_CHARGING
+                            || status == BatteryManager.BATTERY_STATUS_FULL);
+                    // Tenths of a degree Celsius
+                    json.put("temperature",
+                            battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10.0);
+                } catch (JSONException e) {
+                    reply.error(e.getMessage());
+                    return;
+                }
+                reply.success(json.toString().getBytes(UTF_8));
+            }
+        });
+        bridge.register("network", new NativeBridge.Handler() {
+            @Override
+            public void onRequest(byte[] payload, NativeBridge.Reply reply) {
+                ConnectivityManager cm =
+                        (ConnectivityManager) app.getSystemService(Context.CONNECTIVITY_SERVICE);
+                NetworkCapabilities caps =
+                        cm != null ? cm.getNetworkCapabilities(cm.getActiveNetwork()) : null;
+                JSONObject json = new JSONObject();
+                try {
+                    json.put("type", PageLoadTelemetry.networkLabel(app));
+                    json.put("validated", caps != null
+                            && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+                    json.put("metered", cm != null && cm.isActiveNetworkMetered());
+                    json.put("downKbps", caps != null ? caps.getLinkDownstreamBandwidthKbps() : 0);
+                } catch (JSONException e) {
+                    reply.error(e.getMessage());
+                    return;
+                }
+                reply.success(json.toString().getBytes(UTF_8));
+            }
+        });
+    }
+}
@@ -0,0 +1,332 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable set of domain rules, where a rule matches the domain and all of
+ * its subdomains. Rules are stored as a trie over reversed labels
+ * ("com" -> "example" -> "ads"), flattened into int arrays with each label's
+ * characters in one shared char pool. A Bloom filter over every rule's
+ * suffix hash answers most lookups before the trie is touched. Lookups
+ * allocate nothing and are safe from any thread.
+ */
+public final class DomainIndex {
+
+    public static final DomainIndex EMPTY = new Builder().build();
+
+    private static final int BLOOM_HASHES = 4;
+    private static final int BLOOM_BITS_PER_RULE = 12;
+
+    // Per node; children of a node are consecutive node indexes
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final int[] labelHash;
+    private final int[] labelStart;
+    private final int[] labelLength;
+    private final long[] terminal;
+    private final char[] labelPool;
+
+    private final long[] bloom;
+    private final int bloomMask;
+    private final int ruleCount;
+
+    private DomainIndex(int[] firstChild, int[] childCount, int[] labelHash, int[] labelStart,
+            int[] labelLength, long[] terminal, char[] labelPool, long[] bloom, int ruleCount) {
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.labelHash = labelHash;
+        this.labelStart = labelStart;
+        this.labelLength = labelLength;
+        this.terminal = terminal;
+        this.labelPool = labelPool;
+        this.bloom = bloom;
+        this.bloomMask = bloom.length * 64 - 1;
+        this.ruleCount = ruleCount;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /** Approximate heap footprint of the index arrays. */
+    public long getSizeBytes() {
+        return 4L * (firstChild.length + childCount.length + labelHash.length
+                + labelStart.length + labelLength.length)
+                + 8L * (terminal.length + bloom.length) + 2L * labelPool.length;
+    }
+
+    /** True if {@code host} or one of its parent domains is in the index. */
+    public boolean matches(String host) {
+        if (host == null || ruleCount == 0) {
+            return false;
+        }
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') {
+            end--; // Fully qualified form
+        }
+        return mightMatch(host, end) && trieMatches(host, end);
+    }
+
+    // Checks every label-aligned suffix of the host against the Bloom filter
+    private boolean mightMatch(String host, int end) {
+        long hash = 0;
+        for (int i = end - 1; i >= 0; i--) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                if (bloomContains(hash)) {
+                    return true;
+                }
+            }
+            hash = mix(hash, lower(c));
+        }
+        return bloomContains(hash);
+    }
+
+    private boolean trieMatches(String host, int end) {
+        int node = 0;
+        int labelEnd = end;
+        while (labelEnd > 0) {
+            int labelBegin = host.lastIndexOf('.', labelEnd - 1) + 1;
+            int child = findChild(node, host, labelBegin, labelEnd);
+            if (child < 0) {
+                return false;
+            }
+            if ((terminal[child >>> 6] & (1L << child)) != 0) {
+                return true;
+            }
+            node = child;
+            labelEnd = labelBegin - 1;
+        }
+        return false;
+    }
+
+    // Binary search by label hash, then a character compare against the pool
+    private int findChild(int node, String host, int begin, int end) {
+        int hash = 0;
+        for (int i = begin; i < end; i++) {
+            hash = 31 * hash + lower(host.charAt(i));
+        }
+        int low = firstChild[node];
+        int last = low + childCount[node] - 1;
+        int high = last;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midHash = labelHash[mid];
+            if (midHash < hash) {
+                low = mid + 1;
+            } else if (midHash > hash) {
+                high = mid - 1;
+            } else {
+                // Rare collisions sit next to each other
+                int first = mid;
+                while (first > firstChild[node] && labelHash[first - 1] == hash) {
+                    first--;
+                }
+                for (int candidate = first; candidate <= last
+                        && labelHash[candidate] == hash; candidate++) {
+                    if (labelEquals(candidate, host, begin, end)) {
+                        return candidate;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean labelEquals(int node, String host, int begin, int end) {
+        int length = end - begin;
+        if (labelLength[node] != length) {
+            return false;
+        }
+        int start = labelStart[node];
+        for (int i = 0; i < length; i++) {
+            if (labelPool[start + i] != lower(host.charAt(begin + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean bloomContains(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & bloomMask;
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long mix(long hash, char c) {
+        return (hash ^ c) * 0x100000001b3L + (hash >>> 29);
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /** Collects rules; not thread-safe. */
+    public static final class Builder {
+
+        private static final class Node {
+            final String label;
+            final Map<String, Node> children = new HashMap<String, Node>();
+            boolean terminal;
+
+            Node(String label) {
+                this.label = label;
+            }
+        }
+
+        private final Node root = new Node("");
+
+        /** Adds a domain; returns false if it is not a plausible host name. */
+        public boolean add(String domain) {
+            String normalized = normalize(domain);
+            if (normalized == null) {
+                return false;
+            }
+            String[] labels = normalized.split("\\.");
+            Node node = root;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                if (node.terminal) {
+                    return true; // A parent domain already covers it
+                }
+                Node child = node.children.get(labels[i]);
+                if (child == null) {
+                    child = new Node(labels[i]);
+                    node.children.put(labels[i], child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+            node.children.clear(); // Subdomain rules are now redundant
+            return true;
+        }
+
+        public DomainIndex build() {
+            // Breadth-first numbering keeps each node's children consecutive
+            List<Node> order = new ArrayList<Node>();
+            List<Integer> firstChildList = new ArrayList<Integer>();
+            ArrayDeque<Node> queue = new ArrayDeque<Node>();
+            order.add(root);
+            queue.add(root);
+            Comparator<Node> byHash = new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    int ha = a.label.hashCode();
+                    int hb = b.label.hashCode();
+                    return ha < hb ? -1 : (ha == hb ? a.label.compareTo(b.label) : 1);
+                }
+            };
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                firstChildList.add(order.size());
+                List<Node> children = new ArrayList<Node>(node.children.values());
+                Collections.sort(children, byHash);
+                for (Node child : children) {
+                    order.add(child);
+                    queue.add(child);
+                }
+            }
+
+            int count = order.size();
+            int[] firstChild = new int[count];
+            int[] childCount = new int[count];
+            int[] labelHash = new int[count];
+            int[] labelStart = new int[count];
+            int[] labelLength = new int[count];
+            long[] terminal = new long[(count + 63) / 64];
+            int ruleCount = 0;
+            StringBuilder pool = new StringBuilder();
+            Map<String, Integer> pooled = new HashMap<String, Integer>();
+            List<Long> suffixHashes = new ArrayList<Long>();
+            for (int i = 0; i < count; i++) {
+                Node node = order.get(i);
+                firstChild[i] = firstChildList.get(i);
+                childCount[i] = node.children.size();
+                labelHash[i] = node.label.hashCode();
+                Integer start = pooled.get(node.label);
+                if (start == null) {
+                    start = pool.length();
+                    pool.append(node.label);
+                    pooled.put(node.label, start);
+                }
+                labelStart[i] = start;
+                labelLength[i] = node.label.length();
+                if (node.terminal) {
+                    terminal[i >>> 6] |= 1L << i;
+                    ruleCount++;
+                }
+            }
+            collectSuffixHashes(root, 0, true, suffixHashes);
+
+            int bloomBits = Integer.highestOneBit(
+                    Math.max(64, suffixHashes.size() * BLOOM_BITS_PER_RULE - 1)) << 1;
+            long[] bloom = new long[bloomBits / 64];
+            int mask = bloomBits - 1;
+            for (long hash : suffixHashes) {
+                int h1 = (int) hash;
+                int h2 = (int) (hash >>> 32) | 1;
+                for (int k = 0; k < BLOOM_HASHES; k++) {
+                    int bit = (h1 + k * h2) & mask;
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+            char[] labelPool = new char[pool.length()];
+            pool.getChars(0, pool.length(), labelPool, 0);
+            return new DomainIndex(firstChild, childCount, labelHash, labelStart, labelLength,
+                    terminal, labelPool, bloom, ruleCount);
+        }
+
+        // Hashes each rule the way lookups hash a host suffix: characters right to left
+        private static void collectSuffixHashes(Node node, long hash, boolean isRoot,
+                List<Long> out) {
+            for (Node child : node.children.values()) {
+                long h = hash;
+                if (!isRoot) {
+                    h = mix(h, '.');
+                }
+                for (int i = child.label.length() - 1; i >= 0; i--) {
+                    h = mix(h, child.label.charAt(i));
+                }
+                if (child.terminal) {
+                    out.add(h);
+                } else {
+                    collectSuffixHashes(child, h, false, out);
+                }
+            }
+        }
+
+        private static String normalize(String domain) {
+            String d = domain.trim().toLowerCase(Locale.US);
+            while (d.startsWith("*.") || d.startsWith(".")) {
+                d = d.substring(d.charAt(0) == '*' ? 2 : 1);
+            }
+            if (d.endsWith(".")) {
+                d = d.substring(0, d.length() - 1);
+            }
+            if (d.isEmpty() || d.length() > 253 || d.contains("..")) {
+                return null;
+            }
+            for (int i = 0; i < d.length(); i++) {
+                char c = d.charAt(i);
+                if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-' && c != '.'
+                        && c != '_') {
+                    return null;
+                }
+            }
+            return d;
+        }
+    }
+}
@@ -0,0 +1,972 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.URLUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps files that pages offer for download (PDFs, media) inside the kiosk.
+ * Downloads run one at a time. Large files from servers that accept ranges
+ * are fetched in parallel segments into one preallocated file. Segment
+ * progress is saved beside it, so an interrupted download resumes after a
+ * network error or restart; If-Range makes sure the pieces come from the same
+ * version of the file. All transfers share one {@link BandwidthLimiter} so the
+ * live page keeps most of the link. Finished files are evicted least recently
+ * used first to stay under a quota. Home pages list, cancel and retry
+ * downloads over the {@link NativeBridge}, and get progress as
+ * {@link #BRIDGE_NAME} events; other origins see none of it.
+ */
+public class Downloader {
+
+    public interface Listener {
+        /** State change or progress, throttled; called on a download thread. */
+        void onDownloadChanged(Download download);
+    }
+
+    // Config keys
+    public static final String KEY_MAX_KBPS = "download_max_kbps";
+    public static final String KEY_QUOTA_MB = "download_quota_mb";
+
+    /** Bridge handler that lists downloads; progress events use the same name. */
+    public static final String BRIDGE_NAME = "downloads";
+
+    public static final int QUEUED = 0;
+    public static final int RUNNING = 1;
+    /** Failed, retrying after a backoff. */
+    public static final int WAITING = 2;
+    public static final int DONE = 3;
+    public static final int FAILED = 4;
+    public static final int CANCELLED = 5;
+
+    private static final String[] STATE_NAMES =
+            {"queued", "running", "waiting", "done", "failed", "cancelled"};
+    private static final String TAG = "KioskDownloads";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_MAX_KBPS = 1024;
+    private static final long DEFAULT_QUOTA_MB = 512;
+    private static final int MAX_SEGMENTS = 4;
+    private static final long MIN_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_BASE_MS = 5000;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+    // Segment positions are saved at least this often, in bytes per segment
+    private static final long SAVE_EVERY_BYTES = 1024 * 1024;
+    private static final int TIMEOUT_MS = 20000;
+    private static final String PART = ".part";
+    private static final String META = ".meta";
+
+    public static final class Download {
+        /** File name in the download directory; unique. */
+        public final String id;
+        public final String url;
+        final String mimeType;
+        // Saved with the progress; cookies are read fresh for every request
+        final String userAgent;
+
+        volatile int state = QUEUED;
+        volatile long total = -1;
+        final AtomicLong received = new AtomicLong();
+        volatile String error;
+        volatile boolean cancelRequested = false;
+        // Removed by clear(); no longer reported to anyone
+        volatile boolean dropped = false;
+        volatile long lastUsedMs;
+
+        // Download threads; segments are start, end (inclusive), position triples
+        // guarded by this, null when the file has to be fetched from the start
+        String validator;
+        long[] segments;
+        boolean changed = false;
+        int attempts = 0;
+        long reportedAtMs = 0;
+
+        Download(String id, String url, String mimeType, String userAgent) {
+            this.id = id;
+            this.url = url;
+            this.mimeType = mimeType;
+            this.userAgent = userAgent;
+        }
+
+        public int getState() {
+            return state;
+        }
+
+        public long getReceived() {
+            return received.get();
+        }
+
+        /** Size in bytes, or -1 if the server did not say. */
+        public long getTotal() {
+            return total;
+        }
+    }
+
+    private final File dir;
+    private final File stateDir;
+    private final ScheduledExecutorService coordinator;
+    private final ExecutorService segmentPool;
+    private final BandwidthLimiter limiter = new BandwidthLimiter();
+    private volatile Listener listener;
+    private volatile long quotaBytes = DEFAULT_QUOTA_MB * 1024 * 1024;
+
+    // Guarded by this
+    private final Map<String, Download> downloads = new LinkedHashMap<String, Download>();
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile long storedBytes = 0;
+
+    /** {@code dir} receives finished files; partial ones live in a hidden subdirectory. */
+    public Downloader(File dir) {
+        this.dir = dir;
+        this.stateDir = new File(dir, ".state");
+        this.coordinator = Executors.newSingleThreadScheduledExecutor(
+                threadFactory("kiosk-download"));
+        this.segmentPool = Executors.newFixedThreadPool(MAX_SEGMENTS,
+                threadFactory("kiosk-download-seg"));
+        coordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    public void applyConfig(KioskConfig config) {
+        limiter.setRate(Math.max(0, config.getLong(KEY_MAX_KBPS, DEFAULT_MAX_KBPS)) * 1024);
+        long quota = Math.max(1, config.getLong(KEY_QUOTA_MB, DEFAULT_QUOTA_MB)) * 1024 * 1024;
+        if (quota != quotaBytes) {
+            quotaBytes = quota;
+            coordinator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    evictFor(0, null);
+                }
+            });
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds list/cancel/retry handlers to {@code bridge}, so only pages it trusts
+     * can see or control downloads. {@link #BRIDGE_NAME} answers with
+     * {@link #listJson()}; {@code downloadCancel} and {@code downloadRetry} take an id.
+     */
+    public void register(NativeBridge bridge) {
+        bridge.register(BRIDGE_NAME, new NativeBridge.Handler() {
+            @Override
+            public void onRequest(byte[] payload, NativeBridge.Reply reply) {
+                reply.success(listJson().getBytes(UTF_8));
+            }
+        });
+        bridge.register("downloadCancel", new NativeBridge.Handler() {
+            @Override
+            public void onRequest(byte[] payload, NativeBridge.Reply reply) {
+                cancel(new String(payload, UTF_8));
+                reply.success(new byte[0]);
+            }
+        });
+        bridge.register("downloadRetry", new NativeBridge.Handler() {
+            @Override
+            public void onRequest(byte[] payload, NativeBridge.Reply reply) {
+                retry(new String(payload, UTF_8));
+                reply.success(new byte[0]);
+            }
+        });
+    }
+
+    /** Queues {@code url}; a file already downloaded from it is reported done again. */
+    public void enqueue(final String url, final String userAgent, String contentDisposition,
+            final String mimeType) {
+        final String name = sanitize(URLUtil.guessFileName(url, contentDisposition, mimeType));
+        coordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                Download download = find(url);
+                if (download != null && download.state == DONE) {
+                    touch(download);
+                    report(download, true);
+                    return;
+                }
+                if (download == null) {
+                    download = new Download(uniqueName(name), url, mimeType, userAgent);
+                    synchronized (Downloader.this) {
+                        downloads.put(download.id, download);
+                    }
+                    Log.i(TAG, "Queued " + download.id + " from " + url);
+                    report(download, true);
+                }
+                // Otherwise it is already queued, running or waiting for its retry
+                if (download.state == QUEUED || download.state == FAILED) {
+                    download.attempts = 0;
+                    runDownload(download);
+                }
+            }
+        });
+    }
+
+    /** Stops a download and deletes what it fetched; finished files are kept. */
+    public void cancel(String id) {
+        final Download download = get(id);
+        if (download == null || download.state == DONE) {
+            return;
+        }
+        download.cancelRequested = true;
+        // A running download notices between reads; others are cleaned up here
+        coordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                int state = download.state;
+                if (state != RUNNING && state != DONE && state != CANCELLED) {
+                    finishCancelled(download);
+                }
+            }
+        });
+    }
+
+    public void retry(String id) {
+        final Download download = get(id);
+        if (download == null || (download.state != FAILED && download.state != WAITING)) {
+            return;
+        }
+        coordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (download.state == FAILED || download.state == WAITING) {
+                    download.attempts = 0;
+                    runDownload(download);
+                }
+            }
+        });
+    }
+
+    /** Stops every download and deletes every file, e.g. when a customer's session ends. */
+    public void clear() {
+        for (Download download : snapshot()) {
+            download.dropped = true;
+            download.cancelRequested = true;
+        }
+        // A running download stops at its next read, before this runs
+        coordinator.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Download download : snapshot()) {
+                    download.dropped = true;
+                    download.state = CANCELLED;
+                    new File(dir, download.id).delete();
+                    partFile(download).delete();
+                    metaFile(download).delete();
+                }
+                synchronized (Downloader.this) {
+                    downloads.clear();
+                }
+                storedBytes = 0;
+                Log.i(TAG, "Cleared all downloads");
+            }
+        });
+    }
+
+    /** State of every known download as a JSON array. Any thread. */
+    public String listJson() {
+        JSONArray array = new JSONArray();
+        for (Download download : snapshot()) {
+            array.put(toJson(download));
+        }
+        return array.toString();
+    }
+
+    /** Payload of the {@link #BRIDGE_NAME} event for {@code download}'s state. */
+    public static byte[] eventPayload(Download download) {
+        return toJson(download).toString().getBytes(UTF_8);
+    }
+
+    public static String stateName(int state) {
+        return STATE_NAMES[state];
+    }
+
+    public long getBytesDownloaded() {
+        return bytes.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public long getThrottledMs() {
+        return limiter.getThrottledMs();
+    }
+
+    public String statsSummary() {
+        return "completed=" + completed.get() + " failed=" + failed.get()
+                + " bytes=" + (bytes.get() / 1024) + "KB" + " stored=" + (storedBytes / 1024)
+                + "KB" + " evicted=" + evictions.get() + " throttled=" + limiter.getThrottledMs()
+                + "ms";
+    }
+
+    // Coordinator thread from here on, unless noted
+
+    private void runDownload(final Download download) {
+        if (download.cancelRequested) {
+            finishCancelled(download);
+            return;
+        }
+        if (download.state == DONE || download.state == CANCELLED) {
+            return;
+        }
+        download.state = RUNNING;
+        download.attempts++;
+        download.error = null;
+        report(download, true);
+        try {
+            if (download.segments == null || download.validator == null) {
+                start(download);
+            }
+            if (download.segments != null) {
+                fetchSegments(download);
+            }
+            complete(download);
+        } catch (IOException e) {
+            if (download.cancelRequested) {
+                finishCancelled(download);
+                return;
+            }
+            download.error = e.getMessage();
+            if (download.changed) {
+                // Pieces of two versions must not be joined; start over
+                download.changed = false;
+                download.segments = null;
+                download.validator = null;
+            }
+            saveMeta(download);
+            if (download.attempts < MAX_ATTEMPTS) {
+                long delay = RETRY_BASE_MS << (download.attempts - 1);
+                Log.w(TAG, download.id + " failed (" + e.getMessage() + "), retrying in "
+                        + (delay / 1000) + "s");
+                download.state = WAITING;
+                coordinator.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (download.state == WAITING) {
+                            runDownload(download);
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                Log.w(TAG, download.id + " failed: " + e.getMessage());
+                download.state = FAILED;
+                failed.incrementAndGet();
+            }
+            report(download, true);
+        }
+    }
+
+    // Asks for the first byte: a 206 gives the size and validator, a 200 is read whole
+    private void start(Download download) throws IOException {
+        HttpURLConnection conn = open(download);
+        boolean ok = false;
+        try {
+            conn.setRequestProperty("Range", "bytes=0-0");
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_PARTIAL || code == HttpURLConnection.HTTP_OK) {
+                checkNotPage(download, conn);
+            }
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                long total = parseTotal(conn.getHeaderField("Content-Range"));
+                if (total < 0) {
+                    throw new IOException("No size in Content-Range");
+                }
+                reserve(download, total);
+                RandomAccessFile file = new RandomAccessFile(partFile(download), "rw");
+                try {
+                    file.setLength(total);
+                } finally {
+                    ResponseCache.closeQuietly(file);
+                }
+                synchronized (download) {
+                    download.total = total;
+                    download.validator = validatorOf(conn);
+                    download.segments = split(total);
+                }
+                download.received.set(0);
+                saveMeta(download);
+                drain(conn.getInputStream());
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                // No range support, so nothing to resume or split
+                long total = parseLong(conn.getHeaderField("Content-Length"));
+                reserve(download, total);
+                synchronized (download) {
+                    download.total = total;
+                    download.validator = null;
+                    download.segments = null;
+                }
+                download.received.set(0);
+                saveMeta(download);
+                readWhole(download, conn.getInputStream());
+            } else {
+                throw new IOException("HTTP " + code);
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private void fetchSegments(final Download download) throws IOException {
+        int count = download.segments.length / 3;
+        List<Future<?>> futures = new ArrayList<Future<?>>(count);
+        for (int i = 0; i < count; i++) {
+            final int segment = i;
+            futures.add(segmentPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    fetchSegment(download, segment);
+                    return null;
+                }
+            }));
+        }
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Segment pool thread
+    private void fetchSegment(Download download, int segment) throws IOException {
+        long pos;
+        long end;
+        synchronized (download) {
+            end = download.segments[segment * 3 + 1];
+            pos = download.segments[segment * 3 + 2];
+        }
+        if (pos > end) {
+            return;
+        }
+        HttpURLConnection conn = open(download);
+        RandomAccessFile out = null;
+        boolean ok = false;
+        try {
+            conn.setRequestProperty("Range", "bytes=" + pos + "-" + end);
+            conn.setRequestProperty("If-Range", download.validator);
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK) {
+                // Not a new version of the file if it is a web page
+                checkNotPage(download, conn);
+                synchronized (download) {
+                    download.changed = true;
+                }
+                throw new IOException("File changed on the server");
+            } else if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code);
+            }
+            out = new RandomAccessFile(partFile(download), "rw");
+            out.seek(pos);
+            InputStream in = conn.getInputStream();
+            byte[] buffer = new byte[16 * 1024];
+            long unsaved = 0;
+            while (pos <= end) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - pos + 1));
+                if (n == -1) {
+                    throw new IOException("Connection closed early");
+                }
+                write(download, n);
+                out.write(buffer, 0, n);
+                pos += n;
+                synchronized (download) {
+                    download.segments[segment * 3 + 2] = pos;
+                }
+                unsaved += n;
+                if (unsaved >= SAVE_EVERY_BYTES) {
+                    unsaved = 0;
+                    saveMeta(download);
+                }
+            }
+            in.close();
+            ok = true;
+        } finally {
+            ResponseCache.closeQuietly(out);
+            if (!ok) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private void readWhole(Download download, InputStream in) throws IOException {
+        OutputStream out = new FileOutputStream(partFile(download));
+        try {
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                write(download, n);
+                out.write(buffer, 0, n);
+                if (download.total < 0 && download.received.get() > quotaBytes) {
+                    download.attempts = MAX_ATTEMPTS; // No point retrying
+                    throw new IOException("Larger than the download quota");
+                }
+            }
+        } finally {
+            ResponseCache.closeQuietly(out);
+            in.close();
+        }
+    }
+
+    // Charges the limiter for bytes just read; any download thread
+    private void write(Download download, int n) throws IOException {
+        if (download.cancelRequested) {
+            throw new InterruptedIOException("Cancelled");
+        }
+        try {
+            limiter.acquire(n);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        download.received.addAndGet(n);
+        bytes.addAndGet(n);
+        report(download, false);
+    }
+
+    private void complete(Download download) throws IOException {
+        File file = new File(dir, download.id);
+        if (!partFile(download).renameTo(file)) {
+            throw new IOException("Cannot move finished file");
+        }
+        synchronized (download) {
+            download.total = file.length();
+            download.segments = null;
+        }
+        download.received.set(download.total);
+        touch(download);
+        download.state = DONE;
+        saveMeta(download);
+        completed.incrementAndGet();
+        evictFor(0, download);
+        Log.i(TAG, "Finished " + download.id + " (" + (download.total / 1024) + "KB)");
+        report(download, true);
+    }
+
+    private void finishCancelled(Download download) {
+        download.state = CANCELLED;
+        partFile(download).delete();
+        metaFile(download).delete();
+        synchronized (this) {
+            downloads.remove(download.id);
+        }
+        Log.i(TAG, "Cancelled " + download.id);
+        report(download, true);
+    }
+
+    // Makes room for a download of {@code size} bytes; unknown sizes are checked as they grow
+    private void reserve(Download download, long size) throws IOException {
+        if (size > quotaBytes) {
+            download.attempts = MAX_ATTEMPTS; // No point retrying
+            throw new IOException("Larger than the download quota");
+        }
+        evictFor(Math.max(0, size), download);
+    }
+
+    // Deletes least recently used finished files until {@code extra} more bytes fit
+    private void evictFor(long extra, Download keep) {
+        List<Download> done = new ArrayList<Download>();
+        long used = 0;
+        for (Download download : snapshot()) {
+            if (download.state == DONE) {
+                done.add(download);
+                used += download.total;
+            }
+        }
+        while (used + extra > quotaBytes && !done.isEmpty()) {
+            Download oldest = null;
+            for (Download download : done) {
+                if (download != keep
+                        && (oldest == null || download.lastUsedMs < oldest.lastUsedMs)) {
+                    oldest = download;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            done.remove(oldest);
+            used -= oldest.total;
+            new File(dir, oldest.id).delete();
+            metaFile(oldest).delete();
+            synchronized (this) {
+                downloads.remove(oldest.id);
+            }
+            evictions.incrementAndGet();
+            Log.i(TAG, "Evicted " + oldest.id);
+        }
+        storedBytes = used;
+    }
+
+    private void touch(Download download) {
+        long now = System.currentTimeMillis();
+        download.lastUsedMs = now;
+        new File(dir, download.id).setLastModified(now);
+    }
+
+    // Picks up finished files and partial downloads from a previous run
+    private void load() {
+        File[] metas = stateDir.listFiles();
+        if (metas == null) {
+            return;
+        }
+        List<Download> resume = new ArrayList<Download>();
+        for (File meta : metas) {
+            String name = meta.getName();
+            if (!name.endsWith(META)) {
+                continue;
+            }
+            Properties props = new Properties();
+            InputStream in = null;
+            try {
+                in = new FileInputStream(meta);
+                props.load(in);
+            } catch (IOException e) {
+                meta.delete();
+                continue;
+            } finally {
+                ResponseCache.closeQuietly(in);
+            }
+            String id = name.substring(0, name.length() - META.length());
+            Download download = new Download(id, props.getProperty("url", ""),
+                    props.getProperty("mime"), props.getProperty("ua"));
+            File file = new File(dir, id);
+            if (file.exists()) {
+                download.state = DONE;
+                download.total = file.length();
+                download.received.set(download.total);
+                download.lastUsedMs = file.lastModified();
+            } else if (new File(stateDir, id + PART).exists()) {
+                download.total = parseLong(props.getProperty("total"));
+                download.validator = props.getProperty("validator");
+                download.segments = parseSegments(props.getProperty("segments"));
+                download.received.set(receivedIn(download.segments));
+                resume.add(download);
+            } else {
+                meta.delete();
+                continue;
+            }
+            synchronized (this) {
+                downloads.put(id, download);
+            }
+        }
+        evictFor(0, null);
+        for (Download download : resume) {
+            Log.i(TAG, "Resuming " + download.id + " at " + (download.received.get() / 1024)
+                    + "KB");
+            runDownload(download);
+        }
+    }
+
+    // Any download thread
+    private void saveMeta(Download download) {
+        Properties props = new Properties();
+        props.setProperty("url", download.url);
+        if (download.mimeType != null) {
+            props.setProperty("mime", download.mimeType);
+        }
+        if (download.userAgent != null) {
+            props.setProperty("ua", download.userAgent);
+        }
+        synchronized (download) {
+            props.setProperty("total", String.valueOf(download.total));
+            if (download.validator != null) {
+                props.setProperty("validator", download.validator);
+            }
+            if (download.segments != null) {
+                props.setProperty("segments", formatSegments(download.segments));
+            }
+            if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+                return;
+            }
+            File meta = metaFile(download);
+            File tmp = new File(stateDir, meta.getName() + ".tmp");
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(tmp);
+                props.store(out, null);
+                out.close();
+                out = null;
+                if (!tmp.renameTo(meta)) {
+                    tmp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot save progress of " + download.id + ": " + e.getMessage());
+            } finally {
+                ResponseCache.closeQuietly(out);
+            }
+        }
+    }
+
+    // Any download thread; progress is throttled, state changes are not
+    private void report(Download download, boolean force) {
+        Listener l = listener;
+        if (l == null || download.dropped) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        synchronized (download) {
+            if (!force && now - download.reportedAtMs < PROGRESS_INTERVAL_MS) {
+                return;
+            }
+            download.reportedAtMs = now;
+        }
+        l.onDownloadChanged(download);
+    }
+
+    private HttpURLConnection open(Download download) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+        HttpURLConnection conn = (HttpURLConnection) new URL(download.url).openConnection();
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        // Range offsets must refer to the stored bytes, not a compressed transfer
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        if (download.userAgent != null) {
+            conn.setRequestProperty("User-Agent", download.userAgent);
+        }
+        // Current cookies, so a resumed download still has the session
+        String cookie = CookieManager.getInstance().getCookie(download.url);
+        if (cookie != null) {
+            conn.setRequestProperty("Cookie", cookie);
+        }
+        return conn;
+    }
+
+    // A login or error page answered with 200 must not be taken for the file
+    private static void checkNotPage(Download download, HttpURLConnection conn)
+            throws IOException {
+        String type = conn.getContentType();
+        if (type != null && type.toLowerCase().startsWith("text/html")
+                && (download.mimeType == null
+                        || !download.mimeType.toLowerCase().startsWith("text/html"))) {
+            throw new IOException("Server sent a web page instead of the file");
+        }
+    }
+
+    private File partFile(Download download) {
+        return new File(stateDir, download.id + PART);
+    }
+
+    private File metaFile(Download download) {
+        return new File(stateDir, download.id + META);
+    }
+
+    private Download get(String id) {
+        synchronized (this) {
+            return downloads.get(id);
+        }
+    }
+
+    private Download find(String url) {
+        for (Download download : snapshot()) {
+            if (download.url.equals(url) && download.state != CANCELLED) {
+                return download;
+            }
+        }
+        return null;
+    }
+
+    private synchronized List<Download> snapshot() {
+        return new ArrayList<Download>(downloads.values());
+    }
+
+    private synchronized String uniqueName(String name) {
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        String candidate = name;
+        for (int i = 1; downloads.containsKey(candidate) || new File(dir, candidate).exists()
+                || new File(stateDir, candidate + META).exists(); i++) {
+            candidate = base + "-" + i + ext;
+        }
+        return candidate;
+    }
+
+    private static String sanitize(String name) {
+        String clean = name.replaceAll("[/\\\\:*?\"<>|\\x00-\\x1f]", "_");
+        if (clean.startsWith(".")) {
+            clean = "_" + clean.substring(1);
+        }
+        return clean.isEmpty() ? "download" : clean;
+    }
+
+    private static JSONObject toJson(Download download) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("id", download.id);
+            json.put("url", download.url);
+            json.put("state", STATE_NAMES[download.state]);
+            json.put("received", download.received.get());
+            json.put("total", download.total);
+            if (download.error != null) {
+                json.put("error", download.error);
+            }
+        } catch (JSONException e) {
+            // Keys and values are never null or NaN
+        }
+        return json;
+    }
+
+    // Strong ETag if there is one; weak ones cannot be used with If-Range
+    private static String validatorOf(HttpURLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return conn.getHeaderField("Last-Modified");
+    }
+
+    // "bytes 0-0/12345" -> 12345, or -1 if the length is unknown
+    static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash < 0 ? -1 : parseLong(contentRange.substring(slash + 1).trim());
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static long[] split(long total) {
+        int count = (int) Math.max(1, Math.min(MAX_SEGMENTS, total / MIN_SEGMENT_BYTES));
+        long size = total / count;
+        long[] segments = new long[count * 3];
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            segments[i * 3] = start;
+            segments[i * 3 + 1] = i == count - 1 ? total - 1 : start + size - 1;
+            segments[i * 3 + 2] = start;
+        }
+        return segments;
+    }
+
+    private static String formatSegments(long[] segments) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            sb.append(i == 0 ? "" : i % 3 == 0 ? "," : " ").append(segments[i]);
+        }
+        return sb.toString();
+    }
+
+    private static long[] parseSegments(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String[] parts = value.split("[, ]");
+        if (parts.length % 3 != 0) {
+            return null;
+        }
+        long[] segments = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            segments[i] = parseLong(parts[i]);
+            if (segments[i] < 0 && i % 3 != 1) {
+                return null;
+            }
+        }
+        return segments;
+    }
+
+    private static long receivedIn(long[] segments) {
+        long received = 0;
+        for (int i = 0; segments != null && i < segments.length; i += 3) {
+            received += segments[i + 2] - segments[i];
+        }
+        return received;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[64];
+        while (in.read(buffer) != -1) {
+            // Single byte of the probe
+        }
+        in.close();
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        };
+    }
+}
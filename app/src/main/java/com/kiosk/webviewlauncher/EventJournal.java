@@ -0,0 +1,241 @@
+package com.kiosk.webviewlauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size journal of what the kiosk did, for looking back after a bad
+ * night. Events go into a memory-mapped ring of 128-byte slots, so a write is
+ * an atomic sequence claim plus a handful of stores into shared memory: no
+ * lock, no allocation, no syscall. The kernel owns the pages, so everything
+ * written survives the process being killed or crashing. At process start
+ * events go to a small in-memory ring until the file is mapped off the main
+ * thread, then move into it. Pure Java;
+ * {@link JournalDecoder} reads the file on a desktop JVM.
+ *
+ * <p>Layout (little endian): a 64-byte header ({@link #MAGIC}, version, slot
+ * size, slot count), then the slots. A slot holds its sequence number (0
+ * while being written), wall-clock ms, type, text length, thread id, a
+ * numeric argument and up to {@link #TEXT_BYTES} ASCII characters.
+ */
+public final class EventJournal {
+
+    public static final int MAGIC = 0x4E524A4B; // "KJRN"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final int SLOT_BYTES = 128;
+    public static final int DEFAULT_SLOTS = 8192;
+
+    // Slot field offsets
+    static final int SEQ = 0;
+    static final int WALL_MS = 8;
+    static final int TYPE = 16;
+    static final int TEXT_LENGTH = 18;
+    static final int THREAD = 20;
+    static final int ARG = 24;
+    static final int TEXT = 32;
+    public static final int TEXT_BYTES = SLOT_BYTES - TEXT;
+
+    // Event types; append only, the decoder relies on the numbering
+    public static final int APP_START = 1;
+    public static final int CRASH = 2;
+    public static final int PAGE_STARTED = 3;
+    public static final int PAGE_FINISHED = 4;
+    public static final int PAGE_VISIBLE = 5;
+    public static final int PAGE_ERROR = 6;
+    public static final int NAVIGATION = 7;
+    public static final int GESTURE = 8;
+    public static final int RELOAD = 9;
+    public static final int SETTINGS_OPENED = 10;
+    public static final int PERMISSION_DENIED = 11;
+    public static final int RENDERER_GONE = 12;
+    public static final int RENDERER_UNRESPONSIVE = 13;
+    public static final int WEBVIEW_REPLACED = 14;
+    public static final int MEMORY_TRIM = 15;
+    public static final int SESSION_RESET = 16;
+    public static final int CONFIG_CHANGED = 17;
+    public static final int DOWNLOAD = 18;
+    public static final int ACTIVITY_RESUMED = 19;
+    public static final int ACTIVITY_PAUSED = 20;
+    public static final int CONNECTIVITY = 21;
+    public static final int OFFLINE_PAGE = 22;
+    public static final int SHELL_BUNDLE = 23;
+
+    private static final String[] TYPE_NAMES = {
+            "?", "app_start", "crash", "page_started", "page_finished", "page_visible",
+            "page_error", "navigation", "gesture", "reload", "settings_opened",
+            "permission_denied", "renderer_gone", "renderer_unresponsive", "webview_replaced",
+            "memory_trim", "session_reset", "config_changed", "download", "activity_resumed",
+            "activity_paused", "connectivity", "offline_page",
+            "shell_bundle"
+    };
+
+    // Every this many writes is timed, to keep the clock reads off the common path
+    private static final int TIMING_SAMPLE_MASK = 63;
+
+    private final AtomicLong lastSeq;
+    private final LatencyHistogram writeNs = new LatencyHistogram();
+    // Swapped once, from the startup ring to the mapped file, under the lock
+    private volatile ByteBuffer buffer;
+    private volatile int slots;
+    // Set after the swap; from then on writes take no lock
+    private volatile boolean mapped;
+
+    private EventJournal(ByteBuffer buffer, int slots, long lastSeq, boolean mapped) {
+        this.buffer = buffer;
+        this.slots = slots;
+        this.lastSeq = new AtomicLong(lastSeq);
+        this.mapped = mapped;
+    }
+
+    /**
+     * Maps {@code file}, continuing after its newest event. A file with another
+     * layout is started over. Does a little IO; keep it off the main thread.
+     */
+    public static EventJournal open(File file, int slots) throws IOException {
+        ByteBuffer buffer = map(file, slots);
+        return new EventJournal(buffer, slots, newestSeq(buffer, slots), true);
+    }
+
+    /**
+     * Journal that dies with the process. Used until {@link #moveTo} has mapped
+     * the file, and for good when the file cannot be mapped.
+     */
+    public static EventJournal inMemory(int slots) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_BYTES + slots * SLOT_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return new EventJournal(buffer, slots, 0, false);
+    }
+
+    /**
+     * Maps {@code file} and carries on there: the events logged in memory so far
+     * are copied in after the file's newest one. The mapping happens on the
+     * calling thread; writers only wait for the copy.
+     */
+    public void moveTo(File file, int fileSlots) throws IOException {
+        ByteBuffer target = map(file, fileSlots);
+        long last = newestSeq(target, fileSlots);
+        synchronized (this) {
+            if (mapped) {
+                throw new IllegalStateException("Journal already mapped");
+            }
+            // Writers hold the lock until now, so every logged slot is complete
+            long written = lastSeq.get();
+            for (long seq = Math.max(1, written - slots + 1); seq <= written; seq++) {
+                int from = HEADER_BYTES + (int) ((seq - 1) % slots) * SLOT_BYTES;
+                int to = HEADER_BYTES + (int) ((last + seq - 1) % fileSlots) * SLOT_BYTES;
+                target.putLong(to + SEQ, 0);
+                for (int i = WALL_MS; i < SLOT_BYTES; i += 8) {
+                    target.putLong(to + i, buffer.getLong(from + i));
+                }
+                target.putLong(to + SEQ, last + seq);
+            }
+            lastSeq.set(last + written);
+            slots = fileSlots;
+            buffer = target;
+            mapped = true;
+        }
+    }
+
+    private static ByteBuffer map(File file, int slots) throws IOException {
+        long size = HEADER_BYTES + (long) slots * SLOT_BYTES;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean fresh = raf.length() != size;
+            if (fresh) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            // Fault the pages in now rather than on the first writes
+            buffer.load();
+            if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != SLOT_BYTES || buffer.getInt(12) != slots) {
+                for (int i = 0; i < size; i += 8) {
+                    buffer.putLong(i, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, SLOT_BYTES);
+                buffer.putInt(12, slots);
+            }
+            return buffer;
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private static long newestSeq(ByteBuffer buffer, int slots) {
+        long last = 0;
+        for (int i = 0; i < slots; i++) {
+            last = Math.max(last, buffer.getLong(HEADER_BYTES + i * SLOT_BYTES + SEQ));
+        }
+        return last;
+    }
+
+    public void log(int type, long arg) {
+        log(type, arg, null);
+    }
+
+    /** Records one event; {@code text} is cut to {@link #TEXT_BYTES} ASCII chars. Any thread. */
+    public void log(int type, long arg, String text) {
+        if (mapped) {
+            write(buffer, slots, type, arg, text);
+            return;
+        }
+        // Only until the file is mapped, so no event is written into the old ring
+        synchronized (this) {
+            write(buffer, slots, type, arg, text);
+        }
+    }
+
+    private void write(ByteBuffer buffer, int slots, int type, long arg, String text) {
+        long seq = lastSeq.incrementAndGet();
+        boolean timed = (seq & TIMING_SAMPLE_MASK) == 0;
+        long start = timed ? System.nanoTime() : 0;
+        int base = HEADER_BYTES + (int) ((seq - 1) % slots) * SLOT_BYTES;
+        // Mark the slot as in progress so a half-written event is never decoded
+        buffer.putLong(base + SEQ, 0);
+        buffer.putLong(base + WALL_MS, System.currentTimeMillis());
+        buffer.putShort(base + TYPE, (short) type);
+        buffer.putInt(base + THREAD, (int) Thread.currentThread().getId());
+        buffer.putLong(base + ARG, arg);
+        int length = text == null ? 0 : Math.min(text.length(), TEXT_BYTES);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            buffer.put(base + TEXT + i, (byte) (c >= 0x20 && c < 0x7F ? c : '?'));
+        }
+        buffer.putShort(base + TEXT_LENGTH, (short) length);
+        buffer.putLong(base + SEQ, seq);
+        if (timed) {
+            writeNs.record(System.nanoTime() - start);
+        }
+    }
+
+    public long getWriteCount() {
+        return lastSeq.get();
+    }
+
+    /** Sampled write times. */
+    public LatencyHistogram getWriteHistogram() {
+        return writeNs;
+    }
+
+    public String statsSummary() {
+        return "events=" + lastSeq.get() + " slots=" + slots
+                + " writeP50=" + writeNs.percentile(50) + "ns"
+                + " writeP99=" + writeNs.percentile(99) + "ns";
+    }
+
+    public static String typeName(int type) {
+        return type > 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : "type" + type;
+    }
+}
@@ -0,0 +1,141 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.FrameMetrics;
+import android.view.MotionEvent;
+import android.view.Window;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each frame of the activity window took, split by whether
+ * the user was touching the screen. FrameMetrics are delivered on a private
+ * background thread, and each frame costs one histogram record, so the UI
+ * thread never runs monitoring code. The monitor also measures its own
+ * callback time, so the overhead can be checked against frame time.
+ */
+public class FrameJankMonitor {
+
+    public static final int MODE_IDLE = 0;
+    public static final int MODE_TOUCH = 1;
+
+    private static final String[] MODE_NAMES = {"idle", "touch"};
+    // Flings and page reactions continue briefly after the finger lifts
+    private static final long TOUCH_TAIL_MS = 500;
+
+    private final Window window;
+    private final long frameBudgetUs;
+    private final LatencyHistogram[] frameUs = {new LatencyHistogram(), new LatencyHistogram()};
+    private final AtomicLongArray jankyFrames = new AtomicLongArray(2);
+    private HandlerThread thread;
+
+    // Written on the UI thread by the touch listener
+    private volatile boolean touching = false;
+    private volatile long touchEndedAtMs = 0;
+
+    // Written only on the metrics thread
+    private volatile long droppedReports = 0;
+    private volatile long callbackNs = 0;
+
+    private final Window.OnFrameMetricsAvailableListener listener =
+            new Window.OnFrameMetricsAvailableListener() {
+                @Override
+                public void onFrameMetricsAvailable(Window w, FrameMetrics metrics,
+                        int dropCountSinceLastInvocation) {
+                    long start = System.nanoTime();
+                    if (metrics.getMetric(FrameMetrics.FIRST_DRAW_FRAME) == 0) {
+                        long durationUs = metrics.getMetric(FrameMetrics.TOTAL_DURATION) / 1000;
+                        int mode = currentMode();
+                        frameUs[mode].record(durationUs);
+                        if (durationUs > frameBudgetUs) {
+                            jankyFrames.incrementAndGet(mode);
+                        }
+                    }
+                    droppedReports += dropCountSinceLastInvocation;
+                    callbackNs += System.nanoTime() - start;
+                }
+            };
+
+    public FrameJankMonitor(Window window, float refreshRateHz) {
+        this.window = window;
+        float rate = refreshRateHz > 1 ? refreshRateHz : 60f;
+        this.frameBudgetUs = (long) (1000000 / rate);
+    }
+
+    public void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new HandlerThread("kiosk-frames");
+        thread.start();
+        window.addOnFrameMetricsAvailableListener(listener, new Handler(thread.getLooper()));
+    }
+
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        window.removeOnFrameMetricsAvailableListener(listener);
+        thread.quitSafely();
+        thread = null;
+    }
+
+    /** Fed from the activity's touch listener. */
+    public void onTouch(int actionMasked, long eventTimeMs) {
+        if (actionMasked == MotionEvent.ACTION_DOWN) {
+            touching = true;
+        } else if (actionMasked == MotionEvent.ACTION_UP
+                || actionMasked == MotionEvent.ACTION_CANCEL) {
+            touching = false;
+            touchEndedAtMs = eventTimeMs;
+        }
+    }
+
+    public LatencyHistogram getFrameHistogram(int mode) {
+        return frameUs[mode];
+    }
+
+    public long getJankyFrames(int mode) {
+        return jankyFrames.get(mode);
+    }
+
+    public double getJankRatio(int mode) {
+        long count = frameUs[mode].getCount();
+        return count == 0 ? 0 : (double) jankyFrames.get(mode) / count;
+    }
+
+    /** Monitoring time as a fraction of total frame time. */
+    public double getOverheadRatio() {
+        long frameNs = (frameUs[MODE_IDLE].getSum() + frameUs[MODE_TOUCH].getSum()) * 1000;
+        return frameNs == 0 ? 0 : (double) callbackNs / frameNs;
+    }
+
+    public String statsSummary() {
+        StringBuilder sb = new StringBuilder("budget=").append(frameBudgetUs).append("us");
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            LatencyHistogram h = frameUs[mode];
+            sb.append(' ').append(MODE_NAMES[mode]).append("[frames=").append(h.getCount())
+                    .append(" p50=").append(h.percentile(50))
+                    .append(" p95=").append(h.percentile(95))
+                    .append(" p99=").append(h.percentile(99))
+                    .append("us jank=").append(Math.round(getJankRatio(mode) * 1000) / 10.0)
+                    .append("%]");
+        }
+        return sb.append(" dropped=").append(droppedReports)
+                .append(" overhead=").append(Math.round(getOverheadRatio() * 10000) / 100.0)
+                .append('%').toString();
+    }
+
+    public static String modeName(int mode) {
+        return MODE_NAMES[mode];
+    }
+
+    private int currentMode() {
+        if (touching || SystemClock.uptimeMillis() - touchEndedAtMs < TOUCH_TAIL_MS) {
+            return MODE_TOUCH;
+        }
+        return MODE_IDLE;
+    }
+}
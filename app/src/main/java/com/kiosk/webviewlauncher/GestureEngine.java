@@ -0,0 +1,47 @@
+package com.kiosk.webviewlauncher;
+
+/**
+ * Dispatches touch samples to registered admin gestures. Recognizers are
+ * registered once during setup; dispatch walks a plain array and reports
+ * matches through a single listener, so the per-event path is allocation-free.
+ */
+public final class GestureEngine {
+
+    public interface Listener {
+        void onGesture(int gestureId);
+    }
+
+    private static final int MAX_RECOGNIZERS = 8;
+
+    private final GestureRecognizer[] recognizers = new GestureRecognizer[MAX_RECOGNIZERS];
+    private final int[] ids = new int[MAX_RECOGNIZERS];
+    private int count = 0;
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void register(int gestureId, GestureRecognizer recognizer) {
+        if (count == MAX_RECOGNIZERS) {
+            throw new IllegalStateException("Too many gesture recognizers");
+        }
+        ids[count] = gestureId;
+        recognizers[count] = recognizer;
+        count++;
+    }
+
+    public void onTouch(TouchSample sample) {
+        for (int i = 0; i < count; i++) {
+            if (recognizers[i].onTouch(sample) && listener != null) {
+                listener.onGesture(ids[i]);
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < count; i++) {
+            recognizers[i].reset();
+        }
+    }
+}
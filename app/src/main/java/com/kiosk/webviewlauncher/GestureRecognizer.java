@@ -0,0 +1,14 @@
+package com.kiosk.webviewlauncher;
+
+/**
+ * One admin gesture. Implementations keep all state in fields set up at
+ * construction time and must not allocate in {@link #onTouch}.
+ */
+public interface GestureRecognizer {
+
+    /** Returns true when this event completes the gesture. */
+    boolean onTouch(TouchSample sample);
+
+    /** Drops any partially recognised gesture. */
+    void reset();
+}
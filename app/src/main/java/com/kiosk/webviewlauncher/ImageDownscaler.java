@@ -0,0 +1,398 @@
+package com.kiosk.webviewlauncher;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Log;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shrinks images that are larger than the panel before WebView decodes them.
+ * JPEG, PNG and WebP responses are buffered, decoded with a power-of-two
+ * sample size, scaled to fit the display's longest side, turned upright per
+ * their EXIF orientation and re-encoded as WebP on a small worker pool that
+ * caps concurrent bitmap memory. Images arriving while every worker is busy
+ * pass through untouched. Results are kept in their own {@link ResponseCache},
+ * keyed by URL and target size. Called on WebView's IO threads.
+ */
+public class ImageDownscaler {
+
+    // Config key; on by default
+    public static final String KEY_ENABLED = "image_downscale_enabled";
+
+    private static final String TAG = "KioskImages";
+    private static final int WORKERS = 2;
+    private static final int MAX_SOURCE_BYTES = 16 * 1024 * 1024;
+    private static final int WEBP_QUALITY = 82;
+    // An IO thread blocks this long at most; the page's other requests wait behind it
+    private static final long PROCESS_TIMEOUT_MS = 2000;
+    // Images only slightly larger than the panel are not worth a re-encode
+    private static final float OVERSIZE_FACTOR = 1.25f;
+    private static final int MAX_PASS_THROUGH_URLS = 512;
+
+    private final ResponseCache derivedCache;
+    private final int maxSide;
+    private final String keySuffix;
+    private final ThreadPoolExecutor workers;
+    // Images found not worth processing, so later loads skip the buffering
+    private final Set<String> passThroughUrls =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean enabled = true;
+
+    // Stats
+    private final AtomicLong downscaled = new AtomicLong();
+    private final AtomicLong derivedHits = new AtomicLong();
+    private final AtomicLong passedThrough = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong pixelsSaved = new AtomicLong();
+    private final AtomicLong workNs = new AtomicLong();
+
+    private static final class Result {
+        final byte[] data;
+        final boolean scaled;
+
+        Result(byte[] data, boolean scaled) {
+            this.data = data;
+            this.scaled = scaled;
+        }
+    }
+
+    /** {@code maxSide} is the display's longest side in pixels. */
+    public ImageDownscaler(ResponseCache derivedCache, int maxSide) {
+        this.derivedCache = derivedCache;
+        this.maxSide = maxSide;
+        this.keySuffix = "#kiosk-fit-" + maxSide;
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "kiosk-image-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    public void applyConfig(KioskConfig config) {
+        enabled = config.getBoolean(KEY_ENABLED, true);
+    }
+
+    /** A previously downscaled copy of {@code url}, or null. */
+    public WebResourceResponse lookup(String url) {
+        if (!enabled) {
+            return null;
+        }
+        String key = url + keySuffix;
+        ResponseCache.Entry entry = derivedCache.get(key);
+        if (entry == null || !entry.isFresh(System.currentTimeMillis())) {
+            return null;
+        }
+        ResponseCache.Snapshot snapshot = derivedCache.open(key);
+        if (snapshot == null) {
+            return null;
+        }
+        derivedHits.incrementAndGet();
+        return new WebResourceResponse(snapshot.entry.mimeType, null, 200, "OK",
+                snapshot.headers, snapshot.body);
+    }
+
+    /**
+     * Returns a downscaled replacement for an oversized image, or {@code response}.
+     * {@code credentialed} requests only keep their copy if the server marked it public.
+     */
+    public WebResourceResponse process(final String url, final WebResourceResponse response,
+            final boolean credentialed) {
+        if (!enabled || response.getStatusCode() != 200 || passThroughUrls.contains(url)
+                || !isScalableType(response.getMimeType())) {
+            return response;
+        }
+        Future<Result> future;
+        try {
+            future = workers.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws IOException {
+                    return transform(url, response, credentialed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Every worker is busy; this image goes through untouched
+            passedThrough.incrementAndGet();
+            return response;
+        }
+
+        Result result;
+        try {
+            result = future.get(PROCESS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            // The original body may be half consumed; let WebView fetch it again untouched
+            Log.w(TAG, "Image processing failed for " + url + ": " + e);
+            future.cancel(true);
+            rememberPassThrough(url);
+            return null;
+        }
+        if (!result.scaled) {
+            return new WebResourceResponse(response.getMimeType(), null, 200, "OK",
+                    response.getResponseHeaders(), new ByteArrayInputStream(result.data));
+        }
+        return new WebResourceResponse("image/webp", null, 200, "OK",
+                derivedHeaders(response.getResponseHeaders()),
+                new ByteArrayInputStream(result.data));
+    }
+
+    public String statsSummary() {
+        long in = bytesIn.get();
+        long out = bytesOut.get();
+        return "downscaled=" + downscaled.get() + " cached=" + derivedHits.get()
+                + " passedThrough=" + passedThrough.get()
+                + " bytesSaved=" + ((in - out) / 1024) + "KB"
+                + " pixelsSaved=" + (pixelsSaved.get() / 1000000) + "M"
+                + " work=" + (workNs.get() / 1000000) + "ms";
+    }
+
+    public long getDownscaledCount() {
+        return downscaled.get();
+    }
+
+    public long getBytesSaved() {
+        return bytesIn.get() - bytesOut.get();
+    }
+
+    public long getPixelsSaved() {
+        return pixelsSaved.get();
+    }
+
+    public long getWorkMs() {
+        return workNs.get() / 1000000;
+    }
+
+    // Worker thread
+    private Result transform(String url, WebResourceResponse response, boolean credentialed)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return transform(url, response, readFully(response.getData()), credentialed);
+        } finally {
+            workNs.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private Result transform(String url, WebResourceResponse response, byte[] source,
+            boolean credentialed) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(source, 0, source.length, bounds);
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0
+                || Math.max(width, height) <= maxSide * OVERSIZE_FACTOR) {
+            rememberPassThrough(url);
+            passedThrough.incrementAndGet();
+            return new Result(source, false);
+        }
+
+        // Sample down in the decoder first; it is far cheaper than scaling a full bitmap
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (Math.max(width, height) / (options.inSampleSize * 2) >= maxSide) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap sampled = BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (sampled == null) {
+            passedThrough.incrementAndGet();
+            return new Result(source, false);
+        }
+        float scale = Math.min(1f,
+                (float) maxSide / Math.max(sampled.getWidth(), sampled.getHeight()));
+        // WebP output carries no EXIF, so the rotation has to be in the pixels
+        Matrix matrix = new Matrix();
+        matrix.setScale(scale, scale);
+        applyOrientation(matrix, readOrientation(response.getMimeType(), source));
+        Bitmap scaled = sampled;
+        if (!matrix.isIdentity()) {
+            scaled = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(),
+                    matrix, true);
+            if (scaled != sampled) {
+                sampled.recycle();
+            }
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(source.length / 4);
+        scaled.compress(webpFormat(), WEBP_QUALITY, encoded);
+        long outPixels = (long) scaled.getWidth() * scaled.getHeight();
+        scaled.recycle();
+
+        byte[] output = encoded.toByteArray();
+        if (output.length == 0 || output.length >= source.length) {
+            rememberPassThrough(url);
+            passedThrough.incrementAndGet();
+            return new Result(source, false);
+        }
+        downscaled.incrementAndGet();
+        bytesIn.addAndGet(source.length);
+        bytesOut.addAndGet(output.length);
+        pixelsSaved.addAndGet((long) width * height - outPixels);
+        store(url, response.getResponseHeaders(), output, credentialed);
+        return new Result(output, true);
+    }
+
+    private void store(String url, Map<String, String> originalHeaders, byte[] data,
+            boolean credentialed) {
+        String cacheControl = headerValue(originalHeaders, "Cache-Control");
+        long freshness = CachePolicy.freshnessMs("image/webp", cacheControl);
+        if (freshness < 0 || !CachePolicy.mayStore(cacheControl,
+                headerValue(originalHeaders, "Vary"), credentialed)) {
+            return;
+        }
+        try {
+            ResponseCache.Writer writer = derivedCache.edit(url + keySuffix, "image/webp", null,
+                    null, null, freshness, derivedHeaders(originalHeaders));
+            try {
+                writer.stream().write(data);
+                writer.commit();
+            } catch (IOException e) {
+                writer.abort();
+                throw e;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot cache downscaled " + url + ": " + e.getMessage());
+        }
+    }
+
+    private void rememberPassThrough(String url) {
+        if (passThroughUrls.size() >= MAX_PASS_THROUGH_URLS) {
+            passThroughUrls.clear();
+        }
+        passThroughUrls.add(url);
+    }
+
+    private static int readOrientation(String mimeType, byte[] source) {
+        if (!"image/jpeg".equals(mimeType) && !"image/jpg".equals(mimeType)
+                && !"image/webp".equals(mimeType)) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+        try {
+            return new ExifInterface(new ByteArrayInputStream(source)).getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    // Maps EXIF orientation to the transform that shows the image upright
+    private static void applyOrientation(Matrix matrix, int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static boolean isScalableType(String mimeType) {
+        // GIFs may be animated and SVGs are already resolution independent
+        return "image/jpeg".equals(mimeType) || "image/jpg".equals(mimeType)
+                || "image/png".equals(mimeType) || "image/webp".equals(mimeType);
+    }
+
+    @SuppressWarnings("deprecation")
+    static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    // Body-describing headers of the original no longer apply
+    private static Map<String, String> derivedHeaders(Map<String, String> original) {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        if (original == null) {
+            return headers;
+        }
+        for (Map.Entry<String, String> header : original.entrySet()) {
+            String lower = header.getKey().toLowerCase(Locale.US);
+            if (!lower.equals("content-type") && !lower.equals("content-length")
+                    && !lower.equals("etag") && !lower.equals("last-modified")) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    private static String headerValue(Map<String, String> headers, String name) {
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            byte[] buffer = new byte[16 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_SOURCE_BYTES) {
+                    throw new IOException("image larger than " + MAX_SOURCE_BYTES + " bytes");
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.kiosk.webviewlauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Prints an {@link EventJournal} file oldest first, one event per line with
+ * UTC timestamps. Runs on any desktop JVM from the app's compiled classes:
+ * <pre>
+ * adb exec-out run-as com.kiosk.webviewlauncher cat files/journal.bin &gt; journal.bin
+ * java -cp app/build/intermediates/javac/debug/classes \
+ *     com.kiosk.webviewlauncher.JournalDecoder journal.bin [last-n]
+ * </pre>
+ */
+public final class JournalDecoder {
+
+    public static final class Event {
+        public final long seq;
+        public final long wallMs;
+        public final int type;
+        public final int thread;
+        public final long arg;
+        public final String text;
+
+        Event(long seq, long wallMs, int type, int thread, long arg, String text) {
+            this.seq = seq;
+            this.wallMs = wallMs;
+            this.type = type;
+            this.thread = thread;
+            this.arg = arg;
+            this.text = text;
+        }
+    }
+
+    private JournalDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalDecoder <journal.bin> [last-n]");
+            System.exit(2);
+        }
+        List<Event> events = read(new File(args[0]));
+        int from = args.length > 1 ? Math.max(0, events.size() - Integer.parseInt(args[1])) : 0;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long previous = from > 0 ? events.get(from - 1).seq : -1;
+        for (int i = from; i < events.size(); i++) {
+            Event e = events.get(i);
+            if (previous >= 0 && e.seq != previous + 1) {
+                System.out.println("... " + (e.seq - previous - 1) + " events missing");
+            }
+            previous = e.seq;
+            System.out.println(format.format(new Date(e.wallMs)) + "Z #" + e.seq + " t" + e.thread
+                    + " " + EventJournal.typeName(e.type) + " arg=" + e.arg
+                    + (e.text.isEmpty() ? "" : " " + e.text));
+        }
+    }
+
+    /** Complete events in the file, oldest first; slots caught mid-write are skipped. */
+    public static List<Event> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] bytes;
+        try {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < EventJournal.HEADER_BYTES || buffer.getInt(0) != EventJournal.MAGIC) {
+            throw new IOException("Not a kiosk journal");
+        }
+        if (buffer.getInt(4) != EventJournal.VERSION) {
+            throw new IOException("Unsupported journal version " + buffer.getInt(4));
+        }
+        int slotBytes = buffer.getInt(8);
+        int slots = buffer.getInt(12);
+        if (bytes.length < EventJournal.HEADER_BYTES + (long) slots * slotBytes) {
+            throw new IOException("Journal is truncated");
+        }
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < slots; i++) {
+            int base = EventJournal.HEADER_BYTES + i * slotBytes;
+            long seq = buffer.getLong(base + EventJournal.SEQ);
+            if (seq <= 0) {
+                continue;
+            }
+            int length = Math.min(buffer.getShort(base + EventJournal.TEXT_LENGTH),
+                    slotBytes - EventJournal.TEXT);
+            String text = new String(bytes, base + EventJournal.TEXT, Math.max(0, length),
+                    "US-ASCII");
+            events.add(new Event(seq, buffer.getLong(base + EventJournal.WALL_MS),
+                    buffer.getShort(base + EventJournal.TYPE),
+                    buffer.getInt(base + EventJournal.THREAD),
+                    buffer.getLong(base + EventJournal.ARG), text));
+        }
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return a.seq < b.seq ? -1 : a.seq == b.seq ? 0 : 1;
+            }
+        });
+        return events;
+    }
+}
@@ -0,0 +1,310 @@
+package com.kiosk.webviewlauncher;
+
+import android.app.Application;
+import android.os.Process;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.WebSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process entry point. Starts the slow, independent parts of a cold start in
+ * parallel before MainActivity inflates: WebView provider loading, the
+ * config read, the response cache index, and DNS/TLS to the configured
+ * origin. Subsystems are built on first use or by the warm-up executor,
+ * whichever comes first, and each build shows up in {@link StartupTrace}.
+ */
+public class KioskApplication extends Application {
+
+    private static final String TAG = "KioskApp";
+    private static final long RESPONSE_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long IMAGE_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+    private static final int PRECONNECT_TIMEOUT_MS = 5000;
+    // Idle keep-alive sockets per route; the platform default of 5 is tuned for phones
+    private static final int HTTP_MAX_IDLE_CONNECTIONS = 16;
+    // Events kept in memory before the journal file is mapped
+    private static final int JOURNAL_STARTUP_SLOTS = 256;
+
+    private ConfigRepository configRepository;
+    private ResponseCache responseCache;
+    private ResponseCache imageCache;
+    private PageLoadTelemetry pageLoadTelemetry;
+    private ConfigSync configSync;
+    private ContentBlocker contentBlocker;
+    private ServiceWorkerBridge serviceWorkers;
+    private Downloader downloader;
+    private MediaPrefetcher mediaPrefetcher;
+    private AppShell appShell;
+    private EventJournal journal;
+    private Handler mainHandler;
+
+    @Override
+    public void onCreate() {
+        long start = StartupTrace.begin("app_create");
+        super.onCreate();
+        startJournal();
+
+        // Read once when the HttpURLConnection pool is created, so set it first
+        System.setProperty("http.maxConnections", String.valueOf(HTTP_MAX_IDLE_CONNECTIONS));
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        responseCache = new ResponseCache(new File(getCacheDir(), "kiosk_http"),
+                RESPONSE_CACHE_MAX_BYTES);
+        imageCache = new ResponseCache(new File(getCacheDir(), "kiosk_img"),
+                IMAGE_CACHE_MAX_BYTES);
+        pageLoadTelemetry = new PageLoadTelemetry(this);
+
+        ExecutorService warmupExecutor = Executors.newFixedThreadPool(3, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-warmup-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        warmupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUpWebViewProvider();
+            }
+        });
+        // Config first, then what the first page needs, then the rest. A getter that
+        // MainActivity reaches before this builds the subsystem itself.
+        warmupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getConfigRepository();
+                getAppShell();
+                getContentBlocker();
+                getMediaPrefetcher();
+                getDownloader();
+                getConfigSync();
+            }
+        });
+        warmupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long t = StartupTrace.begin("cache_index_load");
+                responseCache.load();
+                imageCache.load();
+                StartupTrace.end("cache_index_load", t);
+            }
+        });
+        warmupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                preconnect(getConfigRepository().get().getUrl());
+            }
+        });
+        warmupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mapJournal();
+            }
+        });
+        warmupExecutor.shutdown();
+
+        StartupTrace.end("app_create", start);
+    }
+
+    public synchronized ConfigRepository getConfigRepository() {
+        if (configRepository == null) {
+            long t = StartupTrace.begin("config_load");
+            // Listeners are always called on the main thread
+            configRepository = new ConfigRepository(new SharedPrefsConfigStore(this),
+                    new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            mainHandler.post(command);
+                        }
+                    });
+            configRepository.addListener(new ConfigRepository.Listener() {
+                @Override
+                public void onConfigChanged(KioskConfig previous, KioskConfig current) {
+                    applyConfig(current);
+                }
+            });
+            StartupTrace.end("config_load", t);
+        }
+        return configRepository;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /** Downscaled image copies, kept apart so they never evict original responses. */
+    public ResponseCache getImageCache() {
+        return imageCache;
+    }
+
+    public PageLoadTelemetry getPageLoadTelemetry() {
+        return pageLoadTelemetry;
+    }
+
+    /** Fleet config polling; off until a sync URL is configured. */
+    public synchronized ConfigSync getConfigSync() {
+        if (configSync == null) {
+            long t = StartupTrace.begin("config_sync_init");
+            configSync = new ConfigSync(getConfigRepository());
+            configSync.applyConfig(configRepository.get());
+            StartupTrace.end("config_sync_init", t);
+        }
+        return configSync;
+    }
+
+    /** Lists are parsed on the blocker's own thread; lookups start empty. */
+    public synchronized ContentBlocker getContentBlocker() {
+        if (contentBlocker == null) {
+            long t = StartupTrace.begin("content_blocker_init");
+            contentBlocker = new ContentBlocker(new File(getFilesDir(), "blocklists"));
+            contentBlocker.applyConfig(getConfigRepository().get());
+            StartupTrace.end("content_blocker_init", t);
+        }
+        return contentBlocker;
+    }
+
+    /** Installed by MainActivity once the WebView provider is loaded. */
+    public synchronized ServiceWorkerBridge getServiceWorkerBridge() {
+        if (serviceWorkers == null) {
+            serviceWorkers = new ServiceWorkerBridge(new CachingInterceptor(responseCache),
+                    getContentBlocker(), getAppShell());
+        }
+        return serviceWorkers;
+    }
+
+    /** Outlives activity restarts so downloads keep going; resumes unfinished ones. */
+    public synchronized Downloader getDownloader() {
+        if (downloader == null) {
+            long t = StartupTrace.begin("downloader_init");
+            downloader = new Downloader(new File(getFilesDir(), "downloads"));
+            downloader.applyConfig(getConfigRepository().get());
+            StartupTrace.end("downloader_init", t);
+        }
+        return downloader;
+    }
+
+    /** Signage video kept on local storage; verifies stored files on its own thread. */
+    public synchronized MediaPrefetcher getMediaPrefetcher() {
+        if (mediaPrefetcher == null) {
+            long t = StartupTrace.begin("media_prefetcher_init");
+            mediaPrefetcher = new MediaPrefetcher(new File(getFilesDir(), "media"));
+            mediaPrefetcher.applyConfig(getConfigRepository().get());
+            StartupTrace.end("media_prefetcher_init", t);
+        }
+        return mediaPrefetcher;
+    }
+
+    /** Kiosk UI served from a local bundle; maps the current one on its own thread. */
+    public synchronized AppShell getAppShell() {
+        if (appShell == null) {
+            long t = StartupTrace.begin("app_shell_init");
+            appShell = new AppShell(this, new File(getFilesDir(), "shell"), mainHandler);
+            appShell.applyConfig(getConfigRepository().get());
+            StartupTrace.end("app_shell_init", t);
+        }
+        return appShell;
+    }
+
+    public EventJournal getJournal() {
+        return journal;
+    }
+
+    // Holds the lock so a subsystem being built cannot miss a change
+    private synchronized void applyConfig(KioskConfig config) {
+        if (configSync != null) {
+            configSync.applyConfig(config);
+        }
+        if (contentBlocker != null) {
+            contentBlocker.applyConfig(config);
+        }
+        if (downloader != null) {
+            downloader.applyConfig(config);
+        }
+        if (mediaPrefetcher != null) {
+            mediaPrefetcher.applyConfig(config);
+        }
+        if (appShell != null) {
+            appShell.applyConfig(config);
+        }
+    }
+
+    // The journal takes events at once; its file is mapped later by mapJournal()
+    private void startJournal() {
+        journal = EventJournal.inMemory(JOURNAL_STARTUP_SLOTS);
+        journal.log(EventJournal.APP_START, Process.myPid());
+
+        // The last thing written before the process dies
+        final Thread.UncaughtExceptionHandler next = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable e) {
+                journal.log(EventJournal.CRASH, 0, thread.getName() + ": " + e);
+                StackTraceElement[] frames = e.getStackTrace();
+                for (int i = 0; i < Math.min(4, frames.length); i++) {
+                    journal.log(EventJournal.CRASH, i + 1, frames[i].toString());
+                }
+                if (next != null) {
+                    next.uncaughtException(thread, e);
+                }
+            }
+        });
+    }
+
+    private void mapJournal() {
+        long t = StartupTrace.begin("journal_open");
+        try {
+            journal.moveTo(new File(getFilesDir(), "journal.bin"), EventJournal.DEFAULT_SLOTS);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot map the event journal, keeping it in memory", e);
+        }
+        StartupTrace.end("journal_open", t);
+    }
+
+    private void warmUpWebViewProvider() {
+        long t = StartupTrace.begin("webview_provider_load");
+        try {
+            // Loads the Chromium provider classes and native library off the main thread
+            WebSettings.getDefaultUserAgent(this);
+        } catch (RuntimeException e) {
+            // Provider missing or updating; MainActivity will surface the failure
+            Log.w(TAG, "WebView provider warm-up failed", e);
+        }
+        StartupTrace.end("webview_provider_load", t);
+    }
+
+    private void preconnect(String url) {
+        long t = StartupTrace.begin("preconnect");
+        try {
+            URL target = new URL(url);
+            // Populates the system DNS cache, which Chromium's resolver also uses
+            InetAddress.getAllByName(target.getHost());
+            StartupTrace.mark("dns_resolved");
+
+            // TLS handshake on a pooled connection the caching interceptor will reuse;
+            // no disconnect() so the socket stays in the pool
+            HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(PRECONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(PRECONNECT_TIMEOUT_MS);
+            conn.getResponseCode();
+            conn.getInputStream().close();
+        } catch (Exception e) {
+            Log.w(TAG, "Preconnect to " + url + " failed: " + e.getMessage());
+        }
+        StartupTrace.end("preconnect", t);
+    }
+}
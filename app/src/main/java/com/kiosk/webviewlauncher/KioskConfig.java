@@ -0,0 +1,74 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the kiosk configuration. Reads are plain field and
+ * map lookups; a new snapshot replaces the old one whenever settings change.
+ */
+public final class KioskConfig {
+
+    public static final String KEY_URL = "web_url";
+    public static final String KEY_PASSWORD_HASH = "password_hash";
+
+    public static final String DEFAULT_URL = "https://www.nikolaindustry.com";
+
+    private final Map<String, String> values;
+    private final String url;
+
+    KioskConfig(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<String, String>(values));
+        this.url = normalizeUrl(getString(KEY_URL, DEFAULT_URL));
+    }
+
+    /** The configured URL with a protocol, ready for WebView.loadUrl. */
+    public String getUrl() {
+        return url;
+    }
+
+    /** The URL as the admin typed it, for display in settings. */
+    public String getRawUrl() {
+        return getString(KEY_URL, DEFAULT_URL);
+    }
+
+    public String getPasswordHash() {
+        return values.get(KEY_PASSWORD_HASH);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = values.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+
+    Map<String, String> asMap() {
+        return values;
+    }
+
+    public static String normalizeUrl(String url) {
+        String trimmed = url.trim();
+        // Ensure URL has protocol
+        if (!trimmed.startsWith("http://") && !trimmed.startsWith("https://")) {
+            return "https://" + trimmed;
+        }
+        return trimmed;
+    }
+}
@@ -0,0 +1,76 @@
+package com.kiosk.webviewlauncher;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.webkit.CookieManager;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+
+/**
+ * The one WebView settings block shared by the main kiosk view and every
+ * popup window, so payment popups behave exactly like the page that opened them.
+ */
+public final class KioskWebSettings {
+
+    private KioskWebSettings() {
+    }
+
+    @SuppressLint("SetJavaScriptEnabled")
+    public static void apply(WebView webView) {
+        WebSettings settings = webView.getSettings();
+        
+        // Enable JavaScript (required for modern web apps and payment gateways)
+        settings.setJavaScriptEnabled(true);
+        settings.setJavaScriptCanOpenWindowsAutomatically(true);
+        
+        // Enable DOM storage (required for many web apps)
+        settings.setDomStorageEnabled(true);
+        
+        // Enable database storage
+        settings.setDatabaseEnabled(true);
+        
+        // Enable file access
+        settings.setAllowFileAccess(true);
+        settings.setAllowContentAccess(true);
+        
+        // Enable mixed content (HTTP and HTTPS)
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            settings.setMixedContentMode(WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
+        }
+        
+        // Enable zoom controls
+        settings.setSupportZoom(true);
+        settings.setBuiltInZoomControls(true);
+        settings.setDisplayZoomControls(false);
+        
+        // Enable multiple windows (required for popups and payment gateways)
+        settings.setSupportMultipleWindows(true);
+        
+        // Set user agent to desktop mode for better compatibility
+        settings.setUserAgentString(settings.getUserAgentString());
+        
+        // Enable geolocation
+        settings.setGeolocationEnabled(true);
+        
+        // Enable media playback
+        settings.setMediaPlaybackRequiresUserGesture(false);
+        
+        // Load images automatically
+        settings.setLoadsImagesAutomatically(true);
+        
+        // Enable safe browsing
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            settings.setSafeBrowsingEnabled(true);
+        }
+        
+        // Network first; the main view switches to cache first while the link is bad
+        settings.setCacheMode(WebSettings.LOAD_DEFAULT);
+        
+        // Enable cookies (required for sessions and payments)
+        CookieManager cookieManager = CookieManager.getInstance();
+        cookieManager.setAcceptCookie(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            cookieManager.setAcceptThirdPartyCookies(webView, true);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free histogram of non-negative values. Buckets are
+ * log-linear (exact below 16, then 8 sub-buckets per power of two), so the
+ * relative error of a percentile is at most 12.5% and memory never grows.
+ * Recording is a couple of atomic increments and safe from any thread.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_LIMIT = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT = 4; // log2(LINEAR_LIMIT)
+    private static final int MAX_EXPONENT = 47;
+    public static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Upper bound of the bucket holding the given percentile (0-100), or 0 if empty. */
+    public long percentile(double percent) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percent / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Copies the histogram into {@code target} and resets it for the next interval. */
+    public void drainTo(LatencyHistogram target) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = buckets.getAndSet(i, 0);
+            if (n != 0) {
+                target.buckets.addAndGet(i, n);
+            }
+        }
+        target.count.addAndGet(count.getAndSet(0));
+        target.sum.addAndGet(sum.getAndSet(0));
+        long drainedMax = max.getAndSet(0);
+        long targetMax = target.max.get();
+        while (drainedMax > targetMax && !target.max.compareAndSet(targetMax, drainedMax)) {
+            targetMax = target.max.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        long base = 1L << exponent;
+        long width = base >>> SUB_BUCKET_BITS;
+        return base + (subBucket + 1) * width - 1;
+    }
+}
@@ -3,26 +3,42 @@ package com.kiosk.webviewlauncher;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.ActivityManager;
+import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.WindowManager;
-import android.webkit.CookieManager;
+import android.webkit.DownloadListener;
 import android.webkit.GeolocationPermissions;
 import android.webkit.PermissionRequest;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.URLUtil;
 import android.webkit.ValueCallback;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.webkit.WebViewDatabase;
+import android.webkit.WebViewRenderProcess;
+import android.webkit.WebViewRenderProcessClient;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -30,11 +46,20 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity {
 
-    private static final String PREFS_NAME = "KioskPrefs";
-    private static final String PREF_URL = "web_url";
-    private static final String DEFAULT_URL = "https://www.nikolaindustry.com";
+    private static final String TAG = "KioskMain";
     private static final int REQUEST_PERMISSIONS = 100;
     private static final int FILE_CHOOSER_REQUEST = 101;
     private static final int TAP_COUNT_THRESHOLD = 11;
@@ -42,49 +67,490 @@ public class MainActivity extends AppCompatActivity {
     private static final int REFRESH_POINTERS = 3; // Three fingers for refresh
     private static final int REFRESH_MIN_DISTANCE_DP = 120; // Minimum swipe distance
     private static final long REFRESH_MAX_DURATION_MS = 1000; // Max time for swipe
+    private static final int POPUP_POOL_SIZE = 1;
+    private static final int GESTURE_SETTINGS_TAPS = 1;
+    private static final int GESTURE_REFRESH_SWIPE = 2;
+    private static final int UNRESPONSIVE_REPORTS_BEFORE_RESTART = 2;
     
     private WebView webView;
     private ValueCallback<Uri[]> fileUploadCallback;
     private View customView;
     private WebChromeClient.CustomViewCallback customViewCallback;
     private FrameLayout fullscreenContainer;
+    private ResponseCache responseCache;
+    private CachingInterceptor cachingInterceptor;
+    private ImageDownscaler imageDownscaler;
+    private ContentBlocker contentBlocker;
+    private NavigationPolicy navigationPolicy;
+    private SnapshotOverlay snapshot;
+    private ServiceWorkerBridge serviceWorkers;
+    private Downloader downloader;
+    private MediaPrefetcher mediaPrefetcher;
+    private AppShell appShell;
+    private NativeBridge nativeBridge;
+    private EventJournal journal;
+    private ConnectivityMonitor connectivity;
+    private OfflineRecovery offlineRecovery;
+    private String offlineTemplate;
+    private PageLoadTelemetry telemetry;
+    private ConfigRepository configRepository;
+    private PopupWebViewPool popupPool;
+    private WebView activePopup;
+    private long popupOpenedAtMs = 0;
+    private RendererWatchdog watchdog;
+    private MemoryGovernor memoryGovernor;
+    private FrameJankMonitor frameMonitor;
+    private MetricsServer metricsServer;
+    private PlaylistController playlist;
+    private SessionResetController sessionReset;
+    private long lastInteractionMs = 0;
     
-    // Tap detection variables
-    private int tapCount = 0;
-    private long firstTapTime = 0;
-    private String currentLoadedUrl = "";
+    private volatile String currentLoadedUrl = "";
     
-    // Refresh gesture variables
-    private float gestureStartY = 0;
-    private long gestureStartMs = 0;
-    private boolean refreshTrackingEnabled = false;
+    // Admin gestures; the sample is reused for every touch event
+    private final GestureEngine gestureEngine = new GestureEngine();
+    private final TouchSample touchSample = new TouchSample();
+    private final View.OnTouchListener touchListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            int pointerCount = Math.min(event.getPointerCount(), TouchSample.MAX_POINTERS);
+            touchSample.set(event.getActionMasked(), pointerCount, event.getEventTime());
+            for (int i = 0; i < pointerCount; i++) {
+                touchSample.setPointer(i, event.getX(i), event.getY(i));
+            }
+            gestureEngine.onTouch(touchSample);
+            if (frameMonitor != null) {
+                frameMonitor.onTouch(event.getActionMasked(), event.getEventTime());
+            }
+            lastInteractionMs = event.getEventTime();
+            if (sessionReset != null) {
+                sessionReset.onInteraction();
+            }
+            
+            // Return false to allow WebView to handle touch normally
+            return false;
+        }
+    };
+    private final Runnable refreshAction = new Runnable() {
+        @Override
+        public void run() {
+            Toast.makeText(MainActivity.this, "Refreshing page...", Toast.LENGTH_SHORT).show();
+            journal.log(EventJournal.RELOAD, 0, currentLoadedUrl);
+            // Keep the current frame up until the reloaded page draws
+            snapshot.coverAndRun(reloadAction);
+        }
+    };
+    private final Runnable reloadAction = new Runnable() {
+        @Override
+        public void run() {
+            // Reloading the offline page would only show it again
+            if (!offlineRecovery.retryNow()) {
+                webView.reload();
+            }
+        }
+    };
+    // Called by the connectivity monitor on the main thread
+    private final ConnectivityMonitor.Listener linkListener = new ConnectivityMonitor.Listener() {
+        @Override
+        public void onQualityChanged(int previous, int current) {
+            journal.log(EventJournal.CONNECTIVITY, current,
+                    ConnectivityMonitor.qualityName(previous) + " -> "
+                            + ConnectivityMonitor.qualityName(current));
+            applyCacheMode();
+            offlineRecovery.onQualityChanged(previous, current);
+            mediaPrefetcher.setLinkUsable(current == ConnectivityMonitor.GOOD);
+        }
+    };
+    // A new shell bundle was swapped in; runs on the main thread
+    private final AppShell.Listener shellListener = new AppShell.Listener() {
+        @Override
+        public void onBundleChanged(String version) {
+            journal.log(EventJournal.SHELL_BUNDLE, 0, version);
+            if (!playlist.isActive() && currentLoadedUrl.startsWith(AppShell.ORIGIN)) {
+                // Same URL, new files; keep the old frame up until the new shell draws
+                snapshot.coverAndRun(reloadAction);
+            }
+        }
+    };
+    // URL changes pushed by settings or other writers; runs on the main thread
+    private final ConfigRepository.Listener configListener = new ConfigRepository.Listener() {
+        @Override
+        public void onConfigChanged(KioskConfig previous, KioskConfig current) {
+            journal.log(EventJournal.CONFIG_CHANGED, 0, current.getUrl());
+            memoryGovernor.applyConfig(current);
+            connectivity.applyConfig(current);
+            metricsServer.applyConfig(current);
+            imageDownscaler.applyConfig(current);
+            applyNavigationPolicy(current);
+            // Before any reload below, so the new home page gets the channel
+            nativeBridge.setAllowedOrigins(new HashSet<String>(homeOrigins(current)));
+            snapshot.applyConfig(current);
+            sessionReset.applyConfig(current);
+            if (current.getLong(ServiceWorkerBridge.KEY_PURGE_AT, 0)
+                    != previous.getLong(ServiceWorkerBridge.KEY_PURGE_AT, 0)) {
+                serviceWorkers.purge(webView, homeOrigins(current), reloadAction);
+            } else if (current.getLong(ServiceWorkerBridge.KEY_UPDATE_AT, 0)
+                    != previous.getLong(ServiceWorkerBridge.KEY_UPDATE_AT, 0)) {
+                serviceWorkers.forceUpdate(webView);
+            }
+            String playlistJson = current.getString(Playlist.KEY_PLAYLIST, "");
+            if (!playlistJson.equals(previous.getString(Playlist.KEY_PLAYLIST, ""))) {
+                playlist.setPlaylist(parsePlaylist(current));
+                snapshot.invalidate();
+                loadConfiguredUrl();
+            } else if (!playlist.isActive()) {
+                checkAndReloadUrl(current);
+            }
+        }
+    };
+    // Downloads offered by the page or a popup are kept inside the kiosk
+    private final DownloadListener downloadStarter = new DownloadListener() {
+        @Override
+        public void onDownloadStart(String url, String userAgent, String contentDisposition,
+                String mimeType, long contentLength) {
+            Uri uri = Uri.parse(url);
+            if (!URLUtil.isNetworkUrl(url) || navigationPolicy.decide(uri.getScheme(),
+                    uri.getHost()) != NavigationPolicy.ALLOW) {
+                Log.i(TAG, "Download refused: " + url);
+                Toast.makeText(MainActivity.this, "This file cannot be downloaded here",
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+            downloader.enqueue(url, userAgent, contentDisposition, mimeType);
+            Toast.makeText(MainActivity.this, "Downloading...", Toast.LENGTH_SHORT).show();
+        }
+    };
+    // Download threads report here; a connected home page gets a downloads event
+    private final Downloader.Listener downloadProgress = new Downloader.Listener() {
+        @Override
+        public void onDownloadChanged(final Downloader.Download download) {
+            nativeBridge.emit(Downloader.BRIDGE_NAME, Downloader.eventPayload(download));
+            final int state = download.getState();
+            if (state == Downloader.DONE || state == Downloader.FAILED) {
+                journal.log(EventJournal.DOWNLOAD, state, download.id);
+            }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (state == Downloader.DONE) {
+                        Toast.makeText(MainActivity.this, "Downloaded " + download.id,
+                                Toast.LENGTH_SHORT).show();
+                    } else if (state == Downloader.FAILED) {
+                        Toast.makeText(MainActivity.this, "Download failed: " + download.id,
+                                Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+    };
+    private final Runnable openSettingsAction = new Runnable() {
+        @Override
+        public void run() {
+            Toast.makeText(MainActivity.this, "Opening Settings...", Toast.LENGTH_SHORT).show();
+            openSettings();
+        }
+    };
 
     @SuppressLint("SetJavaScriptEnabled")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStart = StartupTrace.begin("activity_create");
         super.onCreate(savedInstanceState);
+        
+        // Decode the last frame while the layout and WebView are being created
+        snapshot = new SnapshotOverlay(new File(getCacheDir(), "last_frame.webp"), getWindow(),
+                new Handler(Looper.getMainLooper()), new SnapshotOverlay.Host() {
+                    @Override
+                    public WebView getWebView() {
+                        return webView;
+                    }
+
+                    @Override
+                    public long getLastInteractionMs() {
+                        return lastInteractionMs;
+                    }
+
+                    @Override
+                    public boolean isCovered() {
+                        return fullscreenContainer != null
+                                && fullscreenContainer.getVisibility() == View.VISIBLE;
+                    }
+                });
+        
+        // Inflating the layout creates the WebView (provider pre-warmed by KioskApplication)
+        long t = StartupTrace.begin("inflate");
         setContentView(R.layout.activity_main);
+        StartupTrace.end("inflate", t);
 
         // Keep screen on
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         
         // Hide navigation and status bars for kiosk mode
         enableKioskMode();
+        
+        // Frame timings split by touch/idle, collected off the UI thread
+        frameMonitor = new FrameJankMonitor(getWindow(),
+                getWindowManager().getDefaultDisplay().getRefreshRate());
 
         webView = findViewById(R.id.webView);
         fullscreenContainer = findViewById(R.id.fullscreen_container);
+        snapshot.showSaved((ImageView) findViewById(R.id.snapshot_overlay));
         
         // Set up tap gesture detector
         setupTapGestureDetector();
         
-        // Request necessary permissions
-        requestNecessaryPermissions();
+        KioskApplication app = (KioskApplication) getApplication();
+        configRepository = app.getConfigRepository();
+        journal = app.getJournal();
+        
+        // Kiosk-owned response cache so reloads work from local storage
+        responseCache = app.getResponseCache();
+        cachingInterceptor = new CachingInterceptor(responseCache);
+        
+        // Load timings and Web Vitals, batched to a local file
+        telemetry = app.getPageLoadTelemetry();
+        cachingInterceptor.setTelemetry(telemetry);
+        
+        // Images larger than this panel are shrunk before WebView decodes them
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        imageDownscaler = new ImageDownscaler(app.getImageCache(),
+                Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels));
+        imageDownscaler.applyConfig(configRepository.get());
+        cachingInterceptor.setImageDownscaler(imageDownscaler);
+        contentBlocker = app.getContentBlocker();
+        
+        // Worker fetches get the same blocking and cache as page requests
+        serviceWorkers = app.getServiceWorkerBridge();
+        serviceWorkers.install();
+        
+        // Shared with the application so transfers survive activity restarts
+        downloader = app.getDownloader();
+        mediaPrefetcher = app.getMediaPrefetcher();
+        
+        // Home page served from a local bundle when enabled; no network needed to paint it
+        appShell = app.getAppShell();
+        appShell.setListener(shellListener);
+        
+        // Binary message channel from the home page to device state and hardware
+        nativeBridge = new NativeBridge();
+        nativeBridge.setAllowedOrigins(new HashSet<String>(homeOrigins(configRepository.get())));
+        DeviceStateHandlers.register(nativeBridge, this);
+        downloader.register(nativeBridge);
+        downloader.setListener(downloadProgress);
+        
+        // Decides which links stay in the kiosk, open another app or are refused
+        navigationPolicy = new NavigationPolicy();
+        applyNavigationPolicy(configRepository.get());
+        
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        
+        // Link quality picks network-first or cache-first loading
+        connectivity = new ConnectivityMonitor(this, mainHandler);
+        connectivity.applyConfig(configRepository.get());
+        connectivity.setListener(linkListener);
+        
+        // Bundled offline page instead of the browser's error page, reloaded when the link returns
+        offlineRecovery = new OfflineRecovery(mainHandler, new OfflineRecovery.Host() {
+            @Override
+            public void showOfflinePage(String failedUrl, long retryInMs) {
+                journal.log(EventJournal.OFFLINE_PAGE, retryInMs, failedUrl);
+                webView.loadDataWithBaseURL(null,
+                        OfflineRecovery.render(offlineTemplate(), failedUrl, retryInMs),
+                        "text/html", "UTF-8", null);
+            }
+
+            @Override
+            public void retry(String url, int attempt) {
+                journal.log(EventJournal.RELOAD, attempt, url);
+                webView.loadUrl(url);
+            }
+
+            @Override
+            public boolean isOffline() {
+                return connectivity.getQuality() == ConnectivityMonitor.OFFLINE;
+            }
+        });
+        
+        // Rebuilds the WebView if the renderer dies or hangs
+        watchdog = new RendererWatchdog(mainHandler,
+                new RendererWatchdog.Host() {
+                    @Override
+                    public WebView getWebView() {
+                        return webView;
+                    }
+
+                    @Override
+                    public void replaceWebView(String reason) {
+                        MainActivity.this.replaceWebView();
+                    }
+
+                    @Override
+                    public void loadHome() {
+                        loadConfiguredUrl();
+                    }
+                });
+        
+        // Steps in when memory grows: popups, then caches, then an idle-time recycle
+        memoryGovernor = new MemoryGovernor(mainHandler, new MemoryGovernor.Actions() {
+            @Override
+            public WebView getWebView() {
+                return webView;
+            }
+
+            @Override
+            public void dropPopups() {
+                popupPool.trim();
+            }
+
+            @Override
+            public void dropSpareViews() {
+                playlist.dropBuffer();
+                sessionReset.dropSpare();
+            }
+
+            @Override
+            public void clearWebViewCaches() {
+                // In-memory caches only; the disk cache keeps offline loads working
+                webView.clearCache(false);
+            }
+
+            @Override
+            public void softRecycle() {
+                // Also drops the playlist buffer and the session spare
+                replaceWebView();
+                loadConfiguredUrl();
+            }
+
+            @Override
+            public long getLastInteractionMs() {
+                return lastInteractionMs;
+            }
+        });
+        memoryGovernor.applyConfig(configRepository.get());
+        
+        // Signage rotation; without a playlist the single configured URL is shown
+        playlist = new PlaylistController(mainHandler, new PlaylistController.Host() {
+            @Override
+            public WebView createBufferView() {
+                return createHiddenWebView();
+            }
+
+            @Override
+            public WebView promote(WebView buffer, String url) {
+                return promoteWebView(buffer, url);
+            }
+
+            @Override
+            public void destroyBufferView(WebView view) {
+                destroyHiddenWebView(view);
+            }
+
+            @Override
+            public void loadFront(String url) {
+                currentLoadedUrl = url;
+                webView.loadUrl(url);
+            }
+
+            @Override
+            public void loadFallback() {
+                loadSingleUrl();
+            }
+        });
+        playlist.setPlaylist(parsePlaylist(configRepository.get()));
+        
+        // Clears cookies and storage after an idle period and shows home in a fresh view
+        sessionReset = new SessionResetController(mainHandler,
+                new SessionResetController.Host() {
+                    @Override
+                    public WebView createSpareView() {
+                        // The playlist already rotates its own buffer; reset in place there
+                        return playlist.isActive() ? null : createHiddenWebView();
+                    }
+
+                    @Override
+                    public WebView promote(WebView spare, String url) {
+                        return promoteWebView(spare, url);
+                    }
+
+                    @Override
+                    public void destroyView(WebView view) {
+                        destroyHiddenWebView(view);
+                    }
+
+                    @Override
+                    public void loadHome() {
+                        loadConfiguredUrl();
+                    }
+
+                    @Override
+                    public WebView getVisibleView() {
+                        return webView;
+                    }
+
+                    @Override
+                    public void clearCaches() {
+                        clearSessionCaches();
+                    }
+
+                    @Override
+                    public void cover(Runnable then) {
+                        snapshot.coverAndRun(then);
+                    }
+
+                    @Override
+                    public void uncover() {
+                        snapshot.uncover();
+                    }
+
+                    @Override
+                    public String getHomeUrl() {
+                        return homeUrl(configRepository.get());
+                    }
+
+                    @Override
+                    public long getLastInteractionMs() {
+                        return lastInteractionMs;
+                    }
+
+                    @Override
+                    public void onSessionEnded() {
+                        endSession();
+                    }
+                });
+        sessionReset.applyConfig(configRepository.get());
+        
+        // Warm popup WebViews share the main view's settings
+        popupPool = new PopupWebViewPool(this, POPUP_POOL_SIZE, new PopupWebViewPool.Configurer() {
+            @Override
+            public void configure(WebView popup) {
+                configurePopup(popup);
+            }
+        });
+        
+        // Optional Prometheus endpoint for LAN scraping, off unless a port is configured;
+        // started last, once every source collectMetrics reads exists
+        metricsServer = new MetricsServer(configRepository, new MetricsServer.Source() {
+            @Override
+            public void collect(MetricsServer.Exposition out) {
+                collectMetrics(out);
+            }
+        });
+        metricsServer.applyConfig(configRepository.get());
         
         // Configure WebView settings for full web functionality
-        configureWebView();
+        t = StartupTrace.begin("configure_webview");
+        configureWebView(webView);
+        StartupTrace.end("configure_webview", t);
         
-        // Load the configured URL
+        // Load the configured URL before anything else competes for the main thread
         loadConfiguredUrl();
+        StartupTrace.mark("load_url_issued");
+        configRepository.addListener(configListener);
+        
+        // Request necessary permissions (the dialog does not block the page load)
+        requestNecessaryPermissions();
+        
+        StartupTrace.end("activity_create", createStart);
     }
 
     private void enableKioskMode() {
@@ -96,165 +562,194 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void setupTapGestureDetector() {
-        // Set touch listener on WebView since it consumes touch events
-        webView.setOnTouchListener(new View.OnTouchListener() {
+        // Thresholds are converted once here, never per touch event
+        gestureEngine.register(GESTURE_SETTINGS_TAPS,
+                new TapSequenceRecognizer(TAP_COUNT_THRESHOLD, TAP_TIMEOUT_MS));
+        gestureEngine.register(GESTURE_REFRESH_SWIPE,
+                new MultiFingerSwipeRecognizer(REFRESH_POINTERS,
+                        dpToPx(REFRESH_MIN_DISTANCE_DP), REFRESH_MAX_DURATION_MS));
+        gestureEngine.setListener(new GestureEngine.Listener() {
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                // Handle multi-finger refresh gesture
-                handleRefreshGesture(event);
-                
-                // Handle single-finger tap for settings access
-                if (event.getAction() == MotionEvent.ACTION_DOWN && event.getPointerCount() == 1) {
-                    handleTap();
+            public void onGesture(int gestureId) {
+                journal.log(EventJournal.GESTURE, gestureId);
+                // Act after the current touch event has been dispatched
+                if (gestureId == GESTURE_REFRESH_SWIPE) {
+                    webView.post(refreshAction);
+                } else if (gestureId == GESTURE_SETTINGS_TAPS) {
+                    webView.post(openSettingsAction);
                 }
-                
-                // Return false to allow WebView to handle touch normally
-                return false;
             }
         });
-    }
-
-    private void handleRefreshGesture(MotionEvent event) {
-        switch (event.getActionMasked()) {
-            case MotionEvent.ACTION_DOWN:
-            case MotionEvent.ACTION_POINTER_DOWN:
-                if (event.getPointerCount() >= REFRESH_POINTERS) {
-                    gestureStartY = averageY(event, REFRESH_POINTERS);
-                    gestureStartMs = System.currentTimeMillis();
-                    refreshTrackingEnabled = true;
-                }
-                break;
-                
-            case MotionEvent.ACTION_MOVE:
-                if (refreshTrackingEnabled && event.getPointerCount() >= REFRESH_POINTERS) {
-                    float currentAvgY = averageY(event, REFRESH_POINTERS);
-                    long dt = System.currentTimeMillis() - gestureStartMs;
-                    float dy = currentAvgY - gestureStartY; // positive = swipe down
-                    int minDistancePx = dpToPx(REFRESH_MIN_DISTANCE_DP);
-                    
-                    if (dy >= minDistancePx && dt <= REFRESH_MAX_DURATION_MS) {
-                        Toast.makeText(MainActivity.this, "Refreshing page...", 
-                                Toast.LENGTH_SHORT).show();
-                        webView.reload();
-                        refreshTrackingEnabled = false;
-                    }
-                }
-                break;
-                
-            case MotionEvent.ACTION_UP:
-            case MotionEvent.ACTION_POINTER_UP:
-            case MotionEvent.ACTION_CANCEL:
-                refreshTrackingEnabled = false;
-                break;
-        }
-    }
-
-    private float averageY(MotionEvent event, int maxPointers) {
-        int count = Math.min(event.getPointerCount(), maxPointers);
-        float sum = 0f;
-        for (int i = 0; i < count; i++) {
-            sum += event.getY(i);
-        }
-        return sum / count;
+        
+        // Set touch listener on WebView since it consumes touch events
+        webView.setOnTouchListener(touchListener);
     }
 
     private int dpToPx(int dp) {
         return Math.round(dp * getResources().getDisplayMetrics().density);
     }
 
-    private void handleTap() {
-        long currentTime = System.currentTimeMillis();
-        
-        // Reset if timeout exceeded
-        if (tapCount > 0 && (currentTime - firstTapTime) > TAP_TIMEOUT_MS) {
-            tapCount = 0;
-        }
-        
-        // First tap or reset
-        if (tapCount == 0) {
-            firstTapTime = currentTime;
-        }
-        
-        tapCount++;
-        
-        // Check if threshold reached
-        if (tapCount >= TAP_COUNT_THRESHOLD) {
-            tapCount = 0; // Reset counter
-            Toast.makeText(this, "Opening Settings...", Toast.LENGTH_SHORT).show();
-            openSettings();
-        }
-    }
-
     @SuppressLint("SetJavaScriptEnabled")
-    private void configureWebView() {
-        WebSettings webSettings = webView.getSettings();
-        
-        // Enable JavaScript (required for modern web apps and payment gateways)
-        webSettings.setJavaScriptEnabled(true);
-        webSettings.setJavaScriptCanOpenWindowsAutomatically(true);
-        
-        // Enable DOM storage (required for many web apps)
-        webSettings.setDomStorageEnabled(true);
-        
-        // Enable database storage
-        webSettings.setDatabaseEnabled(true);
-        
-        // Enable file access
-        webSettings.setAllowFileAccess(true);
-        webSettings.setAllowContentAccess(true);
-        
-        // Enable mixed content (HTTP and HTTPS)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            webSettings.setMixedContentMode(WebSettings.MIXED_CONTENT_ALWAYS_ALLOW);
-        }
-        
-        // Enable zoom controls
-        webSettings.setSupportZoom(true);
-        webSettings.setBuiltInZoomControls(true);
-        webSettings.setDisplayZoomControls(false);
-        
-        // Enable multiple windows (required for popups and payment gateways)
-        webSettings.setSupportMultipleWindows(true);
-        
-        // Set user agent to desktop mode for better compatibility
-        webSettings.setUserAgentString(webSettings.getUserAgentString());
-        
-        // Enable geolocation
-        webSettings.setGeolocationEnabled(true);
-        
-        // Enable media playback
-        webSettings.setMediaPlaybackRequiresUserGesture(false);
-        
-        // Load images automatically
-        webSettings.setLoadsImagesAutomatically(true);
-        
-        // Enable safe browsing
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            webSettings.setSafeBrowsingEnabled(true);
-        }
-        
-        // Set cache mode
-        webSettings.setCacheMode(WebSettings.LOAD_DEFAULT);
-        
-        // Enable cookies (required for sessions and payments)
-        CookieManager cookieManager = CookieManager.getInstance();
-        cookieManager.setAcceptCookie(true);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            cookieManager.setAcceptThirdPartyCookies(webView, true);
-        }
+    private void configureWebView(WebView target) {
+        // Same settings are applied to pooled popup WebViews
+        KioskWebSettings.apply(target);
+        target.getSettings().setCacheMode(cacheMode());
+        nativeBridge.attach(target);
+        target.setDownloadListener(downloadStarter);
         
         // Set WebViewClient to handle navigation
-        webView.setWebViewClient(new WebViewClient() {
+        target.setWebViewClient(new WebViewClient() {
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+                return overrideNavigation(view, request);
+            }
+
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view,
+                    WebResourceRequest request) {
+                // The app shell origin never reaches the network
+                WebResourceResponse shell = appShell.intercept(request);
+                if (shell != null) {
+                    return shell;
+                }
+                // Drop listed ad/tracker subresources; top-level pages are never blocked
+                if (!request.isForMainFrame()
+                        && contentBlocker.isBlocked(request.getUrl().getHost())) {
+                    return ContentBlocker.blockedResponse();
+                }
+                // Prefetched video, including the Range requests behind seeking and looping
+                WebResourceResponse media = mediaPrefetcher.serve(request);
+                if (media != null) {
+                    return media;
+                }
+                // Serve from the kiosk cache when possible (runs on WebView IO threads)
+                return cachingInterceptor.intercept(request);
+            }
+
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                // Playlist buffer loads happen off screen and are tracked by the playlist
+                if (view == webView) {
+                    journal.log(EventJournal.PAGE_STARTED, 0, url);
+                    offlineRecovery.onPageStarted(url);
+                    watchdog.onPageStarted();
+                    telemetry.onPageStarted();
+                    snapshot.onPageStarted();
+                    nativeBridge.disconnect();
+                }
+            }
+
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                if (view == webView) {
+                    journal.log(EventJournal.PAGE_FINISHED, view.getProgress(), url);
+                    offlineRecovery.onPageFinished(url);
+                    watchdog.onPageFinished();
+                    telemetry.onPageFinished(view);
+                    serviceWorkers.onPageFinished(url);
+                    sessionReset.onPageFinished(view, url);
+                    connectBridge(view, url);
+                } else if (sessionReset.isSpare(view)) {
+                    sessionReset.onSparePageFinished(view, url);
+                } else {
+                    playlist.onBufferPageFinished(view);
+                }
+            }
+
+            @Override
+            public void onPageCommitVisible(WebView view, String url) {
+                if (view != webView) {
+                    return;
+                }
+                if (sessionReset.isResetting() && "about:blank".equals(url)) {
+                    return; // The old page going away under the cover
+                }
+                journal.log(EventJournal.PAGE_VISIBLE, 0, url);
+                // First visible frame of the page; closes the cold-start timeline
+                StartupTrace.reportFirstVisible(url);
+                watchdog.onPageVisible();
+                telemetry.onPageCommitVisible();
+                snapshot.onPageVisible();
+            }
+
+            @Override
+            public void onReceivedError(WebView view, WebResourceRequest request,
+                    WebResourceError error) {
+                if (!request.isForMainFrame()) {
+                    return;
+                }
+                if (view == webView) {
+                    journal.log(EventJournal.PAGE_ERROR, error.getErrorCode(),
+                            error.getDescription() + " " + request.getUrl());
+                    if (OfflineRecovery.isRecoverable(error.getErrorCode())) {
+                        offlineRecovery.onMainFrameError(request.getUrl().toString(),
+                                error.getErrorCode());
+                        connectivity.probeNow();
+                    }
+                } else if (sessionReset.isSpare(view)) {
+                    // A hidden view showing an error page must never be swapped in
+                    sessionReset.onSpareLoadFailed(view);
+                    connectivity.probeNow();
+                } else if (playlist.isBuffer(view)) {
+                    playlist.onBufferLoadFailed(view);
+                    connectivity.probeNow();
+                }
+            }
+
+            @Override
+            public void onReceivedHttpError(WebView view, WebResourceRequest request,
+                    WebResourceResponse response) {
+                if (view == webView && request.isForMainFrame()) {
+                    journal.log(EventJournal.PAGE_ERROR, response.getStatusCode(),
+                            request.getUrl().toString());
+                }
+            }
+
             @Override
-            public boolean shouldOverrideUrlLoading(WebView view, String url) {
-                // Allow all URLs to load in WebView
-                view.loadUrl(url);
+            public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+                // Returning true keeps the app alive; the dead view is replaced
+                journal.log(EventJournal.RENDERER_GONE, detail.didCrash() ? 1 : 0,
+                        view == webView ? "main" : "hidden");
+                if (view == webView) {
+                    watchdog.onRenderProcessGone(detail.didCrash());
+                } else if (sessionReset.isSpare(view)) {
+                    sessionReset.onSpareGone(view);
+                } else {
+                    playlist.onBufferGone(view);
+                }
                 return true;
             }
         });
         
+        // Renderer hangs (API 29+); a single report can be a long task, so wait for a repeat
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            target.setWebViewRenderProcessClient(new WebViewRenderProcessClient() {
+                private int unresponsiveCount = 0;
+
+                @Override
+                public void onRenderProcessUnresponsive(WebView view,
+                        WebViewRenderProcess renderer) {
+                    if (view == webView
+                            && ++unresponsiveCount >= UNRESPONSIVE_REPORTS_BEFORE_RESTART) {
+                        unresponsiveCount = 0;
+                        journal.log(EventJournal.RENDERER_UNRESPONSIVE, 0, view.getUrl());
+                        if (renderer != null) {
+                            renderer.terminate();
+                        }
+                        watchdog.onRenderProcessUnresponsive();
+                    }
+                }
+
+                @Override
+                public void onRenderProcessResponsive(WebView view,
+                        WebViewRenderProcess renderer) {
+                    unresponsiveCount = 0;
+                }
+            });
+        }
+        
         // Set WebChromeClient for advanced features
-        webView.setWebChromeClient(new WebChromeClient() {
+        target.setWebChromeClient(new WebChromeClient() {
             @Override
             public void onGeolocationPermissionsShowPrompt(String origin, 
                     GeolocationPermissions.Callback callback) {
@@ -306,36 +801,12 @@ public class MainActivity extends AppCompatActivity {
             public boolean onCreateWindow(WebView view, boolean isDialog, boolean isUserGesture, 
                     android.os.Message resultMsg) {
                 // Handle popup windows and new window requests (for payment gateways)
-                WebView newWebView = new WebView(MainActivity.this);
-                newWebView.setLayoutParams(new FrameLayout.LayoutParams(
-                        FrameLayout.LayoutParams.MATCH_PARENT,
-                        FrameLayout.LayoutParams.MATCH_PARENT));
+                WebView newWebView = popupPool.acquire();
+                popupOpenedAtMs = SystemClock.uptimeMillis();
                 
-                // Configure the new WebView with same settings
-                WebSettings newWebSettings = newWebView.getSettings();
-                newWebSettings.setJavaScriptEnabled(true);
-                newWebSettings.setJavaScriptCanOpenWindowsAutomatically(true);
-                newWebSettings.setDomStorageEnabled(true);
-                newWebSettings.setSupportMultipleWindows(true);
-                
-                newWebView.setWebChromeClient(new WebChromeClient() {
-                    @Override
-                    public void onCloseWindow(WebView window) {
-                        // Remove the popup window
-                        if (fullscreenContainer.getChildCount() > 0) {
-                            fullscreenContainer.removeAllViews();
-                            fullscreenContainer.setVisibility(View.GONE);
-                        }
-                    }
-                });
-                
-                newWebView.setWebViewClient(new WebViewClient() {
-                    @Override
-                    public boolean shouldOverrideUrlLoading(WebView view, String url) {
-                        view.loadUrl(url);
-                        return true;
-                    }
-                });
+                // Only one popup at a time; the previous one is destroyed
+                closePopup();
+                activePopup = newWebView;
                 
                 // Add the new WebView to fullscreen container
                 fullscreenContainer.removeAllViews();
@@ -388,36 +859,348 @@ public class MainActivity extends AppCompatActivity {
         });
         
         // Enable hardware acceleration
-        webView.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        target.setLayerType(View.LAYER_TYPE_HARDWARE, null);
     }
 
-    private void loadConfiguredUrl() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String url = prefs.getString(PREF_URL, DEFAULT_URL);
+    private void configurePopup(WebView popup) {
+        KioskWebSettings.apply(popup);
+        popup.setDownloadListener(downloadStarter);
+        
+        popup.setWebChromeClient(new WebChromeClient() {
+            @Override
+            public void onCloseWindow(WebView window) {
+                // Remove the popup window
+                if (window == activePopup) {
+                    closePopup();
+                    fullscreenContainer.setVisibility(View.GONE);
+                }
+            }
+        });
+        
+        popup.setWebViewClient(new WebViewClient() {
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+                return overrideNavigation(view, request);
+            }
+
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view,
+                    WebResourceRequest request) {
+                WebResourceResponse shell = appShell.intercept(request);
+                if (shell != null) {
+                    return shell;
+                }
+                return cachingInterceptor.intercept(request);
+            }
+
+            @Override
+            public void onPageCommitVisible(WebView view, String url) {
+                if (view == activePopup && popupOpenedAtMs > 0) {
+                    popupPool.recordOpenLatency(SystemClock.uptimeMillis() - popupOpenedAtMs);
+                    popupOpenedAtMs = 0;
+                }
+            }
+
+            @Override
+            public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+                if (view == activePopup) {
+                    closePopup();
+                    fullscreenContainer.setVisibility(View.GONE);
+                }
+                return true;
+            }
+        });
+    }
+
+    // In-scope navigations return false so WebView keeps headers, POST bodies and redirects
+    private boolean overrideNavigation(WebView view, WebResourceRequest request) {
+        Uri uri = request.getUrl();
+        int decision = navigationPolicy.decide(uri.getScheme(), uri.getHost());
+        journal.log(EventJournal.NAVIGATION, decision, uri.toString());
+        switch (decision) {
+            case NavigationPolicy.ALLOW:
+                return false;
+            case NavigationPolicy.EXTERNAL:
+                openExternal(view, uri.toString());
+                return true;
+            case NavigationPolicy.DENY:
+                Log.i(TAG, "Navigation denied: " + uri);
+                if (request.isForMainFrame()) {
+                    showDeniedPage(view, uri.toString());
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void openExternal(WebView view, String url) {
+        Intent intent;
+        try {
+            if (url.startsWith("intent:")) {
+                intent = Intent.parseUri(url, Intent.URI_INTENT_SCHEME);
+                // Pages may only reach apps that accept browser links
+                intent.addCategory(Intent.CATEGORY_BROWSABLE);
+                intent.setComponent(null);
+                intent.setSelector(null);
+            } else {
+                intent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
+            }
+        } catch (URISyntaxException e) {
+            Log.w(TAG, "Bad intent URL: " + e.getMessage());
+            return;
+        }
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException e) {
+            String fallback = intent.getStringExtra("browser_fallback_url");
+            if (fallback != null) {
+                Uri fallbackUri = Uri.parse(fallback);
+                if (navigationPolicy.decide(fallbackUri.getScheme(), fallbackUri.getHost())
+                        == NavigationPolicy.ALLOW) {
+                    view.loadUrl(fallback);
+                    return;
+                }
+            }
+            Toast.makeText(this, "No app can open this link", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void showDeniedPage(WebView view, String url) {
+        String page = navigationPolicy.getDeniedPage();
+        if (!page.isEmpty()) {
+            view.loadUrl(page);
+        } else {
+            view.loadDataWithBaseURL(null, NavigationPolicy.deniedHtml(url), "text/html",
+                    "UTF-8", null);
+        }
+    }
+
+    private void applyNavigationPolicy(KioskConfig config) {
+        // Pages the kiosk itself is configured to show are always in scope
+        navigationPolicy.applyConfig(config, homeUrls(config));
+    }
+
+    // The configured URL, the app shell and every playlist entry
+    private List<String> homeUrls(KioskConfig config) {
+        List<String> urls = new ArrayList<String>();
+        urls.add(config.getUrl());
+        urls.add(homeUrl(config));
+        Playlist schedule = parsePlaylist(config);
+        for (int i = 0; i < schedule.size(); i++) {
+            urls.add(schedule.get(i).url);
+        }
+        return urls;
+    }
+
+    private List<String> homeOrigins(KioskConfig config) {
+        List<String> origins = new ArrayList<String>();
+        for (String url : homeUrls(config)) {
+            String origin = ServiceWorkerBridge.originOf(url);
+            if (origin != null && !origins.contains(origin)) {
+                origins.add(origin);
+            }
+        }
+        return origins;
+    }
+
+    // Only the kiosk's own pages get the native channel
+    private void connectBridge(WebView view, String url) {
+        String origin = ServiceWorkerBridge.originOf(url);
+        if (origin != null && homeOrigins(configRepository.get()).contains(origin)) {
+            nativeBridge.connect(view, url);
+        } else {
+            nativeBridge.disconnect();
+        }
+    }
+
+    // Payment popups keep the default mode; only the kiosk's own pages may come from cache
+    private int cacheMode() {
+        return connectivity.getQuality() == ConnectivityMonitor.GOOD
+                ? WebSettings.LOAD_DEFAULT : WebSettings.LOAD_CACHE_ELSE_NETWORK;
+    }
+
+    private void applyCacheMode() {
+        int mode = cacheMode();
+        boolean preferCache = mode != WebSettings.LOAD_DEFAULT;
+        // Every main view, including the hidden ones waiting to be swapped in
+        webView.getSettings().setCacheMode(mode);
+        WebView buffer = playlist.getBuffer();
+        if (buffer != null) {
+            buffer.getSettings().setCacheMode(mode);
+        }
+        WebView spare = sessionReset.getSpare();
+        if (spare != null) {
+            spare.getSettings().setCacheMode(mode);
+        }
+        cachingInterceptor.setPreferCache(preferCache);
+        serviceWorkers.setCacheMode(mode, preferCache);
+        Log.i(TAG, "Cache mode " + (preferCache ? "cache first" : "network first"));
+    }
+
+    private String offlineTemplate() {
+        if (offlineTemplate == null) {
+            InputStream in = null;
+            try {
+                in = getResources().openRawResource(R.raw.offline);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                offlineTemplate = out.toString("UTF-8");
+            } catch (IOException e) {
+                Log.w(TAG, "Offline page unavailable: " + e.getMessage());
+                return "<html><body><h1>Connection lost</h1><p>{{url}}</p></body></html>";
+            } finally {
+                ResponseCache.closeQuietly(in);
+            }
+        }
+        return offlineTemplate;
+    }
+
+    private void closePopup() {
+        if (activePopup != null) {
+            popupPool.release(activePopup);
+            activePopup = null;
+        }
+    }
+
+    // Same slot as the visible view but below it, so it renders unseen
+    private WebView createHiddenWebView() {
+        WebView view = new WebView(this);
+        ViewGroup root = (ViewGroup) webView.getParent();
+        root.addView(view, root.indexOfChild(webView), webView.getLayoutParams());
+        view.setOnTouchListener(touchListener);
+        configureWebView(view);
+        return view;
+    }
+
+    // Shows a view made by createHiddenWebView; returns the one it replaced
+    private WebView promoteWebView(WebView view, String url) {
+        WebView previous = webView;
+        closePopup();
+        webView = view;
+        view.bringToFront();
+        snapshot.bringToFront();
+        fullscreenContainer.bringToFront();
+        currentLoadedUrl = url;
+        // Its page finished loading while hidden, so the channel is set up now
+        String loaded = view.getUrl();
+        connectBridge(view, loaded != null ? loaded : url);
+        return previous;
+    }
+
+    private void destroyHiddenWebView(WebView view) {
+        ((ViewGroup) view.getParent()).removeView(view);
+        nativeBridge.detach(view);
+        view.destroy();
+    }
+
+    // Leaves nothing of the previous customer's session on screen
+    private void endSession() {
+        journal.log(EventJournal.SESSION_RESET, sessionReset.getResetCount());
+        closePopup();
+        fullscreenContainer.setVisibility(View.GONE);
+        if (customView != null && webView.getWebChromeClient() != null) {
+            webView.getWebChromeClient().onHideCustomView();
+        }
+        if (fileUploadCallback != null) {
+            finishActivity(FILE_CHOOSER_REQUEST);
+            fileUploadCallback.onReceiveValue(null);
+            fileUploadCallback = null;
+        }
+        snapshot.invalidate();
+    }
+
+    // What the previous customer left outside cookies and storage. The response and
+    // image caches only hold public responses, and the WebView disk cache is left to
+    // Cache-Control, so the home page and its assets stay warm for the next customer.
+    private void clearSessionCaches() {
+        // In-memory copies only; the disk cache would be deleted on the main thread
+        webView.clearCache(false);
+        webView.clearSslPreferences();
+        WebView.clearClientCertPreferences(null);
+        WebViewDatabase.getInstance(this).clearHttpAuthUsernamePassword();
+        // Deletes its files on the download thread
+        downloader.clear();
+    }
+
+    private void replaceWebView() {
+        long start = SystemClock.uptimeMillis();
+        ViewGroup root = (ViewGroup) webView.getParent();
+        int index = root.indexOfChild(webView);
+        ViewGroup.LayoutParams params = webView.getLayoutParams();
+        
+        // Popups, fullscreen video and the playlist buffer belonged to the dead renderer;
+        // the playlist restarts from loadConfiguredUrl
+        playlist.stop();
+        sessionReset.dropSpare();
+        nativeBridge.disconnect();
+        closePopup();
+        if (customView != null) {
+            fullscreenContainer.removeView(customView);
+            customView = null;
+            customViewCallback = null;
+        }
+        fullscreenContainer.setVisibility(View.GONE);
+        
+        root.removeView(webView);
+        nativeBridge.detach(webView);
+        webView.destroy();
         
-        // Ensure URL has protocol
-        if (!url.startsWith("http://") && !url.startsWith("https://")) {
-            url = "https://" + url;
+        webView = new WebView(this);
+        root.addView(webView, index, params);
+        webView.setOnTouchListener(touchListener);
+        configureWebView(webView);
+        currentLoadedUrl = "";
+        Log.i(TAG, "WebView replaced in " + (SystemClock.uptimeMillis() - start) + "ms");
+        journal.log(EventJournal.WEBVIEW_REPLACED, SystemClock.uptimeMillis() - start);
+    }
+
+    private void loadConfiguredUrl() {
+        if (playlist.isActive()) {
+            cachingInterceptor.setPrimaryUrl(homeUrl(configRepository.get()));
+            playlist.start();
+        } else {
+            loadSingleUrl();
         }
+    }
+
+    private void loadSingleUrl() {
+        String url = homeUrl(configRepository.get());
         
         // Store the loaded URL
         currentLoadedUrl = url;
+        cachingInterceptor.setPrimaryUrl(url);
         webView.loadUrl(url);
     }
 
-    private void checkAndReloadUrl() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String url = prefs.getString(PREF_URL, DEFAULT_URL);
-        
-        // Ensure URL has protocol
-        if (!url.startsWith("http://") && !url.startsWith("https://")) {
-            url = "https://" + url;
+    private Playlist parsePlaylist(KioskConfig config) {
+        try {
+            return Playlist.parse(config.getString(Playlist.KEY_PLAYLIST, null));
+        } catch (JSONException e) {
+            Log.w(TAG, "Ignoring invalid playlist: " + e.getMessage());
+            return Playlist.EMPTY;
         }
+    }
+
+    // The bundled shell when it is enabled, otherwise the configured web page
+    private static String homeUrl(KioskConfig config) {
+        return config.getBoolean(AppShell.KEY_ENABLED, false) ? AppShell.HOME_URL
+                : config.getUrl();
+    }
+
+    private void checkAndReloadUrl(KioskConfig config) {
+        String url = homeUrl(config);
         
         // Check if URL has changed
         if (!url.equals(currentLoadedUrl)) {
             Toast.makeText(this, "Loading new URL: " + url, Toast.LENGTH_SHORT).show();
+            snapshot.invalidate();
             currentLoadedUrl = url;
+            cachingInterceptor.setPrimaryUrl(url);
             webView.loadUrl(url);
         }
     }
@@ -476,10 +1259,10 @@ public class MainActivity extends AppCompatActivity {
         
         if (requestCode == REQUEST_PERMISSIONS) {
             boolean allGranted = true;
-            for (int result : grantResults) {
-                if (result != PackageManager.PERMISSION_GRANTED) {
+            for (int i = 0; i < grantResults.length; i++) {
+                if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
                     allGranted = false;
-                    break;
+                    journal.log(EventJournal.PERMISSION_DENIED, 0, permissions[i]);
                 }
             }
             
@@ -518,6 +1301,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void openSettings() {
+        journal.log(EventJournal.SETTINGS_OPENED, 0);
         try {
             Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
@@ -527,15 +1311,199 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // Runs on the metrics server thread; only reads volatile or atomic stats
+    private void collectMetrics(MetricsServer.Exposition out) {
+        out.gauge("kiosk_uptime_seconds", "Seconds since process start.",
+                StartupTrace.sinceProcessStartMs() / 1000);
+        out.type("kiosk_page_info", "gauge", "Currently loaded URL.")
+                .sample("kiosk_page_info",
+                        MetricsServer.Exposition.label("url", currentLoadedUrl), 1);
+
+        for (int i = 0; i < PageLoadTelemetry.METRIC_COUNT; i++) {
+            String name = "kiosk_" + PageLoadTelemetry.metricName(i);
+            out.type(name, "summary", "Page load telemetry since process start.")
+                    .summary(name, null, telemetry.getLifetime(i));
+        }
+        out.type("kiosk_frame_duration_us", "summary", "Frame durations by touch state.");
+        for (int mode = FrameJankMonitor.MODE_IDLE; mode <= FrameJankMonitor.MODE_TOUCH; mode++) {
+            out.summary("kiosk_frame_duration_us",
+                    MetricsServer.Exposition.label("mode", FrameJankMonitor.modeName(mode)),
+                    frameMonitor.getFrameHistogram(mode));
+        }
+        out.type("kiosk_janky_frames_total", "counter", "Frames over the frame budget.");
+        for (int mode = FrameJankMonitor.MODE_IDLE; mode <= FrameJankMonitor.MODE_TOUCH; mode++) {
+            out.sample("kiosk_janky_frames_total",
+                    MetricsServer.Exposition.label("mode", FrameJankMonitor.modeName(mode)),
+                    frameMonitor.getJankyFrames(mode));
+        }
+
+        out.gauge("kiosk_memory_pss_bytes", "Process PSS at the last sample.",
+                memoryGovernor.getLastPssKb() * 1024);
+        out.gauge("kiosk_js_heap_bytes", "Page JS heap at the last sample, -1 if unknown.",
+                memoryGovernor.getLastJsHeapBytes());
+        out.counter("kiosk_webview_recycles_total", "Memory-driven WebView recycles.",
+                memoryGovernor.getRecycleCount());
+        out.counter("kiosk_renderer_restarts_total", "Renderer crash or hang restarts.",
+                watchdog.getRestartCount());
+        out.gauge("kiosk_renderer_mttr_ms", "Mean time to recover from renderer failures.",
+                watchdog.getMeanTimeToRecoveryMs());
+
+        out.counter("kiosk_cache_hits_total", "Requests served fresh from the cache.",
+                responseCache.getHitCount());
+        out.counter("kiosk_cache_misses_total", "Requests fetched from the network.",
+                responseCache.getMissCount());
+        out.counter("kiosk_cache_revalidations_total", "Cached entries revalidated with 304.",
+                responseCache.getRevalidationCount());
+        out.counter("kiosk_cache_stale_served_total", "Stale entries served while offline.",
+                responseCache.getStaleServedCount());
+        out.counter("kiosk_cache_evictions_total", "Entries evicted by size.",
+                responseCache.getEvictionCount());
+        out.counter("kiosk_cache_bytes_served_total", "Body bytes served from the cache.",
+                responseCache.getBytesFromCache());
+        out.counter("kiosk_network_bytes_total", "Body bytes read from the network.",
+                responseCache.getBytesFromNetwork());
+        out.gauge("kiosk_cache_size_bytes", "Disk cache size.", responseCache.getSizeBytes());
+        out.gauge("kiosk_cache_entries", "Disk cache entries.", responseCache.getEntryCount());
+        out.counter("kiosk_images_downscaled_total", "Oversized images shrunk to the panel.",
+                imageDownscaler.getDownscaledCount());
+        out.counter("kiosk_image_bytes_saved_total", "Image bytes avoided by downscaling.",
+                imageDownscaler.getBytesSaved());
+        out.counter("kiosk_image_pixels_saved_total", "Pixels WebView no longer decodes.",
+                imageDownscaler.getPixelsSaved());
+        out.counter("kiosk_image_work_ms_total", "Time spent downscaling images.",
+                imageDownscaler.getWorkMs());
+        out.type("kiosk_navigations_total", "counter", "Navigation policy decisions.");
+        for (int i = 0; i < NavigationPolicy.DECISION_COUNT; i++) {
+            out.sample("kiosk_navigations_total", MetricsServer.Exposition.label("decision",
+                    NavigationPolicy.decisionName(i)), navigationPolicy.getDecisionCount(i));
+        }
+        out.type("kiosk_navigation_decision_ns", "summary", "Navigation policy decision time.")
+                .summary("kiosk_navigation_decision_ns", null,
+                        navigationPolicy.getDecisionHistogram());
+        out.counter("kiosk_snapshot_captures_total", "Last-frame snapshots saved.",
+                snapshot.getCaptureCount());
+        out.gauge("kiosk_snapshot_size_bytes", "Size of the saved snapshot.",
+                snapshot.getLastCaptureBytes());
+        out.counter("kiosk_fetch_coalesced_total", "Requests served by an identical fetch.",
+                cachingInterceptor.getCoalescedCount());
+        out.counter("kiosk_session_resets_total", "Idle sessions cleared and reset to home.",
+                sessionReset.getResetCount());
+        out.counter("kiosk_sw_fetches_total", "Service worker fetches seen natively.",
+                serviceWorkers.getFetchCount());
+        out.counter("kiosk_sw_cache_served_total", "Service worker fetches served by the cache.",
+                serviceWorkers.getServedFromCacheCount());
+        out.gauge("kiosk_sw_storage_bytes", "Site storage of the current origin.",
+                serviceWorkers.getStorageBytes());
+        out.counter("kiosk_journal_events_total", "Events written to the journal.",
+                journal.getWriteCount());
+        out.type("kiosk_journal_write_ns", "summary", "Sampled journal write time.")
+                .summary("kiosk_journal_write_ns", null, journal.getWriteHistogram());
+        out.counter("kiosk_bridge_requests_total", "Native bridge requests from the page.",
+                nativeBridge.getRequestCount());
+        out.type("kiosk_bridge_batches_total", "counter", "Native bridge messages by direction.")
+                .sample("kiosk_bridge_batches_total",
+                        MetricsServer.Exposition.label("direction", "in"),
+                        nativeBridge.getBatchesIn())
+                .sample("kiosk_bridge_batches_total",
+                        MetricsServer.Exposition.label("direction", "out"),
+                        nativeBridge.getBatchesOut());
+        out.type("kiosk_bridge_dispatch_us", "summary", "Native bridge handler time.")
+                .summary("kiosk_bridge_dispatch_us", null, nativeBridge.getDispatchHistogram());
+        out.counter("kiosk_download_bytes_total", "Bytes fetched by the download manager.",
+                downloader.getBytesDownloaded());
+        out.counter("kiosk_downloads_completed_total", "Downloads finished.",
+                downloader.getCompletedCount());
+        out.counter("kiosk_downloads_failed_total", "Downloads given up after retries.",
+                downloader.getFailedCount());
+        out.counter("kiosk_download_throttled_ms_total", "Time downloads were rate limited.",
+                downloader.getThrottledMs());
+        out.gauge("kiosk_download_storage_bytes", "Size of finished downloads on disk.",
+                downloader.getStoredBytes());
+        out.gauge("kiosk_link_quality", "Uplink quality: 0 offline, 1 poor, 2 good.",
+                connectivity.getQuality());
+        out.counter("kiosk_link_probes_total", "Link latency probes sent.",
+                connectivity.getProbeCount());
+        out.counter("kiosk_link_probe_failures_total", "Link probes that got no answer.",
+                connectivity.getProbeFailureCount());
+        out.counter("kiosk_link_transitions_total", "Changes of link quality.",
+                connectivity.getTransitionCount());
+        out.type("kiosk_link_probe_ms", "summary", "Link probe round trip time.")
+                .summary("kiosk_link_probe_ms", null, connectivity.getProbeHistogram());
+        out.counter("kiosk_offline_seconds_total", "Time the link was offline.",
+                connectivity.getOfflineMs() / 1000);
+        out.counter("kiosk_offline_pages_total", "Main-frame failures shown the offline page.",
+                offlineRecovery.getFallbackCount());
+        out.counter("kiosk_offline_retries_total", "Automatic reloads after a failure.",
+                offlineRecovery.getRetryCount());
+        out.counter("kiosk_offline_recoveries_total", "Failed pages that loaded on a retry.",
+                offlineRecovery.getRecoveryCount());
+        out.counter("kiosk_media_bytes_served_total", "Media bytes played from local storage.",
+                mediaPrefetcher.getBytesServed());
+        out.type("kiosk_media_requests_total", "counter", "Media requests by outcome.")
+                .sample("kiosk_media_requests_total",
+                        MetricsServer.Exposition.label("result", "full"),
+                        mediaPrefetcher.getHitCount())
+                .sample("kiosk_media_requests_total",
+                        MetricsServer.Exposition.label("result", "range"),
+                        mediaPrefetcher.getRangeHitCount())
+                .sample("kiosk_media_requests_total",
+                        MetricsServer.Exposition.label("result", "miss"),
+                        mediaPrefetcher.getMissCount());
+        out.counter("kiosk_media_prefetched_total", "Media files fetched and verified.",
+                mediaPrefetcher.getFetchedCount());
+        out.counter("kiosk_media_prefetched_bytes_total", "Bytes fetched by the prefetcher.",
+                mediaPrefetcher.getBytesFetched());
+        out.counter("kiosk_media_checksum_failures_total", "Media files that failed SHA-256.",
+                mediaPrefetcher.getChecksumFailureCount());
+        out.counter("kiosk_media_throttled_ms_total", "Time media prefetch was rate limited.",
+                mediaPrefetcher.getThrottledMs());
+        out.gauge("kiosk_media_stored_bytes", "Size of stored media.",
+                mediaPrefetcher.getStoredBytes());
+        out.counter("kiosk_shell_requests_total", "Requests answered from the app shell bundle.",
+                appShell.getRequestCount());
+        out.counter("kiosk_shell_not_found_total", "Shell requests for files not in the bundle.",
+                appShell.getNotFoundCount());
+        out.counter("kiosk_shell_bytes_served_total", "Bytes served from the app shell bundle.",
+                appShell.getBytesServed());
+        out.counter("kiosk_shell_swaps_total", "Shell bundles swapped in without a restart.",
+                appShell.getSwapCount());
+        out.counter("kiosk_shell_install_failures_total", "Shell bundle installs that failed.",
+                appShell.getInstallFailureCount());
+        out.type("kiosk_shell_lookup_ns", "summary", "Time to look up and open a shell file.")
+                .summary("kiosk_shell_lookup_ns", null, appShell.getLookupHistogram());
+        out.counter("kiosk_blocked_requests_total", "Subresource requests blocked by host.",
+                contentBlocker.getBlockedCount());
+        out.gauge("kiosk_blocklist_rules", "Domain rules in the active blocklist.",
+                contentBlocker.getRuleCount());
+
+        ConfigSync configSync = ((KioskApplication) getApplication()).getConfigSync();
+        out.counter("kiosk_config_sync_polls_total", "Config sync polls.",
+                configSync.getPollCount());
+        out.counter("kiosk_config_sync_applied_total", "Config bundles that changed settings.",
+                configSync.getAppliedCount());
+        out.counter("kiosk_config_sync_failures_total", "Failed config sync polls.",
+                configSync.getFailureCount());
+        out.gauge("kiosk_config_sync_last_success_seconds", "Unix time of the last good poll.",
+                configSync.getLastSuccessMs() / 1000);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
+        journal.log(EventJournal.ACTIVITY_RESUMED, 0);
         webView.onResume();
+        playlist.onResume();
         webView.resumeTimers();
         enableKioskMode();
         
-        // Check if URL has changed and reload if necessary
-        checkAndReloadUrl();
+        // Prepare a popup WebView once the main thread goes idle
+        popupPool.prewarm();
+        watchdog.start();
+        memoryGovernor.start();
+        connectivity.start();
+        frameMonitor.start();
+        snapshot.start();
+        sessionReset.start();
         
         // Restart app if it's not the top task (kiosk mode)
         ActivityManager am = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
@@ -547,12 +1515,99 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        journal.log(EventJournal.ACTIVITY_PAUSED, 0);
         webView.onPause();
+        playlist.onPause();
         webView.pauseTimers();
+        watchdog.stop();
+        memoryGovernor.stop();
+        connectivity.stop();
+        snapshot.stop();
+        sessionReset.stop();
+        
+        // Persist the cache index and report savings
+        responseCache.flush();
+        ((KioskApplication) getApplication()).getImageCache().flush();
+        telemetry.flush();
+        Log.i(TAG, "Response cache: " + responseCache.statsSummary()
+                + " coalesced=" + cachingInterceptor.getCoalescedCount());
+        Log.i(TAG, "Images: " + imageDownscaler.statsSummary());
+        Log.i(TAG, "Blocker: " + contentBlocker.statsSummary());
+        Log.i(TAG, "Navigation: " + navigationPolicy.statsSummary());
+        Log.i(TAG, "Snapshot: " + snapshot.statsSummary());
+        Log.i(TAG, "Service workers: " + serviceWorkers.statsSummary());
+        Log.i(TAG, "Sessions: " + sessionReset.statsSummary());
+        Log.i(TAG, "Downloads: " + downloader.statsSummary());
+        Log.i(TAG, "Media: " + mediaPrefetcher.statsSummary());
+        Log.i(TAG, "Shell: " + appShell.statsSummary());
+        Log.i(TAG, "Native bridge: " + nativeBridge.statsSummary());
+        Log.i(TAG, "Journal: " + journal.statsSummary());
+        Log.i(TAG, "Connectivity: " + connectivity.statsSummary());
+        Log.i(TAG, "Offline: " + offlineRecovery.statsSummary());
+        Log.i(TAG, "Popup pool: " + popupPool.statsSummary());
+        Log.i(TAG, "Renderer watchdog: " + watchdog.statsSummary());
+        Log.i(TAG, "Memory: " + memoryGovernor.statsSummary());
+        frameMonitor.stop();
+        Log.i(TAG, "Frames: " + frameMonitor.statsSummary());
+        if (playlist.isActive()) {
+            Log.i(TAG, "Playlist: " + playlist.statsSummary());
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (journal != null) {
+            journal.log(EventJournal.MEMORY_TRIM, level);
+        }
+        if (memoryGovernor != null) {
+            memoryGovernor.onTrimMemory(level);
+        }
     }
 
     @Override
     protected void onDestroy() {
+        if (configRepository != null) {
+            configRepository.removeListener(configListener);
+        }
+        if (watchdog != null) {
+            watchdog.release();
+        }
+        if (memoryGovernor != null) {
+            memoryGovernor.release();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        if (connectivity != null) {
+            connectivity.release();
+        }
+        if (offlineRecovery != null) {
+            offlineRecovery.reset();
+        }
+        if (playlist != null) {
+            playlist.stop();
+        }
+        if (downloader != null) {
+            downloader.setListener(null);
+        }
+        if (appShell != null) {
+            appShell.setListener(null);
+        }
+        if (nativeBridge != null) {
+            nativeBridge.release();
+        }
+        if (sessionReset != null) {
+            sessionReset.stop();
+            sessionReset.dropSpare();
+        }
+        if (snapshot != null) {
+            snapshot.release();
+        }
+        if (popupPool != null) {
+            closePopup();
+            popupPool.destroyAll();
+        }
         if (webView != null) {
             webView.destroy();
         }
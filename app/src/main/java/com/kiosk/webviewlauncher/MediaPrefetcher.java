@@ -0,0 +1,863 @@
+package com.kiosk.webviewlauncher;
+
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps signage video on local storage so loops and seeks cost no network.
+ * Media comes from the {@link #KEY_MANIFEST} list, playlist entries that are
+ * media files, and media the page streamed (seen as Range requests). Files
+ * are fetched one at a time in an off-peak window, rate limited, resumed
+ * with If-Range after an interruption, checked against the manifest's
+ * SHA-256 and kept under a quota. {@link #serve} answers WebView's requests
+ * for stored files, including the Range requests video elements make, from
+ * WebView's IO threads.
+ */
+public class MediaPrefetcher {
+
+    // Config keys; all optional
+    /** JSON array of URLs or {@code {"url": "...", "sha256": "..."}} objects. */
+    public static final String KEY_MANIFEST = "media_manifest";
+    /** Local time window such as {@code 01:00-05:00}; empty means any time. */
+    public static final String KEY_WINDOW = "media_prefetch_window";
+    public static final String KEY_MAX_KBPS = "media_prefetch_max_kbps";
+    public static final String KEY_QUOTA_MB = "media_quota_mb";
+
+    private static final String TAG = "KioskMedia";
+    private static final String DEFAULT_WINDOW = "01:00-05:00";
+    private static final long DEFAULT_MAX_KBPS = 4096;
+    private static final long DEFAULT_QUOTA_MB = 2048;
+    private static final long CHECK_INTERVAL_MS = 10 * 60 * 1000;
+    // Stored files are revalidated with the server this often
+    private static final long REVALIDATE_MS = 24 * 60 * 60 * 1000L;
+    private static final long RETRY_AFTER_FAILURE_MS = 60 * 60 * 1000;
+    // Played media that leaves the manifest and is not played again is dropped after this
+    private static final long UNUSED_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int MAX_DISCOVERED = 32;
+    private static final int TIMEOUT_MS = 20000;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String MEDIA = ".media";
+    private static final String META = ".meta";
+    private static final String PART = ".part";
+    private static final String PART_META = ".partmeta";
+    private static final String[] MEDIA_EXTENSIONS = {
+            ".mp4", ".m4v", ".webm", ".mov", ".mkv", ".mp3", ".m4a", ".aac", ".ogg", ".wav"
+    };
+    // Returned by parseRange for a range that starts past the end
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    /** A verified file on disk; replaced, never changed, when the file is refetched. */
+    static final class Item {
+        final String url;
+        final File file;
+        final long size;
+        final String mimeType;
+        final String etag;
+        final String lastModified;
+        final String sha256;
+        final String allowOrigin;
+        final long checkedAtMs;
+        volatile long lastServedMs;
+
+        Item(String url, File file, long size, String mimeType, String etag,
+                String lastModified, String sha256, String allowOrigin, long checkedAtMs,
+                long lastServedMs) {
+            this.url = url;
+            this.file = file;
+            this.size = size;
+            this.mimeType = mimeType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+            this.allowOrigin = allowOrigin;
+            this.checkedAtMs = checkedAtMs;
+            this.lastServedMs = lastServedMs;
+        }
+    }
+
+    private final File dir;
+    private final ScheduledExecutorService worker;
+    private final BandwidthLimiter limiter = new BandwidthLimiter();
+    private final ConcurrentHashMap<String, Item> stored = new ConcurrentHashMap<String, Item>();
+    private final Set<String> discovered =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile Map<String, String> manifest = Collections.emptyMap();
+    private volatile List<String> playlistMedia = Collections.emptyList();
+    private volatile int windowFrom = -1;
+    private volatile int windowTo = -1;
+    private volatile long quotaBytes = DEFAULT_QUOTA_MB * 1024 * 1024;
+    private volatile boolean linkUsable = true;
+
+    // Worker thread
+    private final Map<String, Long> failedAtMs = new HashMap<String, Long>();
+
+    // Stats
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong rangeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong checksumFailures = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile long storedBytes = 0;
+
+    private final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                prefetch();
+            } catch (RuntimeException e) {
+                // Keep the schedule alive; the next check tries again
+                Log.w(TAG, "Prefetch pass failed", e);
+            }
+        }
+    };
+
+    public MediaPrefetcher(File dir) {
+        this.dir = dir;
+        this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-media");
+                t.setDaemon(true);
+                // Hashing and disk writes must not compete with the page
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+        worker.scheduleWithFixedDelay(check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void applyConfig(KioskConfig config) {
+        limiter.setRate(Math.max(0, config.getLong(KEY_MAX_KBPS, DEFAULT_MAX_KBPS)) * 1024);
+        quotaBytes = Math.max(1, config.getLong(KEY_QUOTA_MB, DEFAULT_QUOTA_MB)) * 1024 * 1024;
+        manifest = parseManifest(config.getString(KEY_MANIFEST, ""));
+        playlistMedia = playlistMedia(config.getString(Playlist.KEY_PLAYLIST, ""));
+        String window = config.getString(KEY_WINDOW, DEFAULT_WINDOW).trim();
+        int dash = window.indexOf('-');
+        windowFrom = -1;
+        windowTo = -1;
+        if (dash > 0) {
+            try {
+                windowFrom = Playlist.parseMinute(window.substring(0, dash).trim());
+                windowTo = Playlist.parseMinute(window.substring(dash + 1).trim());
+            } catch (JSONException e) {
+                Log.w(TAG, "Ignoring bad prefetch window " + window);
+            }
+        }
+        worker.execute(check);
+    }
+
+    /** Fetching waits while the uplink is offline or poor. */
+    public void setLinkUsable(boolean usable) {
+        boolean resumed = usable && !linkUsable;
+        linkUsable = usable;
+        if (resumed) {
+            worker.execute(check);
+        }
+    }
+
+    /**
+     * Answers a request for a stored file, or returns null to let WebView go to
+     * the network. A streamed miss is remembered for the next prefetch window.
+     * WebView IO threads.
+     */
+    public WebResourceResponse serve(WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        String url = request.getUrl().toString();
+        String range = header(request.getRequestHeaders(), "Range");
+        Item item = stored.get(url);
+        if (item == null) {
+            // Video elements stream with Range requests; other misses are not our business
+            if (range != null && url.startsWith("http") && isMediaUrl(url)) {
+                misses.incrementAndGet();
+                if (discovered.size() < MAX_DISCOVERED && discovered.add(url)) {
+                    Log.i(TAG, "Will prefetch streamed media " + url);
+                }
+            }
+            return null;
+        }
+        item.lastServedMs = System.currentTimeMillis();
+        long[] bounds = range != null ? parseRange(range, item.size) : null;
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("Cache-Control", "no-store");
+        if (item.allowOrigin != null) {
+            headers.put("Access-Control-Allow-Origin", item.allowOrigin);
+        }
+        if (bounds == UNSATISFIABLE) {
+            headers.put("Content-Range", "bytes */" + item.size);
+            return new WebResourceResponse(item.mimeType, null, 416,
+                    "Range Not Satisfiable", headers, new ByteArrayInputStream(new byte[0]));
+        }
+        long start = bounds != null ? bounds[0] : 0;
+        long end = bounds != null ? bounds[1] : item.size - 1;
+        InputStream body;
+        try {
+            body = new SliceInputStream(item.file, start, end - start + 1, bytesServed);
+        } catch (IOException e) {
+            // Deleted under us; the next prefetch pass fetches it again
+            stored.remove(url, item);
+            return null;
+        }
+        headers.put("Content-Length", String.valueOf(end - start + 1));
+        if (bounds == null) {
+            hits.incrementAndGet();
+            return new WebResourceResponse(item.mimeType, null, 200, "OK", headers, body);
+        }
+        rangeHits.incrementAndGet();
+        headers.put("Content-Range", "bytes " + start + "-" + end + "/" + item.size);
+        return new WebResourceResponse(item.mimeType, null, 206, "Partial Content", headers,
+                body);
+    }
+
+    /**
+     * First and last byte of a single {@code bytes=} range, clamped to the
+     * file, or null when the header should be ignored and the whole file sent.
+     */
+    static long[] parseRange(String header, long size) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6) || value.indexOf(',') >= 0) {
+            return null;
+        }
+        value = value.substring(6).trim();
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = value.substring(0, dash).trim();
+            String last = value.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return end < start ? null : new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getRangeHitCount() {
+        return rangeHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** Bytes WebView read from stored files instead of the network. */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    public long getFetchedCount() {
+        return fetched.get();
+    }
+
+    public long getChecksumFailureCount() {
+        return checksumFailures.get();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public int getStoredCount() {
+        return stored.size();
+    }
+
+    public long getThrottledMs() {
+        return limiter.getThrottledMs();
+    }
+
+    public String statsSummary() {
+        return "stored=" + stored.size() + "/" + (storedBytes / (1024 * 1024)) + "MB"
+                + " hits=" + hits.get() + " rangeHits=" + rangeHits.get()
+                + " misses=" + misses.get() + " served=" + (bytesServed.get() / 1024) + "KB"
+                + " fetched=" + fetched.get() + "/" + (bytesFetched.get() / 1024) + "KB"
+                + " checksumFailures=" + checksumFailures.get()
+                + " evicted=" + evictions.get();
+    }
+
+    // Worker thread from here on
+
+    // Files are only served once their hash matches the one recorded when they were fetched
+    private void load() {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        File[] metas = dir.listFiles();
+        if (metas == null) {
+            return;
+        }
+        for (File meta : metas) {
+            if (!meta.getName().endsWith(META)) {
+                continue;
+            }
+            String key = meta.getName().substring(0, meta.getName().length() - META.length());
+            Properties props = readProperties(meta);
+            File file = new File(dir, key + MEDIA);
+            String url = props != null ? props.getProperty("url") : null;
+            String sha256 = props != null ? props.getProperty("sha256") : null;
+            long size = props != null ? parseLong(props.getProperty("size"), -1) : -1;
+            if (url == null || sha256 == null || file.length() != size
+                    || !sha256.equals(sha256(file))) {
+                Log.w(TAG, "Dropping damaged media " + (url != null ? url : key));
+                checksumFailures.incrementAndGet();
+                file.delete();
+                meta.delete();
+                continue;
+            }
+            stored.put(url, new Item(url, file, size, props.getProperty("mime", "video/mp4"),
+                    props.getProperty("etag"), props.getProperty("lastModified"), sha256,
+                    props.getProperty("allowOrigin"),
+                    parseLong(props.getProperty("checkedAt"), 0),
+                    parseLong(props.getProperty("servedAt"), 0)));
+        }
+        updateStoredBytes();
+        Log.i(TAG, "Loaded " + stored.size() + " media files, " + storedBytes + " bytes");
+    }
+
+    private void prefetch() {
+        long now = System.currentTimeMillis();
+        Map<String, String> wanted = wanted(now);
+        dropUnused(wanted);
+        for (Map.Entry<String, String> entry : wanted.entrySet()) {
+            if (!inWindow() || !linkUsable) {
+                return;
+            }
+            String url = entry.getKey();
+            String expected = entry.getValue();
+            Item item = stored.get(url);
+            boolean mismatch = item != null && expected != null
+                    && !expected.equalsIgnoreCase(item.sha256);
+            if (item != null && !mismatch && now - item.checkedAtMs < REVALIDATE_MS) {
+                continue;
+            }
+            Long failed = failedAtMs.get(url);
+            if (failed != null && now - failed < RETRY_AFTER_FAILURE_MS) {
+                continue;
+            }
+            try {
+                fetch(url, expected, mismatch ? null : item);
+                failedAtMs.remove(url);
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Prefetch of " + url + " failed: " + e.getMessage());
+                failedAtMs.put(url, now);
+                // Make room for other streamed media; the next play finds it again
+                discovered.remove(url);
+            }
+        }
+    }
+
+    // URL to expected SHA-256 (null if unknown); manifest first
+    private Map<String, String> wanted(long now) {
+        Map<String, String> wanted = new LinkedHashMap<String, String>(manifest);
+        for (String url : playlistMedia) {
+            if (!wanted.containsKey(url)) {
+                wanted.put(url, null);
+            }
+        }
+        for (String url : discovered) {
+            if (!wanted.containsKey(url)) {
+                wanted.put(url, null);
+            }
+        }
+        // Stored media the page still plays is kept fresh
+        for (Item item : stored.values()) {
+            if (!wanted.containsKey(item.url) && now - item.lastServedMs < UNUSED_MS) {
+                wanted.put(item.url, null);
+            }
+        }
+        return wanted;
+    }
+
+    private void dropUnused(Map<String, String> wanted) {
+        for (Item item : new ArrayList<Item>(stored.values())) {
+            if (!wanted.containsKey(item.url)) {
+                Log.i(TAG, "Dropping unused media " + item.url);
+                delete(item);
+            }
+        }
+        updateStoredBytes();
+    }
+
+    void fetch(String url, String expected, Item current) throws IOException {
+        String key = ResponseCache.keyFor(url);
+        File part = new File(dir, key + PART);
+        File partMeta = new File(dir, key + PART_META);
+        Properties partial = part.exists() ? readProperties(partMeta) : null;
+        String partValidator = partial != null && url.equals(partial.getProperty("url"))
+                ? partial.getProperty("validator") : null;
+        long offset = partValidator != null ? part.length() : 0;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setUseCaches(false);
+            // Byte offsets must refer to the stored file, not a compressed stream
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                connection.setRequestProperty("If-Range", partValidator);
+            } else if (current != null) {
+                if (current.etag != null) {
+                    connection.setRequestProperty("If-None-Match", current.etag);
+                }
+                if (current.lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", current.lastModified);
+                }
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+                Item refreshed = new Item(current.url, current.file, current.size,
+                        current.mimeType, current.etag, current.lastModified, current.sha256,
+                        current.allowOrigin, System.currentTimeMillis(), current.lastServedMs);
+                stored.put(url, refreshed);
+                saveMeta(refreshed);
+                return;
+            }
+            boolean resumed = offset > 0 && code == HttpURLConnection.HTTP_PARTIAL
+                    && contentRangeStart(connection.getHeaderField("Content-Range")) == offset;
+            if (code != HttpURLConnection.HTTP_OK && !resumed) {
+                throw new IOException("HTTP " + code);
+            }
+            if (!resumed) {
+                offset = 0;
+            }
+            long length = connection.getContentLengthLong();
+            if (length < 0) {
+                // Live or chunked streams have no end to store
+                throw new IOException("No Content-Length");
+            }
+            long total = offset + length;
+            if (total > quotaBytes) {
+                throw new IOException(total + " bytes is over the media quota");
+            }
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            // Weak ETags cannot be used with If-Range
+            String validator = etag != null && !etag.startsWith("W/") ? etag : lastModified;
+            if (!resumed) {
+                part.delete();
+                partMeta.delete();
+                if (validator != null) {
+                    Properties props = new Properties();
+                    props.setProperty("url", url);
+                    props.setProperty("validator", validator);
+                    writeProperties(partMeta, props);
+                }
+            }
+            evictFor(total - (current != null ? current.size : 0), url);
+
+            in = connection.getInputStream();
+            out = new FileOutputStream(part, resumed);
+            byte[] buffer = new byte[BUFFER_BYTES];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                limiter.acquire(n);
+                out.write(buffer, 0, n);
+                bytesFetched.addAndGet(n);
+            }
+            out.close();
+            out = null;
+            if (part.length() != total) {
+                throw new IOException("Got " + part.length() + " of " + total + " bytes");
+            }
+
+            String sha256 = sha256(part);
+            if (sha256 == null || (expected != null && !expected.equalsIgnoreCase(sha256))) {
+                checksumFailures.incrementAndGet();
+                part.delete();
+                partMeta.delete();
+                throw new IOException("Checksum mismatch, got " + sha256);
+            }
+            File file = new File(dir, key + MEDIA);
+            // Readers of the old file keep their open descriptors
+            if (!part.renameTo(file)) {
+                throw new IOException("Cannot move " + part + " into place");
+            }
+            partMeta.delete();
+            String mimeType = mimeType(url, connection.getContentType());
+            Item item = new Item(url, file, file.length(), mimeType, etag, lastModified,
+                    sha256, connection.getHeaderField("Access-Control-Allow-Origin"),
+                    System.currentTimeMillis(),
+                    current != null ? current.lastServedMs : System.currentTimeMillis());
+            saveMeta(item);
+            stored.put(url, item);
+            discovered.remove(url);
+            fetched.incrementAndGet();
+            updateStoredBytes();
+            Log.i(TAG, "Stored " + url + " (" + item.size + " bytes, sha256 " + sha256 + ")");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Prefetch interrupted");
+        } finally {
+            ResponseCache.closeQuietly(in);
+            ResponseCache.closeQuietly(out);
+            connection.disconnect();
+        }
+    }
+
+    // Least recently played first; the file being fetched is never evicted
+    private void evictFor(long incoming, String keep) {
+        List<Item> items = new ArrayList<Item>(stored.values());
+        Collections.sort(items, new Comparator<Item>() {
+            @Override
+            public int compare(Item a, Item b) {
+                return a.lastServedMs < b.lastServedMs ? -1
+                        : a.lastServedMs == b.lastServedMs ? 0 : 1;
+            }
+        });
+        long total = storedBytes;
+        for (Item item : items) {
+            if (total + incoming <= quotaBytes) {
+                break;
+            }
+            if (item.url.equals(keep)) {
+                continue;
+            }
+            Log.i(TAG, "Evicting " + item.url);
+            total -= item.size;
+            delete(item);
+            evictions.incrementAndGet();
+        }
+        updateStoredBytes();
+    }
+
+    private void delete(Item item) {
+        stored.remove(item.url, item);
+        item.file.delete();
+        new File(dir, ResponseCache.keyFor(item.url) + META).delete();
+    }
+
+    private void updateStoredBytes() {
+        long total = 0;
+        for (Item item : stored.values()) {
+            total += item.size;
+        }
+        storedBytes = total;
+    }
+
+    private boolean inWindow() {
+        int from = windowFrom;
+        int to = windowTo;
+        if (from < 0 || from == to) {
+            return true;
+        }
+        Calendar now = Calendar.getInstance();
+        int minute = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+        return from < to ? minute >= from && minute < to : minute >= from || minute < to;
+    }
+
+    private void saveMeta(Item item) {
+        Properties props = new Properties();
+        props.setProperty("url", item.url);
+        props.setProperty("size", String.valueOf(item.size));
+        props.setProperty("mime", item.mimeType);
+        props.setProperty("sha256", item.sha256);
+        props.setProperty("checkedAt", String.valueOf(item.checkedAtMs));
+        props.setProperty("servedAt", String.valueOf(item.lastServedMs));
+        if (item.etag != null) {
+            props.setProperty("etag", item.etag);
+        }
+        if (item.lastModified != null) {
+            props.setProperty("lastModified", item.lastModified);
+        }
+        if (item.allowOrigin != null) {
+            props.setProperty("allowOrigin", item.allowOrigin);
+        }
+        try {
+            writeProperties(new File(dir, ResponseCache.keyFor(item.url) + META), props);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save media index for " + item.url + ": " + e.getMessage());
+        }
+    }
+
+    private static Map<String, String> parseManifest(String json) {
+        Map<String, String> manifest = new LinkedHashMap<String, String>();
+        if (json == null || json.trim().isEmpty()) {
+            return manifest;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.optJSONObject(i);
+                String url = item != null ? item.optString("url", "") : array.optString(i, "");
+                String sha256 = item != null ? item.optString("sha256", "") : "";
+                if (!url.trim().isEmpty()) {
+                    manifest.put(url.trim(), sha256.isEmpty() ? null : sha256.toLowerCase(
+                            Locale.US));
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Ignoring invalid media manifest: " + e.getMessage());
+        }
+        return manifest;
+    }
+
+    private static List<String> playlistMedia(String json) {
+        List<String> urls = new ArrayList<String>();
+        try {
+            Playlist playlist = Playlist.parse(json);
+            for (int i = 0; i < playlist.size(); i++) {
+                String url = playlist.get(i).url;
+                if (isMediaUrl(url)) {
+                    urls.add(url);
+                }
+            }
+        } catch (JSONException e) {
+            // Reported by MainActivity, which uses the same value
+        }
+        return urls;
+    }
+
+    static boolean isMediaUrl(String url) {
+        String path = url.toLowerCase(Locale.US);
+        int end = path.length();
+        int query = path.indexOf('?');
+        int fragment = path.indexOf('#');
+        if (query >= 0) {
+            end = query;
+        }
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        path = path.substring(0, end);
+        for (String extension : MEDIA_EXTENSIONS) {
+            if (path.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String mimeType(String url, String contentType) {
+        if (contentType != null && !contentType.isEmpty()) {
+            int semicolon = contentType.indexOf(';');
+            return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+        }
+        return url.toLowerCase(Locale.US).contains(".webm") ? "video/webm" : "video/mp4";
+    }
+
+    private static long contentRangeStart(String contentRange) {
+        // "bytes 100-199/200"
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash > 6 ? parseLong(contentRange.substring(6, dash).trim(), -1) : -1;
+    }
+
+    private static String sha256(File file) {
+        InputStream in = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[BUFFER_BYTES];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+            byte[] hash = digest.digest();
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+    private static Properties readProperties(File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            Properties props = new Properties();
+            props.load(in);
+            return props;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            ResponseCache.closeQuietly(in);
+        }
+    }
+
+    // Written to a temporary file first so a crash never leaves half an index entry
+    private static void writeProperties(File file, Properties props) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        if (headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /** Reads {@code length} bytes of a file from {@code start}, counting them as saved. */
+    private static final class SliceInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+        private long remaining;
+
+        SliceInputStream(File file, long start, long length, AtomicLong counter)
+                throws IOException {
+            super(new FileInputStream(file));
+            this.counter = counter;
+            this.remaining = length;
+            try {
+                ((FileInputStream) in).getChannel().position(start);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(buffer, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.ComponentCallbacks2;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps long-running signage pages from growing until the OS kills us.
+ * Samples process PSS on a background thread and the page's JS heap through
+ * the WebView, and escalates in steps: drop popup views, clear WebView
+ * caches, and finally a soft recycle of the WebView once nobody is touching
+ * the screen. Memory that stays high after a recycle doubles the wait before
+ * the next one, so a page that is simply large is not reloaded every idle
+ * period. Public methods are called on the main thread.
+ */
+public class MemoryGovernor {
+
+    public interface Actions {
+        WebView getWebView();
+
+        void dropPopups();
+
+        /** Frees the hidden views kept ready for the playlist and session resets. */
+        void dropSpareViews();
+
+        void clearWebViewCaches();
+
+        /** Replaces the WebView with a fresh one and reloads the configured page. */
+        void softRecycle();
+
+        /** Uptime of the last touch on the kiosk, used to find idle periods. */
+        long getLastInteractionMs();
+    }
+
+    // Config keys; all optional
+    public static final String KEY_PSS_LIMIT_MB = "mem_pss_limit_mb";
+    public static final String KEY_JS_HEAP_LIMIT_MB = "mem_js_heap_limit_mb";
+    public static final String KEY_SAMPLE_INTERVAL_S = "mem_sample_interval_s";
+    public static final String KEY_RECYCLE_IDLE_S = "mem_recycle_idle_s";
+
+    private static final String TAG = "KioskMemory";
+    private static final long DEFAULT_PSS_LIMIT_MB = 450;
+    private static final long DEFAULT_JS_HEAP_LIMIT_MB = 256;
+    private static final long DEFAULT_SAMPLE_INTERVAL_S = 60;
+    private static final long DEFAULT_RECYCLE_IDLE_S = 120;
+    private static final long CACHE_CLEAR_MIN_INTERVAL_MS = 10 * 60 * 1000;
+    private static final long RECYCLE_BACKOFF_BASE_MS = 30 * 60 * 1000;
+    private static final long RECYCLE_BACKOFF_MAX_MS = 24 * 60 * 60 * 1000;
+    private static final String JS_HEAP_SCRIPT =
+            "(window.performance && performance.memory) ? performance.memory.usedJSHeapSize : -1";
+
+    private final Handler mainHandler;
+    private final Actions actions;
+    private final ScheduledExecutorService sampler;
+    private ScheduledFuture<?> samplingTask;
+
+    private volatile long pssLimitKb = DEFAULT_PSS_LIMIT_MB * 1024;
+    private volatile long jsHeapLimitBytes = DEFAULT_JS_HEAP_LIMIT_MB * 1024 * 1024;
+    private long sampleIntervalS = DEFAULT_SAMPLE_INTERVAL_S;
+    private long recycleIdleMs = DEFAULT_RECYCLE_IDLE_S * 1000;
+
+    private boolean recyclePending = false;
+    private long lastCacheClearMs = 0;
+    // No recycle before this uptime; pushed further out while memory stays high
+    private long nextRecycleAllowedMs = 0;
+    private long recycleBackoffMs = RECYCLE_BACKOFF_BASE_MS;
+
+    // Stats
+    private volatile long lastPssKb = 0;
+    private volatile long lastJsHeapBytes = -1;
+    private volatile long popupDrops = 0;
+    private volatile long cacheClears = 0;
+    private volatile long recycles = 0;
+    private volatile long recyclesDeferred = 0;
+
+    private final ValueCallback<String> jsHeapCallback = new ValueCallback<String>() {
+        @Override
+        public void onReceiveValue(String value) {
+            try {
+                lastJsHeapBytes = value != null ? (long) Double.parseDouble(value) : -1;
+            } catch (NumberFormatException e) {
+                lastJsHeapBytes = -1;
+            }
+            evaluate();
+        }
+    };
+
+    private final Runnable sampleJsHeap = new Runnable() {
+        @Override
+        public void run() {
+            WebView webView = actions.getWebView();
+            if (webView != null) {
+                webView.evaluateJavascript(JS_HEAP_SCRIPT, jsHeapCallback);
+            } else {
+                evaluate();
+            }
+        }
+    };
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            tryRecycle();
+        }
+    };
+
+    public MemoryGovernor(Handler mainHandler, Actions actions) {
+        this.mainHandler = mainHandler;
+        this.actions = actions;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-memory");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void applyConfig(KioskConfig config) {
+        pssLimitKb = config.getLong(KEY_PSS_LIMIT_MB, DEFAULT_PSS_LIMIT_MB) * 1024;
+        jsHeapLimitBytes = config.getLong(KEY_JS_HEAP_LIMIT_MB, DEFAULT_JS_HEAP_LIMIT_MB)
+                * 1024 * 1024;
+        recycleIdleMs = config.getLong(KEY_RECYCLE_IDLE_S, DEFAULT_RECYCLE_IDLE_S) * 1000;
+        long interval = Math.max(5, config.getLong(KEY_SAMPLE_INTERVAL_S,
+                DEFAULT_SAMPLE_INTERVAL_S));
+        if (interval != sampleIntervalS) {
+            sampleIntervalS = interval;
+            if (samplingTask != null) {
+                stop();
+                start();
+            }
+        }
+    }
+
+    public void start() {
+        if (samplingTask != null) {
+            return;
+        }
+        samplingTask = sampler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                samplePss();
+            }
+        }, sampleIntervalS, sampleIntervalS, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (samplingTask != null) {
+            samplingTask.cancel(false);
+            samplingTask = null;
+        }
+        mainHandler.removeCallbacks(sampleJsHeap);
+    }
+
+    public void release() {
+        stop();
+        mainHandler.removeCallbacks(idleCheck);
+        sampler.shutdownNow();
+    }
+
+    public void onTrimMemory(int level) {
+        String reason = "trim level " + level;
+        // The levels are not ordered by severity: UI_HIDDEN and the background ones are
+        // numerically above RUNNING_CRITICAL, so each is matched on its own
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                dropPopups(reason);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+                dropPopups(reason);
+                dropSpareViews(reason);
+                clearCaches(reason, true);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                dropPopups(reason);
+                dropSpareViews(reason);
+                clearCaches(reason, true);
+                requestRecycle(reason);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN:
+                // Settings or another app is in front; nothing is short of memory
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                dropPopups(reason);
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                // Freed to stay off the kill list; the page is kept for when we return
+                dropPopups(reason);
+                dropSpareViews(reason);
+                clearCaches(reason, true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public long getLastPssKb() {
+        return lastPssKb;
+    }
+
+    public long getLastJsHeapBytes() {
+        return lastJsHeapBytes;
+    }
+
+    public long getRecycleCount() {
+        return recycles;
+    }
+
+    public String statsSummary() {
+        return "pss=" + (lastPssKb / 1024) + "MB jsHeap="
+                + (lastJsHeapBytes < 0 ? "n/a" : (lastJsHeapBytes / (1024 * 1024)) + "MB")
+                + " popupDrops=" + popupDrops + " cacheClears=" + cacheClears
+                + " recycles=" + recycles + " deferred=" + recyclesDeferred
+                + " backoff=" + (recycleBackoffMs / 60000) + "min";
+    }
+
+    // Sampler thread
+    private void samplePss() {
+        Debug.MemoryInfo info = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(info);
+        lastPssKb = info.getTotalPss();
+        mainHandler.post(sampleJsHeap);
+    }
+
+    private void evaluate() {
+        long pssKb = lastPssKb;
+        long jsHeap = lastJsHeapBytes;
+        boolean pssHigh = pssKb > pssLimitKb;
+        boolean heapHigh = jsHeap > jsHeapLimitBytes;
+        if (!pssHigh && !heapHigh) {
+            recycleBackoffMs = RECYCLE_BACKOFF_BASE_MS;
+            return;
+        }
+
+        String reason = (pssHigh ? "pss " + (pssKb / 1024) + "MB" : "")
+                + (pssHigh && heapHigh ? ", " : "")
+                + (heapHigh ? "js heap " + (jsHeap / (1024 * 1024)) + "MB" : "");
+        // Only the popup pool; the playlist buffer and the session spare go with a recycle
+        dropPopups(reason);
+        // The JS heap only shrinks with a fresh document; for PSS try the caches first
+        if (!clearCaches(reason, false) || heapHigh) {
+            requestRecycle(reason);
+        }
+    }
+
+    private void dropPopups(String reason) {
+        popupDrops++;
+        Log.i(TAG, "Dropping warm popup views (" + reason + ")");
+        actions.dropPopups();
+    }
+
+    private void dropSpareViews(String reason) {
+        Log.i(TAG, "Dropping spare WebViews (" + reason + ")");
+        actions.dropSpareViews();
+    }
+
+    // Returns false if caches were cleared recently and clearing again is unlikely to help
+    private boolean clearCaches(String reason, boolean force) {
+        long now = SystemClock.uptimeMillis();
+        if (!force && lastCacheClearMs > 0
+                && now - lastCacheClearMs < CACHE_CLEAR_MIN_INTERVAL_MS) {
+            return false;
+        }
+        lastCacheClearMs = now;
+        cacheClears++;
+        Log.i(TAG, "Clearing WebView caches (" + reason + ")");
+        actions.clearWebViewCaches();
+        return true;
+    }
+
+    private void requestRecycle(String reason) {
+        if (recyclePending) {
+            return;
+        }
+        if (SystemClock.uptimeMillis() < nextRecycleAllowedMs) {
+            recyclesDeferred++;
+            Log.d(TAG, "Soft recycle deferred, last one was recent (" + reason + ")");
+            return;
+        }
+        recyclePending = true;
+        Log.i(TAG, "Soft recycle scheduled for the next idle period (" + reason + ")");
+        tryRecycle();
+    }
+
+    private void tryRecycle() {
+        if (!recyclePending) {
+            return;
+        }
+        long idleFor = SystemClock.uptimeMillis() - actions.getLastInteractionMs();
+        if (idleFor < recycleIdleMs) {
+            mainHandler.removeCallbacks(idleCheck);
+            mainHandler.postDelayed(idleCheck, recycleIdleMs - idleFor);
+            return;
+        }
+        recyclePending = false;
+        recycles++;
+        nextRecycleAllowedMs = SystemClock.uptimeMillis() + recycleBackoffMs;
+        recycleBackoffMs = Math.min(recycleBackoffMs * 2, RECYCLE_BACKOFF_MAX_MS);
+        Log.i(TAG, "Soft recycling WebView after " + (idleFor / 1000) + "s idle, "
+                + statsSummary());
+        actions.softRecycle();
+    }
+}
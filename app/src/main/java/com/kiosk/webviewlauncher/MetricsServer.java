@@ -0,0 +1,396 @@
+package com.kiosk.webviewlauncher;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Optional LAN endpoint for fleet scraping. One background thread runs a
+ * non-blocking selector loop and serves {@code /metrics} in Prometheus text
+ * format, behind HTTP Basic auth with the admin password, plus an anonymous
+ * {@code /health}. Each connection handles one request and is then closed.
+ * The UI thread only starts and stops the server.
+ */
+public class MetricsServer {
+
+    /** Writes the current metrics; called on the server thread. */
+    public interface Source {
+        void collect(Exposition out);
+    }
+
+    // Config key; 0 or absent keeps the server off
+    public static final String KEY_PORT = "metrics_port";
+
+    private static final String TAG = "KioskMetrics";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_REQUEST_BYTES = 8 * 1024;
+    private static final long CONNECTION_TIMEOUT_MS = 10000;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final String BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private final ConfigRepository configRepository;
+    private final Source source;
+    private int port = 0;
+    private Thread thread;
+    private volatile boolean running = false;
+    private Selector selector;
+
+    public MetricsServer(ConfigRepository configRepository, Source source) {
+        this.configRepository = configRepository;
+        this.source = source;
+    }
+
+    /** Starts, stops or moves the server to match the config. Main thread. */
+    public void applyConfig(KioskConfig config) {
+        int configured = (int) config.getLong(KEY_PORT, 0);
+        if (configured < 0 || configured > 65535) {
+            configured = 0;
+        }
+        if (configured == port && (thread != null) == (configured != 0)) {
+            return;
+        }
+        stop();
+        port = configured;
+        if (port != 0) {
+            start();
+        }
+    }
+
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+        try {
+            // Releases the port before a restart on a new one
+            thread.join(SELECT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void start() {
+        final int listenPort = port;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve(listenPort);
+            }
+        }, "kiosk-metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void serve(int listenPort) {
+        ServerSocketChannel server = null;
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(listenPort));
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Log.i(TAG, "Metrics endpoint listening on port " + listenPort);
+
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(server);
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    } catch (RuntimeException e) {
+                        // One bad request must not take the endpoint (or the app) down
+                        Log.w(TAG, "Metrics request failed", e);
+                        close(key);
+                    }
+                }
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Metrics endpoint stopped: " + e.getMessage());
+        } finally {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                ResponseCache.closeQuietly(selector);
+            }
+            ResponseCache.closeQuietly(server);
+            selector = null;
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel client = server.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel client = (SocketChannel) key.channel();
+        if (client.read(connection.in) == -1) {
+            close(key);
+            return;
+        }
+        String head = connection.requestHead();
+        if (head != null) {
+            respond(key, connection, handle(head));
+        } else if (!connection.in.hasRemaining()) {
+            respond(key, connection, response("431 Request Header Fields Too Large",
+                    "text/plain", "Request too large\n", null));
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(connection.out);
+        if (!connection.out.hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void respond(SelectionKey key, Connection connection, ByteBuffer response)
+            throws IOException {
+        connection.out = response;
+        key.interestOps(SelectionKey.OP_WRITE);
+        // Most responses fit the socket buffer; skip a selector round trip
+        write(key);
+    }
+
+    private ByteBuffer handle(String head) {
+        int lineEnd = head.indexOf("\r\n");
+        String[] requestLine = (lineEnd >= 0 ? head.substring(0, lineEnd) : head).split(" ");
+        if (requestLine.length < 2) {
+            return response("400 Bad Request", "text/plain", "Bad request\n", null);
+        }
+        if (!"GET".equals(requestLine[0])) {
+            return response("405 Method Not Allowed", "text/plain", "GET only\n", null);
+        }
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+
+        if ("/health".equals(path)) {
+            return response("200 OK", "text/plain", "ok\n", null);
+        }
+        if (!"/metrics".equals(path)) {
+            return response("404 Not Found", "text/plain", "Not found\n", null);
+        }
+        if (!isAuthorized(head)) {
+            return response("401 Unauthorized", "text/plain", "Unauthorized\n",
+                    "WWW-Authenticate: Basic realm=\"kiosk\"\r\n");
+        }
+        Exposition out = new Exposition();
+        try {
+            source.collect(out);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Collecting metrics failed", e);
+            return response("500 Internal Server Error", "text/plain",
+                    "Metrics unavailable\n", null);
+        }
+        return response("200 OK", "text/plain; version=0.0.4; charset=utf-8",
+                out.toString(), null);
+    }
+
+    // Basic auth with any user name and the admin password from settings
+    private boolean isAuthorized(String head) {
+        String credentials = null;
+        for (String line : head.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Authorization")) {
+                credentials = line.substring(colon + 1).trim();
+                break;
+            }
+        }
+        if (credentials == null
+                || !credentials.toLowerCase(Locale.US).startsWith("basic ")) {
+            return false;
+        }
+        byte[] bytes = decodeBase64(credentials.substring(6).trim());
+        if (bytes == null) {
+            return false;
+        }
+        String decoded = new String(bytes, UTF_8);
+        int colon = decoded.indexOf(':');
+        String password = colon >= 0 ? decoded.substring(colon + 1) : decoded;
+        String storedHash = configRepository.get().getPasswordHash();
+        String givenHash = ConfigRepository.hashPassword(password);
+        return storedHash != null && givenHash != null
+                && MessageDigest.isEqual(storedHash.getBytes(ASCII), givenHash.getBytes(ASCII));
+    }
+
+    // RFC 4648 base64, padded or not; null if malformed. java.util.Base64 needs API 26.
+    static byte[] decodeBase64(String text) {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '=') {
+            end--;
+        }
+        if (text.length() - end > 2 || end % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[end * 3 / 4];
+        int buffer = 0;
+        int bits = 0;
+        int o = 0;
+        for (int i = 0; i < end; i++) {
+            int value = BASE64.indexOf(text.charAt(i));
+            if (value < 0) {
+                return null;
+            }
+            buffer = buffer << 6 | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out[o++] = (byte) (buffer >> bits);
+                buffer &= (1 << bits) - 1;
+            }
+        }
+        return out;
+    }
+
+    private static ByteBuffer response(String status, String contentType, String body,
+            String extraHeaders) {
+        byte[] bodyBytes = body.getBytes(UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + bodyBytes.length + "\r\n"
+                + "Cache-Control: no-store\r\n"
+                + (extraHeaders != null ? extraHeaders : "")
+                + "Connection: close\r\n\r\n";
+        byte[] headBytes = head.getBytes(ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + bodyBytes.length);
+        buffer.put(headBytes).put(bodyBytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection
+                    && now - ((Connection) attachment).openedAtMs > CONNECTION_TIMEOUT_MS) {
+                close(key);
+            }
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        ResponseCache.closeQuietly(key.channel());
+    }
+
+    private static final class Connection {
+        final long openedAtMs = System.currentTimeMillis();
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        ByteBuffer out;
+
+        // Request line and headers once complete; the body of a GET is ignored
+        String requestHead() {
+            byte[] data = in.array();
+            int length = in.position();
+            for (int i = 3; i < length; i++) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n'
+                        && data[i - 3] == '\r') {
+                    return new String(data, 0, i - 3, ASCII);
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Builder for the Prometheus text exposition format. */
+    public static final class Exposition {
+        private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+        private final StringBuilder sb = new StringBuilder(4096);
+
+        public Exposition type(String name, String type, String help) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            return this;
+        }
+
+        public Exposition sample(String name, String labels, double value) {
+            sb.append(name);
+            if (labels != null) {
+                sb.append('{').append(labels).append('}');
+            }
+            sb.append(' ');
+            if (value == Math.rint(value) && !Double.isInfinite(value)) {
+                sb.append((long) value);
+            } else {
+                sb.append(value);
+            }
+            sb.append('\n');
+            return this;
+        }
+
+        public Exposition gauge(String name, String help, double value) {
+            return type(name, "gauge", help).sample(name, null, value);
+        }
+
+        public Exposition counter(String name, String help, long value) {
+            return type(name, "counter", help).sample(name, null, value);
+        }
+
+        /** Quantile, sum and count lines; write the type line once before. */
+        public Exposition summary(String name, String labels, LatencyHistogram histogram) {
+            String prefix = labels != null ? labels + "," : "";
+            for (double q : QUANTILES) {
+                sample(name, prefix + "quantile=\"" + q + "\"", histogram.percentile(q * 100));
+            }
+            sample(name + "_sum", labels, histogram.getSum());
+            sample(name + "_count", labels, histogram.getCount());
+            return this;
+        }
+
+        public static String label(String name, String value) {
+            String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"")
+                    .replace("\n", "\\n");
+            return name + "=\"" + escaped + "\"";
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
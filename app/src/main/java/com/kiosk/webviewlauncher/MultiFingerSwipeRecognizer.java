@@ -0,0 +1,64 @@
+package com.kiosk.webviewlauncher;
+
+/**
+ * A vertical swipe with a fixed number of fingers, e.g. the three-finger
+ * swipe down that reloads the page. The distance threshold is given in
+ * pixels so no display metrics are read while tracking.
+ */
+public final class MultiFingerSwipeRecognizer implements GestureRecognizer {
+
+    private final int pointers;
+    private final float minDistancePx; // Positive = down, negative = up
+    private final long maxDurationMs;
+
+    private boolean tracking = false;
+    private float startY = 0;
+    private long startMs = 0;
+
+    public MultiFingerSwipeRecognizer(int pointers, float minDistancePx, long maxDurationMs) {
+        this.pointers = pointers;
+        this.minDistancePx = minDistancePx;
+        this.maxDurationMs = maxDurationMs;
+    }
+
+    @Override
+    public boolean onTouch(TouchSample sample) {
+        switch (sample.action) {
+            case TouchSample.ACTION_DOWN:
+            case TouchSample.ACTION_POINTER_DOWN:
+                if (sample.pointerCount >= pointers) {
+                    startY = sample.averageY(pointers);
+                    startMs = sample.timeMs;
+                    tracking = true;
+                }
+                return false;
+
+            case TouchSample.ACTION_MOVE:
+                if (!tracking || sample.pointerCount < pointers) {
+                    return false;
+                }
+                float dy = sample.averageY(pointers) - startY;
+                long dt = sample.timeMs - startMs;
+                boolean farEnough = minDistancePx >= 0 ? dy >= minDistancePx : dy <= minDistancePx;
+                if (farEnough && dt <= maxDurationMs) {
+                    tracking = false;
+                    return true;
+                }
+                return false;
+
+            case TouchSample.ACTION_UP:
+            case TouchSample.ACTION_POINTER_UP:
+            case TouchSample.ACTION_CANCEL:
+                tracking = false;
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void reset() {
+        tracking = false;
+    }
+}
@@ -0,0 +1,457 @@
+package com.kiosk.webviewlauncher;
+
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Choreographer;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+import androidx.webkit.JsReplyProxy;
+import androidx.webkit.WebMessageCompat;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message channel between the home page and native handlers (device state,
+ * attached hardware). The channel object is injected by WebView only into
+ * main frames of the allowed home origins, so other origins and frames never
+ * see it; the client script exposes it as {@code window.KioskNative}. Each
+ * connect accepts one handshake from the connected view's page. Messages are
+ * binary frames: kind, 16-bit request id, handler index, 16-bit length, then
+ * the payload. A batch of frames travels as one string with one byte per
+ * char, because the channel only carries strings. The page batches what it
+ * sends within a task; replies and events are batched per frame. Requests
+ * are dispatched on a worker thread, never the UI thread.
+ */
+public class NativeBridge {
+
+    public interface Handler {
+        /** Worker thread. {@code reply} may be completed later, from any thread. */
+        void onRequest(byte[] payload, Reply reply);
+    }
+
+    /** Baseline {@code addJavascriptInterface} bridge for the benchmark; debug builds only. */
+    public static final String JS_BASELINE_NAME = "KioskBridgeBaseline";
+
+    private static final String TAG = "KioskBridge";
+    // Injected by WebView into allowed origins only
+    private static final String CHANNEL_NAME = "KioskNativeChannel";
+    private static final String HELLO = "kiosk-native";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final int KIND_REQUEST = 0;
+    private static final int KIND_REPLY = 1;
+    private static final int KIND_ERROR = 2;
+    private static final int KIND_EVENT = 3;
+    private static final int KIND_HELLO = 4;
+    private static final int HEADER_BYTES = 6;
+    private static final int MAX_PAYLOAD = 0xFFFF;
+    private static final int MAX_HANDLERS = 0x100;
+
+    // Page side. Payloads are byte strings; requests sent in one task go out as one message.
+    // benchmark(n) compares channel round trips with the string bridge above (debug builds).
+    // Reconnecting the same page only repeats the handshake.
+    private static final String CLIENT_SCRIPT = "(function(){"
+            + "var ch=window." + CHANNEL_NAME + ";if(!ch)return;"
+            + "if(window.KioskNative){ch.postMessage('" + HELLO + "');return;}"
+            + "var names=null,out=[],queued=false,wait=[],pend={},subs={},seq=0;"
+            + "function enc(s){return unescape(encodeURIComponent(s));}"
+            + "function bytes(d){if(d==null)return'';if(typeof d==='string')return enc(d);"
+            + "if(d instanceof ArrayBuffer)d=new Uint8Array(d);var s='';"
+            + "for(var i=0;i<d.length;i+=8192)"
+            + "s+=String.fromCharCode.apply(null,d.subarray(i,i+8192));return s;}"
+            + "function u8(s){var a=new Uint8Array(s.length);"
+            + "for(var i=0;i<s.length;i++)a[i]=s.charCodeAt(i);return a;}"
+            + "function text(a){return decodeURIComponent(escape(bytes(a)));}"
+            + "function flush(){queued=false;"
+            + "if(out.length){ch.postMessage(out.join(''));out=[];}}"
+            + "function push(id,h,b){if(b.length>65535)throw new Error('Payload too large');"
+            + "out.push(String.fromCharCode(0,id>>8,id&255,h,b.length>>8,b.length&255)+b);"
+            + "if(!queued){queued=true;Promise.resolve().then(flush);}}"
+            + "function recv(e){var s=e.data,i=0;while(i+6<=s.length){"
+            + "var k=s.charCodeAt(i),id=s.charCodeAt(i+1)<<8|s.charCodeAt(i+2),"
+            + "h=s.charCodeAt(i+3),n=s.charCodeAt(i+4)<<8|s.charCodeAt(i+5),"
+            + "b=s.substr(i+6,n);i+=6+n;"
+            + "if(k===4){names={};text(u8(b)).split(',').forEach(function(x,j){names[x]=j;});"
+            + "var w=wait;wait=[];w.forEach(function(f){f();});}"
+            + "else if(k===3){(subs[h]||[]).forEach(function(f){f(u8(b));});}"
+            + "else{var p=pend[id];if(p){delete pend[id];"
+            + "if(k===1)p[0](u8(b));else p[1](new Error(text(u8(b))));}}}}"
+            + "function ready(f){if(names)f();else wait.push(f);}"
+            + "ch.onmessage=recv;"
+            + "function call(name,data){return new Promise(function(ok,fail){ready(function(){"
+            + "var h=names[name];if(h===undefined)return fail(new Error('No handler '+name));"
+            + "seq=seq%65535+1;pend[seq]=[ok,fail];"
+            + "try{push(seq,h,bytes(data));}catch(x){delete pend[seq];fail(x);}});});}"
+            + "function benchmark(n){n=n||1000;var m=Math.min(n,100),p='x'.repeat(32),"
+            + "B=window." + JS_BASELINE_NAME + ",r={n:n},i=0,t=performance.now();"
+            + "if(B){for(var j=0;j<n;j++)B.echo(p);"
+            + "r.jsiCallUs=(performance.now()-t)*1000/n;r.jsiMsgsPerSec=1e6/r.jsiCallUs;}"
+            + "return new Promise(function(done){t=performance.now();(function next(){"
+            + "if(i++<m)return call('echo',p).then(next);"
+            + "r.portRttUs=(performance.now()-t)*1000/m;done();})();})"
+            + ".then(function(){var all=[];t=performance.now();"
+            + "for(var j=0;j<n;j++)all.push(call('echo',p));return Promise.all(all);})"
+            + ".then(function(){r.portMsgsPerSec=n*1000/(performance.now()-t);"
+            + "if(names.bench!==undefined)call('bench',JSON.stringify(r));return r;});}"
+            + "window.KioskNative={call:call,text:text,"
+            + "callJson:function(name,obj){return call(name,obj===undefined?'':JSON.stringify(obj))"
+            + ".then(function(a){var s=text(a);return s?JSON.parse(s):null;});},"
+            + "on:function(name,f){ready(function(){var h=names[name];"
+            + "if(h!==undefined)(subs[h]=subs[h]||[]).push(f);});},"
+            + "benchmark:benchmark};ch.postMessage('" + HELLO + "');})();";
+
+    private final List<String> names = new CopyOnWriteArrayList<String>();
+    private final List<Handler> handlers = new CopyOnWriteArrayList<Handler>();
+    private final HandlerThread worker;
+    private final android.os.Handler workerHandler;
+    private final Choreographer choreographer;
+
+    // Main thread
+    private final List<WebView> attached = new ArrayList<WebView>();
+    private Set<String> allowedOrigins = Collections.emptySet();
+    private WebView connectedView;
+    private String connectedOrigin;
+    // Set by the page's handshake; generation changes under this so late replies can be dropped
+    private JsReplyProxy proxy;
+    private volatile int generation = 0;
+    // Guarded by this
+    private final StringBuilder outbox = new StringBuilder();
+    private boolean flushScheduled = false;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batchesIn = new AtomicLong();
+    private final AtomicLong batchesOut = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final LatencyHistogram dispatchUs = new LatencyHistogram();
+    private volatile String lastBenchmark = "";
+
+    private final Choreographer.FrameCallback flushOnFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            String batch;
+            synchronized (NativeBridge.this) {
+                flushScheduled = false;
+                batch = outbox.toString();
+                outbox.setLength(0);
+            }
+            if (proxy != null && !batch.isEmpty()) {
+                proxy.postMessage(batch);
+                batchesOut.incrementAndGet();
+            }
+        }
+    };
+
+    private final WebViewCompat.WebMessageListener listener =
+            new WebViewCompat.WebMessageListener() {
+        @Override
+        public void onPostMessage(WebView view, WebMessageCompat message, Uri sourceOrigin,
+                boolean isMainFrame, JsReplyProxy replyProxy) {
+            onMessage(view, message.getData(), sourceOrigin, isMainFrame, replyProxy);
+        }
+    };
+
+    /** Main thread. */
+    public NativeBridge() {
+        choreographer = Choreographer.getInstance();
+        worker = new HandlerThread("kiosk-bridge", Process.THREAD_PRIORITY_DEFAULT);
+        worker.start();
+        workerHandler = new android.os.Handler(worker.getLooper());
+        register("echo", new Handler() {
+            @Override
+            public void onRequest(byte[] payload, Reply reply) {
+                reply.success(payload);
+            }
+        });
+        if (BuildConfig.DEBUG) {
+            // Release pages must not be able to write into the logs and stats
+            register("bench", new Handler() {
+                @Override
+                public void onRequest(byte[] payload, Reply reply) {
+                    lastBenchmark = new String(payload, UTF_8);
+                    Log.i(TAG, "Benchmark: " + lastBenchmark);
+                    reply.success(new byte[0]);
+                }
+            });
+        }
+    }
+
+    /** Adds a handler the page can call by {@code name}; register before pages connect. */
+    public void register(String name, Handler handler) {
+        if (names.size() >= MAX_HANDLERS || names.contains(name) || name.contains(",")) {
+            throw new IllegalArgumentException("Cannot register handler " + name);
+        }
+        names.add(name);
+        handlers.add(handler);
+    }
+
+    /**
+     * Adds the channel for the allowed origins to {@code webView}, and the baseline
+     * string bridge in debug builds; call once per WebView, main thread. The baseline
+     * is visible to every origin and frame, so release builds never add it.
+     */
+    public void attach(WebView webView) {
+        if (BuildConfig.DEBUG) {
+            webView.addJavascriptInterface(new Baseline(), JS_BASELINE_NAME);
+        }
+        if (!WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_LISTENER)) {
+            Log.w(TAG, "WebView cannot limit the channel to origins, bridge disabled");
+            return;
+        }
+        attached.add(webView);
+        addListener(webView);
+    }
+
+    /** Removes the channel before {@code webView} is destroyed. Main thread. */
+    public void detach(WebView webView) {
+        if (webView == connectedView) {
+            disconnect();
+        }
+        if (attached.remove(webView)) {
+            WebViewCompat.removeWebMessageListener(webView, CHANNEL_NAME);
+        }
+    }
+
+    /**
+     * Origins ({@code scheme://host[:port]}) whose main frames get the channel.
+     * Applies to documents loaded after this call. Main thread.
+     */
+    public void setAllowedOrigins(Set<String> origins) {
+        if (origins.equals(allowedOrigins)) {
+            return;
+        }
+        allowedOrigins = Collections.unmodifiableSet(new HashSet<String>(origins));
+        for (WebView webView : attached) {
+            WebViewCompat.removeWebMessageListener(webView, CHANNEL_NAME);
+            addListener(webView);
+        }
+    }
+
+    /**
+     * Injects the client into {@code view}'s page, which then shakes hands over
+     * the channel. Only call for trusted pages; messages from any other view,
+     * origin or frame are ignored.
+     */
+    public void connect(WebView view, String url) {
+        String origin = ServiceWorkerBridge.originOf(url);
+        disconnect();
+        if (origin == null || !allowedOrigins.contains(origin)) {
+            return;
+        }
+        connectedView = view;
+        connectedOrigin = origin;
+        view.evaluateJavascript(CLIENT_SCRIPT, null);
+    }
+
+    /** Drops the page's channel; replies still in flight are dropped. Main thread. */
+    public void disconnect() {
+        synchronized (this) {
+            generation++;
+            outbox.setLength(0);
+        }
+        connectedView = null;
+        connectedOrigin = null;
+        proxy = null;
+    }
+
+    /** Pushes an event to pages subscribed with {@code KioskNative.on(name)}. Any thread. */
+    public void emit(String name, byte[] payload) {
+        int index = names.indexOf(name);
+        if (index >= 0) {
+            send(generation, KIND_EVENT, 0, index, payload);
+        }
+    }
+
+    public void release() {
+        disconnect();
+        worker.quitSafely();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBatchesIn() {
+        return batchesIn.get();
+    }
+
+    public long getBatchesOut() {
+        return batchesOut.get();
+    }
+
+    public LatencyHistogram getDispatchHistogram() {
+        return dispatchUs;
+    }
+
+    public String statsSummary() {
+        return "connects=" + connects.get() + " requests=" + requests.get()
+                + " batchesIn=" + batchesIn.get() + " batchesOut=" + batchesOut.get()
+                + " malformed=" + malformed.get() + " dispatchP99=" + dispatchUs.percentile(99)
+                + "us" + (lastBenchmark.isEmpty() ? "" : " benchmark=" + lastBenchmark);
+    }
+
+    /** Completes one request; only the first call counts. */
+    public final class Reply {
+        private final int gen;
+        private final int id;
+        private final int handler;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Reply(int gen, int id, int handler) {
+            this.gen = gen;
+            this.id = id;
+            this.handler = handler;
+        }
+
+        public void success(byte[] payload) {
+            if (done.compareAndSet(false, true)) {
+                send(gen, KIND_REPLY, id, handler, payload);
+            }
+        }
+
+        public void error(String message) {
+            if (done.compareAndSet(false, true)) {
+                send(gen, KIND_ERROR, id, handler, message.getBytes(UTF_8));
+            }
+        }
+    }
+
+    // Main thread; the first handshake after connect binds the reply channel
+    private void onMessage(WebView view, String data, Uri sourceOrigin, boolean isMainFrame,
+            JsReplyProxy replyProxy) {
+        if (view != connectedView || !isMainFrame || data == null
+                || !connectedOrigin.equals(ServiceWorkerBridge.originOf(sourceOrigin.toString()))) {
+            malformed.incrementAndGet();
+            return;
+        }
+        if (HELLO.equals(data)) {
+            if (proxy != null) {
+                malformed.incrementAndGet();
+                return;
+            }
+            proxy = replyProxy;
+            send(generation, KIND_HELLO, 0, 0, join(names).getBytes(UTF_8));
+            connects.incrementAndGet();
+            return;
+        }
+        if (proxy == null) {
+            malformed.incrementAndGet();
+            return;
+        }
+        final String batch = data;
+        final int gen = generation;
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onBatch(batch, gen);
+            }
+        });
+    }
+
+    private void addListener(WebView webView) {
+        if (allowedOrigins.isEmpty()) {
+            return;
+        }
+        try {
+            WebViewCompat.addWebMessageListener(webView, CHANNEL_NAME, allowedOrigins, listener);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Origins not usable as channel rules: " + allowedOrigins, e);
+        }
+    }
+
+    // Worker thread; frames are decoded straight from the chars of the message
+    private void onBatch(String data, int gen) {
+        if (data == null) {
+            return;
+        }
+        batchesIn.incrementAndGet();
+        int i = 0;
+        int length = data.length();
+        while (i + HEADER_BYTES <= length) {
+            int kind = data.charAt(i);
+            int id = data.charAt(i + 1) << 8 | data.charAt(i + 2);
+            int index = data.charAt(i + 3);
+            int size = data.charAt(i + 4) << 8 | data.charAt(i + 5);
+            int start = i + HEADER_BYTES;
+            if (kind != KIND_REQUEST || index >= MAX_HANDLERS || start + size > length) {
+                malformed.incrementAndGet();
+                return;
+            }
+            byte[] payload = new byte[size];
+            for (int k = 0; k < size; k++) {
+                payload[k] = (byte) data.charAt(start + k);
+            }
+            i = start + size;
+            dispatch(gen, id, index, payload);
+        }
+    }
+
+    private void dispatch(int gen, int id, int index, byte[] payload) {
+        requests.incrementAndGet();
+        Reply reply = new Reply(gen, id, index);
+        if (index >= handlers.size()) {
+            reply.error("Unknown handler");
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            handlers.get(index).onRequest(payload, reply);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Handler " + names.get(index) + " failed", e);
+            reply.error(String.valueOf(e.getMessage()));
+        }
+        dispatchUs.record((System.nanoTime() - start) / 1000);
+    }
+
+    // Any thread; the outbox goes out on the next frame
+    private void send(int gen, int kind, int id, int handler, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD) {
+            kind = KIND_ERROR;
+            payload = "Reply too large".getBytes(UTF_8);
+        }
+        synchronized (this) {
+            if (gen != generation) {
+                return;
+            }
+            int size = payload.length;
+            outbox.append((char) kind).append((char) (id >> 8)).append((char) (id & 0xFF))
+                    .append((char) handler).append((char) (size >> 8))
+                    .append((char) (size & 0xFF));
+            outbox.append(new String(payload, LATIN_1));
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        choreographer.postFrameCallback(flushOnFrame);
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            sb.append(sb.length() == 0 ? "" : ",").append(value);
+        }
+        return sb.toString();
+    }
+
+    /** String-based equivalent of the echo handler, called on a binder thread. */
+    private static final class Baseline {
+        @JavascriptInterface
+        public String echo(String value) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides what happens to a navigation before WebView starts it. Config
+ * values are compiled into an immutable rule set: {@link DomainIndex}es for
+ * the allowed and denied hosts (each entry also covers its subdomains) and a
+ * set of schemes handed to other apps. An empty allowlist keeps the launcher's
+ * old behaviour of allowing every web host. No Android dependencies.
+ */
+public class NavigationPolicy {
+
+    // Config keys; comma separated lists
+    public static final String KEY_ALLOW = "nav_allow_hosts";
+    public static final String KEY_DENY = "nav_deny_hosts";
+    public static final String KEY_EXTERNAL_SCHEMES = "nav_external_schemes";
+    public static final String KEY_DENIED_PAGE = "nav_denied_page";
+
+    /** Let WebView continue the navigation itself. */
+    public static final int ALLOW = 0;
+    /** Hand the URL to another app. */
+    public static final int EXTERNAL = 1;
+    /** Out of scope; show the denied page instead. */
+    public static final int DENY = 2;
+    /** Scheme nothing can open; cancel silently. */
+    public static final int IGNORE = 3;
+    public static final int DECISION_COUNT = 4;
+
+    private static final String[] DECISION_NAMES = {"allow", "external", "deny", "ignore"};
+    private static final String DEFAULT_EXTERNAL_SCHEMES = "tel,mailto,sms,upi,intent";
+
+    private static final class Rules {
+        final DomainIndex allowed;
+        final DomainIndex denied;
+        final Set<String> externalSchemes;
+        final String deniedPage;
+
+        Rules(DomainIndex allowed, DomainIndex denied, Set<String> externalSchemes,
+                String deniedPage) {
+            this.allowed = allowed;
+            this.denied = denied;
+            this.externalSchemes = externalSchemes;
+            this.deniedPage = deniedPage;
+        }
+    }
+
+    private volatile Rules rules = new Rules(DomainIndex.EMPTY, DomainIndex.EMPTY,
+            parseSchemes(DEFAULT_EXTERNAL_SCHEMES), "");
+
+    private final AtomicLongArray decisions = new AtomicLongArray(DECISION_COUNT);
+    private final LatencyHistogram decisionNs = new LatencyHistogram();
+
+    /** Recompiles the rules. {@code homeUrls} are always allowed when an allowlist is set. */
+    public void applyConfig(KioskConfig config, Iterable<String> homeUrls) {
+        DomainIndex allowed = DomainIndex.EMPTY;
+        String allowList = config.getString(KEY_ALLOW, "").trim();
+        if (!allowList.isEmpty()) {
+            DomainIndex.Builder builder = new DomainIndex.Builder();
+            addHosts(builder, allowList);
+            for (String url : homeUrls) {
+                String host = hostOf(url);
+                if (host != null) {
+                    builder.add(host);
+                }
+            }
+            allowed = builder.build();
+        }
+        DomainIndex.Builder denied = new DomainIndex.Builder();
+        addHosts(denied, config.getString(KEY_DENY, ""));
+        rules = new Rules(allowed, denied.build(),
+                parseSchemes(config.getString(KEY_EXTERNAL_SCHEMES, DEFAULT_EXTERNAL_SCHEMES)),
+                config.getString(KEY_DENIED_PAGE, "").trim());
+    }
+
+    /** One of {@link #ALLOW}, {@link #EXTERNAL}, {@link #DENY} or {@link #IGNORE}. */
+    public int decide(String scheme, String host) {
+        long start = System.nanoTime();
+        int decision = evaluate(rules, scheme, host);
+        decisionNs.record(System.nanoTime() - start);
+        decisions.incrementAndGet(decision);
+        return decision;
+    }
+
+    /** The configured page for denied navigations, or empty for the built-in one. */
+    public String getDeniedPage() {
+        return rules.deniedPage;
+    }
+
+    public long getDecisionCount(int decision) {
+        return decisions.get(decision);
+    }
+
+    public LatencyHistogram getDecisionHistogram() {
+        return decisionNs;
+    }
+
+    public String statsSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < DECISION_COUNT; i++) {
+            sb.append(DECISION_NAMES[i]).append('=').append(decisions.get(i)).append(' ');
+        }
+        return sb.append("p50=").append(decisionNs.percentile(50)).append("ns")
+                .append(" p99=").append(decisionNs.percentile(99)).append("ns").toString();
+    }
+
+    public static String decisionName(int decision) {
+        return DECISION_NAMES[decision];
+    }
+
+    /** Built-in page shown for a denied navigation. */
+    public static String deniedHtml(String url) {
+        String escaped = url.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;");
+        return "<html><head><meta name=\"viewport\" content=\"width=device-width\"></head>"
+                + "<body style=\"font-family:sans-serif;text-align:center;padding-top:20%\">"
+                + "<h2>This page is not available on this device</h2>"
+                + "<p style=\"color:#777;word-break:break-all\">" + escaped + "</p>"
+                + "<p><a href=\"javascript:history.back()\">Go back</a></p></body></html>";
+    }
+
+    private static int evaluate(Rules rules, String scheme, String host) {
+        if (scheme == null) {
+            return IGNORE;
+        }
+        scheme = scheme.toLowerCase(Locale.US);
+        if (scheme.equals("http") || scheme.equals("https")) {
+            if (rules.denied.matches(host)) {
+                return DENY;
+            }
+            if (rules.allowed.getRuleCount() > 0 && !rules.allowed.matches(host)) {
+                return DENY;
+            }
+            return ALLOW;
+        }
+        if (rules.externalSchemes.contains(scheme)) {
+            return EXTERNAL;
+        }
+        // Handled inside WebView; file: stays out of reach of web content
+        if (scheme.equals("about") || scheme.equals("data") || scheme.equals("blob")
+                || scheme.equals("javascript")) {
+            return ALLOW;
+        }
+        return IGNORE;
+    }
+
+    private static void addHosts(DomainIndex.Builder builder, String list) {
+        for (String entry : list.split("[,\\s]+")) {
+            String host = entry.contains("://") ? hostOf(entry) : entry;
+            if (host != null && !host.isEmpty()) {
+                builder.add(host);
+            }
+        }
+    }
+
+    // Host part of an absolute URL, without user info or port
+    static String hostOf(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return null;
+        }
+        int start = schemeEnd + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        String authority = url.substring(start, end);
+        authority = authority.substring(authority.lastIndexOf('@') + 1);
+        if (authority.startsWith("[")) {
+            int close = authority.indexOf(']');
+            return close > 0 ? authority.substring(1, close) : null;
+        }
+        int colon = authority.indexOf(':');
+        return colon >= 0 ? authority.substring(0, colon) : authority;
+    }
+
+    private static Set<String> parseSchemes(String list) {
+        Set<String> schemes = new HashSet<String>();
+        for (String scheme : list.split("[,\\s]+")) {
+            String s = scheme.trim().toLowerCase(Locale.US);
+            if (s.endsWith(":")) {
+                s = s.substring(0, s.length() - 1);
+            }
+            // Web schemes always stay in the kiosk
+            if (!s.isEmpty() && !s.equals("http") && !s.equals("https")) {
+                schemes.add(s);
+            }
+        }
+        return Collections.unmodifiableSet(schemes);
+    }
+}
@@ -0,0 +1,194 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Handler;
+import android.util.Log;
+import android.webkit.WebViewClient;
+
+import java.util.Random;
+
+/**
+ * Replaces the browser's error page with the bundled offline page when the
+ * kiosk's page fails to load, and keeps retrying it with exponential
+ * backoff. Retries wait while the link is down and start straight away when
+ * {@link ConnectivityMonitor} reports it is back. Main thread only.
+ */
+public class OfflineRecovery {
+
+    public interface Host {
+        /** Shows the offline page in place of {@code failedUrl}. */
+        void showOfflinePage(String failedUrl, long retryInMs);
+
+        /** Loads {@code url} again. */
+        void retry(String url, int attempt);
+
+        boolean isOffline();
+    }
+
+    private static final String TAG = "KioskOffline";
+    private static final long INITIAL_RETRY_MS = 2000;
+    private static final long MAX_RETRY_MS = 5 * 60 * 1000;
+    // Gives the new link a moment to settle before the first reload
+    private static final long RECOVERY_DELAY_MS = 500;
+    // Spread so a fleet of kiosks does not hit the server in the same second
+    private static final double JITTER = 0.2;
+
+    private final Handler handler;
+    private final Host host;
+    private final Random random = new Random();
+
+    private String failedUrl;
+    private long retryDelayMs = INITIAL_RETRY_MS;
+    private int attempts = 0;
+    // The current main-frame load reported an error
+    private boolean loadFailed = false;
+
+    // Stats, read by the metrics thread
+    private volatile long fallbacks = 0;
+    private volatile long retries = 0;
+    private volatile long recoveries = 0;
+
+    private final Runnable retryAction = new Runnable() {
+        @Override
+        public void run() {
+            if (failedUrl == null) {
+                return;
+            }
+            if (host.isOffline()) {
+                // Nothing to gain from loading; the monitor calls back when the link returns
+                scheduleRetry(backOff());
+                return;
+            }
+            attempts++;
+            retries++;
+            Log.i(TAG, "Retry " + attempts + " of " + failedUrl);
+            host.retry(failedUrl, attempts);
+        }
+    };
+
+    public OfflineRecovery(Handler handler, Host host) {
+        this.handler = handler;
+        this.host = host;
+    }
+
+    /** True for errors a reload can fix; bad links and blocked pages are left alone. */
+    public static boolean isRecoverable(int errorCode) {
+        return errorCode != WebViewClient.ERROR_UNSUPPORTED_SCHEME
+                && errorCode != WebViewClient.ERROR_BAD_URL
+                && errorCode != WebViewClient.ERROR_UNSAFE_RESOURCE;
+    }
+
+    public void onPageStarted(String url) {
+        if (isOwnPage(url)) {
+            return;
+        }
+        loadFailed = false;
+        if (failedUrl != null && !url.equals(failedUrl)) {
+            // Something else was loaded on purpose (new URL, playlist, redirect); start over
+            reset();
+        }
+    }
+
+    public void onPageFinished(String url) {
+        if (failedUrl == null || isOwnPage(url) || loadFailed) {
+            return;
+        }
+        Log.i(TAG, "Recovered after " + attempts + " retries: " + url);
+        recoveries++;
+        reset();
+    }
+
+    /** A main-frame load failed; shows the offline page and schedules the next attempt. */
+    public void onMainFrameError(final String url, int errorCode) {
+        loadFailed = true;
+        final long delay;
+        if (url.equals(failedUrl)) {
+            delay = backOff();
+        } else {
+            failedUrl = url;
+            attempts = 0;
+            retryDelayMs = INITIAL_RETRY_MS;
+            delay = retryDelayMs;
+        }
+        fallbacks++;
+        Log.w(TAG, "Main frame failed (" + errorCode + "), retry in " + delay + "ms: " + url);
+        // Not from inside the error callback, which is still part of the failed load
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (url.equals(failedUrl)) {
+                    host.showOfflinePage(url, delay);
+                }
+            }
+        });
+        scheduleRetry(delay);
+    }
+
+    public void onQualityChanged(int previous, int current) {
+        if (failedUrl != null && previous == ConnectivityMonitor.OFFLINE
+                && current != ConnectivityMonitor.OFFLINE) {
+            scheduleRetry(RECOVERY_DELAY_MS);
+        }
+    }
+
+    /** Retries the failed page now, e.g. on the refresh gesture; false if nothing failed. */
+    public boolean retryNow() {
+        if (failedUrl == null) {
+            return false;
+        }
+        scheduleRetry(0);
+        return true;
+    }
+
+    /** Forgets the failed page, e.g. when another URL is loaded on purpose. */
+    public void reset() {
+        handler.removeCallbacks(retryAction);
+        failedUrl = null;
+        attempts = 0;
+        retryDelayMs = INITIAL_RETRY_MS;
+    }
+
+    public boolean isActive() {
+        return failedUrl != null;
+    }
+
+    private long backOff() {
+        retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_MS);
+        return retryDelayMs;
+    }
+
+    private void scheduleRetry(long delayMs) {
+        handler.removeCallbacks(retryAction);
+        long jitter = (long) (delayMs * JITTER * (random.nextDouble() * 2 - 1));
+        handler.postDelayed(retryAction, Math.max(0, delayMs + jitter));
+    }
+
+    // Pages loaded from a string (the offline and denied pages) report about: or data: URLs
+    private static boolean isOwnPage(String url) {
+        return url == null || url.startsWith("about:") || url.startsWith("data:");
+    }
+
+    /** Fills the bundled template's {{url}} and {{retry_s}} placeholders. */
+    public static String render(String template, String url, long retryInMs) {
+        String escaped = url.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;");
+        return template.replace("{{url}}", escaped)
+                .replace("{{retry_s}}", String.valueOf((retryInMs + 999) / 1000));
+    }
+
+    public long getFallbackCount() {
+        return fallbacks;
+    }
+
+    public long getRetryCount() {
+        return retries;
+    }
+
+    public long getRecoveryCount() {
+        return recoveries;
+    }
+
+    public String statsSummary() {
+        return "fallbacks=" + fallbacks + " retries=" + retries + " recoveries=" + recoveries
+                + (failedUrl != null ? " waiting=" + failedUrl : "");
+    }
+}
@@ -0,0 +1,289 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page-load and Web Vitals telemetry. WebViewClient callbacks, the request
+ * interceptor and a small in-page script feed fixed-memory histograms, which
+ * are flushed as JSON lines to a local file every few minutes so releases and
+ * network conditions can be compared offline. The script only collects; its
+ * numbers are read back through an evaluateJavascript result, so pages get no
+ * object to call.
+ */
+public class PageLoadTelemetry {
+
+    public static final int PAGE_COMMIT = 0;
+    public static final int PAGE_FINISH = 1;
+    public static final int NAV_TTFB = 2;
+    public static final int NAV_DOM_CONTENT_LOADED = 3;
+    public static final int NAV_LOAD = 4;
+    public static final int LCP = 5;
+    public static final int CLS_MILLI = 6;
+    public static final int REQUEST_CACHE_HIT = 7;
+    public static final int REQUEST_REVALIDATED = 8;
+    public static final int REQUEST_STALE = 9;
+    public static final int REQUEST_NETWORK = 10;
+    public static final int METRIC_COUNT = 11;
+
+    private static final String[] METRIC_NAMES = {
+            "page_commit_ms", "page_finish_ms", "nav_ttfb_ms", "nav_dcl_ms", "nav_load_ms",
+            "lcp_ms", "cls_x1000", "request_cache_hit_ms", "request_revalidated_ms",
+            "request_stale_ms", "request_network_ms"
+    };
+
+    // Starts collecting LCP and CLS once the page has loaded
+    private static final String VITALS_SCRIPT = "(function(){"
+            + "if(window.__kioskVitals)return;var v=window.__kioskVitals={lcp:-1,cls:0};"
+            + "try{new PerformanceObserver(function(l){var e=l.getEntries();"
+            + "if(e.length)v.lcp=e[e.length-1].startTime;})"
+            + ".observe({type:'largest-contentful-paint',buffered:true});}catch(e){}"
+            + "try{new PerformanceObserver(function(l){l.getEntries().forEach(function(e){"
+            + "if(!e.hadRecentInput)v.cls+=e.value;});})"
+            + ".observe({type:'layout-shift',buffered:true});}catch(e){}})();";
+
+    // Evaluates to [ttfb, dcl, load, lcp, cls] once per page, or null
+    private static final String READ_SCRIPT = "(function(){var v=window.__kioskVitals;"
+            + "if(!v||v.read)return null;v.read=1;var n=performance.getEntriesByType"
+            + "&&performance.getEntriesByType('navigation')[0]||{};"
+            + "return [n.responseStart,n.domContentLoadedEventEnd,n.loadEventEnd,v.lcp,v.cls];"
+            + "})()";
+    private static final int[] READ_METRICS = {
+            NAV_TTFB, NAV_DOM_CONTENT_LOADED, NAV_LOAD, LCP, CLS_MILLI
+    };
+    // LCP and CLS have settled for the first screen by then
+    private static final long VITALS_SETTLE_MS = 10 * 1000;
+    // Anything larger is not a real page timing
+    private static final double MAX_VALUE_MS = 60 * 60 * 1000;
+
+    private static final String TAG = "KioskTelemetry";
+    private static final long FLUSH_INTERVAL_MIN = 5;
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+
+    private final Context context;
+    private final LatencyHistogram[] interval = new LatencyHistogram[METRIC_COUNT];
+    private final LatencyHistogram[] lifetime = new LatencyHistogram[METRIC_COUNT];
+    private final LatencyHistogram scratch = new LatencyHistogram();
+    private final File file;
+    private final ScheduledExecutorService flushExecutor;
+    private final String appVersion;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Main-thread page lifecycle state
+    private long pageStartMs = 0;
+    private boolean commitRecorded = true;
+    private boolean finishRecorded = true;
+    private WebView vitalsView;
+
+    private final Runnable readVitals = new Runnable() {
+        @Override
+        public void run() {
+            WebView view = vitalsView;
+            vitalsView = null;
+            if (view == null) {
+                return;
+            }
+            view.evaluateJavascript(READ_SCRIPT, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String result) {
+                    recordVitals(result);
+                }
+            });
+        }
+    };
+
+    public PageLoadTelemetry(Context context) {
+        this.context = context.getApplicationContext();
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            interval[i] = new LatencyHistogram();
+            lifetime[i] = new LatencyHistogram();
+        }
+        file = new File(new File(context.getFilesDir(), "telemetry"), "page_metrics.jsonl");
+        appVersion = readAppVersion(context);
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-telemetry");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                writeBatch();
+            }
+        }, FLUSH_INTERVAL_MIN, FLUSH_INTERVAL_MIN, TimeUnit.MINUTES);
+    }
+
+    /** Safe from any thread. */
+    public void record(int metric, long value) {
+        interval[metric].record(value);
+        lifetime[metric].record(value);
+    }
+
+    /** Totals since process start, e.g. for the metrics endpoint. */
+    public LatencyHistogram getLifetime(int metric) {
+        return lifetime[metric];
+    }
+
+    public static String metricName(int metric) {
+        return METRIC_NAMES[metric];
+    }
+
+    public void onPageStarted() {
+        // The previous page's numbers went with it
+        mainHandler.removeCallbacks(readVitals);
+        vitalsView = null;
+        pageStartMs = SystemClock.uptimeMillis();
+        commitRecorded = false;
+        finishRecorded = false;
+    }
+
+    public void onPageCommitVisible() {
+        if (!commitRecorded) {
+            commitRecorded = true;
+            record(PAGE_COMMIT, SystemClock.uptimeMillis() - pageStartMs);
+        }
+    }
+
+    public void onPageFinished(WebView view) {
+        if (!finishRecorded) {
+            finishRecorded = true;
+            record(PAGE_FINISH, SystemClock.uptimeMillis() - pageStartMs);
+            view.evaluateJavascript(VITALS_SCRIPT, null);
+            vitalsView = view;
+            mainHandler.postDelayed(readVitals, VITALS_SETTLE_MS);
+        }
+    }
+
+    /** Writes the current interval out now; used when the activity pauses. */
+    public void flush() {
+        flushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeBatch();
+            }
+        });
+    }
+
+    private void writeBatch() {
+        long timestamp = System.currentTimeMillis();
+        String network = networkLabel(context);
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            interval[i].drainTo(scratch);
+            long count = scratch.getCount();
+            if (count > 0) {
+                batch.append("{\"ts\":").append(timestamp)
+                        .append(",\"version\":\"").append(appVersion)
+                        .append("\",\"network\":\"").append(network)
+                        .append("\",\"metric\":\"").append(METRIC_NAMES[i])
+                        .append("\",\"count\":").append(count)
+                        .append(",\"mean\":").append(scratch.getSum() / count)
+                        .append(",\"p50\":").append(scratch.percentile(50))
+                        .append(",\"p90\":").append(scratch.percentile(90))
+                        .append(",\"p99\":").append(scratch.percentile(99))
+                        .append(",\"max\":").append(scratch.getMax())
+                        .append("}\n");
+            }
+            scratch.reset();
+        }
+        if (batch.length() == 0) {
+            return;
+        }
+
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        if (file.length() > MAX_FILE_BYTES) {
+            // Keep one previous generation
+            file.renameTo(new File(dir, file.getName() + ".1"));
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            writer.write(batch.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write telemetry batch", e);
+        } finally {
+            ResponseCache.closeQuietly(writer);
+        }
+    }
+
+    // Transport of the default network, as reported with telemetry and to the page
+    static String networkLabel(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return "unknown";
+        }
+        NetworkCapabilities caps = cm.getNetworkCapabilities(cm.getActiveNetwork());
+        if (caps == null) {
+            return "offline";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        }
+        return "other";
+    }
+
+    private static String readAppVersion(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "unknown";
+        }
+    }
+
+    // The page wrote these numbers, so anything not a plain timing is dropped
+    private void recordVitals(String result) {
+        if (result == null || !result.startsWith("[")) {
+            return;
+        }
+        try {
+            JSONArray values = new JSONArray(result);
+            for (int i = 0; i < READ_METRICS.length && i < values.length(); i++) {
+                // JSON.stringify turns NaN and Infinity into null
+                double value = values.optDouble(i, Double.NaN);
+                if (READ_METRICS[i] == CLS_MILLI) {
+                    value *= 1000;
+                }
+                if (value >= 0 && value <= MAX_VALUE_MS) {
+                    record(READ_METRICS[i], Math.round(value));
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Unreadable vitals: " + result);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.kiosk.webviewlauncher;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signage playlist parsed from the {@code playlist} config value, a JSON
+ * array of entries such as
+ * {@code {"url": "...", "dwell_s": 30, "days": [1,2,3,4,5], "from": "08:00", "to": "18:00"}}.
+ * Days are ISO (1 = Monday), and a {@code to} before {@code from} wraps past
+ * midnight. Schedule fields are optional. Immutable. The only platform API
+ * used is org.json, which plain JVM tests get from the org.json artifact.
+ */
+public final class Playlist {
+
+    public static final String KEY_PLAYLIST = "playlist";
+
+    public static final Playlist EMPTY = new Playlist(Collections.<Entry>emptyList());
+
+    private static final long DEFAULT_DWELL_S = 30;
+    private static final long MIN_DWELL_S = 5;
+    private static final int ALL_DAYS = 0x7f;
+
+    public static final class Entry {
+        public final String url;
+        public final long dwellMs;
+        private final int daysMask;
+        private final int fromMinute;
+        private final int toMinute;
+
+        Entry(String url, long dwellMs, int daysMask, int fromMinute, int toMinute) {
+            this.url = url;
+            this.dwellMs = dwellMs;
+            this.daysMask = daysMask;
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+        }
+
+        public boolean isActiveAt(Calendar time) {
+            // Calendar counts Sunday as 1; shift to ISO with Monday as bit 0
+            int isoDay = (time.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+            if ((daysMask & (1 << isoDay)) == 0) {
+                return false;
+            }
+            int minute = time.get(Calendar.HOUR_OF_DAY) * 60 + time.get(Calendar.MINUTE);
+            if (fromMinute == toMinute) {
+                return true;
+            }
+            if (fromMinute < toMinute) {
+                return minute >= fromMinute && minute < toMinute;
+            }
+            return minute >= fromMinute || minute < toMinute;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    private Playlist(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Parses the config value; blank means no playlist. */
+    public static Playlist parse(String json) throws JSONException {
+        if (json == null || json.trim().isEmpty()) {
+            return EMPTY;
+        }
+        JSONArray array = new JSONArray(json);
+        List<Entry> entries = new ArrayList<Entry>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject item = array.getJSONObject(i);
+            String url = item.optString("url", "").trim();
+            if (url.isEmpty()) {
+                throw new JSONException("playlist entry " + i + " has no url");
+            }
+            long dwellS = Math.max(MIN_DWELL_S, item.optLong("dwell_s", DEFAULT_DWELL_S));
+            int daysMask = ALL_DAYS;
+            JSONArray days = item.optJSONArray("days");
+            if (days != null) {
+                daysMask = 0;
+                for (int d = 0; d < days.length(); d++) {
+                    int day = days.getInt(d);
+                    if (day < 1 || day > 7) {
+                        throw new JSONException("playlist entry " + i + " has bad day " + day);
+                    }
+                    daysMask |= 1 << (day - 1);
+                }
+            }
+            int from = parseMinute(item.optString("from", "00:00"));
+            int to = parseMinute(item.optString("to", "00:00"));
+            entries.add(new Entry(KioskConfig.normalizeUrl(url), dwellS * 1000, daysMask,
+                    from, to));
+        }
+        return new Playlist(Collections.unmodifiableList(entries));
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Entry get(int index) {
+        return entries.get(index);
+    }
+
+    /**
+     * Index of the first entry after {@code after} (wrapping, {@code after}
+     * itself last) that is scheduled at {@code time}, or -1 if none is.
+     */
+    public int nextActive(int after, Calendar time) {
+        int size = entries.size();
+        for (int step = 1; step <= size; step++) {
+            int candidate = ((after + step) % size + size) % size;
+            if (entries.get(candidate).isActiveAt(time)) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    static int parseMinute(String value) throws JSONException {
+        int colon = value.indexOf(':');
+        try {
+            int hour = Integer.parseInt(colon >= 0 ? value.substring(0, colon) : value);
+            int minute = colon >= 0 ? Integer.parseInt(value.substring(colon + 1)) : 0;
+            if (hour >= 0 && hour <= 24 && minute >= 0 && minute < 60) {
+                return (hour * 60 + minute) % (24 * 60);
+            }
+        } catch (NumberFormatException ignored) {
+            // Reported below
+        }
+        throw new JSONException("bad playlist time " + value);
+    }
+}
@@ -0,0 +1,315 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.webkit.WebView;
+
+import java.util.Calendar;
+
+/**
+ * Rotates the kiosk through a {@link Playlist} without blank frames. The next
+ * entry is loaded into one hidden buffer WebView behind the visible one. Once
+ * the buffer has drawn that page, it is brought to the front at the start of
+ * a frame. The outgoing view then becomes the buffer for the entry after, so
+ * at most two main WebViews are ever alive. Main thread only.
+ */
+public class PlaylistController {
+
+    public interface Host {
+        /** Creates a configured WebView attached behind the visible one. */
+        WebView createBufferView();
+
+        /** Shows the buffer and returns the view it replaced, now behind it. */
+        WebView promote(WebView buffer, String url);
+
+        void destroyBufferView(WebView view);
+
+        /** Loads a URL into the visible WebView. */
+        void loadFront(String url);
+
+        /** Shows the single configured URL when no entry is scheduled. */
+        void loadFallback();
+    }
+
+    private static final String TAG = "KioskPlaylist";
+    // How long an overdue swap waits for the buffer before loading in place
+    private static final long READY_TIMEOUT_MS = 30 * 1000;
+    private static final long IDLE_RECHECK_MS = 60 * 1000;
+
+    private final Handler handler;
+    private final Host host;
+    private Playlist playlist = Playlist.EMPTY;
+    private int index = -1;
+
+    private WebView buffer;
+    private int bufferIndex = -1;
+    private boolean bufferReady = false;
+    // The buffer's page failed to load; it shows an error page and must not be promoted
+    private boolean bufferFailed = false;
+    private long visualStateRequest = 0;
+    private boolean swapWaiting = false;
+    private boolean swapScheduled = false;
+
+    private long swaps = 0;
+    private long inPlaceLoads = 0;
+    private long lastSwapWaitMs = 0;
+    private long swapDueAtMs = 0;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            advance();
+        }
+    };
+
+    private final Runnable readyTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (swapWaiting) {
+                Log.w(TAG, "Buffer not ready in time, loading entry " + bufferIndex + " in place");
+                swapWaiting = false;
+                showInPlace(bufferIndex);
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback swapOnFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            swapScheduled = false;
+            if (buffer != null && bufferReady) {
+                swap();
+            }
+        }
+    };
+
+    private final WebView.VisualStateCallback bufferDrawn = new WebView.VisualStateCallback() {
+        @Override
+        public void onComplete(long requestId) {
+            if (requestId != visualStateRequest || buffer == null) {
+                return;
+            }
+            bufferReady = true;
+            if (swapWaiting) {
+                swapWaiting = false;
+                handler.removeCallbacks(readyTimeout);
+                scheduleSwap();
+            }
+        }
+    };
+
+    public PlaylistController(Handler handler, Host host) {
+        this.handler = handler;
+        this.host = host;
+    }
+
+    public boolean isActive() {
+        return !playlist.isEmpty();
+    }
+
+    /** Replaces the playlist and starts from its first scheduled entry. */
+    public void setPlaylist(Playlist newPlaylist) {
+        stop();
+        playlist = newPlaylist;
+        index = -1;
+    }
+
+    /** Shows the current (or first) scheduled entry in the visible view. */
+    public void start() {
+        if (!isActive()) {
+            return;
+        }
+        handler.removeCallbacks(tick);
+        cancelSwap();
+        int current = playlist.nextActive(index < 0 ? -1 : index - 1, Calendar.getInstance());
+        if (current == -1) {
+            index = -1;
+            host.loadFallback();
+            handler.postDelayed(tick, IDLE_RECHECK_MS);
+            return;
+        }
+        showInPlace(current);
+    }
+
+    public void stop() {
+        handler.removeCallbacks(tick);
+        cancelSwap();
+        dropBuffer();
+    }
+
+    /** Frees the buffer WebView; transitions load in place until it is rebuilt. */
+    public void dropBuffer() {
+        if (buffer == null) {
+            return;
+        }
+        WebView view = buffer;
+        clearBuffer();
+        host.destroyBufferView(view);
+        if (swapWaiting || swapScheduled) {
+            // The pending transition lost its view; advance without it
+            cancelSwap();
+            handler.removeCallbacks(tick);
+            handler.post(tick);
+        }
+    }
+
+    public void onPause() {
+        if (buffer != null) {
+            buffer.onPause();
+        }
+    }
+
+    public void onResume() {
+        if (buffer != null) {
+            buffer.onResume();
+        }
+    }
+
+    public boolean isBuffer(WebView view) {
+        return view != null && view == buffer;
+    }
+
+    /** The hidden view kept for the next entry, or null. */
+    public WebView getBuffer() {
+        return buffer;
+    }
+
+    /** The buffer's main frame failed; its entry is loaded in place when it is due. */
+    public void onBufferLoadFailed(WebView view) {
+        if (view != buffer) {
+            return;
+        }
+        Log.w(TAG, "Buffer failed to load entry " + bufferIndex);
+        bufferFailed = true;
+        bufferReady = false;
+        visualStateRequest++;
+        if (swapWaiting) {
+            // Already due; the front view gets the offline page and its retries
+            final int entry = bufferIndex;
+            cancelSwap();
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    showInPlace(entry);
+                }
+            });
+        }
+    }
+
+    /** The buffer finished loading; wait until its content has actually been drawn. */
+    public void onBufferPageFinished(WebView view) {
+        if (view == buffer && !bufferFailed) {
+            visualStateRequest++;
+            view.postVisualStateCallback(visualStateRequest, bufferDrawn);
+        }
+    }
+
+    /** The buffer's renderer died; it must not be used or kept. */
+    public void onBufferGone(WebView view) {
+        if (view == buffer) {
+            Log.w(TAG, "Buffer renderer gone, dropping it");
+            dropBuffer();
+        }
+    }
+
+    public String statsSummary() {
+        return "entries=" + playlist.size() + " index=" + index + " swaps=" + swaps
+                + " inPlace=" + inPlaceLoads + " lastSwapWait=" + lastSwapWaitMs + "ms";
+    }
+
+    private void advance() {
+        Calendar now = Calendar.getInstance();
+        int next = playlist.nextActive(index, now);
+        if (next == -1) {
+            if (index != -1) {
+                index = -1;
+                dropBuffer();
+                host.loadFallback();
+            }
+            handler.postDelayed(tick, IDLE_RECHECK_MS);
+            return;
+        }
+        if (next == index) {
+            // Only one entry is scheduled right now; keep it up
+            handler.postDelayed(tick, playlist.get(index).dwellMs);
+            return;
+        }
+        if (buffer != null && bufferIndex == next && !bufferFailed) {
+            swapDueAtMs = SystemClock.uptimeMillis();
+            if (bufferReady) {
+                scheduleSwap();
+            } else {
+                swapWaiting = true;
+                handler.postDelayed(readyTimeout, READY_TIMEOUT_MS);
+            }
+            return;
+        }
+        showInPlace(next);
+    }
+
+    private void showInPlace(int entry) {
+        handler.removeCallbacks(tick);
+        index = entry;
+        inPlaceLoads++;
+        host.loadFront(playlist.get(entry).url);
+        handler.postDelayed(tick, playlist.get(entry).dwellMs);
+        prepareNext();
+    }
+
+    private void cancelSwap() {
+        handler.removeCallbacks(readyTimeout);
+        swapWaiting = false;
+        if (swapScheduled) {
+            Choreographer.getInstance().removeFrameCallback(swapOnFrame);
+            swapScheduled = false;
+        }
+    }
+
+    private void scheduleSwap() {
+        if (!swapScheduled) {
+            swapScheduled = true;
+            Choreographer.getInstance().postFrameCallback(swapOnFrame);
+        }
+    }
+
+    // Runs at the start of a frame, so the re-ordered views are drawn in that same frame
+    private void swap() {
+        Playlist.Entry entry = playlist.get(bufferIndex);
+        WebView previous = host.promote(buffer, entry.url);
+        index = bufferIndex;
+        swaps++;
+        lastSwapWaitMs = SystemClock.uptimeMillis() - swapDueAtMs;
+        clearBuffer();
+        buffer = previous;
+        handler.postDelayed(tick, entry.dwellMs);
+        prepareNext();
+    }
+
+    private void prepareNext() {
+        int next = playlist.nextActive(index, Calendar.getInstance());
+        if (next == -1 || next == index) {
+            // Nothing to pre-render; don't keep a hidden page running
+            dropBuffer();
+            return;
+        }
+        if (buffer == null) {
+            buffer = host.createBufferView();
+        }
+        bufferIndex = next;
+        bufferReady = false;
+        bufferFailed = false;
+        visualStateRequest++;
+        // Also stops whatever the outgoing page was playing
+        buffer.loadUrl(playlist.get(next).url);
+    }
+
+    private void clearBuffer() {
+        buffer = null;
+        bufferIndex = -1;
+        bufferReady = false;
+        bufferFailed = false;
+        visualStateRequest++;
+    }
+}
@@ -0,0 +1,155 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+import android.widget.FrameLayout;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a few fully configured, never-navigated WebViews ready for
+ * onCreateWindow. Chromium refuses a popup WebView that has already loaded
+ * a page, so a closed popup is destroyed rather than reused and the pool is
+ * topped up again when the main thread is idle. Main thread only.
+ */
+public class PopupWebViewPool {
+
+    /** Applies the shared settings and clients to a newly created popup view. */
+    public interface Configurer {
+        void configure(WebView popup);
+    }
+
+    private final Context context;
+    private final Configurer configurer;
+    private final int targetSize;
+    private final ArrayDeque<WebView> idle = new ArrayDeque<WebView>();
+    private boolean refillScheduled = false;
+    private boolean trimmed = false;
+
+    // Metrics
+    private long acquires = 0;
+    private long hits = 0;
+    private long created = 0;
+    private long destroyed = 0;
+    private long openLatencyTotalMs = 0;
+    private long openLatencyMaxMs = 0;
+    private long openLatencyCount = 0;
+
+    public PopupWebViewPool(Context context, int targetSize, Configurer configurer) {
+        this.context = context;
+        this.targetSize = targetSize;
+        this.configurer = configurer;
+    }
+
+    /** Fills the pool once the main thread has nothing better to do. */
+    public void prewarm() {
+        trimmed = false;
+        scheduleRefill();
+    }
+
+    public WebView acquire() {
+        acquires++;
+        WebView popup = idle.poll();
+        if (popup != null) {
+            hits++;
+        } else {
+            popup = create();
+        }
+        scheduleRefill();
+        return popup;
+    }
+
+    /** Disposes of a popup that has been closed; its renderer state is not reusable. */
+    public void release(WebView popup) {
+        ViewGroup parent = (ViewGroup) popup.getParent();
+        if (parent != null) {
+            parent.removeView(popup);
+        }
+        destroy(popup);
+        scheduleRefill();
+    }
+
+    /** Drops all idle views under memory pressure; they come back on {@link #prewarm()}. */
+    public void trim() {
+        trimmed = true;
+        while (!idle.isEmpty()) {
+            destroy(idle.poll());
+        }
+    }
+
+    public void destroyAll() {
+        trim();
+    }
+
+    public void recordOpenLatency(long latencyMs) {
+        openLatencyCount++;
+        openLatencyTotalMs += latencyMs;
+        openLatencyMaxMs = Math.max(openLatencyMaxMs, latencyMs);
+    }
+
+    public long getAcquireCount() {
+        return acquires;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getAverageOpenLatencyMs() {
+        return openLatencyCount == 0 ? 0 : openLatencyTotalMs / openLatencyCount;
+    }
+
+    public String statsSummary() {
+        int hitRate = acquires == 0 ? 0 : (int) (hits * 100 / acquires);
+        return "acquires=" + acquires + " hitRate=" + hitRate + "%"
+                + " created=" + created + " destroyed=" + destroyed
+                + " idle=" + idle.size()
+                + " openLatencyAvg=" + getAverageOpenLatencyMs() + "ms"
+                + " openLatencyMax=" + openLatencyMaxMs + "ms";
+    }
+
+    private WebView create() {
+        WebView popup = new WebView(context);
+        popup.setLayoutParams(new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.MATCH_PARENT,
+                FrameLayout.LayoutParams.MATCH_PARENT));
+        configurer.configure(popup);
+        created++;
+        return popup;
+    }
+
+    private void destroy(WebView popup) {
+        popup.stopLoading();
+        popup.setWebChromeClient(null);
+        popup.destroy();
+        destroyed++;
+    }
+
+    private void scheduleRefill() {
+        if (refillScheduled || trimmed || idle.size() >= targetSize) {
+            return;
+        }
+        refillScheduled = true;
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                refillScheduled = false;
+                if (!trimmed && idle.size() < targetSize) {
+                    idle.add(create());
+                }
+                // One view per idle pass so a refill never causes a long frame
+                if (!trimmed && idle.size() < targetSize) {
+                    scheduleRefill();
+                }
+                return false;
+            }
+        });
+    }
+}
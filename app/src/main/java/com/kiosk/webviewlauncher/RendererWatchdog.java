@@ -0,0 +1,269 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import java.util.ArrayDeque;
+
+/**
+ * Detects a dead or hung renderer and has the host swap in a fresh WebView.
+ * Hangs are found with a JS heartbeat: evaluateJavascript only calls back once
+ * the renderer's main thread runs it. The broken view is replaced at once;
+ * reloading the page (which starts a new renderer) is rate limited by a
+ * sliding restart budget with exponential backoff. A heartbeat only counts
+ * against the view it was sent to; when the host swaps views (playlist,
+ * session reset, recycle) the outstanding one is forgotten. Main thread only.
+ */
+public class RendererWatchdog {
+
+    public interface Host {
+        WebView getWebView();
+
+        /** Destroys the broken WebView and installs a configured, empty one. */
+        void replaceWebView(String reason);
+
+        /** Loads the configured page into the current WebView. */
+        void loadHome();
+    }
+
+    private static final String TAG = "KioskWatchdog";
+    private static final long HEARTBEAT_INTERVAL_MS = 5000;
+    private static final long HANG_TIMEOUT_MS = 15000;
+    private static final long HANG_TIMEOUT_LOADING_MS = 45000;
+    private static final int MAX_RESTARTS_PER_WINDOW = 5;
+    private static final long RESTART_WINDOW_MS = 10 * 60 * 1000;
+    private static final long BACKOFF_BASE_MS = 1000;
+    private static final long BACKOFF_MAX_MS = 60 * 1000;
+    private static final int MAX_INCIDENTS = 20;
+
+    public static final String REASON_CRASH = "renderer_crash";
+    public static final String REASON_KILLED = "renderer_killed";
+    public static final String REASON_UNRESPONSIVE = "renderer_unresponsive";
+    public static final String REASON_HEARTBEAT = "heartbeat_timeout";
+
+    /** One renderer failure and how long it took to get a page back on screen. */
+    public static final class Incident {
+        public final String reason;
+        public final long detectedAtMs;
+        long rebuiltAtMs = 0;
+        long recoveredAtMs = 0;
+
+        Incident(String reason, long detectedAtMs) {
+            this.reason = reason;
+            this.detectedAtMs = detectedAtMs;
+        }
+
+        public long getTimeToRecoveryMs() {
+            return recoveredAtMs == 0 ? -1 : recoveredAtMs - detectedAtMs;
+        }
+    }
+
+    private final Handler handler;
+    private final Host host;
+    private final long[] restartTimes = new long[MAX_RESTARTS_PER_WINDOW];
+    private int restartCursor = 0;
+    private final ArrayDeque<Incident> incidents = new ArrayDeque<Incident>();
+    private Incident openIncident;
+    private boolean running = false;
+    private boolean rebuildPending = false;
+
+    // Heartbeat state
+    private int heartbeatSeq = 0;
+    private int ackedSeq = 0;
+    private long heartbeatSentAtMs = 0;
+    // The view the outstanding heartbeat went to; its callback is lost if that view goes
+    private WebView heartbeatView;
+    private boolean pageLoading = false;
+
+    // Read by the metrics endpoint
+    private volatile long totalRestarts = 0;
+    private volatile long recoveredCount = 0;
+    private volatile long recoveryTotalMs = 0;
+
+    private final ValueCallback<String> heartbeatCallback = new ValueCallback<String>() {
+        @Override
+        public void onReceiveValue(String value) {
+            if (value != null) {
+                try {
+                    ackedSeq = Math.max(ackedSeq, Integer.parseInt(value));
+                } catch (NumberFormatException ignored) {
+                    // Navigation replaced the document mid-evaluation
+                }
+            }
+        }
+    };
+
+    private final Runnable heartbeat = new Runnable() {
+        @Override
+        public void run() {
+            checkHeartbeat();
+        }
+    };
+
+    private final Runnable rebuild = new Runnable() {
+        @Override
+        public void run() {
+            performRebuild();
+        }
+    };
+
+    public RendererWatchdog(Handler handler, Host host) {
+        this.handler = handler;
+        this.host = host;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        resetHeartbeat();
+        handler.postDelayed(heartbeat, HEARTBEAT_INTERVAL_MS);
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(heartbeat);
+    }
+
+    /** Drops everything scheduled, including a pending reload; used on destroy. */
+    public void release() {
+        stop();
+        handler.removeCallbacks(rebuild);
+        rebuildPending = false;
+    }
+
+    public void onPageStarted() {
+        pageLoading = true;
+    }
+
+    public void onPageFinished() {
+        pageLoading = false;
+    }
+
+    /** The page produced a visible frame; closes any open incident. */
+    public void onPageVisible() {
+        if (openIncident != null && openIncident.rebuiltAtMs > 0) {
+            openIncident.recoveredAtMs = SystemClock.uptimeMillis();
+            recoveredCount++;
+            recoveryTotalMs += openIncident.getTimeToRecoveryMs();
+            Log.i(TAG, "Recovered from " + openIncident.reason + " in "
+                    + openIncident.getTimeToRecoveryMs() + "ms (rebuild took "
+                    + (openIncident.rebuiltAtMs - openIncident.detectedAtMs) + "ms incl. backoff)");
+            openIncident = null;
+        }
+    }
+
+    /** Called from onRenderProcessGone; the WebView is unusable from here on. */
+    public void onRenderProcessGone(boolean didCrash) {
+        reportFailure(didCrash ? REASON_CRASH : REASON_KILLED);
+    }
+
+    /** Called from WebViewRenderProcessClient after the renderer stopped answering input. */
+    public void onRenderProcessUnresponsive() {
+        reportFailure(REASON_UNRESPONSIVE);
+    }
+
+    public long getRestartCount() {
+        return totalRestarts;
+    }
+
+    public long getMeanTimeToRecoveryMs() {
+        return recoveredCount == 0 ? 0 : recoveryTotalMs / recoveredCount;
+    }
+
+    public String statsSummary() {
+        return "restarts=" + totalRestarts + " recovered=" + recoveredCount
+                + " mttr=" + getMeanTimeToRecoveryMs() + "ms incidents=" + incidents.size();
+    }
+
+    private void checkHeartbeat() {
+        if (!running) {
+            return;
+        }
+        WebView current = host.getWebView();
+        if (ackedSeq < heartbeatSeq && current != heartbeatView) {
+            // Promoted or destroyed since; a missing answer from the old view means nothing
+            resetHeartbeat();
+        }
+        long now = SystemClock.uptimeMillis();
+        if (!rebuildPending && ackedSeq < heartbeatSeq) {
+            long timeout = pageLoading ? HANG_TIMEOUT_LOADING_MS : HANG_TIMEOUT_MS;
+            if (now - heartbeatSentAtMs > timeout) {
+                reportFailure(REASON_HEARTBEAT);
+            }
+        } else if (!rebuildPending) {
+            if (current != null) {
+                heartbeatSeq++;
+                heartbeatSentAtMs = now;
+                heartbeatView = current;
+                current.evaluateJavascript(String.valueOf(heartbeatSeq), heartbeatCallback);
+            }
+        }
+        handler.postDelayed(heartbeat, HEARTBEAT_INTERVAL_MS);
+    }
+
+    private void reportFailure(String reason) {
+        if (rebuildPending) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        Incident incident = new Incident(reason, now);
+        if (incidents.size() == MAX_INCIDENTS) {
+            incidents.removeFirst();
+        }
+        incidents.addLast(incident);
+        openIncident = incident;
+
+        // The old view must not be touched again; replacing it is cheap
+        host.replaceWebView(reason);
+
+        long delay = nextRestartDelay(now);
+        Log.w(TAG, "Renderer failure: " + reason + ", reloading in " + delay + "ms");
+        rebuildPending = true;
+        handler.postDelayed(rebuild, delay);
+    }
+
+    private void performRebuild() {
+        long now = SystemClock.uptimeMillis();
+        restartTimes[restartCursor] = now;
+        restartCursor = (restartCursor + 1) % restartTimes.length;
+        totalRestarts++;
+
+        host.loadHome();
+        if (openIncident != null) {
+            openIncident.rebuiltAtMs = SystemClock.uptimeMillis();
+        }
+        rebuildPending = false;
+        resetHeartbeat();
+    }
+
+    // Immediate first restart, then doubling per recent restart; wait out the window when spent
+    private long nextRestartDelay(long now) {
+        int recent = 0;
+        long oldestInWindow = Long.MAX_VALUE;
+        for (long time : restartTimes) {
+            if (time > 0 && now - time < RESTART_WINDOW_MS) {
+                recent++;
+                oldestInWindow = Math.min(oldestInWindow, time);
+            }
+        }
+        if (recent >= MAX_RESTARTS_PER_WINDOW) {
+            return Math.max(oldestInWindow + RESTART_WINDOW_MS - now, BACKOFF_MAX_MS);
+        }
+        if (recent == 0) {
+            return 0;
+        }
+        return Math.min(BACKOFF_BASE_MS << (recent - 1), BACKOFF_MAX_MS);
+    }
+
+    private void resetHeartbeat() {
+        ackedSeq = heartbeatSeq;
+        heartbeatView = null;
+        heartbeatSentAtMs = SystemClock.uptimeMillis();
+        pageLoading = false;
+    }
+}
@@ -0,0 +1,576 @@
+package com.kiosk.webviewlauncher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU response store on disk. The index holds only small fixed
+ * metadata so it loads in one sequential read at startup; response headers
+ * live at the front of each body file.
+ */
+public class ResponseCache {
+
+    private static final int INDEX_MAGIC = 0x4B524331; // "KRC1"
+    private static final int INDEX_VERSION = 1;
+    private static final String INDEX_FILE = "index";
+    private static final String INDEX_TMP_FILE = "index.tmp";
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> index =
+            new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private final ScheduledExecutorService flushExecutor;
+    private long totalBytes = 0;
+    private boolean flushScheduled = false;
+    private boolean loaded = false;
+
+    // Counters for bandwidth / latency reporting
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong staleServed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesFromNetwork = new AtomicLong();
+
+    public ResponseCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kiosk-cache-index");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Immutable metadata for one stored response. */
+    public static final class Entry {
+        public final String url;
+        public final String mimeType;
+        public final String encoding;
+        public final String etag;
+        public final String lastModified;
+        public final long storedAt;
+        public final long expiresAt;
+        public final long size;
+
+        Entry(String url, String mimeType, String encoding, String etag, String lastModified,
+                long storedAt, long expiresAt, long size) {
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+
+        public boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        public boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+
+        Entry withExpiry(long now, long freshnessMs) {
+            return new Entry(url, mimeType, encoding, etag, lastModified,
+                    now, now + freshnessMs, size);
+        }
+    }
+
+    /** An opened entry: stored headers plus a stream positioned at the body. */
+    public static final class Snapshot {
+        public final Entry entry;
+        public final Map<String, String> headers;
+        public final InputStream body;
+
+        Snapshot(Entry entry, Map<String, String> headers, InputStream body) {
+            this.entry = entry;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File indexFile = new File(directory, INDEX_FILE);
+        if (!indexFile.exists()) {
+            deleteOrphans();
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Unknown cache index format");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), readNullable(in), readNullable(in),
+                        readNullable(in), readNullable(in),
+                        in.readLong(), in.readLong(), in.readLong());
+                if (fileFor(entry.url).exists()) {
+                    index.put(entry.url, entry);
+                    totalBytes += entry.size;
+                }
+            }
+        } catch (IOException e) {
+            // A corrupt index is not worth salvaging; start empty
+            index.clear();
+            totalBytes = 0;
+        } finally {
+            closeQuietly(in);
+        }
+        deleteOrphans();
+        for (File file : trimToSize()) {
+            file.delete();
+        }
+    }
+
+    public synchronized Entry get(String url) {
+        return index.get(url);
+    }
+
+    /**
+     * Opens the stored response for reading, or returns null if it is gone.
+     * Bytes read from the returned body count towards the cache savings.
+     */
+    public Snapshot open(String url) {
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(url);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(fileFor(url))));
+            int headerCount = in.readInt();
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            return new Snapshot(entry, headers, new CountingInputStream(in, bytesFromCache));
+        } catch (IOException e) {
+            closeQuietly(in);
+            remove(url);
+            return null;
+        }
+    }
+
+    /**
+     * Starts writing a new response. The entry only becomes visible once the
+     * returned writer is committed after the full body has been written.
+     */
+    public Writer edit(String url, String mimeType, String encoding, String etag,
+            String lastModified, long freshnessMs, Map<String, String> headers)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory");
+        }
+        File tmp = new File(directory, keyFor(url) + "." + Thread.currentThread().getId()
+                + TMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeUTF(header.getValue());
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            tmp.delete();
+            throw e;
+        }
+        return new Writer(url, mimeType, encoding, etag, lastModified, freshnessMs, tmp, out);
+    }
+
+    /** Marks a stored response as fresh again after a 304 revalidation. */
+    public synchronized void refresh(String url, long freshnessMs) {
+        Entry entry = index.get(url);
+        if (entry != null) {
+            index.put(url, entry.withExpiry(System.currentTimeMillis(), freshnessMs));
+            scheduleFlush();
+        }
+    }
+
+    public void remove(String url) {
+        Entry removed;
+        synchronized (this) {
+            removed = index.remove(url);
+            if (removed != null) {
+                totalBytes -= removed.size;
+                scheduleFlush();
+            }
+        }
+        if (removed != null) {
+            fileFor(url).delete();
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            index.clear();
+            totalBytes = 0;
+            scheduleFlush();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /** Writes the index now; used when the activity goes to the background. */
+    public void flush() {
+        flushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        });
+    }
+
+    // Stats
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    public void recordStaleServed() {
+        staleServed.incrementAndGet();
+    }
+
+    public void recordNetworkBytes(long bytes) {
+        bytesFromNetwork.addAndGet(bytes);
+    }
+
+    public AtomicLong networkByteCounter() {
+        return bytesFromNetwork;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    public long getStaleServedCount() {
+        return staleServed.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getBytesFromCache() {
+        return bytesFromCache.get();
+    }
+
+    public long getBytesFromNetwork() {
+        return bytesFromNetwork.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return index.size();
+    }
+
+    public String statsSummary() {
+        return "hits=" + hits.get() + " misses=" + misses.get()
+                + " revalidated=" + revalidations.get() + " stale=" + staleServed.get()
+                + " cacheBytes=" + bytesFromCache.get() + " netBytes=" + bytesFromNetwork.get()
+                + " size=" + getSizeBytes() + "/" + maxBytes;
+    }
+
+    /** Pending write of a response body into the cache. */
+    public final class Writer {
+        private final String url;
+        private final String mimeType;
+        private final String encoding;
+        private final String etag;
+        private final String lastModified;
+        private final long freshnessMs;
+        private final File tmp;
+        private final DataOutputStream out;
+        private boolean done = false;
+
+        Writer(String url, String mimeType, String encoding, String etag, String lastModified,
+                long freshnessMs, File tmp, DataOutputStream out) {
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.freshnessMs = freshnessMs;
+            this.tmp = tmp;
+            this.out = out;
+        }
+
+        public OutputStream stream() {
+            return out;
+        }
+
+        public void commit() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                tmp.delete();
+                return;
+            }
+
+            File target = fileFor(url);
+            List<File> evicted;
+            synchronized (ResponseCache.this) {
+                if (!tmp.renameTo(target)) {
+                    tmp.delete();
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                Entry entry = new Entry(url, mimeType, encoding, etag, lastModified,
+                        now, now + freshnessMs, target.length());
+                Entry previous = index.put(url, entry);
+                if (previous != null) {
+                    totalBytes -= previous.size;
+                }
+                totalBytes += entry.size;
+                evicted = trimToSize();
+                scheduleFlush();
+            }
+            for (File file : evicted) {
+                file.delete();
+            }
+        }
+
+        public void abort() {
+            if (done) {
+                return;
+            }
+            done = true;
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    // Must hold the lock; returns files to delete outside of it
+    private List<File> trimToSize() {
+        List<File> evicted = new ArrayList<File>();
+        Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            totalBytes -= eldest.size;
+            evictions.incrementAndGet();
+            evicted.add(fileFor(eldest.url));
+        }
+        if (!evicted.isEmpty()) {
+            scheduleFlush();
+        }
+        return evicted;
+    }
+
+    // Must hold the lock
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        flushExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writeIndex();
+            }
+        }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeIndex() {
+        List<Entry> entries;
+        synchronized (this) {
+            flushScheduled = false;
+            entries = new ArrayList<Entry>(index.values());
+        }
+
+        File tmp = new File(directory, INDEX_TMP_FILE);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+            // Eldest first, so reloading preserves LRU order
+            for (Entry entry : entries) {
+                out.writeUTF(entry.url);
+                writeNullable(out, entry.mimeType);
+                writeNullable(out, entry.encoding);
+                writeNullable(out, entry.etag);
+                writeNullable(out, entry.lastModified);
+                out.writeLong(entry.storedAt);
+                out.writeLong(entry.expiresAt);
+                out.writeLong(entry.size);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(new File(directory, INDEX_FILE))) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    private void deleteOrphans() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> indexed = new HashSet<String>();
+        for (String url : index.keySet()) {
+            indexed.add(keyFor(url) + ENTRY_SUFFIX);
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)
+                    || (name.endsWith(ENTRY_SUFFIX) && !indexed.contains(name))) {
+                file.delete();
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(directory, keyFor(url) + ENTRY_SUFFIX);
+    }
+
+    static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do
+            }
+        }
+    }
+
+    /** Adds every byte read to a shared counter. */
+    static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            int n = super.read(buffer, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
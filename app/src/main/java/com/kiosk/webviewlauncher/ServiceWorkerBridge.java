@@ -0,0 +1,200 @@
+package com.kiosk.webviewlauncher;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.webkit.ServiceWorkerClient;
+import android.webkit.ServiceWorkerController;
+import android.webkit.ValueCallback;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebSettings;
+import android.webkit.WebStorage;
+import android.webkit.WebView;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes service worker fetches through the same blocking and caching as page
+ * requests, and gives admins a way out of a broken worker. Resets and updates
+ * run inside the page, touching only worker registrations and Cache Storage.
+ * If the page cannot do it, the home origins' site storage is deleted
+ * natively instead. Cookies are kept either way. Main thread unless noted.
+ */
+public class ServiceWorkerBridge {
+
+    // Config keys holding the time of the last admin request; a new value triggers it
+    public static final String KEY_PURGE_AT = "sw_purge_at";
+    public static final String KEY_UPDATE_AT = "sw_update_at";
+
+    private static final String TAG = "KioskServiceWorker";
+    private static final long USAGE_REFRESH_MS = 60 * 1000;
+    private static final String STARTED = "\"started\"";
+
+    // Unregisters every worker and empties Cache Storage, then reloads the page
+    private static final String PURGE_SCRIPT = "(function() {"
+            + "if (!navigator.serviceWorker || !window.caches) return 'unsupported';"
+            + "navigator.serviceWorker.getRegistrations().then(function(rs) {"
+            + "  return Promise.all(rs.map(function(r) { return r.unregister(); }));"
+            + "}).then(function() { return caches.keys(); }).then(function(ks) {"
+            + "  return Promise.all(ks.map(function(k) { return caches.delete(k); }));"
+            + "}).catch(function() {}).then(function() { location.reload(); });"
+            + "return 'started'; })()";
+
+    // Fetches new worker scripts and asks a waiting worker to take over (Workbox message)
+    private static final String UPDATE_SCRIPT = "(function() {"
+            + "if (!navigator.serviceWorker) return 'unsupported';"
+            + "navigator.serviceWorker.getRegistrations().then(function(rs) {"
+            + "  return Promise.all(rs.map(function(r) { return r.update().then(function() {"
+            + "    if (r.waiting) r.waiting.postMessage({type: 'SKIP_WAITING'});"
+            + "  }); }));"
+            + "}).catch(function() {}).then(function() { location.reload(); });"
+            + "return 'started'; })()";
+
+    private final CachingInterceptor interceptor;
+    private final ContentBlocker blocker;
+    private final AppShell appShell;
+    private boolean installed = false;
+    private long usageCheckedAtMs = 0;
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private volatile long storageBytes = -1;
+
+    public ServiceWorkerBridge(CachingInterceptor interceptor, ContentBlocker blocker,
+            AppShell appShell) {
+        this.interceptor = interceptor;
+        this.blocker = blocker;
+        this.appShell = appShell;
+    }
+
+    /** Hooks the process-wide controller; the WebView provider must already be loaded. */
+    public void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        ServiceWorkerController controller = ServiceWorkerController.getInstance();
+        controller.getServiceWorkerWebSettings().setCacheMode(WebSettings.LOAD_DEFAULT);
+        controller.setServiceWorkerClient(new ServiceWorkerClient() {
+            // Worker IO thread
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebResourceRequest request) {
+                fetches.incrementAndGet();
+                // A worker registered by the shell fetches its files from the bundle too
+                WebResourceResponse shell = appShell.intercept(request);
+                if (shell != null) {
+                    return shell;
+                }
+                if (blocker.isBlocked(request.getUrl().getHost())) {
+                    blocked.incrementAndGet();
+                    return ContentBlocker.blockedResponse();
+                }
+                return interceptor.intercept(request);
+            }
+        });
+    }
+
+    /** Follows the page's cache mode; the interceptor prefers its cache while the link is bad. */
+    public void setCacheMode(int mode, boolean preferCache) {
+        if (installed) {
+            ServiceWorkerController.getInstance().getServiceWorkerWebSettings().setCacheMode(mode);
+        }
+        interceptor.setPreferCache(preferCache);
+    }
+
+    /**
+     * Unregisters the page's workers and clears their caches, then reloads.
+     * Falls back to deleting {@code origins}' storage and running {@code reload}.
+     */
+    public void purge(WebView view, final Iterable<String> origins, final Runnable reload) {
+        Log.i(TAG, "Purging service workers");
+        view.evaluateJavascript(PURGE_SCRIPT, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String result) {
+                if (STARTED.equals(result)) {
+                    return;
+                }
+                Log.i(TAG, "Page cannot purge (" + result + "), deleting origin storage");
+                for (String origin : origins) {
+                    WebStorage.getInstance().deleteOrigin(origin);
+                }
+                storageBytes = -1;
+                reload.run();
+            }
+        });
+    }
+
+    /** Checks for a new worker build and reloads once it is installed. */
+    public void forceUpdate(WebView view) {
+        Log.i(TAG, "Updating service workers");
+        view.evaluateJavascript(UPDATE_SCRIPT, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String result) {
+                if (!STARTED.equals(result)) {
+                    Log.i(TAG, "Page has no service worker support: " + result);
+                }
+            }
+        });
+    }
+
+    /** Refreshes the storage gauge for the page's origin, at most once a minute. */
+    public void onPageFinished(String url) {
+        long now = SystemClock.uptimeMillis();
+        if (usageCheckedAtMs != 0 && now - usageCheckedAtMs < USAGE_REFRESH_MS) {
+            return;
+        }
+        usageCheckedAtMs = now;
+        requestUsage(url, null);
+    }
+
+    /** Site storage of {@code url}'s origin (Cache Storage, IndexedDB and friends). */
+    public void requestUsage(String url, final ValueCallback<Long> callback) {
+        String origin = originOf(url);
+        if (origin == null) {
+            return;
+        }
+        WebStorage.getInstance().getUsage(origin, new ValueCallback<Long>() {
+            @Override
+            public void onReceiveValue(Long usage) {
+                storageBytes = usage != null ? usage : -1;
+                if (callback != null) {
+                    callback.onReceiveValue(usage);
+                }
+            }
+        });
+    }
+
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    public long getServedFromCacheCount() {
+        return interceptor.getServedFromCacheCount();
+    }
+
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    /** Last known origin storage in bytes, or -1 if not measured yet. */
+    public long getStorageBytes() {
+        return storageBytes;
+    }
+
+    public String statsSummary() {
+        return "fetches=" + fetches.get() + " fromCache=" + interceptor.getServedFromCacheCount()
+                + " network=" + interceptor.getNetworkCount() + " blocked=" + blocked.get()
+                + " storage=" + (storageBytes >= 0 ? (storageBytes / 1024) + "KB" : "?");
+    }
+
+    /** scheme://host[:port] of {@code url}, or null if it has no host. */
+    public static String originOf(String url) {
+        Uri uri = url != null ? Uri.parse(url) : null;
+        if (uri == null || uri.getScheme() == null || uri.getHost() == null) {
+            return null;
+        }
+        String origin = uri.getScheme() + "://" + uri.getHost();
+        return uri.getPort() != -1 ? origin + ":" + uri.getPort() : origin;
+    }
+}
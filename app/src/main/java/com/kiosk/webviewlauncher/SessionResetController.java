@@ -0,0 +1,511 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.webkit.CookieManager;
+import android.webkit.ValueCallback;
+import android.webkit.WebStorage;
+import android.webkit.WebView;
+
+/**
+ * Ends a customer's session after a period without touches. The visible page
+ * is covered with a copy of its last frame, then replaced by about:blank
+ * underneath and paused, so none of its scripts can write state back. Then
+ * cookies, web storage and session-bound caches are cleared. Right after each
+ * reset, while nobody has touched the kiosk and the profile is still clean, a
+ * spare WebView behind the visible one loads and draws the home page, then is
+ * paused with network loads blocked. The next reset brings that spare to the
+ * front at the start of a frame and destroys the old view with its history
+ * and page state. A spare that is not warm yet loads home after the clear and
+ * is swapped in once drawn; the cover stays up meanwhile. Without a spare the
+ * home page is loaded in place and the history is cleared once it has loaded.
+ * Main thread only.
+ */
+public class SessionResetController {
+
+    public interface Host {
+        /** Creates a configured WebView behind the visible one, or null if none can be used. */
+        WebView createSpareView();
+
+        /** Shows the spare and returns the view it replaced. */
+        WebView promote(WebView spare, String url);
+
+        void destroyView(WebView view);
+
+        /** Loads the home screen into the visible view; used when no spare is available. */
+        void loadHome();
+
+        WebView getVisibleView();
+
+        /** Deletes session-bound state outside cookies and storage, e.g. downloads. */
+        void clearCaches();
+
+        /** Covers the visible page with its current frame, then runs {@code then}. */
+        void cover(Runnable then);
+
+        /** Removes the cover once the home page is on screen. */
+        void uncover();
+
+        String getHomeUrl();
+
+        long getLastInteractionMs();
+
+        /** Closes anything tied to the old session: popups, fullscreen video, snapshots. */
+        void onSessionEnded();
+    }
+
+    // Config key; 0 (the default) disables idle resets
+    public static final String KEY_IDLE_S = "session_reset_idle_s";
+
+    private static final String TAG = "KioskSession";
+    private static final long MIN_IDLE_S = 15;
+    // How long the spare may take to draw the home page before it is loaded in place
+    private static final long READY_TIMEOUT_MS = 15 * 1000;
+    // How long the old page may take to give way to about:blank before clearing anyway
+    private static final long BLANK_TIMEOUT_MS = 2000;
+    private static final String BLANK = "about:blank";
+    private static final String[] STATE_NAMES = {"parked", "warming", "warm", "loading"};
+
+    // Spare states
+    /** On about:blank and paused. */
+    private static final int PARKED = 0;
+    /** Loading home in a profile nobody has used since the last clear. */
+    private static final int WARMING = 1;
+    /** Home drawn, paused, network loads blocked; ready to swap in. */
+    private static final int WARM = 2;
+    /** Loading or showing home for the reset in progress. */
+    private static final int LOADING = 3;
+
+    private final Handler handler;
+    private final Host host;
+    private long idleMs = 0;
+    private boolean running = false;
+    // A customer touched the kiosk since the last reset
+    private boolean dirty = false;
+    private boolean checkPosted = false;
+
+    private WebView spare;
+    private int spareState = PARKED;
+    // Home URL the warm spare shows; a different one must be loaded fresh
+    private String warmUrl;
+    // Cookies and storage were cleared and no customer has touched the kiosk since
+    private boolean profileClean = false;
+    private long visualStateRequest = 0;
+    private boolean swapScheduled = false;
+    private long resetStartedMs = 0;
+    // The old page, waiting to show about:blank before anything is cleared
+    private WebView blanking;
+    // Loading home in place; its history is cleared once that load has finished
+    private WebView clearHistoryOf;
+
+    // Stats, also read by the metrics thread
+    private volatile long resets = 0;
+    private volatile long swaps = 0;
+    private volatile long warmSwaps = 0;
+    private volatile long inPlace = 0;
+    private volatile long lastClearMs = 0;
+    private volatile long lastResetMs = 0;
+
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkPosted = false;
+            if (!running || !dirty || idleMs <= 0 || resetStartedMs != 0) {
+                return;
+            }
+            long idleFor = SystemClock.uptimeMillis() - host.getLastInteractionMs();
+            if (idleFor >= idleMs) {
+                reset();
+            } else {
+                postCheck(idleMs - idleFor);
+            }
+        }
+    };
+
+    private final Runnable readyTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Spare did not draw the home page in time, loading in place");
+            releaseSpare();
+            finishWithoutSpare();
+        }
+    };
+
+    private final Runnable spareFailed = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Spare failed to load the home page, loading in place");
+            releaseSpare();
+            finishWithoutSpare();
+        }
+    };
+
+    private final Runnable blankTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Old page did not unload in time, clearing anyway");
+            clearSession();
+        }
+    };
+
+    private final Runnable parkAfterFailure = new Runnable() {
+        @Override
+        public void run() {
+            if (spare != null && spareState == PARKED) {
+                parkSpare();
+            }
+        }
+    };
+
+    private final WebView.VisualStateCallback spareDrawn = new WebView.VisualStateCallback() {
+        @Override
+        public void onComplete(long requestId) {
+            if (requestId != visualStateRequest || spare == null) {
+                return;
+            }
+            if (spareState == WARMING) {
+                sealSpare();
+            } else if (spareState == LOADING) {
+                scheduleSwap();
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback swapOnFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            swapScheduled = false;
+            if (spare == null || resetStartedMs == 0) {
+                return;
+            }
+            handler.removeCallbacks(readyTimeout);
+            // Even if someone touched the screen meanwhile: the old view only shows about:blank
+            final WebView previous = host.promote(spare, host.getHomeUrl());
+            spare = null;
+            spareState = PARKED;
+            swaps++;
+            host.uncover();
+            endReset();
+            // Keep this frame short; the old page is torn down right after it
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    host.destroyView(previous);
+                    scheduleSpare();
+                }
+            });
+        }
+    };
+
+    public SessionResetController(Handler handler, Host host) {
+        this.handler = handler;
+        this.host = host;
+    }
+
+    public void applyConfig(KioskConfig config) {
+        long seconds = config.getLong(KEY_IDLE_S, 0);
+        idleMs = seconds <= 0 ? 0 : Math.max(MIN_IDLE_S, seconds) * 1000;
+        if (idleMs == 0) {
+            handler.removeCallbacks(idleCheck);
+            checkPosted = false;
+            dropSpare();
+        } else {
+            scheduleSpare();
+            if (dirty) {
+                postCheck(idleMs);
+            }
+        }
+    }
+
+    /** Called from the touch listener for every event; cheap when a check is pending. */
+    public void onInteraction() {
+        dirty = true;
+        if (profileClean && resetStartedMs == 0) {
+            // A new customer; a spare still loading would pick up their cookies
+            profileClean = false;
+            if (spare != null && spareState == WARMING) {
+                parkSpare();
+            }
+        }
+        if (!checkPosted && running && idleMs > 0) {
+            postCheck(idleMs);
+        }
+    }
+
+    public void start() {
+        running = true;
+        if (dirty && idleMs > 0) {
+            postCheck(idleMs);
+        }
+        scheduleSpare();
+    }
+
+    public void stop() {
+        running = false;
+        handler.removeCallbacks(idleCheck);
+        checkPosted = false;
+    }
+
+    public boolean isSpare(WebView view) {
+        return view != null && view == spare;
+    }
+
+    /** True from the idle timeout until the home page is on screen again. */
+    public boolean isResetting() {
+        return resetStartedMs != 0;
+    }
+
+    /** The spare finished loading; seal or swap once its content has actually been drawn. */
+    public void onSparePageFinished(WebView view, String url) {
+        if (view == spare && (spareState == WARMING || spareState == LOADING)
+                && !BLANK.equals(url)) {
+            // Back must not lead to the blank page it was parked on
+            view.clearHistory();
+            visualStateRequest++;
+            view.postVisualStateCallback(visualStateRequest, spareDrawn);
+        }
+    }
+
+    /** A page finished loading in the visible view. */
+    public void onPageFinished(WebView view, String url) {
+        if (view == blanking && BLANK.equals(url)) {
+            clearSession();
+        } else if (view == clearHistoryOf && !BLANK.equals(url)) {
+            // Only now is the home page committed, so nothing before it stays reachable
+            clearHistoryOf = null;
+            view.clearHistory();
+        }
+    }
+
+    /** The spare's main frame failed; it shows an error page, so it is never promoted. */
+    public void onSpareLoadFailed(WebView view) {
+        if (view != spare) {
+            return;
+        }
+        visualStateRequest++;
+        // Not from inside the failing view's own callback
+        if (spareState == WARMING) {
+            spareState = PARKED;
+            handler.post(parkAfterFailure);
+        } else if (spareState == LOADING) {
+            spareState = PARKED;
+            handler.removeCallbacks(readyTimeout);
+            handler.post(spareFailed);
+        }
+    }
+
+    /** The parked or loading spare view, or null. */
+    public WebView getSpare() {
+        return spare;
+    }
+
+    public void onSpareGone(WebView view) {
+        if (view == spare) {
+            Log.w(TAG, "Spare renderer gone, dropping it");
+            dropSpare();
+        }
+    }
+
+    /** Frees the spare WebView under memory pressure; it is rebuilt when idle. */
+    public void dropSpare() {
+        // Before the session is cleared a new spare is made anyway
+        boolean inUse = spare != null && spareState == LOADING;
+        releaseSpare();
+        if (inUse) {
+            finishWithoutSpare();
+        }
+    }
+
+    public long getResetCount() {
+        return resets;
+    }
+
+    public String statsSummary() {
+        return "resets=" + resets + " swaps=" + swaps + " warmSwaps=" + warmSwaps
+                + " inPlace=" + inPlace
+                + " lastClear=" + lastClearMs + "ms"
+                + " lastReset=" + lastResetMs + "ms" + " spare="
+                + (spare == null ? "none" : STATE_NAMES[spareState]);
+    }
+
+    private void postCheck(long delayMs) {
+        handler.removeCallbacks(idleCheck);
+        handler.postDelayed(idleCheck, delayMs);
+        checkPosted = true;
+    }
+
+    private void reset() {
+        resets++;
+        dirty = false;
+        resetStartedMs = SystemClock.uptimeMillis();
+        Log.i(TAG, "Idle for " + (idleMs / 1000) + "s, ending session");
+        profileClean = false;
+        host.onSessionEnded();
+        clearHistoryOf = null;
+        // The customer keeps seeing the last frame while the page is torn down underneath
+        host.cover(new Runnable() {
+            @Override
+            public void run() {
+                if (resetStartedMs == 0) {
+                    return;
+                }
+                // Stop the old page first so its scripts cannot write cookies or storage back
+                blanking = host.getVisibleView();
+                blanking.loadUrl(BLANK);
+                handler.postDelayed(blankTimeout, BLANK_TIMEOUT_MS);
+            }
+        });
+    }
+
+    // The old page is gone; clear everything it could have left behind
+    private void clearSession() {
+        handler.removeCallbacks(blankTimeout);
+        if (blanking == null) {
+            return;
+        }
+        blanking.onPause();
+        blanking = null;
+        host.clearCaches();
+        clearStorage(new Runnable() {
+            @Override
+            public void run() {
+                profileClean = true;
+                String home = host.getHomeUrl();
+                if (spare != null && spareState == WARM && home.equals(warmUrl)) {
+                    // Drawn before the last customer arrived; only needs to come to the front
+                    unsealSpare();
+                    spareState = LOADING;
+                    warmSwaps++;
+                    scheduleSwap();
+                    return;
+                }
+                if (spare != null && spareState != PARKED) {
+                    parkSpare();
+                }
+                if (spare == null) {
+                    spare = host.createSpareView();
+                }
+                if (spare == null) {
+                    finishWithoutSpare();
+                    return;
+                }
+                // Loaded only now, so the page never sees the previous customer's cookies
+                unsealSpare();
+                spareState = LOADING;
+                spare.loadUrl(home);
+                handler.postDelayed(readyTimeout, READY_TIMEOUT_MS);
+            }
+        });
+    }
+
+    private void clearStorage(final Runnable then) {
+        final long start = SystemClock.uptimeMillis();
+        WebStorage.getInstance().deleteAllData();
+        final CookieManager cookies = CookieManager.getInstance();
+        cookies.removeAllCookies(new ValueCallback<Boolean>() {
+            @Override
+            public void onReceiveValue(Boolean removed) {
+                cookies.flush();
+                lastClearMs = SystemClock.uptimeMillis() - start;
+                then.run();
+            }
+        });
+    }
+
+    private void finishWithoutSpare() {
+        handler.removeCallbacks(readyTimeout);
+        inPlace++;
+        WebView view = host.getVisibleView();
+        view.onResume();
+        clearHistoryOf = view;
+        // The cover comes off when the home page commits its first frame
+        host.loadHome();
+        endReset();
+    }
+
+    private void endReset() {
+        lastResetMs = SystemClock.uptimeMillis() - resetStartedMs;
+        resetStartedMs = 0;
+    }
+
+    private void scheduleSwap() {
+        if (!swapScheduled) {
+            swapScheduled = true;
+            Choreographer.getInstance().postFrameCallback(swapOnFrame);
+        }
+    }
+
+    // The spare waits on a blank page, paused, until the next reset loads it
+    private void parkSpare() {
+        spareState = PARKED;
+        warmUrl = null;
+        visualStateRequest++;
+        spare.getSettings().setBlockNetworkLoads(false);
+        spare.loadUrl(BLANK);
+        spare.onPause();
+    }
+
+    // Renders home now, while the profile is clean, so the next reset is a single frame
+    private void warmSpare() {
+        spareState = WARMING;
+        warmUrl = host.getHomeUrl();
+        visualStateRequest++;
+        spare.onResume();
+        spare.loadUrl(warmUrl);
+    }
+
+    // A warm spare must not fetch anything with the next customer's cookies
+    private void sealSpare() {
+        spareState = WARM;
+        spare.onPause();
+        spare.getSettings().setBlockNetworkLoads(true);
+    }
+
+    private void unsealSpare() {
+        spare.getSettings().setBlockNetworkLoads(false);
+        spare.onResume();
+    }
+
+    private void releaseSpare() {
+        if (spare == null) {
+            return;
+        }
+        WebView view = spare;
+        spare = null;
+        spareState = PARKED;
+        warmUrl = null;
+        visualStateRequest++;
+        if (swapScheduled) {
+            Choreographer.getInstance().removeFrameCallback(swapOnFrame);
+            swapScheduled = false;
+        }
+        host.destroyView(view);
+    }
+
+    private void scheduleSpare() {
+        if (spare != null || idleMs <= 0 || !running) {
+            return;
+        }
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (spare == null && idleMs > 0 && running && resetStartedMs == 0) {
+                    spare = host.createSpareView();
+                    if (spare == null) {
+                        return false;
+                    }
+                    if (profileClean) {
+                        warmSpare();
+                    } else {
+                        parkSpare();
+                    }
+                }
+                return false;
+            }
+        });
+    }
+}
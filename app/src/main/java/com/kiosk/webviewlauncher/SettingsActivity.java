@@ -1,26 +1,18 @@
 package com.kiosk.webviewlauncher;
 
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.View;
+import android.webkit.ValueCallback;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 public class SettingsActivity extends AppCompatActivity {
 
-    private static final String PREFS_NAME = "KioskPrefs";
-    private static final String PREF_URL = "web_url";
-    private static final String PREF_PASSWORD_HASH = "password_hash";
-    private static final String DEFAULT_URL = "https://www.nikolaindustry.com";
-    private static final String DEFAULT_PASSWORD = "12345";
-
     private EditText passwordEditText;
     private Button verifyButton;
     private LinearLayout urlConfigContainer;
@@ -29,7 +21,14 @@ public class SettingsActivity extends AppCompatActivity {
     private EditText newPasswordEditText;
     private EditText confirmPasswordEditText;
     private Button changePasswordButton;
+    private EditText syncUrlEditText;
+    private EditText syncSecretEditText;
+    private Button saveSyncButton;
+    private TextView swStatusText;
+    private Button updateSwButton;
+    private Button clearSwButton;
     private boolean isAuthenticated = false;
+    private ConfigRepository configRepository;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,9 +43,15 @@ public class SettingsActivity extends AppCompatActivity {
         newPasswordEditText = findViewById(R.id.new_password_edit_text);
         confirmPasswordEditText = findViewById(R.id.confirm_password_edit_text);
         changePasswordButton = findViewById(R.id.change_password_button);
+        syncUrlEditText = findViewById(R.id.sync_url_edit_text);
+        syncSecretEditText = findViewById(R.id.sync_secret_edit_text);
+        saveSyncButton = findViewById(R.id.save_sync_button);
+        swStatusText = findViewById(R.id.sw_status_text);
+        updateSwButton = findViewById(R.id.update_sw_button);
+        clearSwButton = findViewById(R.id.clear_sw_button);
 
-        // Initialize default password if not set
-        initializeDefaultPassword();
+        // Default password is initialized by the repository if not set
+        configRepository = ((KioskApplication) getApplication()).getConfigRepository();
 
         // Hide URL configuration initially
         urlConfigContainer.setVisibility(View.GONE);
@@ -71,19 +76,29 @@ public class SettingsActivity extends AppCompatActivity {
                 changePassword();
             }
         });
-    }
 
-    private void initializeDefaultPassword() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String storedHash = prefs.getString(PREF_PASSWORD_HASH, null);
-        
-        // If no password is set, initialize with default password
-        if (storedHash == null) {
-            String defaultHash = hashPassword(DEFAULT_PASSWORD);
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putString(PREF_PASSWORD_HASH, defaultHash);
-            editor.apply();
-        }
+        saveSyncButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                saveSync();
+            }
+        });
+
+        updateSwButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                requestServiceWorkerAction(ServiceWorkerBridge.KEY_UPDATE_AT,
+                        "Service worker update requested");
+            }
+        });
+
+        clearSwButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                requestServiceWorkerAction(ServiceWorkerBridge.KEY_PURGE_AT,
+                        "Service worker reset requested");
+            }
+        });
     }
 
     private void verifyPassword() {
@@ -94,17 +109,15 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
 
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String storedHash = prefs.getString(PREF_PASSWORD_HASH, null);
-        String enteredHash = hashPassword(enteredPassword);
-
-        if (storedHash != null && storedHash.equals(enteredHash)) {
+        if (configRepository.verifyPassword(enteredPassword)) {
             // Password correct
             isAuthenticated = true;
             passwordEditText.setVisibility(View.GONE);
             verifyButton.setVisibility(View.GONE);
             urlConfigContainer.setVisibility(View.VISIBLE);
             loadCurrentUrl();
+            loadSyncSettings();
+            loadServiceWorkerStatus();
             Toast.makeText(this, "Authentication successful", Toast.LENGTH_SHORT).show();
         } else {
             // Password incorrect
@@ -114,29 +127,82 @@ public class SettingsActivity extends AppCompatActivity {
         }
     }
 
-    private String hashPassword(String password) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(password.getBytes());
-            StringBuilder hexString = new StringBuilder();
-            
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null;
+    private void loadCurrentUrl() {
+        urlEditText.setText(configRepository.get().getRawUrl());
+    }
+
+    private void loadSyncSettings() {
+        // The secret is never shown; an empty field keeps the stored one
+        KioskConfig config = configRepository.get();
+        syncUrlEditText.setText(config.getString(ConfigSync.KEY_SYNC_URL, ""));
+        syncSecretEditText.setText("");
+        if (!config.getString(ConfigSync.KEY_SYNC_SECRET, "").isEmpty()) {
+            syncSecretEditText.setHint("Secret set (leave empty to keep it)");
         }
     }
 
-    private void loadCurrentUrl() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        String currentUrl = prefs.getString(PREF_URL, DEFAULT_URL);
-        urlEditText.setText(currentUrl);
+    private void saveSync() {
+        if (!isAuthenticated) {
+            Toast.makeText(this, "Please authenticate first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String url = syncUrlEditText.getText().toString().trim();
+        String secret = syncSecretEditText.getText().toString().trim();
+        if (secret.isEmpty()) {
+            secret = configRepository.get().getString(ConfigSync.KEY_SYNC_SECRET, "");
+        }
+
+        ConfigRepository.Editor editor = configRepository.edit();
+        if (url.isEmpty()) {
+            // Sync off; the secret and ETag belong to the old endpoint
+            editor.remove(ConfigSync.KEY_SYNC_URL).remove(ConfigSync.KEY_SYNC_SECRET)
+                    .remove(ConfigSync.KEY_SYNC_ETAG).commit();
+            Toast.makeText(this, "Config sync turned off", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!ConfigSync.isAllowedSyncUrl(url, secret)) {
+            Toast.makeText(this, "Use https://, or set a signing secret for http://",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // KioskApplication hands it to ConfigSync, which polls shortly after
+        editor.putString(ConfigSync.KEY_SYNC_URL, url)
+                .putString(ConfigSync.KEY_SYNC_SECRET, secret)
+                .remove(ConfigSync.KEY_SYNC_ETAG)
+                .commit();
+        syncSecretEditText.setText("");
+        Toast.makeText(this, "Sync settings saved", Toast.LENGTH_SHORT).show();
+    }
+
+    private void loadServiceWorkerStatus() {
+        final ServiceWorkerBridge serviceWorkers =
+                ((KioskApplication) getApplication()).getServiceWorkerBridge();
+        swStatusText.setText("Fetches: " + serviceWorkers.getFetchCount()
+                + ", served from cache: " + serviceWorkers.getServedFromCacheCount()
+                + ", blocked: " + serviceWorkers.getBlockedCount());
+        serviceWorkers.requestUsage(configRepository.get().getUrl(), new ValueCallback<Long>() {
+            @Override
+            public void onReceiveValue(Long usage) {
+                if (usage != null && !isFinishing()) {
+                    swStatusText.append("\nSite storage: " + (usage / 1024) + " KB");
+                }
+            }
+        });
+    }
+
+    private void requestServiceWorkerAction(String key, String message) {
+        if (!isAuthenticated) {
+            Toast.makeText(this, "Please authenticate first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // MainActivity runs it in the page as soon as this is committed
+        configRepository.edit().putLong(key, System.currentTimeMillis()).commit();
+
+        Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+        finish();
     }
 
     private void saveUrl() {
@@ -152,10 +218,8 @@ public class SettingsActivity extends AppCompatActivity {
             return;
         }
 
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(PREF_URL, url);
-        editor.apply();
+        // MainActivity is notified and reloads as soon as this is committed
+        configRepository.edit().putString(KioskConfig.KEY_URL, url).commit();
 
         Toast.makeText(this, "URL saved! Returning to app...", 
                 Toast.LENGTH_SHORT).show();
@@ -189,11 +253,7 @@ public class SettingsActivity extends AppCompatActivity {
         }
 
         // Save new password
-        String newPasswordHash = hashPassword(newPassword);
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(PREF_PASSWORD_HASH, newPasswordHash);
-        editor.apply();
+        configRepository.edit().setPassword(newPassword).commit();
 
         // Clear password fields
         newPasswordEditText.setText("");
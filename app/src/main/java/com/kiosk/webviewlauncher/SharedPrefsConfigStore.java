@@ -0,0 +1,44 @@
+package com.kiosk.webviewlauncher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Stores the kiosk configuration in the existing "KioskPrefs" file. */
+public class SharedPrefsConfigStore implements ConfigStore {
+
+    private static final String PREFS_NAME = "KioskPrefs";
+
+    private final SharedPreferences prefs;
+
+    public SharedPrefsConfigStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public Map<String, String> readAll() {
+        Map<String, String> values = new HashMap<String, String>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void write(Map<String, String> changes) {
+        // One editor for the whole batch; apply() persists off the calling thread
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                editor.remove(change.getKey());
+            } else {
+                editor.putString(change.getKey(), change.getValue());
+            }
+        }
+        editor.apply();
+    }
+}
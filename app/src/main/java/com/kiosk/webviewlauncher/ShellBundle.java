@@ -0,0 +1,300 @@
+package com.kiosk.webviewlauncher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * One version of the app shell: a ZIP file mapped into memory with an index
+ * of its files built once when it is opened. The index holds each file's
+ * offset, content type, ETag and response headers, so serving a file is a
+ * map lookup plus a view of the mapped bytes. Files stored without
+ * compression ({@code zip -0}) are read straight from the mapping; deflated
+ * ones are inflated on the fly. Immutable and safe to share between threads.
+ * Pure Java.
+ */
+public final class ShellBundle {
+
+    /** Entry whose text, if present, names the bundle's version. */
+    public static final String VERSION_FILE = "version.txt";
+    public static final String INDEX_FILE = "index.html";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int END_OF_CENTRAL_DIR = 0x06054b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int END_RECORD_BYTES = 22;
+    private static final int MAX_COMMENT_BYTES = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final Map<String, String> MIME_TYPES = new HashMap<String, String>();
+
+    static {
+        MIME_TYPES.put("html", "text/html");
+        MIME_TYPES.put("htm", "text/html");
+        MIME_TYPES.put("js", "text/javascript");
+        MIME_TYPES.put("mjs", "text/javascript");
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("map", "application/json");
+        MIME_TYPES.put("webmanifest", "application/manifest+json");
+        MIME_TYPES.put("txt", "text/plain");
+        MIME_TYPES.put("xml", "text/xml");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("gif", "image/gif");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+        MIME_TYPES.put("ttf", "font/ttf");
+        MIME_TYPES.put("otf", "font/otf");
+        MIME_TYPES.put("wasm", "application/wasm");
+        MIME_TYPES.put("mp4", "video/mp4");
+        MIME_TYPES.put("webm", "video/webm");
+        MIME_TYPES.put("mp3", "audio/mpeg");
+    }
+
+    public static final class Entry {
+        public final String path;
+        public final String mimeType;
+        /** Charset for text types, null otherwise. */
+        public final String encoding;
+        public final String etag;
+        public final long size;
+        /** Headers sent with the file; shared by every response, never modified. */
+        public final Map<String, String> headers;
+        final int dataOffset;
+        final int compressedSize;
+        final boolean deflated;
+
+        Entry(String path, long crc, long size, int dataOffset, int compressedSize,
+                boolean deflated) {
+            this.path = path;
+            this.mimeType = mimeType(path);
+            this.encoding = mimeType.startsWith("text/") || mimeType.endsWith("json")
+                    || mimeType.endsWith("+xml") ? "utf-8" : null;
+            // From the content, so files unchanged between versions keep their ETag
+            this.etag = "\"" + Long.toHexString(crc) + "-" + Long.toHexString(size) + "\"";
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+            this.deflated = deflated;
+            Map<String, String> h = new LinkedHashMap<String, String>();
+            h.put("ETag", etag);
+            h.put("Content-Length", String.valueOf(size));
+            // The bundle is swapped as a whole; the page must not mix versions from its cache
+            h.put("Cache-Control", "no-cache");
+            this.headers = Collections.unmodifiableMap(h);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+    private final String version;
+    private final String sha256;
+
+    private ShellBundle(ByteBuffer buffer, Map<String, Entry> entries, String version,
+            String sha256) {
+        this.buffer = buffer;
+        this.entries = entries;
+        this.version = version;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Indexes a mapped ZIP. {@code fallbackVersion} is used when the bundle
+     * has no {@link #VERSION_FILE}; {@code sha256} identifies the file, or null.
+     */
+    public static ShellBundle open(ByteBuffer mapped, String fallbackVersion, String sha256)
+            throws IOException {
+        ByteBuffer buffer = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = buffer.limit();
+        int end = -1;
+        int lowest = Math.max(0, size - END_RECORD_BYTES - MAX_COMMENT_BYTES);
+        for (int i = size - END_RECORD_BYTES; i >= lowest; i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIR) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("Not a ZIP file");
+        }
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (directoryOffset >= size) {
+            throw new IOException("ZIP64 bundles are not supported");
+        }
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 2);
+        int p = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (p + 46 > size || buffer.getInt(p) != CENTRAL_HEADER) {
+                throw new IOException("Corrupt ZIP directory");
+            }
+            int flags = buffer.getShort(p + 8) & 0xFFFF;
+            int method = buffer.getShort(p + 10) & 0xFFFF;
+            long crc = buffer.getInt(p + 16) & 0xFFFFFFFFL;
+            long compressed = buffer.getInt(p + 20) & 0xFFFFFFFFL;
+            long uncompressed = buffer.getInt(p + 24) & 0xFFFFFFFFL;
+            int nameLength = buffer.getShort(p + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(p + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(p + 32) & 0xFFFF;
+            long localOffset = buffer.getInt(p + 42) & 0xFFFFFFFFL;
+            String name = string(buffer, p + 46, nameLength);
+            p += 46 + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/") || (flags & 1) != 0
+                    || (method != STORED && method != DEFLATED)) {
+                // Directories, encrypted entries and unknown compression are skipped
+                continue;
+            }
+            if (localOffset + 30 > size || buffer.getInt((int) localOffset) != LOCAL_HEADER) {
+                throw new IOException("Corrupt ZIP entry " + name);
+            }
+            int local = (int) localOffset;
+            long data = localOffset + 30 + (buffer.getShort(local + 26) & 0xFFFF)
+                    + (buffer.getShort(local + 28) & 0xFFFF);
+            if (data + compressed > size) {
+                throw new IOException("Truncated ZIP entry " + name);
+            }
+            entries.put(name, new Entry(name, crc, uncompressed, (int) data, (int) compressed,
+                    method == DEFLATED));
+        }
+        if (!entries.containsKey(INDEX_FILE)) {
+            throw new IOException("Bundle has no " + INDEX_FILE);
+        }
+
+        ShellBundle bundle = new ShellBundle(buffer, entries, fallbackVersion, sha256);
+        Entry versionEntry = entries.get(VERSION_FILE);
+        if (versionEntry == null) {
+            return bundle;
+        }
+        String version = new String(readFully(bundle.open(versionEntry), versionEntry.size),
+                UTF_8).trim();
+        return version.isEmpty() ? bundle
+                : new ShellBundle(buffer, entries, version, sha256);
+    }
+
+    /** The file for a request path relative to the shell root; directories get index.html. */
+    public Entry find(String path) {
+        if (path.isEmpty() || path.endsWith("/")) {
+            path = path + INDEX_FILE;
+        }
+        return entries.get(path);
+    }
+
+    /** Streams an entry's bytes; stored entries are read straight from the mapping. */
+    public InputStream open(Entry entry) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(entry.dataOffset + entry.compressedSize);
+        slice.position(entry.dataOffset);
+        InputStream raw = new ByteBufferInputStream(slice.slice());
+        if (!entry.deflated) {
+            return raw;
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /** SHA-256 of the bundle file, or null for the one inside the APK. */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public int getFileCount() {
+        return entries.size();
+    }
+
+    public int getSizeBytes() {
+        return buffer.limit();
+    }
+
+    static String mimeType(String path) {
+        int dot = path.lastIndexOf('.');
+        String type = dot >= 0
+                ? MIME_TYPES.get(path.substring(dot + 1).toLowerCase(Locale.US)) : null;
+        return type != null ? type : "application/octet-stream";
+    }
+
+    private static String string(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        try {
+            byte[] bytes = new byte[(int) Math.min(size, 4096)];
+            int read = 0;
+            int n;
+            while (read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) > 0) {
+                read += n;
+            }
+            return read == bytes.length ? bytes : Arrays.copyOf(bytes, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Reads a buffer's remaining bytes without copying them anywhere else first. */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(target, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
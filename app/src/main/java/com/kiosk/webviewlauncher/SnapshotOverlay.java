@@ -0,0 +1,365 @@
+package com.kiosk.webviewlauncher;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.PixelCopy;
+import android.view.View;
+import android.view.Window;
+import android.webkit.WebView;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Covers the white gap of a cold start or reload with the last rendered
+ * frame. While the kiosk is idle, the page is copied at half resolution with
+ * {@link PixelCopy}, which reads the window surface on the render thread, and
+ * saved as WebP from a background thread. On the next start that file is shown
+ * in an overlay until the page commits its first visible frame. Reloads are
+ * covered with a fresh copy of the current frame. Copies need API 26; older
+ * devices just skip the overlay. Main thread unless noted.
+ */
+public class SnapshotOverlay {
+
+    public interface Host {
+        WebView getWebView();
+
+        long getLastInteractionMs();
+
+        /** True while a popup or fullscreen video covers the page. */
+        boolean isCovered();
+    }
+
+    // Config key; 0 disables periodic captures
+    public static final String KEY_INTERVAL_S = "snapshot_interval_s";
+
+    private static final String TAG = "KioskSnapshot";
+    private static final long DEFAULT_INTERVAL_S = 300;
+    private static final long MIN_INTERVAL_S = 30;
+    private static final int DOWNSCALE = 2;
+    private static final int WEBP_QUALITY = 60;
+    // Let late images and fonts land before capturing a freshly loaded page
+    private static final long SETTLE_MS = 5000;
+    private static final long IDLE_BEFORE_CAPTURE_MS = 3000;
+    // A page that never commits must not stay hidden behind a stale frame
+    private static final long MAX_SHOW_MS = 30 * 1000;
+    private static final long FADE_MS = 150;
+
+    private interface CopyCallback {
+        /** {@code bitmap} is null if the copy failed. */
+        void onCopied(Bitmap bitmap);
+    }
+
+    private final File file;
+    private final Window window;
+    private final Handler mainHandler;
+    private final Host host;
+    private final HandlerThread worker;
+    private final Handler workerHandler;
+    private volatile Bitmap saved;
+    // Set by the worker once saved holds whatever the file decoded to
+    private volatile boolean decoded = false;
+
+    private ImageView overlay;
+    private Bitmap shownBitmap;
+    private boolean showing = false;
+    private boolean waitingForSaved = false;
+    private boolean pageVisible = false;
+    private boolean running = false;
+    private long intervalMs = DEFAULT_INTERVAL_S * 1000;
+
+    // Stats
+    private long shows = 0;
+    private long maxRequestUs = 0;
+    private volatile long captures = 0;
+    private volatile long lastCaptureBytes = 0;
+
+    private final Runnable captureTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!running || intervalMs <= 0) {
+                return;
+            }
+            captureIfIdle();
+            mainHandler.postDelayed(this, intervalMs);
+        }
+    };
+
+    private final Runnable showDecoded = new Runnable() {
+        @Override
+        public void run() {
+            if (!waitingForSaved || !decoded) {
+                return;
+            }
+            waitingForSaved = false;
+            Bitmap bitmap = saved;
+            saved = null;
+            if (bitmap == null) {
+                return;
+            }
+            if (pageVisible || showing) {
+                bitmap.recycle();
+            } else {
+                show(bitmap);
+            }
+        }
+    };
+
+    private final Runnable hideTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Page did not become visible in time, removing snapshot");
+            hide();
+        }
+    };
+
+    private final Runnable releaseOverlay = new Runnable() {
+        @Override
+        public void run() {
+            if (showing) {
+                return; // Shown again during the fade
+            }
+            overlay.setVisibility(View.GONE);
+            overlay.setImageBitmap(null);
+            if (shownBitmap != null) {
+                shownBitmap.recycle();
+                shownBitmap = null;
+            }
+        }
+    };
+
+    /** Starts decoding the saved frame right away, before the layout is inflated. */
+    public SnapshotOverlay(File file, Window window, Handler mainHandler, Host host) {
+        this.file = file;
+        this.window = window;
+        this.mainHandler = mainHandler;
+        this.host = host;
+        this.worker = new HandlerThread("kiosk-snapshot", Process.THREAD_PRIORITY_BACKGROUND);
+        this.worker.start();
+        this.workerHandler = new Handler(worker.getLooper());
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (SnapshotOverlay.this.file.exists()) {
+                    saved = BitmapFactory.decodeFile(SnapshotOverlay.this.file.getPath());
+                }
+                decoded = true;
+                SnapshotOverlay.this.mainHandler.post(showDecoded);
+            }
+        });
+    }
+
+    public void applyConfig(KioskConfig config) {
+        long seconds = config.getLong(KEY_INTERVAL_S, DEFAULT_INTERVAL_S);
+        intervalMs = seconds <= 0 ? 0 : Math.max(MIN_INTERVAL_S, seconds) * 1000;
+        mainHandler.removeCallbacks(captureTick);
+        if (running && intervalMs > 0) {
+            mainHandler.postDelayed(captureTick, intervalMs);
+        }
+    }
+
+    /**
+     * Shows the saved frame in {@code overlay} once it has decoded, unless the
+     * page is visible by then. Never waits for the decode.
+     */
+    public void showSaved(ImageView overlay) {
+        this.overlay = overlay;
+        waitingForSaved = true;
+        // Already decoded; otherwise the worker's post shows it when ready
+        showDecoded.run();
+    }
+
+    /** Keeps the overlay above a WebView that was just brought to the front. */
+    public void bringToFront() {
+        if (overlay != null) {
+            overlay.bringToFront();
+        }
+    }
+
+    /** Covers the page with its current frame, then runs {@code action} (a reload). */
+    public void coverAndRun(final Runnable action) {
+        boolean started = copy(host.getWebView(), mainHandler, new CopyCallback() {
+            @Override
+            public void onCopied(Bitmap bitmap) {
+                if (bitmap != null) {
+                    show(bitmap);
+                }
+                action.run();
+            }
+        });
+        if (!started) {
+            action.run();
+        }
+    }
+
+    /** Removes a cover put up by {@link #coverAndRun} once something else is on screen. */
+    public void uncover() {
+        hide();
+    }
+
+    /** The main WebView started a new page; it is not worth capturing until visible. */
+    public void onPageStarted() {
+        pageVisible = false;
+    }
+
+    /** The main WebView drew its first frame of the new page. */
+    public void onPageVisible() {
+        pageVisible = true;
+        hide();
+        if (running) {
+            mainHandler.removeCallbacks(captureTick);
+            mainHandler.postDelayed(captureTick, SETTLE_MS);
+        }
+    }
+
+    /** The saved frame belongs to a page the kiosk no longer shows. */
+    public void invalidate() {
+        workerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    public void start() {
+        running = true;
+        mainHandler.removeCallbacks(captureTick);
+        if (intervalMs > 0) {
+            mainHandler.postDelayed(captureTick, SETTLE_MS);
+        }
+    }
+
+    public void stop() {
+        running = false;
+        mainHandler.removeCallbacks(captureTick);
+    }
+
+    public void release() {
+        stop();
+        mainHandler.removeCallbacks(hideTimeout);
+        mainHandler.removeCallbacks(showDecoded);
+        worker.quitSafely();
+    }
+
+    public long getCaptureCount() {
+        return captures;
+    }
+
+    public long getLastCaptureBytes() {
+        return lastCaptureBytes;
+    }
+
+    public String statsSummary() {
+        return "captures=" + captures + " lastSize=" + (lastCaptureBytes / 1024) + "KB"
+                + " shown=" + shows + " maxRequest=" + maxRequestUs + "us";
+    }
+
+    private void captureIfIdle() {
+        if (showing || !pageVisible || host.isCovered()
+                || SystemClock.uptimeMillis() - host.getLastInteractionMs()
+                        < IDLE_BEFORE_CAPTURE_MS) {
+            return;
+        }
+        copy(host.getWebView(), workerHandler, new CopyCallback() {
+            @Override
+            public void onCopied(Bitmap bitmap) {
+                if (bitmap != null) {
+                    save(bitmap);
+                }
+            }
+        });
+    }
+
+    // Returns false if no copy was started; the callback then never runs
+    private boolean copy(View view, Handler callbackHandler, final CopyCallback callback) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || view == null
+                || !view.isLaidOut() || view.getWidth() <= 0 || view.getHeight() <= 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        int[] location = new int[2];
+        view.getLocationInWindow(location);
+        Rect source = new Rect(location[0], location[1],
+                location[0] + view.getWidth(), location[1] + view.getHeight());
+        final Bitmap bitmap = Bitmap.createBitmap(Math.max(1, view.getWidth() / DOWNSCALE),
+                Math.max(1, view.getHeight() / DOWNSCALE), Bitmap.Config.ARGB_8888);
+        try {
+            PixelCopy.request(window, source, bitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+                @Override
+                public void onPixelCopyFinished(int result) {
+                    if (result == PixelCopy.SUCCESS) {
+                        callback.onCopied(bitmap);
+                    } else {
+                        bitmap.recycle();
+                        callback.onCopied(null);
+                    }
+                }
+            }, callbackHandler);
+        } catch (IllegalArgumentException e) {
+            // Window surface not valid (e.g. mid-configuration change)
+            bitmap.recycle();
+            return false;
+        }
+        maxRequestUs = Math.max(maxRequestUs, (System.nanoTime() - start) / 1000);
+        return true;
+    }
+
+    // Worker thread
+    private void save(Bitmap bitmap) {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(ImageDownscaler.webpFormat(), WEBP_QUALITY, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+            captures++;
+            lastCaptureBytes = file.length();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save snapshot: " + e.getMessage());
+            tmp.delete();
+        } finally {
+            ResponseCache.closeQuietly(out);
+            bitmap.recycle();
+        }
+    }
+
+    private void show(Bitmap bitmap) {
+        mainHandler.removeCallbacks(hideTimeout);
+        overlay.animate().cancel();
+        if (shownBitmap != null && shownBitmap != bitmap) {
+            overlay.setImageBitmap(null);
+            shownBitmap.recycle();
+        }
+        shownBitmap = bitmap;
+        overlay.setImageBitmap(bitmap);
+        overlay.setAlpha(1f);
+        overlay.setVisibility(View.VISIBLE);
+        showing = true;
+        shows++;
+        mainHandler.postDelayed(hideTimeout, MAX_SHOW_MS);
+    }
+
+    private void hide() {
+        if (!showing) {
+            return;
+        }
+        showing = false;
+        mainHandler.removeCallbacks(hideTimeout);
+        overlay.animate().alpha(0f).setDuration(FADE_MS).withEndAction(releaseOverlay);
+    }
+}
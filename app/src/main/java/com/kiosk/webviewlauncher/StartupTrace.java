@@ -0,0 +1,74 @@
+package com.kiosk.webviewlauncher;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Cold-start phase markers. Each phase shows up as a systrace/Perfetto
+ * section and is also kept as a timestamp relative to process start, so the
+ * time to first visible page after a reboot can be read straight from logcat.
+ */
+public final class StartupTrace {
+
+    private static final String TAG = "KioskStartup";
+
+    private static final long processStartMs = Process.getStartUptimeMillis();
+    private static final StringBuilder timeline = new StringBuilder();
+    private static boolean reported = false;
+
+    private StartupTrace() {
+    }
+
+    /** Opens a trace section on the calling thread; pass the result to {@link #end}. */
+    public static long begin(String phase) {
+        Trace.beginSection(phase);
+        return SystemClock.uptimeMillis();
+    }
+
+    public static void end(String phase, long startMs) {
+        Trace.endSection();
+        long now = SystemClock.uptimeMillis();
+        record(phase, startMs, now - startMs);
+    }
+
+    /** Records an instant event, e.g. a callback arriving. */
+    public static void mark(String event) {
+        long now = SystemClock.uptimeMillis();
+        record(event, now, 0);
+    }
+
+    /** Marks the first visible frame of the page and logs the whole timeline once. */
+    public static void reportFirstVisible(String url) {
+        mark("first_visible");
+        String summary;
+        synchronized (timeline) {
+            if (reported) {
+                return;
+            }
+            reported = true;
+            summary = timeline.toString();
+        }
+        Log.i(TAG, "Time to first visible page (" + url + "): "
+                + (SystemClock.uptimeMillis() - processStartMs) + "ms\n" + summary);
+    }
+
+    public static long sinceProcessStartMs() {
+        return SystemClock.uptimeMillis() - processStartMs;
+    }
+
+    private static void record(String name, long startMs, long durationMs) {
+        synchronized (timeline) {
+            if (reported) {
+                return;
+            }
+            timeline.append("  +").append(startMs - processStartMs).append("ms ")
+                    .append(name);
+            if (durationMs > 0) {
+                timeline.append(" (").append(durationMs).append("ms)");
+            }
+            timeline.append(" [").append(Thread.currentThread().getName()).append("]\n");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.kiosk.webviewlauncher;
+
+/**
+ * N single-finger taps within a time window, e.g. the hidden 11-tap
+ * settings gesture.
+ */
+public final class TapSequenceRecognizer implements GestureRecognizer {
+
+    private final int requiredTaps;
+    private final long timeoutMs;
+
+    private int tapCount = 0;
+    private long firstTapMs = 0;
+
+    public TapSequenceRecognizer(int requiredTaps, long timeoutMs) {
+        this.requiredTaps = requiredTaps;
+        this.timeoutMs = timeoutMs;
+    }
+
+    @Override
+    public boolean onTouch(TouchSample sample) {
+        if (sample.action != TouchSample.ACTION_DOWN || sample.pointerCount != 1) {
+            return false;
+        }
+
+        // Reset if timeout exceeded
+        if (tapCount > 0 && (sample.timeMs - firstTapMs) > timeoutMs) {
+            tapCount = 0;
+        }
+        if (tapCount == 0) {
+            firstTapMs = sample.timeMs;
+        }
+
+        tapCount++;
+        if (tapCount >= requiredTaps) {
+            tapCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        tapCount = 0;
+    }
+}
@@ -0,0 +1,45 @@
+package com.kiosk.webviewlauncher;
+
+/**
+ * Reusable, pre-sized snapshot of one touch event, filled in place by the
+ * caller so gesture recognition never allocates. Action constants have the
+ * same values as MotionEvent's masked actions.
+ */
+public final class TouchSample {
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_POINTER_DOWN = 5;
+    public static final int ACTION_POINTER_UP = 6;
+
+    public static final int MAX_POINTERS = 10;
+
+    public int action;
+    public int pointerCount;
+    public long timeMs;
+    public final float[] x = new float[MAX_POINTERS];
+    public final float[] y = new float[MAX_POINTERS];
+
+    /** Resets the sample for a new event; pointer coordinates are set with {@link #setPointer}. */
+    public void set(int action, int pointerCount, long timeMs) {
+        this.action = action;
+        this.pointerCount = Math.min(pointerCount, MAX_POINTERS);
+        this.timeMs = timeMs;
+    }
+
+    public void setPointer(int index, float px, float py) {
+        x[index] = px;
+        y[index] = py;
+    }
+
+    public float averageY(int maxPointers) {
+        int count = Math.min(pointerCount, maxPointers);
+        float sum = 0f;
+        for (int i = 0; i < count; i++) {
+            sum += y[i];
+        }
+        return sum / count;
+    }
+}
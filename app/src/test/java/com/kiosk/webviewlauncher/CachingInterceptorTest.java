@@ -0,0 +1,240 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Coalescing and streaming of {@link CachingInterceptor} against a local HTTP stub. */
+public class CachingInterceptorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHUNK = 16 * 1024;
+    private static final String BODY = repeat('a', CHUNK) + repeat('b', CHUNK);
+    private static final long WAIT_S = 5;
+
+    /** Holds each response at the headers and again after the first chunk until told. */
+    static final class StubHandler implements HttpHandler {
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch sendHeaders = new CountDownLatch(1);
+        final CountDownLatch sendRest = new CountDownLatch(1);
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            arrived.countDown();
+            try {
+                await(sendHeaders);
+                exchange.getResponseHeaders().set("Content-Type", "text/css");
+                exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(BODY.substring(0, CHUNK).getBytes(UTF_8));
+                out.flush();
+                await(sendRest);
+                out.write(BODY.substring(CHUNK).getBytes(UTF_8));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void await(CountDownLatch latch) throws IOException {
+            try {
+                if (!latch.await(WAIT_S, TimeUnit.SECONDS)) {
+                    throw new IOException("test did not release the response");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /** Never has cookies for the stub, like a fresh kiosk profile. */
+    static final class NoCookies implements CachingInterceptor.Cookies {
+        @Override
+        public String get(String url) {
+            return null;
+        }
+
+        @Override
+        public void set(String url, String setCookie) {
+        }
+    }
+
+    private File dir;
+    private ResponseCache cache;
+    private CachingInterceptor interceptor;
+    private HttpServer server;
+    private StubHandler stub;
+    private ExecutorService serverThreads;
+    private ExecutorService threads;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("kiosk-cache").toFile();
+        cache = new ResponseCache(dir, 4 * 1024 * 1024);
+        cache.load();
+        interceptor = new CachingInterceptor(cache, new NoCookies());
+        stub = new StubHandler();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/style.css", stub);
+        // Each request gets its own thread, so a held response does not block the next one
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        threads = Executors.newCachedThreadPool();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/style.css";
+    }
+
+    @After
+    public void tearDown() {
+        stub.sendHeaders.countDown();
+        stub.sendRest.countDown();
+        server.stop(0);
+        serverThreads.shutdownNow();
+        threads.shutdownNow();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void identicalRequestsInFlightMakeOneUpstreamFetch() throws Exception {
+        Future<CachingInterceptor.Loaded> leader = threads.submit(load());
+        assertTrue(stub.arrived.await(WAIT_S, TimeUnit.SECONDS));
+        Future<String> follower = threads.submit(loadAndRead());
+        // The follower finds the leader's fetch and waits for its body
+        Thread.sleep(200);
+        stub.sendHeaders.countDown();
+        stub.sendRest.countDown();
+
+        assertEquals(BODY, read(leader.get(WAIT_S, TimeUnit.SECONDS).body));
+        assertEquals(BODY, follower.get(WAIT_S, TimeUnit.SECONDS));
+        assertEquals(1, stub.requests.get());
+        assertEquals(1, interceptor.getCoalescedCount());
+    }
+
+    @Test
+    public void followerFetchesItselfWhenTheLeaderAborts() throws Exception {
+        Future<CachingInterceptor.Loaded> leader = threads.submit(load());
+        assertTrue(stub.arrived.await(WAIT_S, TimeUnit.SECONDS));
+        Future<String> follower = threads.submit(loadAndRead());
+        Thread.sleep(200);
+        stub.sendHeaders.countDown();
+
+        // WebView gives up on the leader's body half way
+        InputStream body = leader.get(WAIT_S, TimeUnit.SECONDS).body;
+        assertEquals(BODY.substring(0, CHUNK), readExactly(body, CHUNK));
+        body.close();
+        stub.sendRest.countDown();
+
+        // Released well before the leader wait would time out
+        assertEquals(BODY, follower.get(WAIT_S, TimeUnit.SECONDS));
+        assertEquals(2, stub.requests.get());
+        assertEquals(0, interceptor.getCoalescedCount());
+    }
+
+    @Test
+    public void bodyStreamsBeforeTheServerHasSentIt() throws Exception {
+        stub.sendHeaders.countDown();
+        // Would block until sendRest if the body were buffered first
+        CachingInterceptor.Loaded loaded = threads.submit(load()).get(WAIT_S, TimeUnit.SECONDS);
+        assertEquals(200, loaded.status);
+        assertEquals("text/css", loaded.mimeType);
+        assertEquals(BODY.substring(0, CHUNK), readExactly(loaded.body, CHUNK));
+        assertNull(cache.get(url));
+
+        stub.sendRest.countDown();
+        assertEquals(BODY.substring(CHUNK), read(loaded.body));
+        ResponseCache.Snapshot cached = cache.open(url);
+        assertNotNull(cached);
+        assertEquals(BODY, read(cached.body));
+    }
+
+    private Callable<CachingInterceptor.Loaded> load() {
+        return new Callable<CachingInterceptor.Loaded>() {
+            @Override
+            public CachingInterceptor.Loaded call() {
+                return interceptor.load(new HashMap<String, String>(), url, false);
+            }
+        };
+    }
+
+    private Callable<String> loadAndRead() {
+        return new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                Map<String, String> headers = new HashMap<String, String>();
+                CachingInterceptor.Loaded loaded = interceptor.load(headers, url, false);
+                return loaded == null ? null : read(loaded.body);
+            }
+        };
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readExactly(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n == -1) {
+                throw new IOException("body ended after " + total + " bytes");
+            }
+            total += n;
+        }
+        return new String(buffer, UTF_8);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/** Snapshot and listener behaviour of {@link ConfigRepository} over an in-memory store. */
+public class ConfigRepositoryTest {
+
+    /** Keeps values in a map and records every write. */
+    static final class MemoryStore implements ConfigStore {
+        final Map<String, String> values = new HashMap<String, String>();
+        final List<Map<String, String>> writes = new ArrayList<Map<String, String>>();
+
+        @Override
+        public Map<String, String> readAll() {
+            return new HashMap<String, String>(values);
+        }
+
+        @Override
+        public void write(Map<String, String> changes) {
+            writes.add(new HashMap<String, String>(changes));
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                if (change.getValue() == null) {
+                    values.remove(change.getKey());
+                } else {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+        }
+    }
+
+    /** Holds listener calls until {@link #runAll()}, like a posting main-thread executor. */
+    static final class QueuedExecutor implements Executor {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> run = new ArrayList<Runnable>(queued);
+            queued.clear();
+            for (Runnable command : run) {
+                command.run();
+            }
+        }
+    }
+
+    /** Records each change it is told about. */
+    static final class RecordingListener implements ConfigRepository.Listener {
+        final List<KioskConfig[]> calls = new ArrayList<KioskConfig[]>();
+
+        @Override
+        public void onConfigChanged(KioskConfig previous, KioskConfig current) {
+            calls.add(new KioskConfig[] {previous, current});
+        }
+    }
+
+    private MemoryStore store;
+    private QueuedExecutor executor;
+    private ConfigRepository repository;
+
+    @Before
+    public void setUp() {
+        store = new MemoryStore();
+        executor = new QueuedExecutor();
+        repository = new ConfigRepository(store, executor);
+    }
+
+    @Test
+    public void firstLoadStoresTheDefaultPassword() {
+        assertTrue(repository.verifyPassword("12345"));
+        assertFalse(repository.verifyPassword("wrong"));
+        assertEquals(ConfigRepository.hashPassword("12345"),
+                store.values.get(KioskConfig.KEY_PASSWORD_HASH));
+    }
+
+    @Test
+    public void existingValuesAreReadOnceAtStartup() {
+        MemoryStore existing = new MemoryStore();
+        existing.values.put(KioskConfig.KEY_URL, "kiosk.example");
+        existing.values.put(KioskConfig.KEY_PASSWORD_HASH, ConfigRepository.hashPassword("pw"));
+        ConfigRepository loaded = new ConfigRepository(existing, executor);
+
+        assertEquals("https://kiosk.example", loaded.get().getUrl());
+        assertTrue(loaded.verifyPassword("pw"));
+        assertEquals(0, existing.writes.size());
+    }
+
+    @Test
+    public void commitSwapsInANewSnapshotAndLeavesTheOldOneAlone() {
+        KioskConfig before = repository.get();
+        assertTrue(repository.edit().putString(KioskConfig.KEY_URL, "https://a.example")
+                .putLong("metrics_port", 9100).putBoolean("flag", true).commit());
+
+        KioskConfig after = repository.get();
+        assertEquals(KioskConfig.DEFAULT_URL, before.getUrl());
+        assertEquals(-1, before.getLong("metrics_port", -1));
+        assertEquals("https://a.example", after.getUrl());
+        assertEquals(9100, after.getLong("metrics_port", -1));
+        assertTrue(after.getBoolean("flag", false));
+    }
+
+    @Test
+    public void unchangedCommitDoesNothing() {
+        repository.edit().putString(KioskConfig.KEY_URL, "https://a.example").commit();
+        RecordingListener listener = new RecordingListener();
+        repository.addListener(listener);
+        KioskConfig snapshot = repository.get();
+        int writes = store.writes.size();
+
+        assertFalse(repository.edit().putString(KioskConfig.KEY_URL, "https://a.example")
+                .remove("missing").commit());
+        executor.runAll();
+        assertSame(snapshot, repository.get());
+        assertEquals(writes, store.writes.size());
+        assertEquals(0, listener.calls.size());
+    }
+
+    @Test
+    public void storeGetsOnlyTheKeysThatChanged() {
+        repository.edit().putString("a", "1").putString("b", "2").commit();
+        repository.edit().putString("a", "1").putString("b", "3").remove("c").commit();
+
+        Map<String, String> last = store.writes.get(store.writes.size() - 1);
+        assertEquals(1, last.size());
+        assertEquals("3", last.get("b"));
+    }
+
+    @Test
+    public void removeDropsTheKeyFromSnapshotAndStore() {
+        repository.edit().putString("a", "1").commit();
+        assertTrue(repository.edit().remove("a").commit());
+
+        assertNull(repository.get().getString("a", null));
+        assertFalse(store.values.containsKey("a"));
+    }
+
+    @Test
+    public void listenersRunOnTheExecutorWithBothSnapshots() {
+        RecordingListener listener = new RecordingListener();
+        repository.addListener(listener);
+        repository.addListener(listener);
+        KioskConfig before = repository.get();
+        repository.edit().putString(KioskConfig.KEY_URL, "https://b.example").commit();
+
+        // Nothing runs on the committing thread
+        assertEquals(0, listener.calls.size());
+        executor.runAll();
+        assertEquals(1, listener.calls.size());
+        assertSame(before, listener.calls.get(0)[0]);
+        assertSame(repository.get(), listener.calls.get(0)[1]);
+    }
+
+    @Test
+    public void removedListenerIsNotCalled() {
+        RecordingListener listener = new RecordingListener();
+        repository.addListener(listener);
+        repository.removeListener(listener);
+        repository.edit().putString("a", "1").commit();
+        executor.runAll();
+        assertEquals(0, listener.calls.size());
+    }
+
+    @Test
+    public void setPasswordReplacesTheHash() {
+        repository.edit().setPassword("new-secret").commit();
+        assertTrue(repository.verifyPassword("new-secret"));
+        assertFalse(repository.verifyPassword("12345"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/** Bundle validation, signatures and conditional polls of {@link ConfigSync}. */
+public class ConfigSyncTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String BUNDLE =
+            "{\"config\":{\"web_url\":\"https://a.example\",\"metrics_port\":9100}}";
+
+    private ConfigRepositoryTest.MemoryStore store;
+    private ConfigRepository repository;
+    private ConfigSync sync;
+    private HttpServer server;
+    // Server thread writes, test thread reads after the poll returns
+    private final List<String> ifNoneMatch = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws IOException {
+        store = new ConfigRepositoryTest.MemoryStore();
+        repository = new ConfigRepository(store, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        sync = new ConfigSync(repository);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/bundle", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+                synchronized (ifNoneMatch) {
+                    ifNoneMatch.add(etag);
+                }
+                if ("\"v1\"".equals(etag)) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    byte[] body = BUNDLE.getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void bundleKeysAndValuesBecomeStrings() throws JSONException {
+        Map<String, String> changes = ConfigSync.parseBundle(
+                "{\"config\":{\"web_url\":\"kiosk.example\",\"metrics_port\":9100,"
+                        + "\"flag\":true,\"ratio\":0.5,\"gone\":null}}");
+        assertEquals("kiosk.example", changes.get("web_url"));
+        assertEquals("9100", changes.get("metrics_port"));
+        assertEquals("true", changes.get("flag"));
+        assertEquals("0.5", changes.get("ratio"));
+        assertTrue(changes.containsKey("gone"));
+        assertNull(changes.get("gone"));
+    }
+
+    @Test
+    public void bundleMayNotTouchLocallyControlledKeys() throws JSONException {
+        String[] keys = {KioskConfig.KEY_PASSWORD_HASH, ConfigSync.KEY_SYNC_URL,
+                ConfigSync.KEY_SYNC_SECRET, ConfigSync.KEY_SYNC_ETAG};
+        for (String key : keys) {
+            assertRejected("{\"config\":{\"" + key + "\":\"x\"}}");
+        }
+    }
+
+    @Test
+    public void bundleWithABadPageUrlIsRejected() throws JSONException {
+        assertRejected("{\"config\":{\"web_url\":\"\"}}");
+        assertRejected("{\"config\":{\"web_url\":\"https://\"}}");
+        assertRejected("{\"config\":{\"web_url\":null}}");
+        assertRejected("{\"config\":{\"web_url\":{\"nested\":1}}}");
+    }
+
+    @Test
+    public void signatureIsAcceptedWithOrWithoutPrefix() throws Exception {
+        byte[] body = BUNDLE.getBytes(UTF_8);
+        String hex = hmacHex("s3cret", body);
+        assertTrue(ConfigSync.verifySignature(body, "s3cret", hex));
+        assertTrue(ConfigSync.verifySignature(body, "s3cret", "sha256=" + hex));
+        assertTrue(ConfigSync.verifySignature(body, "s3cret", " " + hex.toUpperCase() + " "));
+        assertFalse(ConfigSync.verifySignature(body, "other", hex));
+        assertFalse(ConfigSync.verifySignature("{}".getBytes(UTF_8), "s3cret", hex));
+        assertFalse(ConfigSync.verifySignature(body, "s3cret", null));
+    }
+
+    @Test
+    public void plainHttpNeedsASecret() {
+        assertTrue(ConfigSync.isAllowedSyncUrl("https://fleet.example/c", ""));
+        assertTrue(ConfigSync.isAllowedSyncUrl("HTTPS://fleet.example/c", null));
+        assertFalse(ConfigSync.isAllowedSyncUrl("http://fleet.example/c", ""));
+        assertFalse(ConfigSync.isAllowedSyncUrl("http://fleet.example/c", null));
+        assertTrue(ConfigSync.isAllowedSyncUrl("http://fleet.example/c", "s3cret"));
+        assertFalse(ConfigSync.isAllowedSyncUrl("ftp://fleet.example/c", "s3cret"));
+    }
+
+    @Test
+    public void newBundleAndItsETagLandInOneCommit() throws Exception {
+        int writes = store.writes.size();
+        assertEquals(-1, sync.fetchAndApply(bundleUrl()));
+
+        assertEquals(writes + 1, store.writes.size());
+        Map<String, String> commit = store.writes.get(writes);
+        assertEquals("https://a.example", commit.get(KioskConfig.KEY_URL));
+        assertEquals("9100", commit.get("metrics_port"));
+        assertEquals("\"v1\"", commit.get(ConfigSync.KEY_SYNC_ETAG));
+        assertEquals(1, sync.getAppliedCount());
+        assertNull(ifNoneMatch.get(0));
+    }
+
+    @Test
+    public void notModifiedLeavesTheConfigAlone() throws Exception {
+        sync.fetchAndApply(bundleUrl());
+        KioskConfig snapshot = repository.get();
+        int writes = store.writes.size();
+
+        assertEquals(-1, sync.fetchAndApply(bundleUrl()));
+        assertSame(snapshot, repository.get());
+        assertEquals(writes, store.writes.size());
+        assertEquals(1, sync.getAppliedCount());
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+    }
+
+    private String bundleUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bundle";
+    }
+
+    private static void assertRejected(String json) throws JSONException {
+        try {
+            ConfigSync.parseBundle(json);
+            fail("accepted " + json);
+        } catch (IllegalArgumentException expected) {
+            // Nothing of the bundle is applied
+        }
+    }
+
+    private static String hmacHex(String secret, byte[] body) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256"));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : mac.doFinal(body)) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Plain-JVM benchmark of {@link DomainIndex} against a HashSet suffix walk,
+ * over a synthetic list the size of a large public blocklist. Run its main
+ * from the IDE or with the unit test classpath; arguments are the rule count
+ * and the lookup count.
+ */
+public final class DomainIndexBenchmark {
+
+    private static final String[] TLDS = {"com", "net", "org", "io", "de", "co.uk"};
+    private static final int ROUNDS = 5;
+
+    private DomainIndexBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int rules = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        Random random = new Random(42);
+
+        String[] listed = new String[rules];
+        for (int i = 0; i < rules; i++) {
+            listed[i] = randomDomain(random);
+        }
+        // A quarter of the lookups are subdomains of listed domains, like ad requests on a page
+        String[] hosts = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            hosts[i] = i % 4 == 0
+                    ? "cdn" + (i % 7) + "." + listed[random.nextInt(rules)]
+                    : "static." + randomDomain(random);
+        }
+
+        long start = System.nanoTime();
+        DomainIndex.Builder builder = new DomainIndex.Builder();
+        for (String domain : listed) {
+            builder.add(domain);
+        }
+        DomainIndex index = builder.build();
+        long buildMs = (System.nanoTime() - start) / 1000000;
+        Set<String> set = new HashSet<String>();
+        for (String domain : listed) {
+            set.add(domain);
+        }
+        System.out.println("rules=" + index.getRuleCount() + " build=" + buildMs + "ms index="
+                + (index.getSizeBytes() / 1024) + "KB");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            start = System.nanoTime();
+            int indexHits = 0;
+            for (String host : hosts) {
+                if (index.matches(host)) {
+                    indexHits++;
+                }
+            }
+            long indexNs = System.nanoTime() - start;
+            start = System.nanoTime();
+            int setHits = 0;
+            for (String host : hosts) {
+                if (setMatches(set, host)) {
+                    setHits++;
+                }
+            }
+            long setNs = System.nanoTime() - start;
+            if (indexHits != setHits) {
+                throw new IllegalStateException("Index found " + indexHits + ", set " + setHits);
+            }
+            System.out.println(String.format(Locale.US,
+                    "round %d: index %.1f ns/lookup, hash set %.1f ns/lookup, hits=%d",
+                    round, (double) indexNs / lookups, (double) setNs / lookups, indexHits));
+        }
+    }
+
+    // Baseline: one substring and hash lookup per parent domain
+    private static boolean setMatches(Set<String> set, String host) {
+        String lower = host.toLowerCase(Locale.US);
+        int from = 0;
+        while (true) {
+            if (set.contains(lower.substring(from))) {
+                return true;
+            }
+            int dot = lower.indexOf('.', from);
+            if (dot < 0) {
+                return false;
+            }
+            from = dot + 1;
+        }
+    }
+
+    private static String randomDomain(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 5 + random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.append('.').append(TLDS[random.nextInt(TLDS.length)]).toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/** Writes journals on the JVM and reads them back with {@link JournalDecoder}. */
+public class EventJournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("journal", ".bin").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void loggedEventsDecodeInOrder() throws IOException {
+        EventJournal journal = EventJournal.open(file, 16);
+        journal.log(EventJournal.APP_START, 42);
+        journal.log(EventJournal.PAGE_STARTED, 0, "https://kiosk.example/\u00e9");
+        journal.log(EventJournal.GESTURE, 7);
+
+        List<JournalDecoder.Event> events = JournalDecoder.read(file);
+        assertEquals(3, events.size());
+        assertEvent(events.get(0), 1, EventJournal.APP_START, 42, "");
+        assertEvent(events.get(1), 2, EventJournal.PAGE_STARTED, 0, "https://kiosk.example/?");
+        assertEvent(events.get(2), 3, EventJournal.GESTURE, 7, "");
+    }
+
+    @Test
+    public void reopeningContinuesAfterTheNewestEvent() throws IOException {
+        EventJournal first = EventJournal.open(file, 4);
+        for (int i = 1; i <= 6; i++) {
+            first.log(EventJournal.RELOAD, i);
+        }
+        EventJournal second = EventJournal.open(file, 4);
+        second.log(EventJournal.APP_START, 0);
+
+        // The ring keeps the newest four
+        List<JournalDecoder.Event> events = JournalDecoder.read(file);
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), 4, EventJournal.RELOAD, 4, "");
+        assertEvent(events.get(2), 6, EventJournal.RELOAD, 6, "");
+        assertEvent(events.get(3), 7, EventJournal.APP_START, 0, "");
+    }
+
+    @Test
+    public void eventsLoggedBeforeTheFileIsMappedMoveIntoIt() throws IOException {
+        EventJournal.open(file, 16).log(EventJournal.CRASH, 0, "previous run");
+
+        EventJournal journal = EventJournal.inMemory(2);
+        journal.log(EventJournal.APP_START, 1);
+        journal.log(EventJournal.CONFIG_CHANGED, 2, "config");
+        journal.log(EventJournal.ACTIVITY_RESUMED, 3);
+        journal.moveTo(file, 16);
+        journal.log(EventJournal.PAGE_VISIBLE, 4, "home");
+
+        // The startup ring held two slots, so the oldest of its events is gone
+        List<JournalDecoder.Event> events = JournalDecoder.read(file);
+        assertEquals(4, events.size());
+        assertEvent(events.get(0), 1, EventJournal.CRASH, 0, "previous run");
+        assertEvent(events.get(1), 3, EventJournal.CONFIG_CHANGED, 2, "config");
+        assertEvent(events.get(2), 4, EventJournal.ACTIVITY_RESUMED, 3, "");
+        assertEvent(events.get(3), 5, EventJournal.PAGE_VISIBLE, 4, "home");
+        assertEquals(5, journal.getWriteCount());
+    }
+
+    @Test
+    public void fileWithAnotherLayoutIsStartedOver() throws IOException {
+        EventJournal.open(file, 8).log(EventJournal.RELOAD, 1);
+        EventJournal journal = EventJournal.open(file, 16);
+        journal.log(EventJournal.APP_START, 2);
+
+        List<JournalDecoder.Event> events = JournalDecoder.read(file);
+        assertEquals(1, events.size());
+        assertEvent(events.get(0), 1, EventJournal.APP_START, 2, "");
+    }
+
+    private static void assertEvent(JournalDecoder.Event event, long seq, int type, long arg,
+            String text) {
+        assertEquals(seq, event.seq);
+        assertEquals(type, event.type);
+        assertEquals(arg, event.arg);
+        assertEquals(text, event.text);
+        assertEquals((int) Thread.currentThread().getId(), event.thread);
+    }
+}
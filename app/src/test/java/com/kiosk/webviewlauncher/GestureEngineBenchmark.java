@@ -0,0 +1,72 @@
+package com.kiosk.webviewlauncher;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Plain-JVM benchmark that replays a busy session's touch trace through the
+ * admin gestures and reports time and heap allocated per event. Run its main
+ * from the IDE or with the unit test classpath; the argument is the number
+ * of replays.
+ */
+public final class GestureEngineBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private GestureEngineBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int replays = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        TouchTrace trace = new TouchTrace();
+        for (int i = 0; i < 30; i++) {
+            trace.scroll(i % 2 == 0 ? -600 : 600, 400).tap(200, 300, 800);
+        }
+        trace.swipe(3, 200, 400, 300).idle(4000);
+        for (int i = 0; i < GestureEngineTest.TAPS; i++) {
+            trace.tap(50, 50, 120);
+        }
+
+        final int[] gestures = new int[1];
+        GestureEngine engine = GestureEngineTest.newEngine();
+        engine.setListener(new GestureEngine.Listener() {
+            @Override
+            public void onGesture(int gestureId) {
+                gestures[0]++;
+            }
+        });
+        TouchSample sample = new TouchSample();
+        long events = (long) trace.size() * replays;
+        long spanMs = trace.durationMs() + GestureEngineTest.TAP_TIMEOUT_MS;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            gestures[0] = 0;
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < replays; i++) {
+                trace.replay(engine, sample, i * spanMs);
+            }
+            long ns = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            if (gestures[0] != 2 * replays) {
+                throw new IllegalStateException("Expected " + (2 * replays) + " gestures, got "
+                        + gestures[0]);
+            }
+            System.out.println(String.format(Locale.US,
+                    "round %d: %d events, %.1f ns/event, %s allocated",
+                    round, events, (double) ns / events,
+                    allocated < 0 ? "unknown bytes" : allocated + " bytes"));
+        }
+    }
+
+    // Bytes allocated by this thread so far, or -1 on JVMs that do not report it
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
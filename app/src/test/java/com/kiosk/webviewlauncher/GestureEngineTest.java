@@ -0,0 +1,119 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Replays recorded touch traces through the admin gestures MainActivity registers. */
+public class GestureEngineTest {
+
+    // Same values as MainActivity
+    static final int SETTINGS_TAPS = 1;
+    static final int REFRESH_SWIPE = 2;
+    static final int TAPS = 11;
+    static final long TAP_TIMEOUT_MS = 3000;
+    static final float SWIPE_MIN_PX = 240;
+    static final long SWIPE_MAX_MS = 1000;
+
+    private final List<Integer> fired = new ArrayList<Integer>();
+    private final TouchSample sample = new TouchSample();
+    private GestureEngine engine;
+
+    static GestureEngine newEngine() {
+        GestureEngine engine = new GestureEngine();
+        engine.register(SETTINGS_TAPS, new TapSequenceRecognizer(TAPS, TAP_TIMEOUT_MS));
+        engine.register(REFRESH_SWIPE,
+                new MultiFingerSwipeRecognizer(3, SWIPE_MIN_PX, SWIPE_MAX_MS));
+        return engine;
+    }
+
+    @Before
+    public void setUp() {
+        engine = newEngine();
+        engine.setListener(new GestureEngine.Listener() {
+            @Override
+            public void onGesture(int gestureId) {
+                fired.add(gestureId);
+            }
+        });
+    }
+
+    @Test
+    public void elevenQuickTapsOpenSettingsOnce() {
+        replay(taps(TAPS, 150));
+        assertEquals(Arrays.asList(SETTINGS_TAPS), fired);
+    }
+
+    @Test
+    public void tapsSpreadPastTheTimeoutDoNotCount() {
+        replay(taps(TAPS, 400));
+        assertEquals(0, fired.size());
+    }
+
+    @Test
+    public void tapCountStartsOverAfterAPause() {
+        TouchTrace trace = taps(TAPS - 1, 150).idle(TAP_TIMEOUT_MS + 1);
+        for (int i = 0; i < TAPS; i++) {
+            trace.tap(100, 100, 150);
+        }
+        replay(trace);
+        assertEquals(Arrays.asList(SETTINGS_TAPS), fired);
+    }
+
+    @Test
+    public void threeFingerSwipeDownRefreshes() {
+        replay(new TouchTrace().swipe(3, 200, 400, 300));
+        assertEquals(Arrays.asList(REFRESH_SWIPE), fired);
+    }
+
+    @Test
+    public void swipesThatAreShortSlowUpwardOrTwoFingeredAreIgnored() {
+        replay(new TouchTrace()
+                .swipe(3, 200, SWIPE_MIN_PX / 2, 300)
+                .swipe(3, 200, 400, SWIPE_MAX_MS * 2)
+                .swipe(3, 800, -400, 300)
+                .swipe(2, 200, 400, 300));
+        assertEquals(0, fired.size());
+    }
+
+    @Test
+    public void scrollingAndTappingAroundTheGesturesStillFindsBoth() {
+        TouchTrace trace = new TouchTrace();
+        for (int i = 0; i < 20; i++) {
+            trace.scroll(i % 2 == 0 ? -600 : 600, 250).idle(500);
+        }
+        // The tap window runs from the first tap, so a scroll just before would eat into it
+        trace.swipe(3, 200, 400, 300).idle(TAP_TIMEOUT_MS);
+        for (int i = 0; i < TAPS; i++) {
+            trace.tap(50, 50, 120);
+        }
+        trace.scroll(-300, 200);
+        replay(trace);
+        assertEquals(Arrays.asList(REFRESH_SWIPE, SETTINGS_TAPS), fired);
+    }
+
+    @Test
+    public void resetDropsAPartialTapSequence() {
+        replay(taps(TAPS - 1, 100));
+        engine.reset();
+        replay(taps(1, 100));
+        assertEquals(0, fired.size());
+    }
+
+    private static TouchTrace taps(int count, long gapMs) {
+        TouchTrace trace = new TouchTrace();
+        for (int i = 0; i < count; i++) {
+            trace.tap(100, 100, gapMs);
+        }
+        return trace;
+    }
+
+    private void replay(TouchTrace trace) {
+        trace.replay(engine, sample, 0);
+    }
+}
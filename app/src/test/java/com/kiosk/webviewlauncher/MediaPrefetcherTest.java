@@ -0,0 +1,195 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Range parsing and interrupted downloads of {@link MediaPrefetcher}. */
+public class MediaPrefetcherTest {
+
+    private static final int SIZE = 256 * 1024;
+    private static final int CUT = 64 * 1024;
+
+    /** A range-capable origin that can drop the connection part way through a body. */
+    static final class RangeHandler implements HttpHandler {
+        volatile byte[] body = pattern(SIZE, 1);
+        volatile String etag = "\"v1\"";
+        // Bytes to send before dropping the next response; 0 sends it whole
+        volatile int cutAfter = 0;
+        final List<String> ranges = new ArrayList<String>();
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            synchronized (ranges) {
+                ranges.add(range);
+            }
+            byte[] body = this.body;
+            int start = 0;
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (range != null && etag.equals(ifRange)) {
+                start = Integer.parseInt(range.substring(6, range.indexOf('-')));
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+                exchange.sendResponseHeaders(206, body.length - start);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+            }
+            OutputStream out = exchange.getResponseBody();
+            int cut = cutAfter;
+            cutAfter = 0;
+            try {
+                out.write(body, start, cut > 0 ? cut : body.length - start);
+                out.flush();
+                exchange.close();
+            } catch (IOException e) {
+                // Closing short of the announced length drops the connection
+            }
+        }
+    }
+
+    private File dir;
+    private MediaPrefetcher prefetcher;
+    private HttpServer server;
+    private RangeHandler origin;
+    private String url;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("kiosk-media").toFile();
+        prefetcher = new MediaPrefetcher(dir);
+        origin = new RangeHandler();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/loop.mp4", origin);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/loop.mp4";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void explicitRangesAreClampedToTheFile() {
+        assertArrayEquals(new long[]{0, 99}, MediaPrefetcher.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{500, 999}, MediaPrefetcher.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[]{900, 999},
+                MediaPrefetcher.parseRange("bytes=900-5000", 1000));
+        assertArrayEquals(new long[]{10, 20}, MediaPrefetcher.parseRange(" Bytes=10-20 ", 1000));
+    }
+
+    @Test
+    public void suffixRangesCountFromTheEnd() {
+        assertArrayEquals(new long[]{900, 999}, MediaPrefetcher.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[]{0, 999}, MediaPrefetcher.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    public void rangesPastTheEndAreUnsatisfiable() {
+        assertEquals(0, MediaPrefetcher.parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, MediaPrefetcher.parseRange("bytes=2000-2100", 1000).length);
+        assertEquals(0, MediaPrefetcher.parseRange("bytes=-0", 1000).length);
+        assertSame(MediaPrefetcher.parseRange("bytes=1000-", 1000),
+                MediaPrefetcher.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    public void rangesWeDoNotServeFallBackToTheWholeFile() {
+        assertNull(MediaPrefetcher.parseRange("items=0-10", 1000));
+        assertNull(MediaPrefetcher.parseRange("bytes=0-10,20-30", 1000));
+        assertNull(MediaPrefetcher.parseRange("bytes=20-10", 1000));
+        assertNull(MediaPrefetcher.parseRange("bytes=abc-", 1000));
+        assertNull(MediaPrefetcher.parseRange("bytes=10", 1000));
+    }
+
+    @Test
+    public void interruptedFetchResumesWhereItStopped() throws Exception {
+        origin.cutAfter = CUT;
+        fetchExpectingFailure();
+
+        prefetcher.fetch(url, sha256(origin.body), null);
+
+        assertEquals(2, origin.ranges.size());
+        assertNull(origin.ranges.get(0));
+        assertEquals("bytes=" + CUT + "-", origin.ranges.get(1));
+        assertArrayEquals(origin.body, storedBody());
+        assertEquals(SIZE, prefetcher.getBytesFetched());
+        assertEquals(1, prefetcher.getFetchedCount());
+    }
+
+    @Test
+    public void changedFileIsFetchedWholeInsteadOfResumed() throws Exception {
+        origin.cutAfter = CUT;
+        fetchExpectingFailure();
+        origin.body = pattern(SIZE, 7);
+        origin.etag = "\"v2\"";
+
+        prefetcher.fetch(url, sha256(origin.body), null);
+
+        // Asked to resume, but If-Range no longer matches, so the server sent 200
+        assertEquals("bytes=" + CUT + "-", origin.ranges.get(1));
+        assertArrayEquals(origin.body, storedBody());
+        assertEquals(CUT + SIZE, prefetcher.getBytesFetched());
+        assertEquals(1, prefetcher.getFetchedCount());
+    }
+
+    private void fetchExpectingFailure() {
+        try {
+            prefetcher.fetch(url, null, null);
+            fail("fetch survived a dropped connection");
+        } catch (IOException expected) {
+            // The partial file and its validator stay for the next attempt
+        }
+        assertEquals(CUT, prefetcher.getBytesFetched());
+        assertEquals(0, prefetcher.getFetchedCount());
+    }
+
+    private byte[] storedBody() throws IOException {
+        return Files.readAllBytes(new File(dir, ResponseCache.keyFor(url) + ".media").toPath());
+    }
+
+    private static byte[] pattern(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.kiosk.webviewlauncher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+
+/** Talks HTTP to a {@link MetricsServer} on a free local port. */
+public class MetricsServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ConfigRepository repository;
+    private MetricsServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = new ConfigRepository(new ConfigRepositoryTest.MemoryStore(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        server = new MetricsServer(repository, new MetricsServer.Source() {
+            @Override
+            public void collect(MetricsServer.Exposition out) {
+                out.counter("kiosk_test_total", "Test counter.", 7);
+            }
+        });
+        ServerSocket probe = new ServerSocket(0);
+        port = probe.getLocalPort();
+        probe.close();
+        repository.edit().putLong(MetricsServer.KEY_PORT, port).commit();
+        server.applyConfig(repository.get());
+        awaitListening();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void healthNeedsNoCredentials() throws IOException {
+        String response = request("GET /health HTTP/1.1\r\nHost: kiosk\r\n\r\n");
+        assertEquals("HTTP/1.1 200 OK", statusLine(response));
+        assertTrue(response.endsWith("\r\n\r\nok\n"));
+    }
+
+    @Test
+    public void metricsWithoutCredentialsAsksForThem() throws IOException {
+        String response = request("GET /metrics HTTP/1.1\r\nHost: kiosk\r\n\r\n");
+        assertEquals("HTTP/1.1 401 Unauthorized", statusLine(response));
+        assertTrue(response.contains("WWW-Authenticate: Basic realm=\"kiosk\"\r\n"));
+    }
+
+    @Test
+    public void metricsWithTheWrongPasswordIsRefused() throws IOException {
+        String response = request(metricsRequest("scraper:wrong"));
+        assertEquals("HTTP/1.1 401 Unauthorized", statusLine(response));
+    }
+
+    @Test
+    public void metricsWithTheAdminPasswordAreServed() throws IOException {
+        String response = request(metricsRequest("scraper:12345"));
+        assertEquals("HTTP/1.1 200 OK", statusLine(response));
+        assertTrue(response.contains("\r\n\r\n# HELP kiosk_test_total Test counter.\n"));
+        assertTrue(response.endsWith("kiosk_test_total 7\n"));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        String response = request(metricsRequest("scraper:12345").replace("/metrics", "/admin"));
+        assertEquals("HTTP/1.1 404 Not Found", statusLine(response));
+    }
+
+    @Test
+    public void oversizedHeadersAreRejected() throws IOException {
+        // Exactly the server's 8 KB buffer, so it has read everything before it answers
+        StringBuilder head = new StringBuilder("GET /metrics HTTP/1.1\r\nX-Padding: ");
+        while (head.length() < 8 * 1024) {
+            head.append('x');
+        }
+        String response = request(head.toString());
+        assertEquals("HTTP/1.1 431 Request Header Fields Too Large", statusLine(response));
+    }
+
+    @Test
+    public void base64DecodesPaddedAndUnpaddedInput() {
+        assertArrayEquals("a:b".getBytes(UTF_8), MetricsServer.decodeBase64("YTpi"));
+        assertArrayEquals("ab".getBytes(UTF_8), MetricsServer.decodeBase64("YWI="));
+        assertArrayEquals("ab".getBytes(UTF_8), MetricsServer.decodeBase64("YWI"));
+        assertArrayEquals(new byte[0], MetricsServer.decodeBase64(""));
+        assertNull(MetricsServer.decodeBase64("YWJjZ"));
+        assertNull(MetricsServer.decodeBase64("Y*=="));
+        assertNull(MetricsServer.decodeBase64("YQ==="));
+    }
+
+    private static String metricsRequest(String credentials) {
+        String token = Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8));
+        return "GET /metrics HTTP/1.1\r\nHost: kiosk\r\nAuthorization: Basic " + token
+                + "\r\n\r\n";
+    }
+
+    private static String statusLine(String response) {
+        return response.substring(0, response.indexOf("\r\n"));
+    }
+
+    // Sends one request and reads until the server closes the connection
+    private String request(String head) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(head.getBytes(UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), UTF_8);
+        } finally {
+            socket.close();
+        }
+    }
+
+    // The server binds on its own thread
+    private void awaitListening() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new AssertionError("Metrics server did not start on port " + port);
+    }
+}
@@ -0,0 +1,80 @@
+package com.kiosk.webviewlauncher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded touch events for replaying into a {@link GestureEngine}, built the
+ * way MotionEvents arrive from a panel: pointer downs one finger at a time,
+ * moves every frame. Events are stored flat and copied into one reused
+ * {@link TouchSample}, so a replay allocates nothing.
+ */
+final class TouchTrace {
+
+    private static final long FRAME_MS = 16;
+
+    private final List<double[]> events = new ArrayList<double[]>();
+    private long timeMs = 0;
+
+    /** One single-finger tap at {@code (x, y)}, then {@code gapMs} of idle time. */
+    TouchTrace tap(float x, float y, long gapMs) {
+        add(TouchSample.ACTION_DOWN, x, y, 1);
+        timeMs += 60;
+        add(TouchSample.ACTION_UP, x, y, 1);
+        timeMs += gapMs;
+        return this;
+    }
+
+    /** {@code fingers} fingers moving together by {@code dy} over {@code durationMs}. */
+    TouchTrace swipe(int fingers, float y, float dy, long durationMs) {
+        for (int f = 1; f <= fingers; f++) {
+            add(f == 1 ? TouchSample.ACTION_DOWN : TouchSample.ACTION_POINTER_DOWN, 300, y, f);
+            timeMs += 8;
+        }
+        int frames = (int) Math.max(1, durationMs / FRAME_MS);
+        for (int i = 1; i <= frames; i++) {
+            timeMs += FRAME_MS;
+            add(TouchSample.ACTION_MOVE, 300, y + dy * i / frames, fingers);
+        }
+        for (int f = fingers; f >= 1; f--) {
+            add(f == 1 ? TouchSample.ACTION_UP : TouchSample.ACTION_POINTER_UP, 300, y + dy, f);
+            timeMs += 8;
+        }
+        return this;
+    }
+
+    /** Ordinary one-finger page scrolling, which must never trigger an admin gesture. */
+    TouchTrace scroll(float dy, long durationMs) {
+        return swipe(1, 900, dy, durationMs);
+    }
+
+    TouchTrace idle(long ms) {
+        timeMs += ms;
+        return this;
+    }
+
+    int size() {
+        return events.size();
+    }
+
+    /** Feeds every event to {@code engine}; {@code offsetMs} shifts the timestamps. */
+    void replay(GestureEngine engine, TouchSample sample, long offsetMs) {
+        for (int i = 0; i < events.size(); i++) {
+            double[] e = events.get(i);
+            int pointers = (int) e[1];
+            sample.set((int) e[0], pointers, offsetMs + (long) e[2]);
+            for (int p = 0; p < pointers; p++) {
+                sample.setPointer(p, (float) e[3] + p * 40, (float) e[4]);
+            }
+            engine.onTouch(sample);
+        }
+    }
+
+    long durationMs() {
+        return timeMs;
+    }
+
+    private void add(int action, float x, float y, int pointers) {
+        events.add(new double[] {action, pointers, timeMs, x, y});
+    }
+}